@@ -0,0 +1,227 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.io.Serializable;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+public final class AtomicHash64Store<K,V> extends BitmapTrie<AtomicHash64Store<K,V>> {
+
+    /*
+     * Persistent store for very large amounts of keys, positioning keys by a 64-bit hash instead of the
+     * 32-bit one used by AtomicHashStore. With 32-bit hashes, birthday collisions become common past a few
+     * hundred million keys and pile up in linear collision buckets; with 64-bit hashes keys only collide
+     * if their 64-bit hashes are equal.
+     *
+     * Hashes are computed by the Hasher64 fixed for the store at creation time. The default one uses
+     * Key64#hash64() for keys implementing Key64, and a 64-bit mix of hashCode() for the rest (which
+     * of course cannot add entropy to 32-bit hash codes, so keys should implement Key64 or a specific
+     * Hasher64 should be used in order to benefit from this store).
+     *
+     * Node structure is that of BitmapTrie, with levels consuming all 64 bits of the hash. Size is kept
+     * as a long (see mappingCount()).
+     */
+
+    private static final long serialVersionUID = -2839150472006612385L;
+
+    private static final Object[] NO_OBJECTS = new Object[0];
+
+    private static final Hasher64<Object> DEFAULT_HASHER = new DefaultHasher64();
+    private static final AtomicHash64Store INSTANCE =
+            new AtomicHash64Store<>(new Node(0, 0, NO_OBJECTS, NO_OBJECTS, NO_NODES), 0L, DEFAULT_HASHER);
+
+
+    private final Hasher64<? super K> hasher;
+
+
+
+    private AtomicHash64Store(final Node root, final long size, final Hasher64<? super K> hasher) {
+        super(root, size, 64);
+        this.hasher = hasher;
+    }
+
+
+
+
+    static long fmix64(final long hash) {
+        // Murmur3 fmix64, which is bijective
+        return AtomicLongObjStore.hash(hash);
+    }
+
+
+    private long hash(final Object key) {
+        return (key == null) ? 0L : ((Hasher64<Object>) this.hasher).hash64(key);
+    }
+
+
+    @Override
+    AtomicHash64Store<K,V> withRoot(final Node root, final long size) {
+        return new AtomicHash64Store<>(root, size, this.hasher);
+    }
+
+
+    @Override
+    Object newKeys(final int length) {
+        return (length == 0) ? NO_OBJECTS : new Object[length];
+    }
+
+
+    @Override
+    Object newValues(final int length) {
+        return (length == 0) ? NO_OBJECTS : new Object[length];
+    }
+
+
+    @Override
+    long hashAt(final Object keys, final int idx) {
+        return hash(((Object[]) keys)[idx]);
+    }
+
+
+    @Override
+    boolean matches(final Object keys, final int idx, final long hash, final Object key) {
+        final Object k = ((Object[]) keys)[idx];
+        return k == null ? key == null : k.equals(key);
+    }
+
+
+    @Override
+    boolean sameValue(final Object values, final int idx, final Object newValues) {
+        return ((Object[]) values)[idx] == ((Object[]) newValues)[0];
+    }
+
+
+    @Override
+    Object keyAt(final Object keys, final int idx) {
+        return ((Object[]) keys)[idx];
+    }
+
+
+    @Override
+    Object valueAt(final Object values, final int idx) {
+        return ((Object[]) values)[idx];
+    }
+
+
+
+
+    public Hasher64<? super K> hasher() {
+        return this.hasher;
+    }
+
+
+    public boolean containsKey(final Object key) {
+        return find(hash(key), key, new int[1]) != null;
+    }
+
+
+    public V get(final Object key) {
+        return getOrDefault(key, null);
+    }
+
+
+    public V getOrDefault(final Object key, final V defaultValue) {
+        final int[] index = new int[1];
+        final Node node = find(hash(key), key, index);
+        return (node != null) ? (V) ((Object[]) node.values)[index[0]] : defaultValue;
+    }
+
+
+
+
+    public AtomicHash64Store<K,V> put(final K key, final V value) {
+        return put(hash(key), key, new Object[] { key }, new Object[] { value });
+    }
+
+
+    public AtomicHash64Store<K,V> remove(final Object key) {
+        return remove(hash(key), key);
+    }
+
+
+    @Override
+    public AtomicHash64Store<K,V> clear() {
+        return (this.hasher == DEFAULT_HASHER) ? of() : of(this.hasher);
+    }
+
+
+    public void forEach(final BiConsumer<? super K, ? super V> action) {
+        Objects.requireNonNull(action);
+        forEachEntry((node, i) -> action.accept((K) ((Object[]) node.keys)[i], (V) ((Object[]) node.values)[i]));
+    }
+
+
+
+
+    public static <K,V> AtomicHash64Store<K,V> of() {
+        return INSTANCE;
+    }
+
+
+    public static <K,V> AtomicHash64Store<K,V> of(final Hasher64<? super K> hasher) {
+        Objects.requireNonNull(hasher);
+        return new AtomicHash64Store<>(INSTANCE.root, 0L, hasher);
+    }
+
+
+    private Object readResolve() {
+        // Keeps the default empty store a singleton
+        return (this.size == 0L && this.hasher == DEFAULT_HASHER) ? INSTANCE : this;
+    }
+
+
+
+
+    /**
+     * Keys can implement this interface in order to provide their own 64-bit hashes to stores using
+     * the default Hasher64.
+     */
+    public interface Key64 {
+
+        long hash64();
+
+    }
+
+
+    @FunctionalInterface
+    public interface Hasher64<K> extends Serializable {
+
+        long hash64(final K key);
+
+    }
+
+
+    private static final class DefaultHasher64 implements Hasher64<Object> {
+
+        private static final long serialVersionUID = 4961170036104442751L;
+
+        @Override
+        public long hash64(final Object key) {
+            return (key instanceof Key64) ? ((Key64) key).hash64() : fmix64(key.hashCode());
+        }
+
+        private Object readResolve() {
+            return DEFAULT_HASHER;
+        }
+
+    }
+
+}
@@ -0,0 +1,663 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.ToIntBiFunction;
+
+public class AtomicHashCache<K,V> {
+
+    /*
+     * Bounded cache based on AtomicHashStore snapshots. Reads are performed on the current store without
+     * locking and without allocating, and only record the access in a lossy, striped read buffer. Writes
+     * are applied on the store by CAS (as in AtomicHashMap) and then recorded in a write buffer.
+     *
+     * Eviction follows the W-TinyLFU policy: new entries enter a small LRU window, and once they leave it
+     * they compete for a place in the main space (a segmented LRU with probation and protected areas) against
+     * the probation victim, the winner being the one with higher estimated frequency of use according to
+     * a FrequencySketch. Policy structures are only touched by the maintenance task, which drains the
+     * buffers under a lock, normally in the configured executor. Entries selected for eviction are removed
+     * from the store all at once by means of a StoreEditor, so each eviction batch is a single CAS.
+     *
+     * The maximum size (or weight) is therefore not strictly enforced at every moment, but re-established
+     * as soon as the maintenance task executes.
+     */
+
+    private static final int READ_BUFFER_SIZE = 16;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+    private static final int READ_BUFFER_STRIPES =
+            Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1;
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+
+    private final AtomicReference<AtomicHashStore<K,V>> data;
+    // Null for key equality, same as in AtomicHashStore
+    private final Equivalence<Object> equivalence;
+
+    private final long maximum;
+    private final ToIntBiFunction<? super K, ? super V> weigher; // null if bounded by size
+    private final Executor executor;
+
+    private final ReadBuffer[] readBuffers;
+    private final Queue<WriteEvent<K>> writeBuffer;
+    private final AtomicBoolean drainScheduled;
+    private final ReentrantLock maintenanceLock;
+
+    // Policy structures: only accessed with the maintenance lock held
+    private final FrequencySketch sketch;
+    private final Map<Object,PolicyNode<K>> policyNodes;
+    private final AccessOrder<K>[] regions;
+    private final long[] regionWeights;
+    private final long maxWindowWeight;
+    private final long maxProtectedWeight;
+
+
+
+
+    public AtomicHashCache(final long maximumSize) {
+        this(maximumSize, null, ForkJoinPool.commonPool());
+    }
+
+
+    /**
+     * @param maximum maximum size of the cache, or maximum total weight if a weigher is specified.
+     * @param weigher the weigher for entries, null for bounding by size (all entries weigh 1).
+     * @param executor the executor maintenance tasks will be run on.
+     */
+    public AtomicHashCache(
+            final long maximum, final ToIntBiFunction<? super K, ? super V> weigher, final Executor executor) {
+        this(maximum, weigher, executor, Equivalence.equality());
+    }
+
+
+    /**
+     * @param maximum maximum size of the cache, or maximum total weight if a weigher is specified.
+     * @param weigher the weigher for entries, null for bounding by size (all entries weigh 1).
+     * @param executor the executor maintenance tasks will be run on.
+     * @param keyEquivalence the equivalence used for comparing and hashing keys.
+     */
+    public AtomicHashCache(
+            final long maximum, final ToIntBiFunction<? super K, ? super V> weigher, final Executor executor,
+            final Equivalence<? super K> keyEquivalence) {
+
+        super();
+
+        if (maximum <= 0L) {
+            throw new IllegalArgumentException("Maximum must be greater than zero");
+        }
+        Objects.requireNonNull(executor);
+        Objects.requireNonNull(keyEquivalence);
+
+        this.data = new AtomicReference<>(AtomicHashStore.<K,V>of(keyEquivalence));
+        this.equivalence =
+                (keyEquivalence == Equivalence.equality()) ? null : (Equivalence<Object>) keyEquivalence;
+        this.maximum = maximum;
+        this.weigher = weigher;
+        this.executor = executor;
+
+        this.readBuffers = new ReadBuffer[READ_BUFFER_STRIPES];
+        for (int i = 0; i < this.readBuffers.length; i++) {
+            this.readBuffers[i] = new ReadBuffer();
+        }
+        this.writeBuffer = new ConcurrentLinkedQueue<>();
+        this.drainScheduled = new AtomicBoolean(false);
+        this.maintenanceLock = new ReentrantLock();
+
+        this.sketch = new FrequencySketch();
+        this.policyNodes = new HashMap<>();
+        this.regions = new AccessOrder[] { new AccessOrder<K>(), new AccessOrder<K>(), new AccessOrder<K>() };
+        this.regionWeights = new long[3];
+        this.maxWindowWeight = Math.max(1L, maximum / 100L);
+        this.maxProtectedWeight = (long) ((maximum - this.maxWindowWeight) * 0.8d);
+
+    }
+
+
+
+
+    public AtomicHashStore<K,V> store() {
+        return this.data.get();
+    }
+
+
+    public int size() {
+        return this.data.get().size();
+    }
+
+
+
+
+    public V get(final Object key) {
+        final V value = this.data.get().get(key);
+        if (value != null) {
+            recordRead(key);
+        }
+        return value;
+    }
+
+
+    public V put(final K key, final V value) {
+        Objects.requireNonNull(value);
+        final int weight = weigh(key, value);
+        final ValueConsumer<V> vc = new ValueConsumer<>();
+        AtomicHashStore<K,V> store;
+        do {
+            store = this.data.get();
+        } while (!this.data.compareAndSet(store, store.put(key, value, vc)));
+        recordWrite(new WriteEvent<>(key, weight));
+        return vc.val;
+    }
+
+
+    public V computeIfAbsent(final K key, final Function<? super K, ? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        final V value = get(key);
+        if (value != null) {
+            return value;
+        }
+        final ValueConsumer<V> vc = new ValueConsumer<>();
+        AtomicHashStore<K,V> store;
+        AtomicHashStore<K,V> newStore;
+        do {
+            store = this.data.get();
+            newStore = store.computeIfAbsent(key, mappingFunction, vc);
+        } while (!this.data.compareAndSet(store, newStore));
+        if (newStore != store) {
+            recordWrite(new WriteEvent<>(key, weigh(key, vc.val)));
+        }
+        return vc.val;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    public V remove(final Object key) {
+        final ValueConsumer<V> vc = new ValueConsumer<>();
+        AtomicHashStore<K,V> store;
+        AtomicHashStore<K,V> newStore;
+        do {
+            store = this.data.get();
+            newStore = store.remove(key, vc);
+        } while (!this.data.compareAndSet(store, newStore));
+        if (newStore != store) {
+            recordWrite(new WriteEvent<>((K) key, -1));
+        }
+        return vc.val;
+    }
+
+
+    public void clear() {
+        // The clear event must be queued before the data is cleared, so that events for entries put afterwards
+        // are not wiped out by it during maintenance
+        recordWrite(new WriteEvent<>(null, -1));
+        this.data.set(this.data.get().clear());
+    }
+
+
+
+
+    public void cleanUp() {
+        // Performs any pending maintenance in the calling thread
+        this.maintenanceLock.lock();
+        try {
+            this.drainScheduled.set(false);
+            maintain();
+        } finally {
+            this.maintenanceLock.unlock();
+        }
+        if (this.drainScheduled.get()) {
+            // A drain was requested while we held the lock, and its attempt to acquire it may have failed
+            drain();
+        }
+    }
+
+
+
+
+    private int weigh(final K key, final V value) {
+        if (this.weigher == null) {
+            return 1;
+        }
+        final int weight = this.weigher.applyAsInt(key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("Weights cannot be negative");
+        }
+        return weight;
+    }
+
+
+    private void recordRead(final Object key) {
+        final ReadBuffer buffer =
+                this.readBuffers[((int) Thread.currentThread().getId() * 0x9E3779B9 >>> 16) & (READ_BUFFER_STRIPES - 1)];
+        if (!buffer.offer(key)) {
+            // Buffer full: reads keep being dropped until maintenance drains it, which is fine for a policy
+            scheduleDrain();
+        }
+    }
+
+
+    private void recordWrite(final WriteEvent<K> event) {
+        // Writes are never dropped
+        this.writeBuffer.add(event);
+        scheduleDrain();
+    }
+
+
+    private void scheduleDrain() {
+        if (this.drainScheduled.get() || !this.drainScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            this.executor.execute(this::drain);
+        } catch (final RejectedExecutionException e) {
+            // Drain in the calling thread, unless it is already performing maintenance (e.g. when the drain
+            // was requested from inside maintain()), in which case it will notice the flag once it is done
+            if (!this.maintenanceLock.isHeldByCurrentThread()) {
+                drain();
+            }
+        }
+    }
+
+
+    private void drain() {
+        // drainScheduled is cleared only while holding the lock. If the lock cannot be acquired, the flag is
+        // left set and the current holder, which checks it after releasing the lock, takes care of the work.
+        while (this.maintenanceLock.tryLock()) {
+            try {
+                this.drainScheduled.set(false);
+                maintain();
+            } finally {
+                this.maintenanceLock.unlock();
+            }
+            if (!this.drainScheduled.get()) {
+                return;
+            }
+        }
+    }
+
+
+
+
+    private void maintain() {
+
+        for (int i = 0; i < this.readBuffers.length; i++) {
+            this.readBuffers[i].drainTo(this);
+        }
+
+        WriteEvent<K> event;
+        while ((event = this.writeBuffer.poll()) != null) {
+            onWrite(event);
+        }
+
+        final List<K> victims = evict();
+        if (!victims.isEmpty()) {
+            removeVictims(victims);
+        }
+
+    }
+
+
+    private Object policyKey(final Object key) {
+        // Policy structures are plain HashMaps, so keys need wrapping if they are not compared by equality
+        return (this.equivalence == null) ? key : new EquivalentKey(key, this.equivalence);
+    }
+
+
+    private void onRead(final Object key) {
+        final Object policyKey = policyKey(key);
+        final PolicyNode<K> node = this.policyNodes.get(policyKey);
+        if (node == null) {
+            return;
+        }
+        this.sketch.increment(policyKey);
+        onAccess(node);
+    }
+
+
+    private void onAccess(final PolicyNode<K> node) {
+        if (node.region == PROBATION) {
+            // Promoted to the protected area, which might push someone else back to probation
+            move(node, PROTECTED);
+            PolicyNode<K> demoted;
+            while (this.regionWeights[PROTECTED] > this.maxProtectedWeight &&
+                    (demoted = this.regions[PROTECTED].head()) != null) {
+                move(demoted, PROBATION);
+            }
+        } else {
+            this.regions[node.region].moveToTail(node);
+        }
+    }
+
+
+    private void onWrite(final WriteEvent<K> event) {
+
+        if (event.weight < 0) {
+            if (event.key == null) {
+                // Cache was cleared
+                this.policyNodes.clear();
+                for (int i = 0; i < this.regions.length; i++) {
+                    this.regions[i].clear();
+                    this.regionWeights[i] = 0L;
+                }
+                return;
+            }
+            final PolicyNode<K> node = this.policyNodes.remove(policyKey(event.key));
+            if (node != null) {
+                this.regions[node.region].remove(node);
+                this.regionWeights[node.region] -= node.weight;
+            }
+            return;
+        }
+
+        final Object policyKey = policyKey(event.key);
+        this.sketch.increment(policyKey);
+
+        final PolicyNode<K> node = this.policyNodes.get(policyKey);
+        if (node != null) {
+            this.regionWeights[node.region] += (event.weight - node.weight);
+            node.weight = event.weight;
+            onAccess(node);
+            return;
+        }
+
+        if (!this.data.get().containsKey(event.key)) {
+            // Removed in the meantime, and its removal has already been processed
+            return;
+        }
+
+        final PolicyNode<K> newNode = new PolicyNode<>(event.key, event.weight, WINDOW);
+        this.policyNodes.put(policyKey, newNode);
+        this.sketch.ensureCapacity(this.policyNodes.size());
+        this.regions[WINDOW].addToTail(newNode);
+        this.regionWeights[WINDOW] += event.weight;
+
+    }
+
+
+    private List<K> evict() {
+
+        final List<K> victims = new ArrayList<>();
+
+        // Entries leaving the window become candidates for the main space, placed at the tail of probation
+        PolicyNode<K> node;
+        while (this.regionWeights[WINDOW] > this.maxWindowWeight && (node = this.regions[WINDOW].head()) != null) {
+            move(node, PROBATION);
+        }
+
+        while (this.regionWeights[WINDOW] + this.regionWeights[PROBATION] + this.regionWeights[PROTECTED] > this.maximum) {
+
+            final PolicyNode<K> victim = this.regions[PROBATION].head();
+            final PolicyNode<K> candidate = this.regions[PROBATION].tail();
+
+            final PolicyNode<K> evicted;
+            if (victim == null) {
+                // Probation is empty, so we have to evict from the other areas
+                evicted = (this.regions[PROTECTED].head() != null) ? this.regions[PROTECTED].head() : this.regions[WINDOW].head();
+            } else if (victim == candidate) {
+                evicted = victim;
+            } else {
+                // TinyLFU admission: the candidate only enters if it is more popular than the victim
+                evicted =
+                        (this.sketch.frequency(policyKey(candidate.key)) > this.sketch.frequency(policyKey(victim.key))) ?
+                                victim : candidate;
+            }
+
+            if (evicted == null) {
+                break;
+            }
+            this.policyNodes.remove(policyKey(evicted.key));
+            this.regions[evicted.region].remove(evicted);
+            this.regionWeights[evicted.region] -= evicted.weight;
+            victims.add(evicted.key);
+
+        }
+
+        return victims;
+
+    }
+
+
+    private void move(final PolicyNode<K> node, final int region) {
+        this.regions[node.region].remove(node);
+        this.regionWeights[node.region] -= node.weight;
+        node.region = region;
+        this.regions[region].addToTail(node);
+        this.regionWeights[region] += node.weight;
+    }
+
+
+    private void removeVictims(final List<K> victims) {
+
+        // Entries are only removed if they have not been replaced since they were selected, as in that case
+        // the write will have been recorded and the key re-entered the policy
+        final AtomicHashStore<K,V> selected = this.data.get();
+        final List<HashEntry<K,V>> entries = new ArrayList<>(victims.size());
+        for (final K key : victims) {
+            entries.add(selected.getEntry(selected.keyHash(key), key));
+        }
+
+        AtomicHashStore<K,V> store;
+        StoreEditor<K,V> editor;
+        HashEntry<K,V> entry;
+        do {
+            store = this.data.get();
+            editor = store.edit();
+            for (int i = 0; i < entries.size(); i++) {
+                entry = entries.get(i);
+                if (entry != null && editor.getEntry(entry.key) == entry) {
+                    editor.remove(entry.key);
+                }
+            }
+        } while (!this.data.compareAndSet(store, editor.toStore()));
+
+    }
+
+
+
+
+    private static final class ReadBuffer {
+
+        // Lossy: if full, reads are simply not recorded
+        private final AtomicReferenceArray<Object> slots = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+        private final AtomicLong writeCounter = new AtomicLong(0L);
+        private volatile long readCounter = 0L;
+
+        boolean offer(final Object key) {
+            final long write = this.writeCounter.get();
+            if (write - this.readCounter >= READ_BUFFER_SIZE) {
+                return false;
+            }
+            if (this.writeCounter.compareAndSet(write, write + 1)) {
+                this.slots.lazySet((int) (write & READ_BUFFER_MASK), key);
+            }
+            return true;
+        }
+
+        <K,V> void drainTo(final AtomicHashCache<K,V> cache) {
+            long read = this.readCounter;
+            final long write = this.writeCounter.get();
+            Object key;
+            while (read < write) {
+                final int index = (int) (read & READ_BUFFER_MASK);
+                key = this.slots.get(index);
+                if (key == null) {
+                    // Slot claimed but not written yet, we will process it next time
+                    break;
+                }
+                this.slots.lazySet(index, null);
+                cache.onRead(key);
+                read++;
+            }
+            this.readCounter = read;
+        }
+
+    }
+
+
+    private static final class WriteEvent<K> {
+
+        final K key;
+        final int weight; // -1 for removals
+
+        WriteEvent(final K key, final int weight) {
+            super();
+            this.key = key;
+            this.weight = weight;
+        }
+
+    }
+
+
+    private static final class PolicyNode<K> {
+
+        final K key;
+        int weight;
+        int region;
+        PolicyNode<K> prev;
+        PolicyNode<K> next;
+
+        PolicyNode(final K key, final int weight, final int region) {
+            super();
+            this.key = key;
+            this.weight = weight;
+            this.region = region;
+        }
+
+    }
+
+
+    private static final class EquivalentKey {
+
+        final Object key;
+        final Equivalence<Object> equivalence;
+
+        EquivalentKey(final Object key, final Equivalence<Object> equivalence) {
+            super();
+            this.key = key;
+            this.equivalence = equivalence;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof EquivalentKey)) {
+                return false;
+            }
+            final Object other = ((EquivalentKey) o).key;
+            if (this.key == other) {
+                return true;
+            }
+            return this.key != null && other != null && this.equivalence.equivalent(this.key, other);
+        }
+
+        @Override
+        public int hashCode() {
+            return (this.key == null) ? 0 : this.equivalence.hash(this.key);
+        }
+
+    }
+
+
+    private static final class AccessOrder<K> {
+
+        // Doubly-linked list, from least to most recently accessed
+        private PolicyNode<K> head;
+        private PolicyNode<K> tail;
+
+        PolicyNode<K> head() {
+            return this.head;
+        }
+
+        PolicyNode<K> tail() {
+            return this.tail;
+        }
+
+        void addToTail(final PolicyNode<K> node) {
+            node.prev = this.tail;
+            node.next = null;
+            if (this.tail == null) {
+                this.head = node;
+            } else {
+                this.tail.next = node;
+            }
+            this.tail = node;
+        }
+
+        void remove(final PolicyNode<K> node) {
+            if (node.prev == null) {
+                this.head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                this.tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+        }
+
+        void moveToTail(final PolicyNode<K> node) {
+            if (node != this.tail) {
+                remove(node);
+                addToTail(node);
+            }
+        }
+
+        void clear() {
+            this.head = null;
+            this.tail = null;
+        }
+
+    }
+
+
+    private static class ValueConsumer<V> implements java.util.function.Consumer<V> {
+
+        private V val = null;
+
+        @Override
+        public void accept(final V v) {
+            this.val = v;
+        }
+
+    }
+
+}
@@ -0,0 +1,227 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+public class AtomicHashCounter<K> implements Serializable {
+
+    /*
+     * Concurrent map of counters. Counts for rare keys are kept as primitive longs in an AtomicObjLongStore
+     * (the "cold" store) and updated by CAS, like AtomicObjLongHashMap.addAndGet() does. Keys whose updates
+     * suffer CAS contention with updates on the very same key get promoted to a striped LongAdder cell living
+     * in a separate "hot" store, and from then on they are incremented without path-copying, CAS'ing the root
+     * or boxing. CAS failures caused by updates on other keys are simply retried, and the amount of hot keys
+     * is capped (keys are never demoted, as increments on a cell being demoted could be lost).
+     *
+     * The count of a key is the sum of its cold value and its hot cell (if any). Values never move from one
+     * to the other (the cold value of a promoted key simply stops changing), so reads and snapshots never
+     * count an increment twice, though -- as with LongAdder.sum() -- they are not atomic with respect to
+     * increments that happen concurrently with them.
+     */
+
+    private static final long serialVersionUID = -3305716207736091827L;
+
+    // Number of CAS operations on the cold store failed during a single update because of concurrent
+    // updates on the same key, after which the key is promoted
+    private static final int PROMOTION_THRESHOLD = 2;
+
+    private final AtomicReference<AtomicObjLongStore<K>> cold;
+    private final AtomicReference<AtomicHashStore<K,LongAdder>> hot;
+    private final int maxHotKeys;
+
+
+
+    public AtomicHashCounter() {
+        this(4 * Runtime.getRuntime().availableProcessors());
+    }
+
+
+    /**
+     * @param maxHotKeys the maximum number of keys that can be promoted to LongAdder cells.
+     */
+    public AtomicHashCounter(final int maxHotKeys) {
+        this(maxHotKeys, Equivalence.equality());
+    }
+
+
+    /**
+     * @param maxHotKeys the maximum number of keys that can be promoted to LongAdder cells.
+     * @param keyEquivalence the equivalence used for comparing and hashing keys.
+     */
+    public AtomicHashCounter(final int maxHotKeys, final Equivalence<? super K> keyEquivalence) {
+        super();
+        if (maxHotKeys < 0) {
+            throw new IllegalArgumentException("Maximum number of hot keys cannot be negative");
+        }
+        this.cold = new AtomicReference<>(AtomicObjLongStore.<K>of(keyEquivalence));
+        this.hot = new AtomicReference<>(AtomicHashStore.<K,LongAdder>of(keyEquivalence));
+        this.maxHotKeys = maxHotKeys;
+    }
+
+
+
+
+    public void increment(final K key) {
+        add(key, 1L);
+    }
+
+
+    public void add(final K key, final long delta) {
+
+        final LongAdder cell = this.hot.get().get(key);
+        if (cell != null) {
+            cell.add(delta);
+            return;
+        }
+
+        AtomicObjLongStore<K> store;
+        long value;
+        int failures = 0;
+        LongAdder promoted;
+        while (true) {
+            store = this.cold.get();
+            value = store.get(key);
+            if (this.cold.compareAndSet(store, store.put(key, value + delta))) {
+                return;
+            }
+            // Only failures caused by updates on this same key count as contention on the key
+            if (this.cold.get().get(key) != value
+                    && ++failures >= PROMOTION_THRESHOLD && (promoted = promote(key)) != null) {
+                promoted.add(delta);
+                return;
+            }
+        }
+
+    }
+
+
+    private LongAdder promote(final K key) {
+        // Returns null if the key cannot be promoted because the maximum number of hot keys has been reached
+        AtomicHashStore<K,LongAdder> store;
+        LongAdder cell;
+        final LongAdder newCell = new LongAdder();
+        do {
+            store = this.hot.get();
+            cell = store.get(key);
+            if (cell != null) {
+                return cell;
+            }
+            if (store.size() >= this.maxHotKeys) {
+                return null;
+            }
+        } while (!this.hot.compareAndSet(store, store.put(key, newCell)));
+        return newCell;
+    }
+
+
+
+
+    public long get(final Object key) {
+        final LongAdder cell = this.hot.get().get(key);
+        return this.cold.get().get(key) + (cell != null ? cell.sum() : 0L);
+    }
+
+
+    public boolean containsKey(final Object key) {
+        return this.cold.get().containsKey(key) || this.hot.get().containsKey(key);
+    }
+
+
+    public boolean isEmpty() {
+        return this.cold.get().isEmpty() && this.hot.get().isEmpty();
+    }
+
+
+    /**
+     * Sum of all counters.
+     */
+    public long sum() {
+        final long[] sum = new long[] { 0L };
+        this.cold.get().forEach((k, v) -> sum[0] += v);
+        this.hot.get().forEach((k, cell) -> sum[0] += cell.sum());
+        return sum[0];
+    }
+
+
+    public int hotKeyCount() {
+        return this.hot.get().size();
+    }
+
+
+    /**
+     * Folds both cold counts and hot cells into a single immutable store.
+     */
+    public AtomicHashStore<K,Long> snapshot() {
+        final AtomicObjLongStore<K> coldStore = this.cold.get();
+        final AtomicHashStore<K,LongAdder> hotStore = this.hot.get();
+        final StoreEditor<K,Long> editor = AtomicHashStore.<K,Long>of(coldStore.equivalence()).edit();
+        coldStore.forEach((k, v) -> editor.put(k, Long.valueOf(v)));
+        hotStore.forEach((k, cell) -> {
+            final Long value = editor.get(k);
+            editor.put(k, Long.valueOf((value != null ? value.longValue() : 0L) + cell.sum()));
+        });
+        return editor.toStore();
+    }
+
+
+
+
+    /**
+     * Removes the counter for the key, returning its value. Increments on a hot cell that happen
+     * concurrently with its removal might be lost.
+     */
+    public long remove(final Object key) {
+
+        AtomicHashStore<K,LongAdder> hotStore;
+        LongAdder cell;
+        do {
+            hotStore = this.hot.get();
+            cell = hotStore.get(key);
+        } while (cell != null && !this.hot.compareAndSet(hotStore, hotStore.remove(key)));
+
+        AtomicObjLongStore<K> coldStore;
+        long value;
+        do {
+            coldStore = this.cold.get();
+            value = coldStore.get(key);
+        } while (!this.cold.compareAndSet(coldStore, coldStore.remove(key)));
+
+        return value + (cell != null ? cell.sum() : 0L);
+
+    }
+
+
+    public void clear() {
+        this.hot.set(this.hot.get().clear());
+        this.cold.set(this.cold.get().clear());
+    }
+
+
+
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+
+}
@@ -20,21 +20,38 @@
 package org.osscolib.atomichash;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 
 public class AtomicHashMap<K,V> implements Map<K,V>, Serializable {
 
     private static final long serialVersionUID = 2626373528770987645L;
 
+    private static final AtomicReferenceFieldUpdater<AtomicHashMap,PendingComputations> PENDING_COMPUTATIONS =
+            AtomicReferenceFieldUpdater.newUpdater(AtomicHashMap.class, PendingComputations.class, "pendingComputations");
+    private static final AtomicReferenceFieldUpdater<AtomicHashMap,ChangeSubscription[]> SUBSCRIPTIONS =
+            AtomicReferenceFieldUpdater.newUpdater(AtomicHashMap.class, ChangeSubscription[].class, "subscriptions");
+
     private final AtomicReference<AtomicHashStore<K,V>> innerMap;
+    // Only created if computeIfAbsentOnce is ever called, and not serialized
+    private transient volatile PendingComputations<K,V> pendingComputations;
+    // Null if there are no subscribers, and not serialized either
+    private transient volatile ChangeSubscription<K,V>[] subscriptions;
 
 
 
@@ -45,6 +62,11 @@ public AtomicHashMap() {
     }
 
 
+    public AtomicHashMap(final Equivalence<? super K> keyEquivalence) {
+        this(AtomicHashStore.<K,V>of(keyEquivalence));
+    }
+
+
     public AtomicHashMap(final Map<? extends K, ? extends V> m) {
 
         super();
@@ -73,11 +95,149 @@ private AtomicHashMap(final AtomicHashStore<K,V> store) {
 
 
 
-    AtomicHashStore<K,V> store() {
+    public AtomicHashStore<K,V> store() {
+        final AtomicHashStore<K,V> store = this.innerMap.get();
+        if (store instanceof AtomicHashTransaction.Pending) {
+            // A transaction is being committed on this map. Reading does not interfere with the commit.
+            return ((AtomicHashTransaction.Pending<K,V>) store).resolve();
+        }
+        return store;
+    }
+
+
+    private AtomicHashStore<K,V> current() {
+        // Unlike store(), this is meant to be called before modifying the map, so it will make sure that the
+        // store returned is the one actually set, finishing (maybe aborting) any transactions being committed.
+        AtomicHashStore<K,V> store = this.innerMap.get();
+        while (store instanceof AtomicHashTransaction.Pending) {
+            // Through compareAndSetRaw() so that subscribers are signalled if we are the ones installing a
+            // committed result (the committer's own attempt to uninstall the descriptor will then fail)
+            compareAndSetRaw(store, ((AtomicHashTransaction.Pending<K,V>) store).finish());
+            store = this.innerMap.get();
+        }
+        return store;
+    }
+
+
+    AtomicHashStore<K,V> rawStore() {
         return this.innerMap.get();
     }
 
 
+    boolean compareAndSetRaw(final AtomicHashStore<K,V> expected, final AtomicHashStore<K,V> replacement) {
+        if (replacement instanceof AtomicHashTransaction.Pending) {
+            // Installing a transaction descriptor does not change what readers see
+            return this.innerMap.compareAndSet(expected, replacement);
+        }
+        return publish(expected, replacement);
+    }
+
+
+    private boolean publish(final AtomicHashStore<K,V> expected, final AtomicHashStore<K,V> replacement) {
+        if (!this.innerMap.compareAndSet(expected, replacement)) {
+            return false;
+        }
+        final ChangeSubscription<K,V>[] subs;
+        if (expected != replacement && (subs = this.subscriptions) != null) {
+            // Writers only signal subscribers, changes are computed by the subscribers themselves
+            for (int i = 0; i < subs.length; i++) {
+                subs[i].signal();
+            }
+        }
+        return true;
+    }
+
+
+
+
+    public boolean compareAndSet(final AtomicHashStore<K,V> expected, final AtomicHashStore<K,V> replacement) {
+        Objects.requireNonNull(replacement);
+        current();
+        return publish(expected, replacement);
+    }
+
+
+    public AtomicHashStore<K,V> updateAndGet(final UnaryOperator<AtomicHashStore<K,V>> updateFunction) {
+        // The update function might be executed several times if there is contention
+        Objects.requireNonNull(updateFunction);
+        AtomicHashStore<K,V> store;
+        AtomicHashStore<K,V> newStore;
+        do {
+            store = current();
+            newStore = Objects.requireNonNull(updateFunction.apply(store));
+        } while(!publish(store, newStore));
+        return newStore;
+    }
+
+
+
+
+    public List<V> apply(final WriteBatch<K,V> batch) {
+        Objects.requireNonNull(batch);
+        final Object[] results = new Object[batch.size()];
+        AtomicHashStore<K,V> store;
+        do {
+            store = current();
+        } while(!publish(store, batch.applyTo(store, results)));
+        return WriteBatch.resultsOf(results);
+    }
+
+
+
+
+    public ChangeSubscription<K,V> subscribe(
+            final Consumer<? super List<AtomicHashStore.Change<K,V>>> listener, final Executor executor) {
+        return subscribe(listener, null, executor);
+    }
+
+
+    public ChangeSubscription<K,V> subscribe(
+            final Consumer<? super List<AtomicHashStore.Change<K,V>>> listener, final Predicate<? super K> keyFilter,
+            final Executor executor) {
+        // Listeners are executed on the specified executor and receive, in order, batches with the changes
+        // (matching the key filter, if any) performed on the map since the previous batch
+        final ChangeSubscription<K,V> subscription = new ChangeSubscription<>(this, listener, keyFilter, executor);
+        ChangeSubscription<K,V>[] subs;
+        ChangeSubscription<K,V>[] newSubs;
+        do {
+            subs = this.subscriptions;
+            if (subs == null) {
+                newSubs = new ChangeSubscription[] { subscription };
+            } else {
+                newSubs = Arrays.copyOf(subs, subs.length + 1);
+                newSubs[subs.length] = subscription;
+            }
+        } while (!SUBSCRIPTIONS.compareAndSet(this, subs, newSubs));
+        return subscription;
+    }
+
+
+    void unsubscribe(final ChangeSubscription<K,V> subscription) {
+        ChangeSubscription<K,V>[] subs;
+        ChangeSubscription<K,V>[] newSubs;
+        do {
+            subs = this.subscriptions;
+            int pos = -1;
+            for (int i = 0; subs != null && i < subs.length; i++) {
+                if (subs[i] == subscription) {
+                    pos = i;
+                    break;
+                }
+            }
+            if (pos < 0) {
+                return;
+            }
+            if (subs.length == 1) {
+                newSubs = null;
+            } else {
+                newSubs = new ChangeSubscription[subs.length - 1];
+                System.arraycopy(subs, 0, newSubs, 0, pos);
+                System.arraycopy(subs, pos + 1, newSubs, pos, subs.length - (pos + 1));
+            }
+        } while (!SUBSCRIPTIONS.compareAndSet(this, subs, newSubs));
+    }
+
+
 
 
     @Override
@@ -86,6 +246,11 @@ public int size() {
     }
 
 
+    public long mappingCount() {
+        return store().mappingCount();
+    }
+
+
 
 
     @Override
@@ -125,14 +290,27 @@ public V getOrDefault(final Object key, final V defaultValue) {
 
 
 
+    public boolean containsKey(final int hash, final Predicate<? super K> matcher) {
+        // See AtomicHashStore#get(int, Predicate)
+        return store().containsKey(hash, matcher);
+    }
+
+
+    public V get(final int hash, final Predicate<? super K> matcher) {
+        // See AtomicHashStore#get(int, Predicate)
+        return store().get(hash, matcher);
+    }
+
+
+
 
     @Override
     public V put(final K key, final V value) {
         final ValueConsumer<V> vc = new ValueConsumer<>();
         AtomicHashStore<K,V> store;
         do {
-            store = store();
-        } while(!this.innerMap.compareAndSet(store, store.put(key, value, vc)));
+            store = current();
+        } while(!publish(store, store.put(key, value, vc)));
         return vc.val;
     }
 
@@ -143,8 +321,8 @@ public V put(final K key, final V value) {
     public void putAll(final Map<? extends K, ? extends V> m) {
         AtomicHashStore<K,V> store;
         do {
-            store = store();
-        } while(!this.innerMap.compareAndSet(store, store.putAll(m)));
+            store = current();
+        } while(!publish(store, store.putAll(m)));
     }
 
 
@@ -155,8 +333,8 @@ public V putIfAbsent(final K key, final V value) {
         final ValueConsumer<V> vc = new ValueConsumer<>();
         AtomicHashStore<K,V> store;
         do {
-            store = store();
-        } while(!this.innerMap.compareAndSet(store, store.putIfAbsent(key, value, vc)));
+            store = current();
+        } while(!publish(store, store.putIfAbsent(key, value, vc)));
         return vc.val;
     }
 
@@ -168,8 +346,8 @@ public V remove(final Object key) {
         final ValueConsumer<V> vc = new ValueConsumer<>();
         AtomicHashStore<K,V> store;
         do {
-            store = store();
-        } while(!this.innerMap.compareAndSet(store, store.remove(key, vc)));
+            store = current();
+        } while(!publish(store, store.remove(key, vc)));
         return vc.val;
     }
 
@@ -179,8 +357,8 @@ public boolean remove(final Object key, final Object value) {
         final BooleanConsumer bc = new BooleanConsumer();
         AtomicHashStore<K,V> store;
         do {
-            store = store();
-        } while(!this.innerMap.compareAndSet(store, store.remove(key, value, bc)));
+            store = current();
+        } while(!publish(store, store.remove(key, value, bc)));
         return bc.val;
     }
 
@@ -200,8 +378,8 @@ public V replace(final K key, final V value) {
         final ValueConsumer<V> vc = new ValueConsumer<>();
         AtomicHashStore<K,V> store;
         do {
-            store = store();
-        } while(!this.innerMap.compareAndSet(store, store.replace(key, value, vc)));
+            store = current();
+        } while(!publish(store, store.replace(key, value, vc)));
         return vc.val;
     }
 
@@ -211,8 +389,8 @@ public boolean replace(final K key, final V oldValue, final V newValue) {
         final BooleanConsumer bc = new BooleanConsumer();
         AtomicHashStore<K,V> store;
         do {
-            store = store();
-        } while(!this.innerMap.compareAndSet(store, store.replace(key, oldValue, newValue, bc)));
+            store = current();
+        } while(!publish(store, store.replace(key, oldValue, newValue, bc)));
         return bc.val;
     }
 
@@ -223,8 +401,8 @@ public boolean replace(final K key, final V oldValue, final V newValue) {
     public void replaceAll(final BiFunction<? super K, ? super V, ? extends V> function) {
         AtomicHashStore<K,V> store;
         do {
-            store = store();
-        } while(!this.innerMap.compareAndSet(store, store.replaceAll(function)));
+            store = current();
+        } while(!publish(store, store.replaceAll(function)));
     }
 
 
@@ -235,12 +413,49 @@ public V computeIfAbsent(final K key, final Function<? super K, ? extends V> map
         final ValueConsumer<V> vc = new ValueConsumer<>();
         AtomicHashStore<K,V> store;
         do {
-            store = store();
-        } while(!this.innerMap.compareAndSet(store, store.computeIfAbsent(key, mappingFunction, vc)));
+            store = current();
+        } while(!publish(store, store.computeIfAbsent(key, mappingFunction, vc)));
         return vc.val;
     }
 
 
+    public V computeIfAbsentOnce(final K key, final Function<? super K, ? extends V> mappingFunction) {
+        // As a difference with computeIfAbsent, which might execute the mapping function several times if
+        // there is contention, this guarantees that the mapping function is executed at most once per absent
+        // key. Concurrent callers for the same key will wait for that single execution to finish.
+        Objects.requireNonNull(mappingFunction);
+        final V value = store().get(key);
+        if (value != null) {
+            return value;
+        }
+        return pendingComputations().computeIfAbsent(key, mappingFunction, this::get, this::installIfAbsent);
+    }
+
+
+    private V installIfAbsent(final K key, final V value) {
+        AtomicHashStore<K,V> store;
+        V existing;
+        do {
+            store = current();
+            existing = store.get(key);
+            if (existing != null) {
+                return existing;
+            }
+        } while(!publish(store, store.put(key, value)));
+        return value;
+    }
+
+
+    private PendingComputations<K,V> pendingComputations() {
+        final PendingComputations<K,V> pc = this.pendingComputations;
+        if (pc != null) {
+            return pc;
+        }
+        PENDING_COMPUTATIONS.compareAndSet(this, null, new PendingComputations<>(store().equivalence()));
+        return this.pendingComputations;
+    }
+
+
 
 
     @Override
@@ -248,8 +463,8 @@ public V computeIfPresent(final K key, final BiFunction<? super K, ? super V, ?
         final ValueConsumer<V> vc = new ValueConsumer<>();
         AtomicHashStore<K,V> store;
         do {
-            store = store();
-        } while(!this.innerMap.compareAndSet(store, store.computeIfPresent(key, remappingFunction, vc)));
+            store = current();
+        } while(!publish(store, store.computeIfPresent(key, remappingFunction, vc)));
         return vc.val;
     }
 
@@ -261,8 +476,8 @@ public V compute(final K key, final BiFunction<? super K, ? super V, ? extends V
         final ValueConsumer<V> vc = new ValueConsumer<>();
         AtomicHashStore<K,V> store;
         do {
-            store = store();
-        } while(!this.innerMap.compareAndSet(store, store.compute(key, remappingFunction, vc)));
+            store = current();
+        } while(!publish(store, store.compute(key, remappingFunction, vc)));
         return vc.val;
     }
 
@@ -274,39 +489,139 @@ public V merge(final K key, final V value, final BiFunction<? super V, ? super V
         final ValueConsumer<V> vc = new ValueConsumer<>();
         AtomicHashStore<K,V> store;
         do {
-            store = store();
-        } while(!this.innerMap.compareAndSet(store, store.merge(key, value, remappingFunction, vc)));
+            store = current();
+        } while(!publish(store, store.merge(key, value, remappingFunction, vc)));
         return vc.val;
     }
 
 
 
 
+    public CompletableFuture<V> computeAsync(
+            final K key, final BiFunction<? super K, ? super V, ? extends V> remappingFunction, final Executor executor) {
+        Objects.requireNonNull(remappingFunction);
+        Objects.requireNonNull(executor);
+        final CompletableFuture<V> result = new CompletableFuture<>();
+        computeAsync(key, store().keyHash(key), remappingFunction, executor, result);
+        return result;
+    }
+
+
+    public CompletableFuture<V> computeIfAbsentAsync(
+            final K key, final Function<? super K, ? extends V> mappingFunction, final Executor executor) {
+        Objects.requireNonNull(mappingFunction);
+        Objects.requireNonNull(executor);
+        final V value = store().get(key);
+        if (value != null) {
+            return CompletableFuture.completedFuture(value);
+        }
+        final CompletableFuture<V> result = new CompletableFuture<>();
+        computeAsync(
+                key, store().keyHash(key),
+                (k, oldValue) -> (oldValue != null) ? oldValue : mappingFunction.apply(k),
+                executor, result);
+        return result;
+    }
+
+
+    public CompletableFuture<V> mergeAsync(
+            final K key, final V value, final BiFunction<? super V, ? super V, ? extends V> remappingFunction,
+            final Executor executor) {
+        Objects.requireNonNull(remappingFunction);
+        Objects.requireNonNull(value);
+        Objects.requireNonNull(executor);
+        final CompletableFuture<V> result = new CompletableFuture<>();
+        computeAsync(
+                key, store().keyHash(key),
+                (k, oldValue) -> (oldValue == null) ? value : remappingFunction.apply(oldValue, value),
+                executor, result);
+        return result;
+    }
+
+
+    private void computeAsync(
+            final K key, final int hash, final BiFunction<? super K, ? super V, ? extends V> remappingFunction,
+            final Executor executor, final CompletableFuture<V> result) {
+
+        // The entry is kept (instead of just the value) so that we can detect by identity whether the mapping
+        // for this key has been modified during the asynchronous execution of the remapping function.
+        final HashEntry<K,V> entry = store().getEntry(hash, key);
+
+        try {
+            executor.execute(() -> {
+                try {
+                    final V newValue = remappingFunction.apply(key, (entry != null) ? entry.value : null);
+                    if (installComputed(key, hash, entry, newValue)) {
+                        result.complete(newValue);
+                    } else {
+                        // Mapping was modified in the meantime, so the function needs to be applied again
+                        computeAsync(key, hash, remappingFunction, executor, result);
+                    }
+                } catch (final Throwable t) {
+                    result.completeExceptionally(t);
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+
+    }
+
+
+    private boolean installComputed(final K key, final int hash, final HashEntry<K,V> expectedEntry, final V newValue) {
+        AtomicHashStore<K,V> store;
+        HashEntry<K,V> entry;
+        AtomicHashStore<K,V> newStore;
+        do {
+            store = current();
+            entry = store.getEntry(hash, key);
+            if (entry != expectedEntry) {
+                return false;
+            }
+            if (newValue == null) {
+                if (entry == null) {
+                    return true;
+                }
+                newStore = store.remove(key);
+            } else {
+                if (entry != null && entry.value == newValue) {
+                    // Nothing to change: writing would replace the entry (and its key) for no reason
+                    return true;
+                }
+                newStore = store.put(key, newValue);
+            }
+        } while(newStore != store && !publish(store, newStore));
+        return true;
+    }
+
+
+
+
     @Override
     public void clear() {
         AtomicHashStore<K,V> store;
         do {
-            store = store();
-        } while(!this.innerMap.compareAndSet(store, store.clear()));
+            store = current();
+        } while(!publish(store, store.clear()));
     }
 
 
 
     @Override
     public Set<Map.Entry<K,V>> entrySet() {
-        return new Sets.MapEntrySet<>(this.innerMap.get());
+        return new Sets.MapEntrySet<>(store());
     }
 
 
     @Override
     public Set<K> keySet() {
-        return new Sets.MapKeySet<>(this.innerMap.get());
+        return new Sets.MapKeySet<>(store());
     }
 
 
     @Override
     public Collection<V> values() {
-        return new Collections.MapValueCollection<>(this.innerMap.get());
+        return new Collections.MapValueCollection<>(store());
     }
 
 
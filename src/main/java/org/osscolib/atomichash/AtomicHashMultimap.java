@@ -0,0 +1,182 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.io.Serializable;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
+
+public class AtomicHashMultimap<K,V> implements Serializable {
+
+    /*
+     * Concurrent multimap based on an AtomicHashMultimapStore, in the same way AtomicHashMap is based on an
+     * AtomicHashStore: reads are performed on the current store, and every modification replaces it by CAS.
+     * Value sets returned by get() are immutable snapshots.
+     */
+
+    private static final long serialVersionUID = 7813922086011870352L;
+
+    private final AtomicReference<AtomicHashMultimapStore<K,V>> innerMap;
+
+
+
+    public AtomicHashMultimap() {
+        super();
+        this.innerMap = new AtomicReference<>(AtomicHashMultimapStore.of());
+    }
+
+
+
+
+    public AtomicHashMultimapStore<K,V> store() {
+        return this.innerMap.get();
+    }
+
+
+    public AtomicHashMultimapStore<K,V> update(final UnaryOperator<AtomicHashMultimapStore<K,V>> operator) {
+        Objects.requireNonNull(operator);
+        AtomicHashMultimapStore<K,V> store;
+        AtomicHashMultimapStore<K,V> newStore;
+        do {
+            store = this.innerMap.get();
+            newStore = operator.apply(store);
+        } while (store != newStore && !this.innerMap.compareAndSet(store, newStore));
+        return newStore;
+    }
+
+
+
+
+    public int size() {
+        return this.innerMap.get().size();
+    }
+
+
+    public int keyCount() {
+        return this.innerMap.get().keyCount();
+    }
+
+
+    public boolean isEmpty() {
+        return this.innerMap.get().isEmpty();
+    }
+
+
+    public boolean containsKey(final Object key) {
+        return this.innerMap.get().containsKey(key);
+    }
+
+
+    public boolean containsEntry(final Object key, final Object value) {
+        return this.innerMap.get().containsEntry(key, value);
+    }
+
+
+    public AtomicHashSetStore<V> get(final Object key) {
+        return this.innerMap.get().get(key);
+    }
+
+
+    public void forEach(final BiConsumer<? super K, ? super V> action) {
+        this.innerMap.get().forEach(action);
+    }
+
+
+
+
+    public boolean put(final K key, final V value) {
+        AtomicHashMultimapStore<K,V> store;
+        AtomicHashMultimapStore<K,V> newStore;
+        do {
+            store = this.innerMap.get();
+            newStore = store.put(key, value);
+            if (newStore == store) {
+                return false;
+            }
+        } while (!this.innerMap.compareAndSet(store, newStore));
+        return true;
+    }
+
+
+    public boolean putAll(final K key, final Iterable<? extends V> values) {
+        Objects.requireNonNull(values);
+        AtomicHashMultimapStore<K,V> store;
+        AtomicHashMultimapStore<K,V> newStore;
+        do {
+            store = this.innerMap.get();
+            newStore = store.putAll(key, values);
+            if (newStore == store) {
+                return false;
+            }
+        } while (!this.innerMap.compareAndSet(store, newStore));
+        return true;
+    }
+
+
+    public boolean remove(final Object key, final Object value) {
+        AtomicHashMultimapStore<K,V> store;
+        AtomicHashMultimapStore<K,V> newStore;
+        do {
+            store = this.innerMap.get();
+            newStore = store.remove(key, value);
+            if (newStore == store) {
+                return false;
+            }
+        } while (!this.innerMap.compareAndSet(store, newStore));
+        return true;
+    }
+
+
+    public AtomicHashSetStore<V> removeAll(final Object key) {
+        AtomicHashMultimapStore<K,V> store;
+        do {
+            store = this.innerMap.get();
+        } while (!this.innerMap.compareAndSet(store, store.removeAll(key)));
+        return store.get(key);
+    }
+
+
+    public void clear() {
+        this.innerMap.set(AtomicHashMultimapStore.of());
+    }
+
+
+
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof AtomicHashMultimap)) {
+            return false;
+        }
+        return this.innerMap.get().equals(((AtomicHashMultimap<?,?>) o).innerMap.get());
+    }
+
+
+    @Override
+    public int hashCode() {
+        return this.innerMap.get().hashCode();
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.io.Serializable;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+public final class AtomicHashMultimapStore<K,V> implements Serializable {
+
+    /*
+     * Persistent multimap (set semantics for the values of each key). Implemented as an AtomicHashStore
+     * whose values are AtomicHashSetStores, so that value collections are persistent too: adding or
+     * removing a value for a key only path-copies the affected nodes of that key's value set (plus the
+     * path to the key in the outer store), instead of copying the whole collection of values.
+     *
+     * Keys never map to empty value sets: removing the last value for a key removes the key.
+     */
+
+    private static final long serialVersionUID = -1138492065529637170L;
+    private static final AtomicHashMultimapStore INSTANCE = new AtomicHashMultimapStore<>(AtomicHashStore.of(), 0);
+
+
+    private final AtomicHashStore<K,AtomicHashSetStore<V>> store;
+    private final int size;
+
+
+
+    private AtomicHashMultimapStore(final AtomicHashStore<K,AtomicHashSetStore<V>> store, final int size) {
+        super();
+        this.store = store;
+        this.size = size;
+    }
+
+
+
+
+    /**
+     * Number of key-value pairs in the multimap.
+     */
+    public int size() {
+        return this.size;
+    }
+
+
+    public int keyCount() {
+        return this.store.size();
+    }
+
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+
+    public boolean containsKey(final Object key) {
+        return this.store.containsKey(key);
+    }
+
+
+    public boolean containsEntry(final Object key, final Object value) {
+        final AtomicHashSetStore<V> values = this.store.get(key);
+        return values != null && values.contains(value);
+    }
+
+
+    /**
+     * Returns the values for the key, which will be an empty set if the key is not present.
+     */
+    public AtomicHashSetStore<V> get(final Object key) {
+        return this.store.getOrDefault(key, AtomicHashSetStore.of());
+    }
+
+
+    public AtomicHashStore<K,AtomicHashSetStore<V>> asStore() {
+        return this.store;
+    }
+
+
+    public void forEach(final BiConsumer<? super K, ? super V> action) {
+        Objects.requireNonNull(action);
+        this.store.forEach((k, values) -> {
+            for (final V value : values) {
+                action.accept(k, value);
+            }
+        });
+    }
+
+
+
+
+    public AtomicHashMultimapStore<K,V> put(final K key, final V value) {
+        final AtomicHashSetStore<V> values = get(key);
+        final AtomicHashSetStore<V> newValues = values.add(value);
+        if (newValues == values) {
+            return this;
+        }
+        return new AtomicHashMultimapStore<>(this.store.put(key, newValues), this.size + 1);
+    }
+
+
+    public AtomicHashMultimapStore<K,V> putAll(final K key, final Iterable<? extends V> values) {
+        Objects.requireNonNull(values);
+        final AtomicHashSetStore<V> oldValues = get(key);
+        final AtomicHashSetStore<V> newValues = oldValues.addAll(values);
+        if (newValues == oldValues) {
+            return this;
+        }
+        return new AtomicHashMultimapStore<>(
+                this.store.put(key, newValues), this.size + newValues.size() - oldValues.size());
+    }
+
+
+    @SuppressWarnings("unchecked")
+    public AtomicHashMultimapStore<K,V> remove(final Object key, final Object value) {
+        final AtomicHashSetStore<V> values = this.store.get(key);
+        if (values == null) {
+            return this;
+        }
+        final AtomicHashSetStore<V> newValues = values.remove(value);
+        if (newValues == values) {
+            return this;
+        }
+        if (newValues.isEmpty()) {
+            return new AtomicHashMultimapStore<>(this.store.remove(key), this.size - 1);
+        }
+        return new AtomicHashMultimapStore<>(this.store.put((K) key, newValues), this.size - 1);
+    }
+
+
+    public AtomicHashMultimapStore<K,V> removeAll(final Object key) {
+        final AtomicHashSetStore<V> values = this.store.get(key);
+        if (values == null) {
+            return this;
+        }
+        return new AtomicHashMultimapStore<>(this.store.remove(key), this.size - values.size());
+    }
+
+
+    public AtomicHashMultimapStore<K,V> clear() {
+        return of();
+    }
+
+
+
+
+    @Override
+    public boolean equals(final Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof AtomicHashMultimapStore)) {
+            return false;
+        }
+        final AtomicHashMultimapStore<?,?> other = (AtomicHashMultimapStore<?,?>) o;
+        return this.size == other.size && this.store.equals(other.store);
+    }
+
+
+    @Override
+    public int hashCode() {
+        return this.store.hashCode();
+    }
+
+
+
+
+    public static <K,V> AtomicHashMultimapStore<K,V> of() {
+        return INSTANCE;
+    }
+
+
+    private Object readResolve() {
+        // Keeps the empty store a singleton
+        return (this.size == 0) ? INSTANCE : this;
+    }
+
+}
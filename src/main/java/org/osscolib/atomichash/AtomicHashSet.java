@@ -0,0 +1,172 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+public class AtomicHashSet<K> extends AbstractSet<K> implements Serializable {
+
+    /*
+     * Concurrent set based on an AtomicHashSetStore, in the same way AtomicHashMap is based on an
+     * AtomicHashStore: reads are performed on the current store, and every modification (including
+     * bulk ones) replaces it by CAS, so bulk modifications are atomic.
+     *
+     * Iterators work on the store that was current at the moment of their creation, and do not support
+     * removal.
+     */
+
+    private static final long serialVersionUID = 4720336895106421458L;
+
+    private final AtomicReference<AtomicHashSetStore<K>> innerSet;
+
+
+
+    public AtomicHashSet() {
+        super();
+        this.innerSet = new AtomicReference<>(AtomicHashSetStore.of());
+    }
+
+
+    public AtomicHashSet(final Collection<? extends K> c) {
+        this();
+        Objects.requireNonNull(c);
+        this.innerSet.set(AtomicHashSetStore.<K>of().addAll(c));
+    }
+
+
+
+
+    public AtomicHashSetStore<K> store() {
+        return this.innerSet.get();
+    }
+
+
+    public AtomicHashSetStore<K> update(final UnaryOperator<AtomicHashSetStore<K>> operator) {
+        Objects.requireNonNull(operator);
+        AtomicHashSetStore<K> store;
+        AtomicHashSetStore<K> newStore;
+        do {
+            store = this.innerSet.get();
+            newStore = operator.apply(store);
+        } while (store != newStore && !this.innerSet.compareAndSet(store, newStore));
+        return newStore;
+    }
+
+
+
+
+    @Override
+    public int size() {
+        return this.innerSet.get().size();
+    }
+
+
+    @Override
+    public boolean isEmpty() {
+        return this.innerSet.get().isEmpty();
+    }
+
+
+    @Override
+    public boolean contains(final Object o) {
+        return this.innerSet.get().contains(o);
+    }
+
+
+    @Override
+    public Iterator<K> iterator() {
+        return this.innerSet.get().iterator();
+    }
+
+
+
+
+    @Override
+    public boolean add(final K k) {
+        AtomicHashSetStore<K> store;
+        AtomicHashSetStore<K> newStore;
+        do {
+            store = this.innerSet.get();
+            newStore = store.add(k);
+            if (newStore == store) {
+                return false;
+            }
+        } while (!this.innerSet.compareAndSet(store, newStore));
+        return true;
+    }
+
+
+    @Override
+    public boolean remove(final Object o) {
+        AtomicHashSetStore<K> store;
+        AtomicHashSetStore<K> newStore;
+        do {
+            store = this.innerSet.get();
+            newStore = store.remove(o);
+            if (newStore == store) {
+                return false;
+            }
+        } while (!this.innerSet.compareAndSet(store, newStore));
+        return true;
+    }
+
+
+    @Override
+    public boolean addAll(final Collection<? extends K> c) {
+        Objects.requireNonNull(c);
+        final AtomicHashSetStore<K> addition =
+                (c instanceof AtomicHashSet) ? ((AtomicHashSet<K>) c).store() : AtomicHashSetStore.<K>of().addAll(c);
+        final AtomicHashSetStore<K> before = this.innerSet.get();
+        return update(st -> st.union(addition)) != before;
+    }
+
+
+    @Override
+    public boolean removeAll(final Collection<?> c) {
+        Objects.requireNonNull(c);
+        final AtomicHashSetStore<Object> removal =
+                (c instanceof AtomicHashSet) ? ((AtomicHashSet<Object>) c).store() : AtomicHashSetStore.of().addAll(c);
+        final AtomicHashSetStore<K> before = this.innerSet.get();
+        return update(st -> st.difference(removal)) != before;
+    }
+
+
+    @Override
+    public boolean retainAll(final Collection<?> c) {
+        Objects.requireNonNull(c);
+        final AtomicHashSetStore<Object> retained =
+                (c instanceof AtomicHashSet) ? ((AtomicHashSet<Object>) c).store() : AtomicHashSetStore.of().addAll(c);
+        final AtomicHashSetStore<K> before = this.innerSet.get();
+        return update(st -> st.intersection(retained)) != before;
+    }
+
+
+    @Override
+    public void clear() {
+        this.innerSet.set(AtomicHashSetStore.of());
+    }
+
+}
@@ -0,0 +1,227 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.Objects;
+
+public final class AtomicHashSetStore<K> implements Iterable<K>, Serializable {
+
+    /*
+     * Persistent set, with the same structure as AtomicHashStore but without values: data nodes contain
+     * their keys directly, so there are neither value references nor entry objects.
+     *
+     * Besides single-key operations, union(), intersection() and difference() operate structurally on
+     * both tries, reusing every subtree that does not change, and skipping entirely the subtrees that are
+     * shared by both operands.
+     */
+
+    private static final long serialVersionUID = 2916508117342885020L;
+    private static final AtomicHashSetStore INSTANCE = new AtomicHashSetStore<>(null, 0);
+
+
+    final SetNode<K> root;
+    private final int size;
+
+
+
+    private AtomicHashSetStore(final SetNode<K> root, final int size) {
+        super();
+        this.root = root;
+        this.size = size;
+    }
+
+
+    private static <K> AtomicHashSetStore<K> fromRoot(final SetNode<K> root) {
+        return (root == null) ? INSTANCE : new AtomicHashSetStore<>(root, root.size());
+    }
+
+
+
+
+    public int size() {
+        return this.size;
+    }
+
+
+    public boolean isEmpty() {
+        return this.root == null;
+    }
+
+
+    public boolean contains(final Object key) {
+        return SetNode.contains(this.root, 0, AtomicHashStore.hash(key), key);
+    }
+
+
+    public boolean containsAll(final AtomicHashSetStore<?> other) {
+        Objects.requireNonNull(other);
+        return isSubset(other, this);
+    }
+
+
+
+
+    public AtomicHashSetStore<K> add(final K key) {
+        final int hash = AtomicHashStore.hash(key);
+        if (this.root == null) {
+            return new AtomicHashSetStore<>(new SetNode<>(hash, key), 1);
+        }
+        final SetNode<K> newRoot = this.root.add(0, hash, key);
+        return (newRoot == this.root) ? this : new AtomicHashSetStore<>(newRoot, this.size + 1);
+    }
+
+
+    public AtomicHashSetStore<K> addAll(final Iterable<? extends K> keys) {
+        Objects.requireNonNull(keys);
+        if (keys instanceof AtomicHashSetStore) {
+            return union((AtomicHashSetStore<K>) keys);
+        }
+        AtomicHashSetStore<K> result = this;
+        for (final K key : keys) {
+            result = result.add(key);
+        }
+        return result;
+    }
+
+
+    public AtomicHashSetStore<K> remove(final Object key) {
+        if (this.root == null) {
+            return this;
+        }
+        final SetNode<K> newRoot = this.root.remove(0, AtomicHashStore.hash(key), key);
+        if (newRoot == this.root) {
+            return this;
+        }
+        return (newRoot == null) ? INSTANCE : new AtomicHashSetStore<>(newRoot, this.size - 1);
+    }
+
+
+    public AtomicHashSetStore<K> removeAll(final Iterable<?> keys) {
+        Objects.requireNonNull(keys);
+        if (keys instanceof AtomicHashSetStore) {
+            return difference((AtomicHashSetStore<K>) keys);
+        }
+        AtomicHashSetStore<K> result = this;
+        for (final Object key : keys) {
+            result = result.remove(key);
+        }
+        return result;
+    }
+
+
+    public AtomicHashSetStore<K> clear() {
+        return INSTANCE;
+    }
+
+
+
+
+    public AtomicHashSetStore<K> union(final AtomicHashSetStore<? extends K> other) {
+        Objects.requireNonNull(other);
+        final SetNode<K> newRoot = SetNode.union(this.root, (SetNode<K>) other.root, 0);
+        if (newRoot == this.root) {
+            return this;
+        }
+        return (newRoot == other.root) ? (AtomicHashSetStore<K>) other : fromRoot(newRoot);
+    }
+
+
+    public AtomicHashSetStore<K> intersection(final AtomicHashSetStore<?> other) {
+        Objects.requireNonNull(other);
+        final SetNode<K> newRoot = SetNode.intersection(this.root, (SetNode<K>) other.root, 0);
+        return (newRoot == this.root) ? this : fromRoot(newRoot);
+    }
+
+
+    public AtomicHashSetStore<K> difference(final AtomicHashSetStore<?> other) {
+        Objects.requireNonNull(other);
+        final SetNode<K> newRoot = SetNode.difference(this.root, (SetNode<K>) other.root, 0);
+        return (newRoot == this.root) ? this : fromRoot(newRoot);
+    }
+
+
+    private static boolean isSubset(final AtomicHashSetStore<?> a, final AtomicHashSetStore<?> b) {
+        return a.size <= b.size && SetNode.difference((SetNode<Object>) a.root, (SetNode<Object>) b.root, 0) == null;
+    }
+
+
+
+
+    @Override
+    public Iterator<K> iterator() {
+        return new SetNode.KeyIterator<>(this.root);
+    }
+
+
+
+
+    @Override
+    public boolean equals(final Object o) {
+
+        if (o == this) {
+            return true;
+        }
+
+        if (!(o instanceof AtomicHashSetStore)) {
+            return false;
+        }
+
+        final AtomicHashSetStore<?> other = (AtomicHashSetStore<?>) o;
+        return this.size == other.size && isSubset(this, other);
+
+    }
+
+
+    @Override
+    public int hashCode() {
+        // Same as java.util.Set#hashCode()
+        int h = 0;
+        for (final K key : this) {
+            h += (key == null) ? 0 : key.hashCode();
+        }
+        return h;
+    }
+
+
+
+
+    public static <K> AtomicHashSetStore<K> of() {
+        return INSTANCE;
+    }
+
+
+    @SafeVarargs
+    public static <K> AtomicHashSetStore<K> of(final K... keys) {
+        AtomicHashSetStore<K> store = of();
+        for (int i = 0; i < keys.length; i++) {
+            store = store.add(keys[i]);
+        }
+        return store;
+    }
+
+
+    private Object readResolve() {
+        // Keeps the empty store a singleton
+        return (this.root == null) ? INSTANCE : this;
+    }
+
+}
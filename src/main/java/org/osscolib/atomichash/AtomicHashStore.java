@@ -22,12 +22,14 @@
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 
 public class AtomicHashStore<K,V> implements Iterable<AtomicHashStore.Entry<K,V>>, Serializable {
@@ -41,6 +43,7 @@
 
 
     final Node<K,V> root;
+    final Equivalence<Object> equivalence; // null means plain equality (equals() and hashCode())
 
 
 
@@ -58,8 +61,14 @@ static int childrenSizeFor(final int level) {
 
 
     static int hash(final Object key) {
-        int h;
-        return (key == null) ? 0 : (h = key.hashCode()) ^ (h >>> 16);
+        return (key == null) ? 0 : spread(key.hashCode());
+    }
+
+    static int hash(final Object key, final Equivalence<Object> equivalence) {
+        if (equivalence == null) {
+            return hash(key);
+        }
+        return (key == null) ? 0 : spread(equivalence.hash(key));
     }
 
     static int pos(final int level, final int hash) {
@@ -74,9 +83,32 @@ public AtomicHashStore() {
     }
 
 
-    private AtomicHashStore(final Node<K,V> root) {
+    AtomicHashStore(final Node<K,V> root) {
+        this(root, null);
+    }
+
+
+    AtomicHashStore(final Node<K,V> root, final Equivalence<Object> equivalence) {
         super();
         this.root = root;
+        this.equivalence = equivalence;
+    }
+
+
+    static <K,V> AtomicHashStore<K,V> forRoot(final Node<K,V> root, final Equivalence<Object> equivalence) {
+        return (root == null && equivalence == null) ? INSTANCE : new AtomicHashStore<>(root, equivalence);
+    }
+
+
+
+
+    public Equivalence<? super K> equivalence() {
+        return (this.equivalence == null) ? Equivalence.equality() : (Equivalence<? super K>) this.equivalence;
+    }
+
+
+    final int keyHash(final Object key) {
+        return hash(key, this.equivalence);
     }
 
 
@@ -90,6 +122,15 @@ public int size() {
     }
 
 
+    public long mappingCount() {
+        // Same as size(), but not limited to Integer.MAX_VALUE
+        if (this.root == null) {
+            return 0L;
+        }
+        return this.root.mappingCount();
+    }
+
+
 
 
     public boolean isEmpty() {
@@ -99,7 +140,7 @@ public boolean isEmpty() {
 
 
     public boolean containsKey(final Object key) {
-        return getEntry(hash(key), key) != null;
+        return getEntry(keyHash(key), key) != null;
     }
 
 
@@ -118,37 +159,108 @@ public boolean containsValue(final Object value) {
 
     public V get(final Object key) {
         final HashEntry<K,V> entry;
-        return (entry = getEntry(hash(key), key, this.root)) != null ? entry.value : null;
+        return (entry = getEntry(keyHash(key), key)) != null ? entry.value : null;
     }
 
 
     public V getOrDefault(final Object key, final V defaultValue) {
         final HashEntry<K,V> entry;
-        return (entry = getEntry(hash(key), key, this.root)) != null ? entry.value : defaultValue;
+        return (entry = getEntry(keyHash(key), key)) != null ? entry.value : defaultValue;
+    }
+
+
+
+
+    /*
+     * Probe lookups: the caller provides the (spread) hash of the key and a matcher for recognising it among
+     * the stored keys, so that keys can be looked up from their serialised form (e.g. a CharSequence or a
+     * ByteBuffer slice) without creating a key object. The hash must be computed as spread(hashCode) for
+     * the key that would be used, or spread(equivalence.hash(key)) if the store has a custom equivalence.
+     */
+
+    public static int spread(final int hashCode) {
+        return hashCode ^ (hashCode >>> 16);
+    }
+
+
+    public boolean containsKey(final int hash, final Predicate<? super K> matcher) {
+        return getEntry(hash, matcher) != null;
+    }
+
+
+    public V get(final int hash, final Predicate<? super K> matcher) {
+        final HashEntry<K,V> entry;
+        return (entry = getEntry(hash, matcher)) != null ? entry.value : null;
+    }
+
+
+    public V getOrDefault(final int hash, final Predicate<? super K> matcher, final V defaultValue) {
+        final HashEntry<K,V> entry;
+        return (entry = getEntry(hash, matcher)) != null ? entry.value : defaultValue;
+    }
+
+
+    private HashEntry<K,V> getEntry(final int hash, final Predicate<? super K> matcher) {
+
+        Objects.requireNonNull(matcher);
+
+        Node<K,V> node;
+        if (this.root != null && (node = getNode(0, hash, this.root)) != null) {
+
+            HashEntry<K,V> e = node.entry;
+            if (e != null) {
+                return (e.hash == hash && matcher.test(e.key)) ? e : null;
+            }
+
+            final HashEntry<K,V>[] es = node.entries;
+            for (int i = 0; i < es.length; i++) {
+                e = es[i];
+                if (e.hash == hash && matcher.test(e.key)) {
+                    return e;
+                }
+            }
+
+        }
+
+        return null;
+
     }
 
 
 
     final HashEntry<K,V> getEntry(final int hash, final Object key) {
-        return getEntry(hash, key, this.root);
+        return getEntry(0, hash, key, this.root, this.equivalence);
     }
 
 
     static <K,V> HashEntry<K,V> getEntry(final int hash, final Object key, final Node<K,V> root) {
+        return getEntry(0, hash, key, root);
+    }
+
+
+    static <K,V> HashEntry<K,V> getEntry(final int level, final int hash, final Object key, final Node<K,V> root) {
+        return getEntry(level, hash, key, root, null);
+    }
+
+
+    static <K,V> HashEntry<K,V> getEntry(
+            final int level, final int hash, final Object key, final Node<K,V> root,
+            final Equivalence<Object> equivalence) {
 
         Node<K,V> node;
-        if (root != null && (node = getNode(hash, root)) != null && node.hash == hash) {
+        // Hashes are checked on each entry and not on the node, as a root data node can be flat (see Node)
+        if (root != null && (node = getNode(level, hash, root)) != null) {
 
             HashEntry<K,V> e = node.entry;
             if (e != null) {
-                return eq(e.key, key) ? e : null;
+                return (e.hash == hash && Node.eq(e.key, key, equivalence)) ? e : null;
             }
 
             final HashEntry<K,V>[] es = node.entries;
             for (int i = 0; i < es.length; i++) {
                 // TODO Performance degradation with large number of collisions -> adopt some kind of tree?
                 e = es[i];
-                if (eq(e.key, key)) {
+                if (e.hash == hash && Node.eq(e.key, key, equivalence)) {
                     return e;
                 }
             }
@@ -160,12 +272,12 @@ static <K,V> HashEntry<K,V> getEntry(final int hash, final Object key, final Nod
     }
 
 
-    private static <K,V> Node<K,V> getNode(final int hash, final Node<K,V> root) {
+    private static <K,V> Node<K,V> getNode(final int startLevel, final int hash, final Node<K,V> root) {
 
         Node<K,V> node = root;
         Node<K,V>[] children;
 
-        for (int level = 0; node != null && (children = node.children) != null; level++) {
+        for (int level = startLevel; node != null && (children = node.children) != null; level++) {
             node = children[pos(level, hash)];
         }
 
@@ -182,7 +294,7 @@ public AtomicHashStore<K,V> put(final K key, final V value) {
 
     public AtomicHashStore<K,V> put(final K key, final V value, final Consumer<V> oldValueConsumer) {
 
-        final DataEntry<K,V> entry = new DataEntry(key, value);
+        final DataEntry<K,V> entry = new DataEntry<>(keyHash(key), key, value);
 
         final Node<K,V> newRoot;
         if (this.root == null) {
@@ -191,14 +303,14 @@ public AtomicHashStore<K,V> put(final K key, final V value, final Consumer<V> ol
 
         } else {
 
-            newRoot = this.root.put(0, entry, oldValueConsumer);
+            newRoot = this.root.put(0, entry, oldValueConsumer, this.equivalence);
             if (this.root == newRoot) {
                 return this;
             }
 
         }
 
-        return new AtomicHashStore<>(newRoot);
+        return new AtomicHashStore<>(newRoot, this.equivalence);
 
     }
 
@@ -227,7 +339,7 @@ public AtomicHashStore<K,V> putAll(final Map<? extends K, ? extends V> map) {
         final DataEntry<K,V>[] entries = new DataEntry[mapSize];
         for (int i = 0; i < entries.length; i++) {
             mapEntry = mapIter.next();
-            entries[i] = new DataEntry<>(mapEntry.getKey(), mapEntry.getValue());
+            entries[i] = new DataEntry<>(keyHash(mapEntry.getKey()), mapEntry.getKey(), mapEntry.getValue());
         }
 
         Arrays.sort(entries);
@@ -251,8 +363,8 @@ private AtomicHashStore<K,V> putAll(final DataEntry<K,V>[] orderedEntries) {
             start = 1;
         }
 
-        newRoot = newRoot.putAll(0, orderedEntries, start, orderedEntries.length);
-        return new AtomicHashStore<>(newRoot);
+        newRoot = newRoot.putAll(0, orderedEntries, start, orderedEntries.length, this.equivalence);
+        return new AtomicHashStore<>(newRoot, this.equivalence);
 
     }
 
@@ -270,16 +382,12 @@ public AtomicHashStore<K,V> remove(final Object key, final Consumer<V> oldValueC
             return this;
         }
 
-        final Node newRoot = this.root.remove(0, hash(key), key, oldValueConsumer);
+        final Node<K,V> newRoot = this.root.remove(0, keyHash(key), key, oldValueConsumer, this.equivalence);
         if (this.root == newRoot) {
             return this;
         }
 
-        if (newRoot == null) {
-            return INSTANCE;
-        }
-
-        return new AtomicHashStore<K,V>(newRoot);
+        return forRoot(newRoot, this.equivalence);
 
     }
 
@@ -293,7 +401,7 @@ public AtomicHashStore<K,V> remove(final Object key, final Object value) {
 
     public AtomicHashStore<K,V> remove(final Object key, final Object value, final Consumer<Boolean> successConsumer) {
 
-        final HashEntry<K,V> entry = getEntry(hash(key), key);
+        final HashEntry<K,V> entry = getEntry(keyHash(key), key);
         if (entry == null || !eq(entry.value, value)) {
             if (successConsumer != null) {
                 successConsumer.accept(Boolean.FALSE);
@@ -332,7 +440,7 @@ public AtomicHashStore<K,V> replace(final K key, final V value) {
 
 
     public AtomicHashStore<K,V> replace(final K key, final V value, final Consumer<V> oldValueConsumer) {
-        final HashEntry<K,V> entry = getEntry(hash(key), key);
+        final HashEntry<K,V> entry = getEntry(keyHash(key), key);
         if (entry == null) {
             if (oldValueConsumer != null) {
                 oldValueConsumer.accept(null);
@@ -351,7 +459,7 @@ public AtomicHashStore<K,V> replace(final K key, final V oldValue, final V newVa
 
 
     public AtomicHashStore<K,V> replace(final K key, final V oldValue, final V newValue, final Consumer<Boolean> successConsumer) {
-        final HashEntry<K,V> entry = getEntry(hash(key), key);
+        final HashEntry<K,V> entry = getEntry(keyHash(key), key);
         if (entry == null || !eq(entry.value, oldValue)) {
             if (successConsumer != null) {
                 successConsumer.accept(Boolean.FALSE);
@@ -381,10 +489,10 @@ public <W> AtomicHashStore<K,W> replaceAll(final BiFunction<? super K, ? super V
         final DataEntry<K,W>[] newOrderedEntries = new DataEntry[size()];
         for (int i = 0; i < newOrderedEntries.length; i++) {
             entry = (HashEntry<K,V>) iter.next();
-            newOrderedEntries[i] = new DataEntry<>(entry.key, function.apply(entry.key, entry.value));
+            newOrderedEntries[i] = new DataEntry<>(entry.hash, entry.key, function.apply(entry.key, entry.value));
         }
 
-        final AtomicHashStore<K,W> store = of();
+        final AtomicHashStore<K,W> store = forRoot(null, this.equivalence);
         return store.putAll(newOrderedEntries);
 
     }
@@ -483,7 +591,7 @@ public AtomicHashStore<K,V> compute(
 
         Objects.requireNonNull(remappingFunction);
 
-        final HashEntry<K,V> entry = getEntry(hash(key), key);
+        final HashEntry<K,V> entry = getEntry(keyHash(key), key);
         final V oldValue = (entry != null) ? entry.value : null;
 
         final V newValue = remappingFunction.apply(key, oldValue);
@@ -538,8 +646,46 @@ public AtomicHashStore<K,V> merge(
 
 
 
+    public AtomicHashStore<K,V> apply(final WriteBatch<K,V> batch) {
+        return apply(batch, null);
+    }
+
+
+    public AtomicHashStore<K,V> apply(final WriteBatch<K,V> batch, final Consumer<List<V>> resultsConsumer) {
+        // Operations are applied in order, and results (one per operation) are communicated in that same order
+        Objects.requireNonNull(batch);
+        final Object[] results = new Object[batch.size()];
+        final AtomicHashStore<K,V> newStore = batch.applyTo(this, results);
+        if (resultsConsumer != null) {
+            resultsConsumer.accept(WriteBatch.resultsOf(results));
+        }
+        return newStore;
+    }
+
+
+
+
+    public void diff(final AtomicHashStore<K,V> previous, final Consumer<? super Change<K,V>> changeConsumer) {
+        // Reports the changes that turn previous into this store. Cost depends on the amount of changes only
+        // if this store was derived from previous (or vice versa), as unchanged subtrees are shared. The same
+        // applies to stores interned by the same StoreInterner.
+        Objects.requireNonNull(previous);
+        Objects.requireNonNull(changeConsumer);
+        Diffs.diff(0, previous.root, this.root, changeConsumer, this.equivalence);
+    }
+
+
+
+
+    public StoreEditor<K,V> edit() {
+        return new StoreEditor<>(this);
+    }
+
+
+
+
     public AtomicHashStore<K,V> clear() {
-        return of();
+        return forRoot(null, this.equivalence);
     }
 
 
@@ -579,12 +725,23 @@ public boolean equals(final Object o) {
 
         final AtomicHashStore<?,?> other = (AtomicHashStore<?,?>) o;
 
+        if (!Objects.equals(this.equivalence, other.equivalence)) {
+            // Stores with different key equivalences are never equal, as otherwise equals() would not be
+            // symmetric (e.g. equality vs. case-insensitive keys) nor consistent with hashCode()
+            return false;
+        }
+
         if (this.root == null) {
             return other.root == null;
         } else if (other.root == null) {
             return false;
         }
 
+        if (this.root == other.root) {
+            // Shared roots are common between stores derived from one another or interned (see StoreInterner)
+            return true;
+        }
+
         final Iterator<Entry<K,V>> thisIter = this.iterator();
 
         int count = 0;
@@ -593,13 +750,14 @@ public boolean equals(final Object o) {
         while (thisIter.hasNext()) {
 
             thisEntry = (HashEntry<K,V>) thisIter.next();
-            otherEntry = other.getEntry(hash(thisEntry.key), thisEntry.key);
+            // Keys need no further comparison, as they have already been matched by the (shared) equivalence
+            otherEntry = other.getEntry(other.keyHash(thisEntry.key), thisEntry.key);
 
             if (otherEntry == null) {
                 return false;
             }
 
-            if (!eq(thisEntry.key, otherEntry.key) || !eq(thisEntry.value, otherEntry.value)) {
+            if (!eq(thisEntry.value, otherEntry.value)) {
                 return false;
             }
 
@@ -615,8 +773,18 @@ public boolean equals(final Object o) {
     @Override
     public int hashCode() {
         int h = 0;
-        for (final Entry<K, V> entry : this) {
-            h += entry.hashCode(); // HashEntry#hashCode() is properly implemented
+        if (this.equivalence == null) {
+            for (final Entry<K, V> entry : this) {
+                h += entry.hashCode(); // HashEntry#hashCode() is properly implemented
+            }
+            return h;
+        }
+        // Key hashes must be consistent with the equivalence used by equals() instead of with key.hashCode()
+        HashEntry<K,V> entry;
+        for (final Entry<K, V> e : this) {
+            entry = (HashEntry<K,V>) e;
+            h += (entry.key == null ? 0 : this.equivalence.hash(entry.key)) ^
+                    (entry.value == null ? 0 : entry.value.hashCode());
         }
         return h;
     }
@@ -629,6 +797,13 @@ public static <K,V> AtomicHashStore<K, V> of() {
     }
 
 
+    public static <K,V> AtomicHashStore<K, V> of(final Equivalence<? super K> equivalence) {
+        // Key equivalence is fixed for the store and all the stores derived from it
+        Objects.requireNonNull(equivalence);
+        return forRoot(null, (equivalence == Equivalence.equality()) ? null : (Equivalence<Object>) equivalence);
+    }
+
+
     public static <K, V> AtomicHashStore<K, V> of(
             final K k1, final V v1) {
 
@@ -859,5 +1034,17 @@ public static <K,V> Entry<K,V> entry(final K key, final V value) {
         // the API of the AtomicHashStore independent from Map.
     }
 
+
+    public interface Change<K,V> {
+
+        K getKey();
+        V getOldValue(); // null if this is an insertion
+        V getNewValue(); // null if this is a removal
+
+        boolean isInsertion();
+        boolean isRemoval();
+
+    }
+
 }
 
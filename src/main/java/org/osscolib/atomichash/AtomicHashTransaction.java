@@ -0,0 +1,290 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+public final class AtomicHashTransaction {
+
+    /*
+     * Optimistic transactions spanning several AtomicHashMap instances. The body of a transaction reads
+     * stores from any number of maps and computes new stores for them, and then all the new stores are
+     * committed atomically if none of the maps read have been modified in the meantime. If any have, the
+     * body is executed again.
+     *
+     * Commit is performed by means of a multi-word CAS: a Pending descriptor is CAS-ed into every map
+     * involved, and then the shared status of the commit is decided. Readers of a map that find a Pending
+     * descriptor simply resolve it to the expected (or replacement, once succeeded) store without
+     * interfering. Writers, on the contrary, will abort an undecided commit before modifying the map, so
+     * that no thread ever needs to wait for another one.
+     *
+     * Transaction bodies can be executed several times, so they should be free of side effects.
+     */
+
+    private static final int UNDECIDED = 0;
+    private static final int SUCCEEDED = 1;
+    private static final int FAILED = 2;
+
+    private static final RetryException RETRY = new RetryException();
+
+
+    // AtomicHashMap#equals() compares contents, so we need identity here
+    private final Map<AtomicHashMap<?,?>,Access<?,?>> accesses;
+    private final List<Access<?,?>> accessList;
+
+
+
+    private AtomicHashTransaction() {
+        super();
+        this.accesses = new IdentityHashMap<>();
+        this.accessList = new ArrayList<>();
+    }
+
+
+
+
+    public static <R> R execute(final Function<? super AtomicHashTransaction, ? extends R> body) {
+        Objects.requireNonNull(body);
+        while (true) {
+            final AtomicHashTransaction transaction = new AtomicHashTransaction();
+            final R result;
+            try {
+                result = body.apply(transaction);
+            } catch (final RetryException e) {
+                continue;
+            }
+            if (transaction.commit()) {
+                return result;
+            }
+        }
+    }
+
+
+
+
+    public <K,V> AtomicHashStore<K,V> read(final AtomicHashMap<K,V> map) {
+        return access(map).current();
+    }
+
+
+    public <K,V> void write(final AtomicHashMap<K,V> map, final AtomicHashStore<K,V> store) {
+        Objects.requireNonNull(store);
+        access(map).written = store;
+    }
+
+
+    public <K,V> AtomicHashStore<K,V> update(
+            final AtomicHashMap<K,V> map, final UnaryOperator<AtomicHashStore<K,V>> updateFunction) {
+        Objects.requireNonNull(updateFunction);
+        final Access<K,V> access = access(map);
+        access.written = Objects.requireNonNull(updateFunction.apply(access.current()));
+        return access.written;
+    }
+
+
+
+
+    private <K,V> Access<K,V> access(final AtomicHashMap<K,V> map) {
+
+        Objects.requireNonNull(map);
+
+        Access<K,V> access = (Access<K,V>) this.accesses.get(map);
+        if (access != null) {
+            return access;
+        }
+
+        access = new Access<>(map, map.store());
+
+        // Every time a new map is read we validate the ones read before, so that the transaction body never
+        // works on an inconsistent view of the maps involved.
+        for (int i = 0; i < this.accessList.size(); i++) {
+            if (!this.accessList.get(i).isValid()) {
+                throw RETRY;
+            }
+        }
+
+        this.accesses.put(map, access);
+        this.accessList.add(access);
+        return access;
+
+    }
+
+
+
+
+    private boolean commit() {
+
+        if (this.accessList.isEmpty()) {
+            return true;
+        }
+
+        if (this.accessList.size() == 1) {
+            // No need for the whole protocol if only one map is involved
+            final Access<?,?> access = this.accessList.get(0);
+            return access.written == null || access.commitSingle();
+        }
+
+        boolean anyWritten = false;
+        for (int i = 0; i < this.accessList.size(); i++) {
+            anyWritten |= (this.accessList.get(i).written != null);
+        }
+        if (!anyWritten) {
+            // Read-only transaction: all maps were validated when the last one was read
+            return true;
+        }
+
+        final Commit commit = new Commit();
+        final List<Pending<?,?>> installed = new ArrayList<>(this.accessList.size());
+
+        for (int i = 0; i < this.accessList.size() && commit.status.get() == UNDECIDED; i++) {
+            final Pending<?,?> pending = this.accessList.get(i).install(commit);
+            if (pending == null) {
+                commit.status.compareAndSet(UNDECIDED, FAILED);
+            } else {
+                installed.add(pending);
+            }
+        }
+
+        // If nobody aborted us in the meantime, we are done
+        commit.status.compareAndSet(UNDECIDED, SUCCEEDED);
+
+        for (int i = 0; i < installed.size(); i++) {
+            installed.get(i).uninstall();
+        }
+
+        return commit.status.get() == SUCCEEDED;
+
+    }
+
+
+
+
+    private static final class Access<K,V> {
+
+        final AtomicHashMap<K,V> map;
+        final AtomicHashStore<K,V> read;
+        AtomicHashStore<K,V> written;
+
+        Access(final AtomicHashMap<K,V> map, final AtomicHashStore<K,V> read) {
+            super();
+            this.map = map;
+            this.read = read;
+            this.written = null;
+        }
+
+        AtomicHashStore<K,V> current() {
+            return (this.written != null) ? this.written : this.read;
+        }
+
+        boolean isValid() {
+            return this.map.store() == this.read;
+        }
+
+        boolean commitSingle() {
+            return this.map.compareAndSet(this.read, this.written);
+        }
+
+        Pending<K,V> install(final Commit commit) {
+            final Pending<K,V> pending = new Pending<>(commit, this.map, this.read, current());
+            AtomicHashStore<K,V> raw;
+            while (true) {
+                raw = this.map.rawStore();
+                if (raw instanceof Pending) {
+                    // Another transaction is being committed on this map: abort it and go on
+                    this.map.compareAndSetRaw(raw, ((Pending<K,V>) raw).finish());
+                    continue;
+                }
+                if (raw != this.read) {
+                    return null;
+                }
+                if (this.map.compareAndSetRaw(raw, pending)) {
+                    return pending;
+                }
+            }
+        }
+
+    }
+
+
+    private static final class Commit {
+
+        final AtomicInteger status = new AtomicInteger(UNDECIDED);
+
+    }
+
+
+    static final class Pending<K,V> extends AtomicHashStore<K,V> {
+
+        private static final long serialVersionUID = -6553425961497924151L;
+
+        private final Commit commit;
+        private final AtomicHashMap<K,V> map;
+        private final AtomicHashStore<K,V> expected;
+        private final AtomicHashStore<K,V> replacement;
+
+        Pending(final Commit commit, final AtomicHashMap<K,V> map,
+                final AtomicHashStore<K,V> expected, final AtomicHashStore<K,V> replacement) {
+            // Root is the expected one, so that the descriptor can act as the old store if directly used
+            super(expected.root);
+            this.commit = commit;
+            this.map = map;
+            this.expected = expected;
+            this.replacement = replacement;
+        }
+
+        AtomicHashStore<K,V> resolve() {
+            return (this.commit.status.get() == SUCCEEDED) ? this.replacement : this.expected;
+        }
+
+        AtomicHashStore<K,V> finish() {
+            this.commit.status.compareAndSet(UNDECIDED, FAILED);
+            return resolve();
+        }
+
+        void uninstall() {
+            this.map.compareAndSetRaw(this, resolve());
+        }
+
+        private Object writeReplace() {
+            // Descriptors are never serialized, only the store they resolve to
+            return resolve();
+        }
+
+    }
+
+
+    private static final class RetryException extends RuntimeException {
+
+        private static final long serialVersionUID = 3062935012442532283L;
+
+        RetryException() {
+            super("Transaction needs to be retried", null, false, false);
+        }
+
+    }
+
+}
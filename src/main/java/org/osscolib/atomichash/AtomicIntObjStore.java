@@ -0,0 +1,187 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+public final class AtomicIntObjStore<V> extends BitmapTrie<AtomicIntObjStore<V>> {
+
+    /*
+     * Persistent store with primitive int keys, equivalent to an AtomicHashStore<Integer,V> but without
+     * boxing keys and without any per-entry objects: keys are kept directly in int[] arrays at the nodes,
+     * next to their values.
+     *
+     * Node structure is that of BitmapTrie, keys being positioned by a bijective 32-bit mix of their bits
+     * (so no collision handling is needed).
+     */
+
+    private static final long serialVersionUID = 7390250134938613262L;
+
+    private static final int[] NO_KEYS = new int[0];
+    private static final Object[] NO_VALUES = new Object[0];
+
+    private static final AtomicIntObjStore INSTANCE = new AtomicIntObjStore<>(new Node(0, 0, NO_KEYS, NO_VALUES, NO_NODES), 0L);
+
+
+
+    private AtomicIntObjStore(final Node root, final long size) {
+        super(root, size, 32);
+    }
+
+
+
+
+    static int hash(final int key) {
+        // Murmur3 fmix32, which is bijective
+        int h = key;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+
+    private static long hashOf(final int key) {
+        return Integer.toUnsignedLong(hash(key));
+    }
+
+
+    @Override
+    AtomicIntObjStore<V> withRoot(final Node root, final long size) {
+        return new AtomicIntObjStore<>(root, size);
+    }
+
+
+    @Override
+    Object newKeys(final int length) {
+        return (length == 0) ? NO_KEYS : new int[length];
+    }
+
+
+    @Override
+    Object newValues(final int length) {
+        return (length == 0) ? NO_VALUES : new Object[length];
+    }
+
+
+    @Override
+    long hashAt(final Object keys, final int idx) {
+        return hashOf(((int[]) keys)[idx]);
+    }
+
+
+    @Override
+    boolean matches(final Object keys, final int idx, final long hash, final Object key) {
+        // Hashes are bijective, so equal hashes mean equal keys
+        return hashAt(keys, idx) == hash;
+    }
+
+
+    @Override
+    boolean sameValue(final Object values, final int idx, final Object newValues) {
+        return ((Object[]) values)[idx] == ((Object[]) newValues)[0];
+    }
+
+
+    @Override
+    Object keyAt(final Object keys, final int idx) {
+        return Integer.valueOf(((int[]) keys)[idx]);
+    }
+
+
+    @Override
+    Object valueAt(final Object values, final int idx) {
+        return ((Object[]) values)[idx];
+    }
+
+
+
+
+    public boolean containsKey(final int key) {
+        return find(hashOf(key), null, new int[1]) != null;
+    }
+
+
+    public V get(final int key) {
+        return getOrDefault(key, null);
+    }
+
+
+    public V getOrDefault(final int key, final V defaultValue) {
+        final int[] index = new int[1];
+        final Node node = find(hashOf(key), null, index);
+        return (node != null) ? (V) ((Object[]) node.values)[index[0]] : defaultValue;
+    }
+
+
+
+
+    public AtomicIntObjStore<V> put(final int key, final V value) {
+        return put(hashOf(key), null, new int[] { key }, new Object[] { value });
+    }
+
+
+    public AtomicIntObjStore<V> remove(final int key) {
+        return remove(hashOf(key), null);
+    }
+
+
+    @Override
+    public AtomicIntObjStore<V> clear() {
+        return of();
+    }
+
+
+    public void forEach(final EntryConsumer<? super V> action) {
+        forEachEntry((node, i) -> action.accept(((int[]) node.keys)[i], (V) ((Object[]) node.values)[i]));
+    }
+
+
+    public int[] keys() {
+        final int[] keys = new int[size()];
+        final int[] pos = new int[1];
+        forEach((k, v) -> keys[pos[0]++] = k);
+        return keys;
+    }
+
+
+
+
+    public static <V> AtomicIntObjStore<V> of() {
+        return INSTANCE;
+    }
+
+
+    private Object readResolve() {
+        // Keeps the empty store a singleton
+        return (this.size == 0L) ? INSTANCE : this;
+    }
+
+
+
+
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+
+        void accept(final int key, final V value);
+
+    }
+
+}
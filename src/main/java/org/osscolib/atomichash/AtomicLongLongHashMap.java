@@ -0,0 +1,114 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.Objects;
+import java.util.function.LongUnaryOperator;
+
+public class AtomicLongLongHashMap extends BitmapTrieMap<AtomicLongLongStore> {
+
+    /*
+     * Concurrent map with primitive long keys and values, based on an AtomicLongLongStore in the same way
+     * AtomicHashMap is based on an AtomicHashStore. Absent keys are reported as having a zero value, which
+     * makes it directly usable as a map of counters (see addAndGet()).
+     */
+
+    private static final long serialVersionUID = -2305198411793570466L;
+
+
+
+    public AtomicLongLongHashMap() {
+        super(AtomicLongLongStore.of());
+    }
+
+
+
+
+    public boolean containsKey(final long key) {
+        return this.innerMap.get().containsKey(key);
+    }
+
+
+    public long get(final long key) {
+        return this.innerMap.get().get(key);
+    }
+
+
+    public long getOrDefault(final long key, final long defaultValue) {
+        return this.innerMap.get().getOrDefault(key, defaultValue);
+    }
+
+
+    public void forEach(final AtomicLongLongStore.EntryConsumer action) {
+        Objects.requireNonNull(action);
+        this.innerMap.get().forEach(action);
+    }
+
+
+
+
+    public long put(final long key, final long value) {
+        AtomicLongLongStore store;
+        long oldValue;
+        do {
+            store = this.innerMap.get();
+            oldValue = store.get(key);
+        } while (!this.innerMap.compareAndSet(store, store.put(key, value)));
+        return oldValue;
+    }
+
+
+    public long addAndGet(final long key, final long delta) {
+        AtomicLongLongStore store;
+        long value;
+        do {
+            store = this.innerMap.get();
+            value = store.get(key) + delta;
+        } while (!this.innerMap.compareAndSet(store, store.put(key, value)));
+        return value;
+    }
+
+
+    public long computeIfAbsent(final long key, final LongUnaryOperator mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        AtomicLongLongStore store;
+        long value;
+        do {
+            store = this.innerMap.get();
+            if (store.containsKey(key)) {
+                return store.get(key);
+            }
+            value = mappingFunction.applyAsLong(key);
+        } while (!this.innerMap.compareAndSet(store, store.put(key, value)));
+        return value;
+    }
+
+
+    public long remove(final long key) {
+        AtomicLongLongStore store;
+        long oldValue;
+        do {
+            store = this.innerMap.get();
+            oldValue = store.get(key);
+        } while (!this.innerMap.compareAndSet(store, store.remove(key)));
+        return oldValue;
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+public final class AtomicLongLongStore extends BitmapTrie<AtomicLongLongStore> {
+
+    /*
+     * Persistent store with primitive long keys and values, equivalent to an AtomicHashStore<Long,Long> but
+     * without boxing and without any per-entry objects: keys and values are kept directly in long[] arrays
+     * at the nodes.
+     *
+     * Node structure and hashing of keys are the same as in AtomicLongObjStore.
+     */
+
+    private static final long serialVersionUID = 3319043218845627046L;
+
+    private static final long[] NO_KEYS = new long[0];
+    private static final long[] NO_VALUES = new long[0];
+
+    private static final AtomicLongLongStore INSTANCE = new AtomicLongLongStore(new Node(0, 0, NO_KEYS, NO_VALUES, NO_NODES), 0L);
+
+
+
+    private AtomicLongLongStore(final Node root, final long size) {
+        super(root, size, 64);
+    }
+
+
+
+
+    @Override
+    AtomicLongLongStore withRoot(final Node root, final long size) {
+        return new AtomicLongLongStore(root, size);
+    }
+
+
+    @Override
+    Object newKeys(final int length) {
+        return (length == 0) ? NO_KEYS : new long[length];
+    }
+
+
+    @Override
+    Object newValues(final int length) {
+        return (length == 0) ? NO_VALUES : new long[length];
+    }
+
+
+    @Override
+    long hashAt(final Object keys, final int idx) {
+        return AtomicLongObjStore.hash(((long[]) keys)[idx]);
+    }
+
+
+    @Override
+    boolean matches(final Object keys, final int idx, final long hash, final Object key) {
+        // Hashes are bijective, so equal hashes mean equal keys
+        return hashAt(keys, idx) == hash;
+    }
+
+
+    @Override
+    boolean sameValue(final Object values, final int idx, final Object newValues) {
+        return ((long[]) values)[idx] == ((long[]) newValues)[0];
+    }
+
+
+    @Override
+    Object keyAt(final Object keys, final int idx) {
+        return Long.valueOf(((long[]) keys)[idx]);
+    }
+
+
+    @Override
+    Object valueAt(final Object values, final int idx) {
+        return Long.valueOf(((long[]) values)[idx]);
+    }
+
+
+
+
+    public boolean containsKey(final long key) {
+        return find(AtomicLongObjStore.hash(key), null, new int[1]) != null;
+    }
+
+
+    /**
+     * Returns the value for the key, or zero if the key is not present.
+     */
+    public long get(final long key) {
+        return getOrDefault(key, 0L);
+    }
+
+
+    public long getOrDefault(final long key, final long defaultValue) {
+        final int[] index = new int[1];
+        final Node node = find(AtomicLongObjStore.hash(key), null, index);
+        return (node != null) ? ((long[]) node.values)[index[0]] : defaultValue;
+    }
+
+
+
+
+    public AtomicLongLongStore put(final long key, final long value) {
+        return put(AtomicLongObjStore.hash(key), null, new long[] { key }, new long[] { value });
+    }
+
+
+    public AtomicLongLongStore remove(final long key) {
+        return remove(AtomicLongObjStore.hash(key), null);
+    }
+
+
+    @Override
+    public AtomicLongLongStore clear() {
+        return of();
+    }
+
+
+    public void forEach(final EntryConsumer action) {
+        forEachEntry((node, i) -> action.accept(((long[]) node.keys)[i], ((long[]) node.values)[i]));
+    }
+
+
+    public long[] keys() {
+        final long[] keys = new long[size()];
+        final int[] pos = new int[1];
+        forEach((k, v) -> keys[pos[0]++] = k);
+        return keys;
+    }
+
+
+
+
+    public static AtomicLongLongStore of() {
+        return INSTANCE;
+    }
+
+
+    private Object readResolve() {
+        // Keeps the empty store a singleton
+        return (this.size == 0L) ? INSTANCE : this;
+    }
+
+
+
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+
+        void accept(final long key, final long value);
+
+    }
+
+}
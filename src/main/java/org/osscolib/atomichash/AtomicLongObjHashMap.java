@@ -0,0 +1,120 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.Objects;
+import java.util.function.LongFunction;
+
+public class AtomicLongObjHashMap<V> extends BitmapTrieMap<AtomicLongObjStore<V>> {
+
+    /*
+     * Concurrent map with primitive long keys, based on an AtomicLongObjStore in the same way AtomicHashMap
+     * is based on an AtomicHashStore: reads are performed on the current store, and writes replace it by CAS.
+     */
+
+    private static final long serialVersionUID = 1620842379108290377L;
+
+
+
+    public AtomicLongObjHashMap() {
+        super(AtomicLongObjStore.of());
+    }
+
+
+
+
+    public boolean containsKey(final long key) {
+        return this.innerMap.get().containsKey(key);
+    }
+
+
+    public V get(final long key) {
+        return this.innerMap.get().get(key);
+    }
+
+
+    public V getOrDefault(final long key, final V defaultValue) {
+        return this.innerMap.get().getOrDefault(key, defaultValue);
+    }
+
+
+    public void forEach(final AtomicLongObjStore.EntryConsumer<? super V> action) {
+        Objects.requireNonNull(action);
+        this.innerMap.get().forEach(action);
+    }
+
+
+
+
+    public V put(final long key, final V value) {
+        AtomicLongObjStore<V> store;
+        V oldValue;
+        do {
+            store = this.innerMap.get();
+            oldValue = store.get(key);
+        } while (!this.innerMap.compareAndSet(store, store.put(key, value)));
+        return oldValue;
+    }
+
+
+    public V putIfAbsent(final long key, final V value) {
+        AtomicLongObjStore<V> store;
+        V oldValue;
+        do {
+            store = this.innerMap.get();
+            oldValue = store.get(key);
+            if (oldValue != null) {
+                return oldValue;
+            }
+        } while (!this.innerMap.compareAndSet(store, store.put(key, value)));
+        return null;
+    }
+
+
+    public V computeIfAbsent(final long key, final LongFunction<? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        AtomicLongObjStore<V> store;
+        V value;
+        do {
+            store = this.innerMap.get();
+            value = store.get(key);
+            if (value != null) {
+                return value;
+            }
+            value = mappingFunction.apply(key);
+            if (value == null) {
+                return null;
+            }
+        } while (!this.innerMap.compareAndSet(store, store.put(key, value)));
+        return value;
+    }
+
+
+    public V remove(final long key) {
+        AtomicLongObjStore<V> store;
+        V oldValue;
+        do {
+            store = this.innerMap.get();
+            oldValue = store.get(key);
+        } while (!this.innerMap.compareAndSet(store, store.remove(key)));
+        return oldValue;
+    }
+
+}
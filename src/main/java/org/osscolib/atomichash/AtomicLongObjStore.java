@@ -0,0 +1,182 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+public final class AtomicLongObjStore<V> extends BitmapTrie<AtomicLongObjStore<V>> {
+
+    /*
+     * Persistent store with primitive long keys, equivalent to an AtomicHashStore<Long,V> but without
+     * boxing keys and without any per-entry objects: keys are kept directly in long[] arrays at the nodes,
+     * next to their values.
+     *
+     * Node structure is that of BitmapTrie, keys being positioned by a bijective 64-bit mix of their bits,
+     * so two different keys can never have the same hash and no collision handling is needed.
+     */
+
+    private static final long serialVersionUID = -4721365405766914338L;
+
+    private static final long[] NO_KEYS = new long[0];
+    private static final Object[] NO_VALUES = new Object[0];
+
+    private static final AtomicLongObjStore INSTANCE = new AtomicLongObjStore<>(new Node(0, 0, NO_KEYS, NO_VALUES, NO_NODES), 0L);
+
+
+
+    private AtomicLongObjStore(final Node root, final long size) {
+        super(root, size, 64);
+    }
+
+
+
+
+    static long hash(final long key) {
+        // Murmur3 fmix64, which is bijective
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+
+    @Override
+    AtomicLongObjStore<V> withRoot(final Node root, final long size) {
+        return new AtomicLongObjStore<>(root, size);
+    }
+
+
+    @Override
+    Object newKeys(final int length) {
+        return (length == 0) ? NO_KEYS : new long[length];
+    }
+
+
+    @Override
+    Object newValues(final int length) {
+        return (length == 0) ? NO_VALUES : new Object[length];
+    }
+
+
+    @Override
+    long hashAt(final Object keys, final int idx) {
+        return hash(((long[]) keys)[idx]);
+    }
+
+
+    @Override
+    boolean matches(final Object keys, final int idx, final long hash, final Object key) {
+        // Hashes are bijective, so equal hashes mean equal keys
+        return hashAt(keys, idx) == hash;
+    }
+
+
+    @Override
+    boolean sameValue(final Object values, final int idx, final Object newValues) {
+        return ((Object[]) values)[idx] == ((Object[]) newValues)[0];
+    }
+
+
+    @Override
+    Object keyAt(final Object keys, final int idx) {
+        return Long.valueOf(((long[]) keys)[idx]);
+    }
+
+
+    @Override
+    Object valueAt(final Object values, final int idx) {
+        return ((Object[]) values)[idx];
+    }
+
+
+
+
+    public boolean containsKey(final long key) {
+        return find(hash(key), null, new int[1]) != null;
+    }
+
+
+    public V get(final long key) {
+        return getOrDefault(key, null);
+    }
+
+
+    public V getOrDefault(final long key, final V defaultValue) {
+        final int[] index = new int[1];
+        final Node node = find(hash(key), null, index);
+        return (node != null) ? (V) ((Object[]) node.values)[index[0]] : defaultValue;
+    }
+
+
+
+
+    public AtomicLongObjStore<V> put(final long key, final V value) {
+        return put(hash(key), null, new long[] { key }, new Object[] { value });
+    }
+
+
+    public AtomicLongObjStore<V> remove(final long key) {
+        return remove(hash(key), null);
+    }
+
+
+    @Override
+    public AtomicLongObjStore<V> clear() {
+        return of();
+    }
+
+
+    public void forEach(final EntryConsumer<? super V> action) {
+        forEachEntry((node, i) -> action.accept(((long[]) node.keys)[i], (V) ((Object[]) node.values)[i]));
+    }
+
+
+    public long[] keys() {
+        final long[] keys = new long[size()];
+        final int[] pos = new int[1];
+        forEach((k, v) -> keys[pos[0]++] = k);
+        return keys;
+    }
+
+
+
+
+    public static <V> AtomicLongObjStore<V> of() {
+        return INSTANCE;
+    }
+
+
+    private Object readResolve() {
+        // Keeps the empty store a singleton
+        return (this.size == 0L) ? INSTANCE : this;
+    }
+
+
+
+
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+
+        void accept(final long key, final V value);
+
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.Objects;
+import java.util.function.ToLongFunction;
+
+public class AtomicObjLongHashMap<K> extends BitmapTrieMap<AtomicObjLongStore<K>> {
+
+    /*
+     * Concurrent map with primitive long values, based on an AtomicObjLongStore in the same way AtomicHashMap
+     * is based on an AtomicHashStore. Absent keys are reported as having a zero value, which
+     * makes it directly usable as a map of counters (see addAndGet()).
+     */
+
+    private static final long serialVersionUID = 4168930250917746605L;
+
+
+
+    public AtomicObjLongHashMap() {
+        super(AtomicObjLongStore.of());
+    }
+
+
+
+
+    public boolean containsKey(final Object key) {
+        return this.innerMap.get().containsKey(key);
+    }
+
+
+    public long get(final Object key) {
+        return this.innerMap.get().get(key);
+    }
+
+
+    public long getOrDefault(final Object key, final long defaultValue) {
+        return this.innerMap.get().getOrDefault(key, defaultValue);
+    }
+
+
+    public void forEach(final AtomicObjLongStore.EntryConsumer<? super K> action) {
+        Objects.requireNonNull(action);
+        this.innerMap.get().forEach(action);
+    }
+
+
+
+
+    public long put(final K key, final long value) {
+        AtomicObjLongStore<K> store;
+        long oldValue;
+        do {
+            store = this.innerMap.get();
+            oldValue = store.get(key);
+        } while (!this.innerMap.compareAndSet(store, store.put(key, value)));
+        return oldValue;
+    }
+
+
+    public long addAndGet(final K key, final long delta) {
+        AtomicObjLongStore<K> store;
+        long value;
+        do {
+            store = this.innerMap.get();
+            value = store.get(key) + delta;
+        } while (!this.innerMap.compareAndSet(store, store.put(key, value)));
+        return value;
+    }
+
+
+    public long computeIfAbsent(final K key, final ToLongFunction<? super K> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        AtomicObjLongStore<K> store;
+        long value;
+        do {
+            store = this.innerMap.get();
+            if (store.containsKey(key)) {
+                return store.get(key);
+            }
+            value = mappingFunction.applyAsLong(key);
+        } while (!this.innerMap.compareAndSet(store, store.put(key, value)));
+        return value;
+    }
+
+
+    public long remove(final Object key) {
+        AtomicObjLongStore<K> store;
+        long oldValue;
+        do {
+            store = this.innerMap.get();
+            oldValue = store.get(key);
+        } while (!this.innerMap.compareAndSet(store, store.remove(key)));
+        return oldValue;
+    }
+
+}
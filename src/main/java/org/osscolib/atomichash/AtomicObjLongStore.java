@@ -0,0 +1,194 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.Objects;
+
+public final class AtomicObjLongStore<K> extends BitmapTrie<AtomicObjLongStore<K>> {
+
+    /*
+     * Persistent store with primitive long values, equivalent to an AtomicHashStore<K,Long> but without
+     * boxing values and without any per-entry objects: keys and values are kept directly in arrays at
+     * the nodes.
+     *
+     * Node structure is that of BitmapTrie, keys being positioned by their (32-bit) hash codes, so
+     * different keys can have the same hash and end up together in a collision node below the last level.
+     * As in AtomicHashStore, keys are hashed and compared by an Equivalence fixed at creation time.
+     */
+
+    private static final long serialVersionUID = 5526004936398520614L;
+
+    private static final Object[] NO_KEYS = new Object[0];
+    private static final long[] NO_VALUES = new long[0];
+
+    private static final Node EMPTY_ROOT = new Node(0, 0, NO_KEYS, NO_VALUES, NO_NODES);
+    private static final AtomicObjLongStore INSTANCE = new AtomicObjLongStore<>(EMPTY_ROOT, 0L, null);
+
+    // Null for key equality, same as in AtomicHashStore
+    private final Equivalence<Object> equivalence;
+
+
+
+    private AtomicObjLongStore(final Node root, final long size, final Equivalence<Object> equivalence) {
+        super(root, size, 32);
+        this.equivalence = equivalence;
+    }
+
+
+
+
+    private long hashOf(final Object key) {
+        return Integer.toUnsignedLong(AtomicHashStore.hash(key, this.equivalence));
+    }
+
+
+    @Override
+    AtomicObjLongStore<K> withRoot(final Node root, final long size) {
+        return new AtomicObjLongStore<>(root, size, this.equivalence);
+    }
+
+
+    @Override
+    Object newKeys(final int length) {
+        return (length == 0) ? NO_KEYS : new Object[length];
+    }
+
+
+    @Override
+    Object newValues(final int length) {
+        return (length == 0) ? NO_VALUES : new long[length];
+    }
+
+
+    @Override
+    long hashAt(final Object keys, final int idx) {
+        return hashOf(((Object[]) keys)[idx]);
+    }
+
+
+    @Override
+    boolean matches(final Object keys, final int idx, final long hash, final Object key) {
+        final Object k = ((Object[]) keys)[idx];
+        if (this.equivalence == null) {
+            return k == null ? key == null : k.equals(key);
+        }
+        return k == key || (k != null && key != null && this.equivalence.equivalent(k, key));
+    }
+
+
+    @Override
+    boolean sameValue(final Object values, final int idx, final Object newValues) {
+        return ((long[]) values)[idx] == ((long[]) newValues)[0];
+    }
+
+
+    @Override
+    Object keyAt(final Object keys, final int idx) {
+        return ((Object[]) keys)[idx];
+    }
+
+
+    @Override
+    Object valueAt(final Object values, final int idx) {
+        return Long.valueOf(((long[]) values)[idx]);
+    }
+
+
+
+
+    public boolean containsKey(final Object key) {
+        return find(hashOf(key), key, new int[1]) != null;
+    }
+
+
+    /**
+     * Returns the value for the key, or zero if the key is not present.
+     */
+    public long get(final Object key) {
+        return getOrDefault(key, 0L);
+    }
+
+
+    public long getOrDefault(final Object key, final long defaultValue) {
+        final int[] index = new int[1];
+        final Node node = find(hashOf(key), key, index);
+        return (node != null) ? ((long[]) node.values)[index[0]] : defaultValue;
+    }
+
+
+
+
+    public AtomicObjLongStore<K> put(final K key, final long value) {
+        return put(hashOf(key), key, new Object[] { key }, new long[] { value });
+    }
+
+
+    public AtomicObjLongStore<K> remove(final Object key) {
+        return remove(hashOf(key), key);
+    }
+
+
+    public Equivalence<? super K> equivalence() {
+        return (this.equivalence == null) ? Equivalence.equality() : (Equivalence<? super K>) this.equivalence;
+    }
+
+
+    @Override
+    public AtomicObjLongStore<K> clear() {
+        return (this.equivalence == null) ? of() : new AtomicObjLongStore<>(EMPTY_ROOT, 0L, this.equivalence);
+    }
+
+
+    public void forEach(final EntryConsumer<? super K> action) {
+        forEachEntry((node, i) -> action.accept((K) ((Object[]) node.keys)[i], ((long[]) node.values)[i]));
+    }
+
+
+
+
+    public static <K> AtomicObjLongStore<K> of() {
+        return INSTANCE;
+    }
+
+
+    public static <K> AtomicObjLongStore<K> of(final Equivalence<? super K> equivalence) {
+        // Key equivalence is fixed for the store and all the stores derived from it
+        Objects.requireNonNull(equivalence);
+        return (equivalence == Equivalence.equality()) ?
+                INSTANCE : new AtomicObjLongStore<>(EMPTY_ROOT, 0L, (Equivalence<Object>) equivalence);
+    }
+
+
+    private Object readResolve() {
+        // Keeps the empty store a singleton
+        return (this.size == 0L && this.equivalence == null) ? INSTANCE : this;
+    }
+
+
+
+
+    @FunctionalInterface
+    public interface EntryConsumer<K> {
+
+        void accept(final K key, final long value);
+
+    }
+
+}
@@ -0,0 +1,223 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.io.Serializable;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+public final class BiAtomicHashStore<K,V> implements Serializable {
+
+    /*
+     * Persistent bidirectional map: a forward (key -> value) and an inverse (value -> key) AtomicHashStore
+     * that are always modified together, and published together as a single immutable object. Values
+     * are unique, so lookups by value are simple hash lookups on the inverse store.
+     *
+     * Each BiAtomicHashStore is created together with its inverse view (which shares both stores, swapped),
+     * so that obtaining it via inverse() has no cost.
+     */
+
+    private static final long serialVersionUID = 2209581340385114795L;
+    private static final BiAtomicHashStore INSTANCE = new BiAtomicHashStore<>(AtomicHashStore.of(), AtomicHashStore.of());
+
+
+    private final AtomicHashStore<K,V> forward;
+    private final AtomicHashStore<V,K> backward;
+    private final BiAtomicHashStore<V,K> inverse;
+
+
+
+    private BiAtomicHashStore(final AtomicHashStore<K,V> forward, final AtomicHashStore<V,K> backward) {
+        super();
+        this.forward = forward;
+        this.backward = backward;
+        this.inverse = new BiAtomicHashStore<>(backward, forward, this);
+    }
+
+
+    private BiAtomicHashStore(
+            final AtomicHashStore<K,V> forward, final AtomicHashStore<V,K> backward,
+            final BiAtomicHashStore<V,K> inverse) {
+        super();
+        this.forward = forward;
+        this.backward = backward;
+        this.inverse = inverse;
+    }
+
+
+
+
+    public BiAtomicHashStore<V,K> inverse() {
+        return this.inverse;
+    }
+
+
+    public AtomicHashStore<K,V> asStore() {
+        return this.forward;
+    }
+
+
+    public int size() {
+        return this.forward.size();
+    }
+
+
+    public boolean isEmpty() {
+        return this.forward.isEmpty();
+    }
+
+
+    public boolean containsKey(final Object key) {
+        return this.forward.containsKey(key);
+    }
+
+
+    public boolean containsValue(final Object value) {
+        return this.backward.containsKey(value);
+    }
+
+
+    public V get(final Object key) {
+        return this.forward.get(key);
+    }
+
+
+    public K getKey(final Object value) {
+        return this.backward.get(value);
+    }
+
+
+    public void forEach(final BiConsumer<? super K, ? super V> action) {
+        this.forward.forEach(action);
+    }
+
+
+
+
+    /**
+     * Maps the key to the value. Throws IllegalArgumentException if the value is already mapped to a
+     * different key (see forcePut()).
+     */
+    public BiAtomicHashStore<K,V> put(final K key, final V value) {
+        if (this.backward.containsKey(value)) {
+            if (eq(this.backward.get(value), key)) {
+                return this;
+            }
+            throw new IllegalArgumentException("Value already present: " + value);
+        }
+        return doPut(this.forward, this.backward, key, value);
+    }
+
+
+    /**
+     * Maps the key to the value, removing any existing mapping for the value first.
+     */
+    public BiAtomicHashStore<K,V> forcePut(final K key, final V value) {
+        if (this.backward.containsKey(value)) {
+            final K oldKey = this.backward.get(value);
+            if (eq(oldKey, key)) {
+                return this;
+            }
+            return doPut(this.forward.remove(oldKey), this.backward.remove(value), key, value);
+        }
+        return doPut(this.forward, this.backward, key, value);
+    }
+
+
+    private static <K,V> BiAtomicHashStore<K,V> doPut(
+            final AtomicHashStore<K,V> forward, final AtomicHashStore<V,K> backward, final K key, final V value) {
+        // At this point the value is known not to be mapped in any of the stores
+        final AtomicHashStore<V,K> newBackward =
+                forward.containsKey(key) ? backward.remove(forward.get(key)) : backward;
+        return new BiAtomicHashStore<>(forward.put(key, value), newBackward.put(value, key));
+    }
+
+
+    public BiAtomicHashStore<K,V> remove(final Object key) {
+        if (!this.forward.containsKey(key)) {
+            return this;
+        }
+        final AtomicHashStore<K,V> newForward = this.forward.remove(key);
+        if (newForward.isEmpty()) {
+            return of();
+        }
+        return new BiAtomicHashStore<>(newForward, this.backward.remove(this.forward.get(key)));
+    }
+
+
+    public BiAtomicHashStore<K,V> removeValue(final Object value) {
+        final BiAtomicHashStore<V,K> newInverse = this.inverse.remove(value);
+        return (newInverse == this.inverse) ? this : newInverse.inverse;
+    }
+
+
+    public BiAtomicHashStore<K,V> clear() {
+        return of();
+    }
+
+
+
+
+    private static boolean eq(final Object o1, final Object o2) {
+        return o1 == o2 || (o1 != null && o1.equals(o2));
+    }
+
+
+    @Override
+    public boolean equals(final Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof BiAtomicHashStore)) {
+            return false;
+        }
+        return this.forward.equals(((BiAtomicHashStore<?,?>) o).forward);
+    }
+
+
+    @Override
+    public int hashCode() {
+        return this.forward.hashCode();
+    }
+
+
+    @Override
+    public String toString() {
+        return this.forward.toString();
+    }
+
+
+
+
+    public static <K,V> BiAtomicHashStore<K,V> of() {
+        return INSTANCE;
+    }
+
+
+    public static <K,V> BiAtomicHashStore<K,V> of(final AtomicHashStore<K,V> store) {
+        Objects.requireNonNull(store);
+        BiAtomicHashStore<K,V> biStore = of();
+        for (final AtomicHashStore.Entry<K,V> entry : store) {
+            biStore = biStore.put(entry.getKey(), entry.getValue());
+        }
+        return biStore;
+    }
+
+}
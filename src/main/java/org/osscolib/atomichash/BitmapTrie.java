@@ -0,0 +1,541 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+
+abstract class BitmapTrie<S extends BitmapTrie<S>> implements Serializable {
+
+    /*
+     * Base for the persistent stores that keep keys and values directly in (primitive or Object) arrays at
+     * the nodes, without any per-entry objects: AtomicIntObjStore, AtomicLongObjStore, AtomicObjLongStore,
+     * AtomicLongLongStore and AtomicHash64Store. Subclasses only provide their typed entry points and the
+     * few operations that depend on the actual types of their key and value arrays, which are only handled
+     * here by means of System.arraycopy(), so there is no boxing.
+     *
+     * Nodes are bitmap-indexed, 32-wide at every level, keeping separate (compacted) arrays for entries and
+     * for child nodes, the bitmaps indicating which of the 32 positions are occupied by each. Keys are
+     * positioned by a hash of hashBits bits (32 or 64), BITS at a time starting from the lowest ones. If
+     * the hash is a bijective mix of the key, two different keys never have the same hash and collisions
+     * never happen. Otherwise, keys with the same hash end up together in a collision node once all the
+     * bits of the hash have been used, in which they are simply kept in a list. Nodes never contain a single
+     * entry and no children (except the root), so the shape of the tree only depends on its contents.
+     *
+     * Entries being added are passed as single-element key and value arrays of the right type, so that
+     * they can be copied into the new nodes in the same way existing entries are.
+     */
+
+    private static final long serialVersionUID = 2466183937045513908L;
+
+    static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    static final Node[] NO_NODES = new Node[0];
+
+
+    final Node root;
+    final long size;
+    private final int collisionShift;
+
+
+
+    BitmapTrie(final Node root, final long size, final int hashBits) {
+        super();
+        this.root = root;
+        this.size = size;
+        // First multiple of BITS to go over the bits of the hash
+        this.collisionShift = (hashBits / BITS + 1) * BITS;
+    }
+
+
+
+
+    /*
+     * Operations depending on the types of the key and value arrays
+     */
+
+    abstract S withRoot(final Node root, final long size);
+
+    abstract Object newKeys(final int length);
+
+    abstract Object newValues(final int length);
+
+    // Hash of the key at the specified position
+    abstract long hashAt(final Object keys, final int idx);
+
+    // Whether the key at the specified position is the one being looked for, which has the specified hash.
+    // The key object is only used by stores that can have collisions (for the rest it can be null).
+    abstract boolean matches(final Object keys, final int idx, final long hash, final Object key);
+
+    abstract boolean sameValue(final Object values, final int idx, final Object newValues);
+
+    // Boxed key and value, only for equals(), hashCode() and toString()
+    abstract Object keyAt(final Object keys, final int idx);
+
+    abstract Object valueAt(final Object values, final int idx);
+
+    public abstract S clear();
+
+
+
+
+    private static int bit(final long hash, final int shift) {
+        return 1 << ((int) (hash >>> shift) & MASK);
+    }
+
+
+    private static int index(final int bitmap, final int bit) {
+        return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+
+    private int collisionIndex(final Node node, final long hash, final Object key) {
+        final int length = Array.getLength(node.keys);
+        for (int i = 0; i < length; i++) {
+            if (matches(node.keys, i, hash, key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+
+
+    /**
+     * Number of entries, or Integer.MAX_VALUE if there are more than that (see mappingCount()).
+     */
+    public int size() {
+        return (int) Math.min(this.size, Integer.MAX_VALUE);
+    }
+
+
+    public long mappingCount() {
+        return this.size;
+    }
+
+
+    public boolean isEmpty() {
+        return this.size == 0L;
+    }
+
+
+
+
+    /*
+     * Returns the node containing the entry for the key (null if there is none), setting its position in
+     * the node's arrays into index[0].
+     */
+    final Node find(final long hash, final Object key, final int[] index) {
+        Node node = this.root;
+        int shift = 0;
+        int bit;
+        while (shift < this.collisionShift) {
+            bit = bit(hash, shift);
+            if ((node.dataMap & bit) != 0) {
+                final int idx = index(node.dataMap, bit);
+                if (!matches(node.keys, idx, hash, key)) {
+                    return null;
+                }
+                index[0] = idx;
+                return node;
+            }
+            if ((node.nodeMap & bit) == 0) {
+                return null;
+            }
+            node = node.nodes[index(node.nodeMap, bit)];
+            shift += BITS;
+        }
+        final int idx = collisionIndex(node, hash, key);
+        if (idx < 0) {
+            return null;
+        }
+        index[0] = idx;
+        return node;
+    }
+
+
+
+
+    final S put(final long hash, final Object key, final Object newKeys, final Object newValues) {
+        final int[] sizeChange = new int[1];
+        final Node newRoot = put(this.root, hash, key, newKeys, newValues, 0, sizeChange);
+        if (newRoot == this.root) {
+            return (S) this;
+        }
+        return withRoot(newRoot, this.size + sizeChange[0]);
+    }
+
+
+    private Node put(
+            final Node node, final long hash, final Object key, final Object newKeys, final Object newValues,
+            final int shift, final int[] sizeChange) {
+
+        if (shift >= this.collisionShift) {
+            final int idx = collisionIndex(node, hash, key);
+            if (idx < 0) {
+                final int length = Array.getLength(node.keys);
+                sizeChange[0] = 1;
+                return new Node(
+                        0, 0, insertKey(node.keys, length, newKeys, 0), insertValue(node.values, length, newValues, 0),
+                        NO_NODES);
+            }
+            if (sameValue(node.values, idx, newValues)) {
+                return node;
+            }
+            return new Node(0, 0, node.keys, replaceValue(node.values, idx, newValues), NO_NODES);
+        }
+
+        final int bit = bit(hash, shift);
+
+        if ((node.dataMap & bit) != 0) {
+
+            final int idx = index(node.dataMap, bit);
+
+            if (matches(node.keys, idx, hash, key)) {
+                if (sameValue(node.values, idx, newValues)) {
+                    return node;
+                }
+                return new Node(node.dataMap, node.nodeMap, node.keys, replaceValue(node.values, idx, newValues), node.nodes);
+            }
+
+            // Position is taken by a different key: both go down to a new child node
+            final Node child =
+                    merge(node.keys, node.values, idx, hashAt(node.keys, idx), newKeys, newValues, 0, hash, shift + BITS);
+            sizeChange[0] = 1;
+            return new Node(
+                    node.dataMap ^ bit, node.nodeMap | bit,
+                    removeKey(node.keys, idx), removeValue(node.values, idx),
+                    insertNode(node.nodes, index(node.nodeMap, bit), child));
+
+        }
+
+        if ((node.nodeMap & bit) != 0) {
+            final int idx = index(node.nodeMap, bit);
+            final Node child = node.nodes[idx];
+            final Node newChild = put(child, hash, key, newKeys, newValues, shift + BITS, sizeChange);
+            if (newChild == child) {
+                return node;
+            }
+            final Node[] newNodes = node.nodes.clone();
+            newNodes[idx] = newChild;
+            return new Node(node.dataMap, node.nodeMap, node.keys, node.values, newNodes);
+        }
+
+        final int idx = index(node.dataMap, bit);
+        sizeChange[0] = 1;
+        return new Node(
+                node.dataMap | bit, node.nodeMap,
+                insertKey(node.keys, idx, newKeys, 0), insertValue(node.values, idx, newValues, 0), node.nodes);
+
+    }
+
+
+    private Node merge(
+            final Object keys1, final Object values1, final int idx1, final long hash1,
+            final Object keys2, final Object values2, final int idx2, final long hash2, final int shift) {
+
+        if (shift >= this.collisionShift) {
+            // Same hash for both keys
+            return new Node(0, 0, pair(keys1, idx1, keys2, idx2, true), pair(values1, idx1, values2, idx2, false), NO_NODES);
+        }
+
+        final int bit1 = bit(hash1, shift);
+        final int bit2 = bit(hash2, shift);
+
+        if (bit1 == bit2) {
+            final Node child = merge(keys1, values1, idx1, hash1, keys2, values2, idx2, hash2, shift + BITS);
+            return new Node(0, bit1, newKeys(0), newValues(0), new Node[] { child });
+        }
+
+        if (Integer.compareUnsigned(bit1, bit2) < 0) {
+            return new Node(
+                    bit1 | bit2, 0, pair(keys1, idx1, keys2, idx2, true), pair(values1, idx1, values2, idx2, false),
+                    NO_NODES);
+        }
+        return new Node(
+                bit1 | bit2, 0, pair(keys2, idx2, keys1, idx1, true), pair(values2, idx2, values1, idx1, false),
+                NO_NODES);
+
+    }
+
+
+
+
+    final S remove(final long hash, final Object key) {
+        final Node newRoot = remove(this.root, hash, key, 0);
+        if (newRoot == this.root) {
+            return (S) this;
+        }
+        return withRoot(newRoot, this.size - 1);
+    }
+
+
+    private Node remove(final Node node, final long hash, final Object key, final int shift) {
+
+        if (shift >= this.collisionShift) {
+            final int idx = collisionIndex(node, hash, key);
+            if (idx < 0) {
+                return node;
+            }
+            return new Node(0, 0, removeKey(node.keys, idx), removeValue(node.values, idx), NO_NODES);
+        }
+
+        final int bit = bit(hash, shift);
+
+        if ((node.dataMap & bit) != 0) {
+            final int idx = index(node.dataMap, bit);
+            if (!matches(node.keys, idx, hash, key)) {
+                return node;
+            }
+            return new Node(
+                    node.dataMap ^ bit, node.nodeMap, removeKey(node.keys, idx), removeValue(node.values, idx), node.nodes);
+        }
+
+        if ((node.nodeMap & bit) != 0) {
+
+            final int idx = index(node.nodeMap, bit);
+            final Node child = node.nodes[idx];
+            final Node newChild = remove(child, hash, key, shift + BITS);
+            if (newChild == child) {
+                return node;
+            }
+
+            if (newChild.nodeMap == 0 && Array.getLength(newChild.keys) == 1) {
+                // Child is left with only one entry, which is moved up to this node
+                final int dataIdx = index(node.dataMap, bit);
+                return new Node(
+                        node.dataMap | bit, node.nodeMap ^ bit,
+                        insertKey(node.keys, dataIdx, newChild.keys, 0),
+                        insertValue(node.values, dataIdx, newChild.values, 0),
+                        removeNode(node.nodes, idx));
+            }
+
+            final Node[] newNodes = node.nodes.clone();
+            newNodes[idx] = newChild;
+            return new Node(node.dataMap, node.nodeMap, node.keys, node.values, newNodes);
+
+        }
+
+        return node;
+
+    }
+
+
+
+
+    final void forEachEntry(final EntryVisitor visitor) {
+        forEachEntry(this.root, visitor);
+    }
+
+
+    private static void forEachEntry(final Node node, final EntryVisitor visitor) {
+        final int length = Array.getLength(node.keys);
+        for (int i = 0; i < length; i++) {
+            visitor.visit(node, i);
+        }
+        for (int i = 0; i < node.nodes.length; i++) {
+            forEachEntry(node.nodes[i], visitor);
+        }
+    }
+
+
+
+
+    private Object insertKey(final Object keys, final int idx, final Object source, final int sourceIdx) {
+        final int length = Array.getLength(keys);
+        return insert(keys, length, newKeys(length + 1), idx, source, sourceIdx);
+    }
+
+
+    private Object insertValue(final Object values, final int idx, final Object source, final int sourceIdx) {
+        final int length = Array.getLength(values);
+        return insert(values, length, newValues(length + 1), idx, source, sourceIdx);
+    }
+
+
+    private Object removeKey(final Object keys, final int idx) {
+        final int length = Array.getLength(keys);
+        return remove(keys, length, newKeys(length - 1), idx);
+    }
+
+
+    private Object removeValue(final Object values, final int idx) {
+        final int length = Array.getLength(values);
+        return remove(values, length, newValues(length - 1), idx);
+    }
+
+
+    private Object replaceValue(final Object values, final int idx, final Object source) {
+        final int length = Array.getLength(values);
+        final Object newArray = newValues(length);
+        System.arraycopy(values, 0, newArray, 0, length);
+        System.arraycopy(source, 0, newArray, idx, 1);
+        return newArray;
+    }
+
+
+    private Object pair(final Object array1, final int idx1, final Object array2, final int idx2, final boolean keys) {
+        final Object newArray = keys ? newKeys(2) : newValues(2);
+        System.arraycopy(array1, idx1, newArray, 0, 1);
+        System.arraycopy(array2, idx2, newArray, 1, 1);
+        return newArray;
+    }
+
+
+    private static Object insert(
+            final Object array, final int length, final Object newArray, final int idx,
+            final Object source, final int sourceIdx) {
+        System.arraycopy(array, 0, newArray, 0, idx);
+        System.arraycopy(source, sourceIdx, newArray, idx, 1);
+        System.arraycopy(array, idx, newArray, idx + 1, length - idx);
+        return newArray;
+    }
+
+
+    private static Object remove(final Object array, final int length, final Object newArray, final int idx) {
+        if (length > 1) {
+            System.arraycopy(array, 0, newArray, 0, idx);
+            System.arraycopy(array, idx + 1, newArray, idx, length - idx - 1);
+        }
+        return newArray;
+    }
+
+
+    private static Node[] insertNode(final Node[] nodes, final int idx, final Node node) {
+        final Node[] newNodes = new Node[nodes.length + 1];
+        System.arraycopy(nodes, 0, newNodes, 0, idx);
+        newNodes[idx] = node;
+        System.arraycopy(nodes, idx, newNodes, idx + 1, nodes.length - idx);
+        return newNodes;
+    }
+
+
+    private static Node[] removeNode(final Node[] nodes, final int idx) {
+        if (nodes.length == 1) {
+            return NO_NODES;
+        }
+        final Node[] newNodes = new Node[nodes.length - 1];
+        System.arraycopy(nodes, 0, newNodes, 0, idx);
+        System.arraycopy(nodes, idx + 1, newNodes, idx, nodes.length - idx - 1);
+        return newNodes;
+    }
+
+
+
+
+    /*
+     * equals() cannot rely on the node structure being the same (although it will be for the same
+     * contents) because values are compared with equals().
+     */
+    private static boolean eq(final Object o1, final Object o2) {
+        return o1 == null ? o2 == null : o1.equals(o2);
+    }
+
+
+    @Override
+    public boolean equals(final Object o) {
+
+        if (o == this) {
+            return true;
+        }
+
+        if (o == null || o.getClass() != getClass()) {
+            return false;
+        }
+
+        final BitmapTrie<?> other = (BitmapTrie<?>) o;
+        if (this.size != other.size) {
+            return false;
+        }
+
+        final int[] index = new int[1];
+        final boolean[] equal = new boolean[] { true };
+        forEachEntry((node, i) -> {
+            if (equal[0]) {
+                // Looked up with the hashing of the other store, as both might differ
+                final Node otherNode = other.find(other.hashAt(node.keys, i), keyAt(node.keys, i), index);
+                equal[0] = (otherNode != null && eq(valueAt(node.values, i), other.valueAt(otherNode.values, index[0])));
+            }
+        });
+        return equal[0];
+
+    }
+
+
+    @Override
+    public int hashCode() {
+        // Same as the hashCode of an equivalent Map with boxed keys and values
+        final int[] h = new int[1];
+        forEachEntry((node, i) -> {
+            final Object key = keyAt(node.keys, i);
+            final Object value = valueAt(node.values, i);
+            h[0] += (key == null ? 0 : key.hashCode()) ^ (value == null ? 0 : value.hashCode());
+        });
+        return h[0];
+    }
+
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("{");
+        forEachEntry((node, i) -> {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(keyAt(node.keys, i)).append('=').append(valueAt(node.values, i));
+        });
+        return sb.append('}').toString();
+    }
+
+
+
+
+    @FunctionalInterface
+    interface EntryVisitor {
+
+        void visit(final Node node, final int idx);
+
+    }
+
+
+    static final class Node implements Serializable {
+
+        private static final long serialVersionUID = -3183598276480623311L;
+
+        final int dataMap;
+        final int nodeMap;
+        final Object keys;   // int[], long[] or Object[], depending on the store
+        final Object values; // Object[] or long[], depending on the store
+        final Node[] nodes;
+
+        Node(final int dataMap, final int nodeMap, final Object keys, final Object values, final Node[] nodes) {
+            super();
+            this.dataMap = dataMap;
+            this.nodeMap = nodeMap;
+            this.keys = keys;
+            this.values = values;
+            this.nodes = nodes;
+        }
+
+    }
+
+}
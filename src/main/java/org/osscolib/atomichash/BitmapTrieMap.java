@@ -0,0 +1,97 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicReference;
+
+abstract class BitmapTrieMap<S extends BitmapTrie<S>> implements Serializable {
+
+    /*
+     * Base for the concurrent maps based on the BitmapTrie stores (AtomicIntObjHashMap, AtomicLongObjHashMap,
+     * AtomicObjLongHashMap and AtomicLongLongHashMap), in the same way AtomicHashMap is based on an
+     * AtomicHashStore: reads are performed on the current store, and writes replace it by CAS. Subclasses
+     * provide the typed reads and writes.
+     */
+
+    private static final long serialVersionUID = -5309719564873340513L;
+
+    final AtomicReference<S> innerMap;
+
+
+
+    BitmapTrieMap(final S store) {
+        super();
+        this.innerMap = new AtomicReference<>(store);
+    }
+
+
+
+
+    public S store() {
+        return this.innerMap.get();
+    }
+
+
+    public int size() {
+        return this.innerMap.get().size();
+    }
+
+
+    public boolean isEmpty() {
+        return this.innerMap.get().isEmpty();
+    }
+
+
+    public void clear() {
+        S store;
+        do {
+            store = this.innerMap.get();
+        } while (!store.isEmpty() && !this.innerMap.compareAndSet(store, store.clear()));
+    }
+
+
+
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof BitmapTrieMap)) {
+            return false;
+        }
+        // Stores are only equal to stores of the same class
+        return this.innerMap.get().equals(((BitmapTrieMap<?>) o).innerMap.get());
+    }
+
+
+    @Override
+    public int hashCode() {
+        return this.innerMap.get().hashCode();
+    }
+
+
+    @Override
+    public String toString() {
+        return this.innerMap.get().toString();
+    }
+
+}
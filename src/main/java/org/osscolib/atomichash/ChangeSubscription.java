@@ -0,0 +1,135 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+public final class ChangeSubscription<K,V> {
+
+    /*
+     * Subscription to the changes performed on an AtomicHashMap. Writers on the map only signal the
+     * subscription, and changes are computed afterwards in the subscriber's executor as the structural
+     * difference (see AtomicHashStore#diff()) between the last store seen and the current one. So writers
+     * never pay for per-key notifications, and several modifications performed in quick succession are
+     * delivered as one single batch containing their net effect.
+     *
+     * Batches are delivered one at a time and in order (never concurrently), even if the executor is
+     * multi-threaded. A listener throwing an exception cancels the subscription.
+     */
+
+    private final AtomicHashMap<K,V> map;
+    private final Consumer<? super List<AtomicHashStore.Change<K,V>>> listener;
+    private final Predicate<? super K> keyFilter;
+    private final Executor executor;
+
+    private final AtomicInteger wip; // signals pending to be processed
+    private AtomicHashStore<K,V> lastSeen; // only accessed by the drain, which is never concurrent
+    private volatile boolean cancelled;
+
+
+
+    ChangeSubscription(
+            final AtomicHashMap<K,V> map, final Consumer<? super List<AtomicHashStore.Change<K,V>>> listener,
+            final Predicate<? super K> keyFilter, final Executor executor) {
+        super();
+        this.map = map;
+        this.listener = Objects.requireNonNull(listener);
+        this.keyFilter = keyFilter;
+        this.executor = Objects.requireNonNull(executor);
+        this.wip = new AtomicInteger(0);
+        this.lastSeen = map.store();
+        this.cancelled = false;
+    }
+
+
+
+
+    public void cancel() {
+        this.cancelled = true;
+        this.map.unsubscribe(this);
+    }
+
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+
+
+
+    void signal() {
+        if (this.wip.getAndIncrement() != 0) {
+            // Drain is already scheduled or running, and will take care of this signal
+            return;
+        }
+        try {
+            this.executor.execute(this::drain);
+        } catch (final RejectedExecutionException e) {
+            // Changes will not be lost, but will be delivered with the next signal
+            this.wip.set(0);
+        }
+    }
+
+
+    private void drain() {
+
+        int missed = this.wip.get();
+        do {
+
+            if (this.cancelled) {
+                return;
+            }
+
+            final AtomicHashStore<K,V> current = this.map.store();
+            if (current != this.lastSeen) {
+
+                final List<AtomicHashStore.Change<K,V>> changes = new ArrayList<>();
+                current.diff(this.lastSeen, change -> {
+                    if (this.keyFilter == null || this.keyFilter.test(change.getKey())) {
+                        changes.add(change);
+                    }
+                });
+                this.lastSeen = current;
+
+                if (!changes.isEmpty()) {
+                    try {
+                        this.listener.accept(changes);
+                    } catch (final RuntimeException e) {
+                        cancel();
+                        throw e;
+                    }
+                }
+
+            }
+
+            missed = this.wip.addAndGet(-missed);
+
+        } while (missed != 0);
+
+    }
+
+}
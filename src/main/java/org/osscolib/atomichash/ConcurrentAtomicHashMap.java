@@ -0,0 +1,819 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+public class ConcurrentAtomicHashMap<K,V> implements ConcurrentMap<K,V>, Serializable {
+
+    /*
+     * Instead of a single atomic reference to the root of the trie (as in AtomicHashMap), this map places
+     * indirection nodes (INode) at the first INDIRECTION_LEVELS levels of the trie, and every write is
+     * performed by CAS-ing only the indirection node that contains the modified subtree. Subtrees below the
+     * indirection nodes are the usual immutable Node structures, so writers on different subtrees do not
+     * conflict with each other.
+     *
+     * Consistent snapshots are obtained the same way as in Prokopec et al.'s Ctrie: every indirection node
+     * belongs to a generation, and modifications to an indirection node are performed by means of a GCAS
+     * (generation-compare-and-swap) that only commits if the generation of the root has not changed in the
+     * meantime. Taking a snapshot just replaces the root with one of a new generation, which freezes all the
+     * indirection nodes of the previous one. Indirection nodes are then lazily renewed by writers. Given the
+     * number of indirection nodes is fixed, assembling an AtomicHashStore from a frozen root is O(1).
+     *
+     * Only snapshot() takes such consistent snapshots. Read-only bulk operations (iteration, equals(),
+     * hashCode(), serialization...) work on weakly consistent views of the current indirection nodes instead,
+     * so that readers never force writers into renewing indirection nodes.
+     */
+
+    private static final long serialVersionUID = -2238436950880213874L;
+
+    private static final int INDIRECTION_LEVELS = 2;
+    private static final int INDIRECTION_COUNT =
+            AtomicHashStore.childrenSizeFor(0) * AtomicHashStore.childrenSizeFor(1);
+    private static final int SUBTREE_LEVEL = INDIRECTION_LEVELS;
+
+
+    private final AtomicReference<Root<K,V>> root;
+    // Null for key equality, same as in AtomicHashStore
+    private final Equivalence<Object> equivalence;
+
+
+
+
+    public ConcurrentAtomicHashMap() {
+        this(Equivalence.equality());
+    }
+
+
+    public ConcurrentAtomicHashMap(final Equivalence<? super K> keyEquivalence) {
+        super();
+        Objects.requireNonNull(keyEquivalence);
+        this.root = new AtomicReference<>(new Root<>(new Generation(), new INode[INDIRECTION_COUNT]));
+        this.equivalence =
+                (keyEquivalence == Equivalence.equality()) ? null : (Equivalence<Object>) keyEquivalence;
+    }
+
+
+    public ConcurrentAtomicHashMap(final Map<? extends K, ? extends V> m) {
+        this();
+        Objects.requireNonNull(m);
+        putAll(m);
+    }
+
+
+
+
+    private int keyHash(final Object key) {
+        return AtomicHashStore.hash(key, this.equivalence);
+    }
+
+
+    static int index(final int hash) {
+        return (AtomicHashStore.pos(0, hash) * AtomicHashStore.childrenSizeFor(1)) + AtomicHashStore.pos(1, hash);
+    }
+
+
+
+
+    public AtomicHashStore<K,V> snapshot() {
+
+        Root<K,V> r;
+        do {
+            r = this.root.get();
+        } while (!this.root.compareAndSet(r, new Root<>(new Generation(), r.inodes)));
+
+        // From this point on, no modifications can be committed on the indirection nodes of r, so we can
+        // safely assemble a new AtomicHashStore with them.
+        return assemble(r.inodes);
+
+    }
+
+
+    private AtomicHashStore<K,V> weakSnapshot() {
+        // Read-only operations iterate the subtrees currently in the indirection nodes without changing the
+        // generation of the root (which would force every writer into renewing indirection nodes). As in
+        // ConcurrentHashMap, the result is only weakly consistent: each subtree is read at a different moment.
+        return assemble(this.root.get().inodes);
+    }
+
+
+    private AtomicHashStore<K,V> assemble(final INode<K,V>[] inodes) {
+
+        final int level1Size = AtomicHashStore.childrenSizeFor(1);
+
+        Node<K,V>[] level0Children = null;
+        Node<K,V>[] level1Children = null;
+        INode<K,V> inode;
+        Node<K,V> subtree;
+        for (int i = 0; i < inodes.length; i++) {
+            if (i % level1Size == 0) {
+                level1Children = null;
+            }
+            if ((inode = inodes[i]) != null && (subtree = gcasRead(inode).node) != null) {
+                if (level1Children == null) {
+                    level1Children = new Node[level1Size];
+                    if (level0Children == null) {
+                        level0Children = new Node[AtomicHashStore.childrenSizeFor(0)];
+                    }
+                    level0Children[i / level1Size] = new Node<>(level1Children);
+                }
+                level1Children[i % level1Size] = subtree;
+            }
+        }
+
+        if (level0Children == null) {
+            return AtomicHashStore.forRoot(null, this.equivalence);
+        }
+
+        return new AtomicHashStore<>(new Node<>(level0Children), this.equivalence);
+
+    }
+
+
+
+
+    private Node<K,V> read(final int hash) {
+        final INode<K,V> inode = this.root.get().inodes[index(hash)];
+        return (inode == null) ? null : gcasRead(inode).node;
+    }
+
+
+    private void update(final int hash, final SubtreeUpdate<K,V> update) {
+        updateAt(index(hash), update);
+    }
+
+
+    private void updateAt(final int index, final SubtreeUpdate<K,V> update) {
+
+        Root<K,V> r;
+        INode<K,V> inode;
+        Main<K,V> main;
+        Node<K,V> newSubtree;
+        while (true) {
+
+            r = this.root.get();
+            inode = r.inodes[index];
+
+            if (inode == null || inode.generation != r.generation) {
+                // This indirection node belongs to a previous generation (or does not exist yet), so we
+                // need to renew it before being able to perform any modifications on it
+                renew(r, index, inode);
+                continue;
+            }
+
+            main = gcasRead(inode);
+            newSubtree = update.apply(main.node);
+            if (newSubtree == main.node) {
+                return;
+            }
+
+            if (gcas(inode, main, new Main<>(newSubtree))) {
+                return;
+            }
+
+        }
+
+    }
+
+
+    private void renew(final Root<K,V> r, final int index, final INode<K,V> inode) {
+        final Node<K,V> subtree = (inode == null) ? null : gcasRead(inode).node;
+        final INode<K,V>[] newINodes = r.inodes.clone();
+        newINodes[index] = new INode<>(r.generation, new Main<>(subtree));
+        // If this fails, the caller will simply retry with the new root
+        this.root.compareAndSet(r, new Root<>(r.generation, newINodes));
+    }
+
+
+
+
+    private boolean gcas(final INode<K,V> inode, final Main<K,V> old, final Main<K,V> main) {
+        main.prev = old;
+        if (INode.MAIN.compareAndSet(inode, old, main)) {
+            gcasComplete(inode, main);
+            return main.prev == null;
+        }
+        return false;
+    }
+
+
+    private Main<K,V> gcasRead(final INode<K,V> inode) {
+        final Main<K,V> main = inode.main;
+        if (main.prev == null) {
+            return main;
+        }
+        return gcasComplete(inode, main);
+    }
+
+
+    private Main<K,V> gcasComplete(final INode<K,V> inode, final Main<K,V> main) {
+
+        Main<K,V> m = main;
+        Object prev;
+        while (true) {
+
+            prev = m.prev;
+            if (prev == null) {
+                // Already committed
+                return m;
+            }
+
+            if (prev instanceof Failed) {
+                // Proposal failed, roll back to the previous main node
+                final Main<K,V> failedPrev = ((Failed<K,V>) prev).prev;
+                if (INode.MAIN.compareAndSet(inode, m, failedPrev)) {
+                    return failedPrev;
+                }
+                m = inode.main;
+                continue;
+            }
+
+            if (this.root.get().generation == inode.generation) {
+                // Root generation has not changed, so we can commit
+                if (Main.PREV.compareAndSet(m, prev, null)) {
+                    return m;
+                }
+                continue;
+            }
+
+            // A snapshot has been taken since this proposal was made, so it must fail
+            Main.PREV.compareAndSet(m, prev, new Failed<>((Main<K,V>) prev));
+            m = inode.main;
+
+        }
+
+    }
+
+
+
+
+    @Override
+    public int size() {
+        final INode<K,V>[] inodes = this.root.get().inodes;
+        Node<K,V> subtree;
+        int size = 0;
+        for (int i = 0; i < inodes.length; i++) {
+            if (inodes[i] != null && (subtree = gcasRead(inodes[i]).node) != null) {
+                size += subtree.size();
+            }
+        }
+        return size;
+    }
+
+
+
+
+    @Override
+    public boolean isEmpty() {
+        final INode<K,V>[] inodes = this.root.get().inodes;
+        for (int i = 0; i < inodes.length; i++) {
+            if (inodes[i] != null && gcasRead(inodes[i]).node != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+
+
+    @Override
+    public boolean containsKey(final Object key) {
+        final int hash = keyHash(key);
+        return AtomicHashStore.getEntry(SUBTREE_LEVEL, hash, key, read(hash), this.equivalence) != null;
+    }
+
+
+
+
+    @Override
+    public boolean containsValue(final Object value) {
+        return weakSnapshot().containsValue(value);
+    }
+
+
+
+
+    @Override
+    public V get(final Object key) {
+        final int hash = keyHash(key);
+        final HashEntry<K,V> entry;
+        return (entry = AtomicHashStore.getEntry(SUBTREE_LEVEL, hash, key, read(hash), this.equivalence)) != null ? entry.value : null;
+    }
+
+
+    @Override
+    public V getOrDefault(final Object key, final V defaultValue) {
+        final int hash = keyHash(key);
+        final HashEntry<K,V> entry;
+        return (entry = AtomicHashStore.getEntry(SUBTREE_LEVEL, hash, key, read(hash), this.equivalence)) != null ? entry.value : defaultValue;
+    }
+
+
+
+
+    @Override
+    public V put(final K key, final V value) {
+        final DataEntry<K,V> entry = new DataEntry<>(keyHash(key), key, value);
+        final ValueHolder<V> vh = new ValueHolder<>();
+        update(entry.hash, subtree -> {
+            final HashEntry<K,V> old = AtomicHashStore.getEntry(SUBTREE_LEVEL, entry.hash, key, subtree, this.equivalence);
+            vh.val = (old != null) ? old.value : null;
+            return put(subtree, entry);
+        });
+        return vh.val;
+    }
+
+
+    private Node<K,V> put(final Node<K,V> subtree, final DataEntry<K,V> entry) {
+        return (subtree == null) ? new Node<>(entry) : subtree.put(SUBTREE_LEVEL, entry, null, this.equivalence);
+    }
+
+
+
+
+    @Override
+    public void putAll(final Map<? extends K, ? extends V> m) {
+
+        Objects.requireNonNull(m);
+
+        final int mapSize = m.size();
+        if (mapSize == 0) {
+            return;
+        }
+
+        final Iterator<? extends Map.Entry<? extends K,? extends V>> mapIter = m.entrySet().iterator();
+
+        Map.Entry<? extends K, ? extends V> mapEntry;
+        final DataEntry<K,V>[] entries = new DataEntry[mapSize];
+        for (int i = 0; i < entries.length; i++) {
+            mapEntry = mapIter.next();
+            entries[i] = new DataEntry<>(keyHash(mapEntry.getKey()), mapEntry.getKey(), mapEntry.getValue());
+        }
+
+        // Ordering will make all entries going to the same indirection node contiguous
+        Arrays.sort(entries);
+
+        int start = 0;
+        int end;
+        while (start < entries.length) {
+            final int index = index(entries[start].hash);
+            end = start + 1;
+            while (end < entries.length && index(entries[end].hash) == index) {
+                end++;
+            }
+            final int segmentStart = start;
+            final int segmentEnd = end;
+            update(entries[segmentStart].hash, subtree -> {
+                if (subtree == null) {
+                    return new Node<>(entries[segmentStart]).putAll(SUBTREE_LEVEL, entries, segmentStart + 1, segmentEnd, this.equivalence);
+                }
+                return subtree.putAll(SUBTREE_LEVEL, entries, segmentStart, segmentEnd, this.equivalence);
+            });
+            start = end;
+        }
+
+    }
+
+
+
+
+    @Override
+    public V putIfAbsent(final K key, final V value) {
+        final int hash = keyHash(key);
+        final ValueHolder<V> vh = new ValueHolder<>();
+        update(hash, subtree -> {
+            final HashEntry<K,V> old = AtomicHashStore.getEntry(SUBTREE_LEVEL, hash, key, subtree, this.equivalence);
+            vh.val = (old != null) ? old.value : null;
+            if (vh.val != null) {
+                return subtree;
+            }
+            return put(subtree, new DataEntry<>(hash, key, value));
+        });
+        return vh.val;
+    }
+
+
+
+
+    @Override
+    public V remove(final Object key) {
+        final int hash = keyHash(key);
+        final ValueHolder<V> vh = new ValueHolder<>();
+        update(hash, subtree -> {
+            final HashEntry<K,V> old = AtomicHashStore.getEntry(SUBTREE_LEVEL, hash, key, subtree, this.equivalence);
+            if (old == null) {
+                vh.val = null;
+                return subtree;
+            }
+            vh.val = old.value;
+            return subtree.remove(SUBTREE_LEVEL, hash, key, null, this.equivalence);
+        });
+        return vh.val;
+    }
+
+
+    @Override
+    public boolean remove(final Object key, final Object value) {
+        final int hash = keyHash(key);
+        final ValueHolder<Boolean> vh = new ValueHolder<>();
+        update(hash, subtree -> {
+            final HashEntry<K,V> old = AtomicHashStore.getEntry(SUBTREE_LEVEL, hash, key, subtree, this.equivalence);
+            if (old == null || !eq(old.value, value)) {
+                vh.val = Boolean.FALSE;
+                return subtree;
+            }
+            vh.val = Boolean.TRUE;
+            return subtree.remove(SUBTREE_LEVEL, hash, key, null, this.equivalence);
+        });
+        return vh.val.booleanValue();
+    }
+
+
+
+
+    @Override
+    public void forEach(final BiConsumer<? super K, ? super V> action) {
+        weakSnapshot().forEach(action);
+    }
+
+
+
+
+    @Override
+    public V replace(final K key, final V value) {
+        final int hash = keyHash(key);
+        final ValueHolder<V> vh = new ValueHolder<>();
+        update(hash, subtree -> {
+            final HashEntry<K,V> old = AtomicHashStore.getEntry(SUBTREE_LEVEL, hash, key, subtree, this.equivalence);
+            if (old == null) {
+                vh.val = null;
+                return subtree;
+            }
+            vh.val = old.value;
+            return subtree.put(SUBTREE_LEVEL, new DataEntry<>(hash, key, value), null, this.equivalence);
+        });
+        return vh.val;
+    }
+
+
+    @Override
+    public boolean replace(final K key, final V oldValue, final V newValue) {
+        final int hash = keyHash(key);
+        final ValueHolder<Boolean> vh = new ValueHolder<>();
+        update(hash, subtree -> {
+            final HashEntry<K,V> old = AtomicHashStore.getEntry(SUBTREE_LEVEL, hash, key, subtree, this.equivalence);
+            if (old == null || !eq(old.value, oldValue)) {
+                vh.val = Boolean.FALSE;
+                return subtree;
+            }
+            vh.val = Boolean.TRUE;
+            return subtree.put(SUBTREE_LEVEL, new DataEntry<>(hash, key, newValue), null, this.equivalence);
+        });
+        return vh.val.booleanValue();
+    }
+
+
+
+
+    @Override
+    public void replaceAll(final BiFunction<? super K, ? super V, ? extends V> function) {
+        Objects.requireNonNull(function);
+        for (int i = 0; i < INDIRECTION_COUNT; i++) {
+            updateAt(i, subtree -> {
+                if (subtree == null) {
+                    return null;
+                }
+                final AtomicHashStore<K,V> store = new AtomicHashStore<>(subtree);
+                final DataEntry<K,V>[] entries = new DataEntry[subtree.size()];
+                int n = 0;
+                HashEntry<K,V> entry;
+                for (final AtomicHashStore.Entry<K,V> e : store) {
+                    entry = (HashEntry<K,V>) e;
+                    entries[n++] = new DataEntry<>(entry.hash, entry.key, function.apply(entry.key, entry.value));
+                }
+                // Ordering is kept because keys do not change
+                return new Node<>(entries[0]).putAll(SUBTREE_LEVEL, entries, 1, entries.length, this.equivalence);
+            });
+        }
+    }
+
+
+
+
+    @Override
+    public V computeIfAbsent(final K key, final Function<? super K, ? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        final int hash = keyHash(key);
+        final ValueHolder<V> vh = new ValueHolder<>();
+        update(hash, subtree -> {
+            final HashEntry<K,V> old = AtomicHashStore.getEntry(SUBTREE_LEVEL, hash, key, subtree, this.equivalence);
+            if (old != null && old.value != null) {
+                vh.val = old.value;
+                return subtree;
+            }
+            vh.val = mappingFunction.apply(key);
+            if (vh.val == null) {
+                return subtree;
+            }
+            return put(subtree, new DataEntry<>(hash, key, vh.val));
+        });
+        return vh.val;
+    }
+
+
+
+
+    @Override
+    public V computeIfPresent(final K key, final BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        final int hash = keyHash(key);
+        final ValueHolder<V> vh = new ValueHolder<>();
+        update(hash, subtree -> {
+            final HashEntry<K,V> old = AtomicHashStore.getEntry(SUBTREE_LEVEL, hash, key, subtree, this.equivalence);
+            if (old == null || old.value == null) {
+                vh.val = null;
+                return subtree;
+            }
+            vh.val = remappingFunction.apply(key, old.value);
+            if (vh.val == null) {
+                return subtree.remove(SUBTREE_LEVEL, hash, key, null, this.equivalence);
+            }
+            return subtree.put(SUBTREE_LEVEL, new DataEntry<>(hash, key, vh.val), null, this.equivalence);
+        });
+        return vh.val;
+    }
+
+
+
+
+    @Override
+    public V compute(final K key, final BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        final int hash = keyHash(key);
+        final ValueHolder<V> vh = new ValueHolder<>();
+        update(hash, subtree -> {
+            final HashEntry<K,V> old = AtomicHashStore.getEntry(SUBTREE_LEVEL, hash, key, subtree, this.equivalence);
+            vh.val = remappingFunction.apply(key, (old != null) ? old.value : null);
+            if (vh.val == null) {
+                return (old == null) ? subtree : subtree.remove(SUBTREE_LEVEL, hash, key, null, this.equivalence);
+            }
+            return put(subtree, new DataEntry<>(hash, key, vh.val));
+        });
+        return vh.val;
+    }
+
+
+
+
+    @Override
+    public V merge(final K key, final V value, final BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        Objects.requireNonNull(value);
+        final int hash = keyHash(key);
+        final ValueHolder<V> vh = new ValueHolder<>();
+        update(hash, subtree -> {
+            final HashEntry<K,V> old = AtomicHashStore.getEntry(SUBTREE_LEVEL, hash, key, subtree, this.equivalence);
+            vh.val = (old == null || old.value == null) ? value : remappingFunction.apply(old.value, value);
+            if (vh.val == null) {
+                return subtree.remove(SUBTREE_LEVEL, hash, key, null, this.equivalence);
+            }
+            return put(subtree, new DataEntry<>(hash, key, vh.val));
+        });
+        return vh.val;
+    }
+
+
+
+
+    @Override
+    public void clear() {
+        // Changing the generation of the root makes any pending modifications on the old indirection nodes fail
+        this.root.set(new Root<>(new Generation(), new INode[INDIRECTION_COUNT]));
+    }
+
+
+
+
+    @Override
+    public Set<Map.Entry<K,V>> entrySet() {
+        return new Sets.MapEntrySet<>(weakSnapshot());
+    }
+
+
+    @Override
+    public Set<K> keySet() {
+        return new Sets.MapKeySet<>(weakSnapshot());
+    }
+
+
+    @Override
+    public Collection<V> values() {
+        return new Collections.MapValueCollection<>(weakSnapshot());
+    }
+
+
+
+
+    @Override
+    public boolean equals(final Object o) {
+
+        if (this == o) {
+            return true;
+        }
+
+        if (o instanceof ConcurrentAtomicHashMap) {
+            return weakSnapshot().equals(((ConcurrentAtomicHashMap<?,?>) o).weakSnapshot());
+        }
+
+        if (o instanceof Map) { // Map#equals() requires being able to compare with any other Map implementation
+
+            final Map<?,?> m = (Map<?,?>)o;
+            final AtomicHashStore<K,V> st = weakSnapshot();
+
+            if (st.size() != m.size()) {
+                return false;
+            }
+
+            HashEntry<K,V> entry;
+            for (final AtomicHashStore.Entry<K, V> e : st) {
+                entry = (HashEntry<K,V>)e;
+                if (entry.value == null) {
+                    if (!(m.get(entry.key) == null && m.containsKey(entry.key))) {
+                        return false;
+                    }
+                } else {
+                    if (!entry.value.equals(m.get(entry.key))) {
+                        return false;
+                    }
+                }
+            }
+
+            return true;
+
+        }
+
+        return false;
+
+    }
+
+
+    @Override
+    public int hashCode() {
+        return weakSnapshot().hashCode();
+    }
+
+
+
+
+    private Object writeReplace() {
+        return new SerializationProxy<>(weakSnapshot());
+    }
+
+
+    private void readObject(final java.io.ObjectInputStream stream) throws java.io.InvalidObjectException {
+        throw new java.io.InvalidObjectException("Serialization proxy required");
+    }
+
+
+
+
+    /**
+     * Equivalent to Objects.equals(), but by being called only from
+     * HashEntry we might benefit from runtime profile information on the
+     * type of o1. See java.util.AbstractMap#eq().
+     *
+     * Do not replace with Object.equals until JDK-8015417 is resolved.
+     */
+    private static boolean eq(final Object o1, final Object o2) {
+        return o1 == null ? o2 == null : o1.equals(o2);
+    }
+
+
+
+
+    private interface SubtreeUpdate<K,V> {
+        Node<K,V> apply(final Node<K,V> subtree);
+    }
+
+
+    private static final class Generation {
+        // Only identity matters
+    }
+
+
+    private static final class Root<K,V> {
+
+        final Generation generation;
+        final INode<K,V>[] inodes; // can contain many nulls, and must never be modified once published
+
+        Root(final Generation generation, final INode<K,V>[] inodes) {
+            super();
+            this.generation = generation;
+            this.inodes = inodes;
+        }
+
+    }
+
+
+    private static final class INode<K,V> {
+
+        static final AtomicReferenceFieldUpdater<INode,Main> MAIN =
+                AtomicReferenceFieldUpdater.newUpdater(INode.class, Main.class, "main");
+
+        final Generation generation;
+        volatile Main<K,V> main;
+
+        INode(final Generation generation, final Main<K,V> main) {
+            super();
+            this.generation = generation;
+            this.main = main;
+        }
+
+    }
+
+
+    private static final class Main<K,V> {
+
+        static final AtomicReferenceFieldUpdater<Main,Object> PREV =
+                AtomicReferenceFieldUpdater.newUpdater(Main.class, Object.class, "prev");
+
+        final Node<K,V> node; // can be null if the subtree is empty
+        volatile Object prev; // null if committed, a Main if proposed, a Failed if its proposal failed
+
+        Main(final Node<K,V> node) {
+            super();
+            this.node = node;
+        }
+
+    }
+
+
+    private static final class Failed<K,V> {
+
+        final Main<K,V> prev;
+
+        Failed(final Main<K,V> prev) {
+            super();
+            this.prev = prev;
+        }
+
+    }
+
+
+    private static final class ValueHolder<V> {
+        private V val = null;
+    }
+
+
+    private static final class SerializationProxy<K,V> implements Serializable {
+
+        private static final long serialVersionUID = 4297012373094584826L;
+
+        private final AtomicHashStore<K,V> store;
+
+        SerializationProxy(final AtomicHashStore<K,V> store) {
+            super();
+            this.store = store;
+        }
+
+        private Object readResolve() {
+            final ConcurrentAtomicHashMap<K,V> map = new ConcurrentAtomicHashMap<>(this.store.equivalence());
+            for (final AtomicHashStore.Entry<K,V> entry : this.store) {
+                map.put(entry.getKey(), entry.getValue());
+            }
+            return map;
+        }
+
+    }
+
+}
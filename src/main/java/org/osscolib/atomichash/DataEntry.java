@@ -34,8 +34,13 @@
 
 
     DataEntry(final K key, final V value) {
+        this(AtomicHashStore.hash(key), key, value);
+    }
+
+
+    DataEntry(final int hash, final K key, final V value) {
         super();
-        this.hash = AtomicHashStore.hash(key);
+        this.hash = hash;
         this.key = key;
         this.value = value;
     }
@@ -0,0 +1,148 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+final class Diffs {
+
+    /*
+     * Structural differences between two tries. Given stores are persistent, two versions of a store share
+     * all the nodes that were not affected by the modifications performed between them, so whole subtrees
+     * can be skipped just by comparing node identity and the cost of a diff is proportional to the amount
+     * of changes, not to the size of the stores.
+     *
+     * In the same way, entries are compared by identity: an entry that has been put again (even with an
+     * equal value) is reported as a change, as it was actually written.
+     */
+
+
+    static <K,V> void diff(
+            final int level, final Node<K,V> from, final Node<K,V> to,
+            final Consumer<? super AtomicHashStore.Change<K,V>> changeConsumer, final Equivalence<Object> equivalence) {
+
+        if (from == to) {
+            return;
+        }
+
+        if (from == null) {
+            final Iterator<AtomicHashStore.Entry<K,V>> iter = new Iterators.StoreEntryIterator<>(to);
+            while (iter.hasNext()) {
+                changeConsumer.accept(new StoreChange<>(null, (HashEntry<K,V>) iter.next()));
+            }
+            return;
+        }
+
+        if (to == null) {
+            final Iterator<AtomicHashStore.Entry<K,V>> iter = new Iterators.StoreEntryIterator<>(from);
+            while (iter.hasNext()) {
+                changeConsumer.accept(new StoreChange<>((HashEntry<K,V>) iter.next(), null));
+            }
+            return;
+        }
+
+        if (from.children != null && to.children != null) {
+            for (int i = 0; i < from.children.length; i++) {
+                diff(level + 1, from.children[i], to.children[i], changeConsumer, equivalence);
+            }
+            return;
+        }
+
+        // At least one of the nodes contains data. Both subtrees will be small here unless a whole subtree
+        // has just been created or removed, in which case we need to go through it anyway.
+
+        Iterator<AtomicHashStore.Entry<K,V>> iter = new Iterators.StoreEntryIterator<>(from);
+        HashEntry<K,V> fromEntry;
+        HashEntry<K,V> toEntry;
+        while (iter.hasNext()) {
+            fromEntry = (HashEntry<K,V>) iter.next();
+            toEntry = AtomicHashStore.getEntry(level, fromEntry.hash, fromEntry.key, to, equivalence);
+            if (toEntry != fromEntry) {
+                changeConsumer.accept(new StoreChange<>(fromEntry, toEntry));
+            }
+        }
+
+        iter = new Iterators.StoreEntryIterator<>(to);
+        while (iter.hasNext()) {
+            toEntry = (HashEntry<K,V>) iter.next();
+            if (AtomicHashStore.getEntry(level, toEntry.hash, toEntry.key, from, equivalence) == null) {
+                changeConsumer.accept(new StoreChange<>(null, toEntry));
+            }
+        }
+
+    }
+
+
+
+
+    private static final class StoreChange<K,V> implements AtomicHashStore.Change<K,V> {
+
+        private final HashEntry<K,V> oldEntry;
+        private final HashEntry<K,V> newEntry;
+
+        StoreChange(final HashEntry<K,V> oldEntry, final HashEntry<K,V> newEntry) {
+            super();
+            this.oldEntry = oldEntry;
+            this.newEntry = newEntry;
+        }
+
+        @Override
+        public K getKey() {
+            return (this.newEntry != null) ? this.newEntry.key : this.oldEntry.key;
+        }
+
+        @Override
+        public V getOldValue() {
+            return (this.oldEntry != null) ? this.oldEntry.value : null;
+        }
+
+        @Override
+        public V getNewValue() {
+            return (this.newEntry != null) ? this.newEntry.value : null;
+        }
+
+        @Override
+        public boolean isInsertion() {
+            return this.oldEntry == null;
+        }
+
+        @Override
+        public boolean isRemoval() {
+            return this.newEntry == null;
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + ": " +
+                    (isInsertion() ? "(none)" : String.valueOf(getOldValue())) + " -> " +
+                    (isRemoval() ? "(none)" : String.valueOf(getNewValue()));
+        }
+
+    }
+
+
+
+
+    private Diffs() {
+        super();
+    }
+
+}
@@ -0,0 +1,389 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.io.Serializable;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Objects;
+
+public abstract class Equivalence<T> implements Serializable {
+
+    /*
+     * Strategy for determining the hash of keys and whether two keys are the same key, fixed for each
+     * AtomicHashStore at creation time. This allows e.g. identity-based stores or stores keyed by array
+     * contents without needing to wrap keys (see AtomicHashStore.of(Equivalence)).
+     *
+     * Implementations will never be called with null arguments (nulls are handled by the stores), nor
+     * with two references to the same object. Stores using an equivalence other than equality() do not
+     * honour the general contract of equals() and hashCode() on their keys, in the same way
+     * java.util.IdentityHashMap does not.
+     *
+     * Stores exposed to keys chosen by third parties can be protected against hash flooding by using a
+     * seeded equivalence (which mixes hashes with a random seed so that trie shape cannot be predicted, but
+     * cannot separate keys whose base hashes are already equal) or, for String keys, a keyed one (which does
+     * not use String.hashCode() at all, so that keys with colliding hash codes cannot be crafted either).
+     */
+
+    private static final long serialVersionUID = -4296126394434564213L;
+
+    private static final Equivalence<Object> EQUALITY = new Equality();
+    private static final Equivalence<Object> IDENTITY = new Identity();
+    private static final Equivalence<byte[]> BYTE_ARRAY_CONTENT = new ByteArrayContent();
+    private static final Equivalence<char[]> CHAR_ARRAY_CONTENT = new CharArrayContent();
+    private static final Equivalence<String> CASE_INSENSITIVE = new CaseInsensitive();
+
+
+
+    protected Equivalence() {
+        super();
+    }
+
+
+    public abstract int hash(final T key);
+
+    public abstract boolean equivalent(final T key1, final T key2);
+
+
+
+
+    public static Equivalence<Object> equality() {
+        return EQUALITY;
+    }
+
+
+    public static Equivalence<Object> identity() {
+        return IDENTITY;
+    }
+
+
+    public static Equivalence<byte[]> byteArrayContent() {
+        return BYTE_ARRAY_CONTENT;
+    }
+
+
+    public static Equivalence<char[]> charArrayContent() {
+        return CHAR_ARRAY_CONTENT;
+    }
+
+
+    public static Equivalence<String> caseInsensitive() {
+        return CASE_INSENSITIVE;
+    }
+
+
+    /**
+     * Wraps an equivalence so that its hashes are mixed with a random seed, making the positions of keys
+     * in the trie unpredictable.
+     * <p>
+     * Note the seed is applied to the hash of the wrapped equivalence, so keys with equal base hashes
+     * still collide fully after seeding. Seeding {@link #equality()} is therefore no protection against
+     * String keys crafted to have the same String.hashCode() (which is easy to do): use
+     * {@link #keyedStrings()} for those.
+     */
+    public static <T> Equivalence<T> seeded(final Equivalence<T> equivalence) {
+        return seeded(equivalence, RandomHolder.RANDOM.nextInt());
+    }
+
+
+    /**
+     * Same as {@link #seeded(Equivalence)}, with an explicit seed. The same caveat about keys with
+     * equal base hashes applies.
+     */
+    public static <T> Equivalence<T> seeded(final Equivalence<T> equivalence, final int seed) {
+        Objects.requireNonNull(equivalence);
+        return new Seeded<>(equivalence, seed);
+    }
+
+
+    public static Equivalence<String> keyedStrings() {
+        return keyedStrings(RandomHolder.RANDOM.nextLong(), RandomHolder.RANDOM.nextLong());
+    }
+
+
+    public static Equivalence<String> keyedStrings(final long k0, final long k1) {
+        return new KeyedStrings(k0, k1);
+    }
+
+
+
+
+    static int fmix32(final int hash) {
+        // Murmur3 fmix32, which is bijective
+        int h = hash;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+
+
+
+    private static final class Equality extends Equivalence<Object> {
+
+        private static final long serialVersionUID = 2946218460914012917L;
+
+        @Override
+        public int hash(final Object key) {
+            return key.hashCode();
+        }
+
+        @Override
+        public boolean equivalent(final Object key1, final Object key2) {
+            return key1.equals(key2);
+        }
+
+        private Object readResolve() {
+            return EQUALITY;
+        }
+
+    }
+
+
+    private static final class Identity extends Equivalence<Object> {
+
+        private static final long serialVersionUID = -6290436817447271352L;
+
+        @Override
+        public int hash(final Object key) {
+            return System.identityHashCode(key);
+        }
+
+        @Override
+        public boolean equivalent(final Object key1, final Object key2) {
+            // Same references never get here
+            return false;
+        }
+
+        private Object readResolve() {
+            return IDENTITY;
+        }
+
+    }
+
+
+    private static final class ByteArrayContent extends Equivalence<byte[]> {
+
+        private static final long serialVersionUID = 5160474123950340183L;
+
+        @Override
+        public int hash(final byte[] key) {
+            return Arrays.hashCode(key);
+        }
+
+        @Override
+        public boolean equivalent(final byte[] key1, final byte[] key2) {
+            return Arrays.equals(key1, key2);
+        }
+
+        private Object readResolve() {
+            return BYTE_ARRAY_CONTENT;
+        }
+
+    }
+
+
+    private static final class CharArrayContent extends Equivalence<char[]> {
+
+        private static final long serialVersionUID = -1517723081470651338L;
+
+        @Override
+        public int hash(final char[] key) {
+            return Arrays.hashCode(key);
+        }
+
+        @Override
+        public boolean equivalent(final char[] key1, final char[] key2) {
+            return Arrays.equals(key1, key2);
+        }
+
+        private Object readResolve() {
+            return CHAR_ARRAY_CONTENT;
+        }
+
+    }
+
+
+    private static final class CaseInsensitive extends Equivalence<String> {
+
+        private static final long serialVersionUID = 8571440389267001956L;
+
+        @Override
+        public int hash(final String key) {
+            int h = 0;
+            for (int i = 0; i < key.length(); i++) {
+                h = 31 * h + Character.toLowerCase(Character.toUpperCase(key.charAt(i)));
+            }
+            return h;
+        }
+
+        @Override
+        public boolean equivalent(final String key1, final String key2) {
+            return key1.equalsIgnoreCase(key2);
+        }
+
+        private Object readResolve() {
+            return CASE_INSENSITIVE;
+        }
+
+    }
+
+
+    private static final class Seeded<T> extends Equivalence<T> {
+
+        private static final long serialVersionUID = 3640212297411596851L;
+
+        private final Equivalence<T> equivalence;
+        private final int seed;
+
+        Seeded(final Equivalence<T> equivalence, final int seed) {
+            super();
+            this.equivalence = equivalence;
+            this.seed = seed;
+        }
+
+        @Override
+        public int hash(final T key) {
+            return fmix32(this.equivalence.hash(key) ^ this.seed);
+        }
+
+        @Override
+        public boolean equivalent(final T key1, final T key2) {
+            return this.equivalence.equivalent(key1, key2);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Seeded)) {
+                return false;
+            }
+            final Seeded<?> other = (Seeded<?>) o;
+            return this.seed == other.seed && this.equivalence.equals(other.equivalence);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.equivalence.hashCode() + this.seed;
+        }
+
+    }
+
+
+    private static final class KeyedStrings extends Equivalence<String> {
+
+        // SipHash-1-3 on the UTF-16 code units of the string, folded to 32 bits
+
+        private static final long serialVersionUID = -8001558430587391625L;
+
+        private final long k0;
+        private final long k1;
+
+        KeyedStrings(final long k0, final long k1) {
+            super();
+            this.k0 = k0;
+            this.k1 = k1;
+        }
+
+        @Override
+        public int hash(final String key) {
+
+            long v0 = this.k0 ^ 0x736f6d6570736575L;
+            long v1 = this.k1 ^ 0x646f72616e646f6dL;
+            long v2 = this.k0 ^ 0x6c7967656e657261L;
+            long v3 = this.k1 ^ 0x7465646279746573L;
+
+            final int length = key.length();
+            final int blockEnd = length & ~3;
+            long m;
+            for (int i = 0; i < blockEnd; i += 4) {
+                m = (long) key.charAt(i) | ((long) key.charAt(i + 1) << 16)
+                        | ((long) key.charAt(i + 2) << 32) | ((long) key.charAt(i + 3) << 48);
+                v3 ^= m;
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+                v0 ^= m;
+            }
+
+            // Last block: remaining chars (at most 3) and the length in bytes
+            m = ((long) (length * 2) & 0xFF) << 56;
+            for (int i = blockEnd, shift = 0; i < length; i++, shift += 16) {
+                m |= (long) key.charAt(i) << shift;
+            }
+            v3 ^= m;
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            v0 ^= m;
+
+            v2 ^= 0xFF;
+            for (int r = 0; r < 3; r++) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            }
+
+            final long h = v0 ^ v1 ^ v2 ^ v3;
+            return (int) (h ^ (h >>> 32));
+
+        }
+
+        @Override
+        public boolean equivalent(final String key1, final String key2) {
+            return key1.equals(key2);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof KeyedStrings)) {
+                return false;
+            }
+            final KeyedStrings other = (KeyedStrings) o;
+            return this.k0 == other.k0 && this.k1 == other.k1;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(this.k0) * 31 + Long.hashCode(this.k1);
+        }
+
+    }
+
+
+    private static final class RandomHolder {
+
+        // Lazily initialised, so that SecureRandom is only seeded if seeded equivalences are actually used
+        static final SecureRandom RANDOM = new SecureRandom();
+
+    }
+
+}
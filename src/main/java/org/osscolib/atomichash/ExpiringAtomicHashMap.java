@@ -0,0 +1,489 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+public class ExpiringAtomicHashMap<K,V> {
+
+    /*
+     * Map in which every entry has a time-to-live. Entries are kept in an AtomicHashStore together with
+     * their deadline, and reads simply treat entries past their deadline as absent, so reads never write.
+     *
+     * Expired entries are physically removed by means of a hierarchical timer wheel: every write schedules
+     * its entry in the wheel, and whenever the wheel advances (on writes, once per tick at most, or explicitly
+     * by calling expire()) all the entries that became due are removed from the store at once, by means of
+     * a StoreEditor. So removal costs one CAS per tick instead of one per key, and there is never a need to
+     * scan the whole map. Timers belonging to entries that were replaced or removed in the meantime are
+     * recognised by identity and simply ignored.
+     *
+     * The wheel has WHEEL_LEVELS levels of WHEEL_SIZE buckets each, the buckets in each level spanning
+     * WHEEL_SIZE times the time spanned by the buckets in the level below. Timers are placed in the lowest
+     * level in which their bucket differs from the current one, and are cascaded to lower levels as time
+     * reaches their bucket. The wheel is only accessed with its lock held, and writers hand their timers
+     * to it through a concurrent queue.
+     */
+
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int WHEEL_LEVELS = 4;
+
+    private static final long DEFAULT_TICK_NANOS = TimeUnit.SECONDS.toNanos(1L);
+    private static final long MAX_TTL_NANOS = Long.MAX_VALUE >>> 2;
+
+
+    private final AtomicReference<AtomicHashStore<K,Timed<K,V>>> data;
+
+    private final long defaultTtlNanos;
+    private final long tickNanos;
+    private final LongSupplier clock;
+    private final long origin;
+
+    private final Queue<Timed<K,V>> incoming;
+    private final ReentrantLock wheelLock;
+    private final List<Timed<K,V>>[][] wheel; // only accessed with the lock held
+    private volatile long currentTick;
+    private int scheduled;
+
+
+
+
+    public ExpiringAtomicHashMap(final long defaultTtl, final TimeUnit unit) {
+        this(defaultTtl, unit, DEFAULT_TICK_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+
+    /**
+     * @param defaultTtl time-to-live of entries for which no specific time-to-live is specified.
+     * @param unit the time unit of defaultTtl.
+     * @param tick the resolution of the timer wheel: expired entries are removed in batches once per tick.
+     * @param tickUnit the time unit of tick.
+     */
+    public ExpiringAtomicHashMap(final long defaultTtl, final TimeUnit unit, final long tick, final TimeUnit tickUnit) {
+        this(defaultTtl, unit, tick, tickUnit, Equivalence.equality());
+    }
+
+
+    /**
+     * @param defaultTtl time-to-live of entries for which no specific time-to-live is specified.
+     * @param unit the time unit of defaultTtl.
+     * @param tick the resolution of the timer wheel: expired entries are removed in batches once per tick.
+     * @param tickUnit the time unit of tick.
+     * @param keyEquivalence the equivalence used for comparing and hashing keys.
+     */
+    public ExpiringAtomicHashMap(
+            final long defaultTtl, final TimeUnit unit, final long tick, final TimeUnit tickUnit,
+            final Equivalence<? super K> keyEquivalence) {
+        this(defaultTtl, unit, tick, tickUnit, keyEquivalence, System::nanoTime);
+    }
+
+
+    ExpiringAtomicHashMap(
+            final long defaultTtl, final TimeUnit unit, final long tick, final TimeUnit tickUnit, final LongSupplier clock) {
+        this(defaultTtl, unit, tick, tickUnit, Equivalence.equality(), clock);
+    }
+
+
+    ExpiringAtomicHashMap(
+            final long defaultTtl, final TimeUnit unit, final long tick, final TimeUnit tickUnit,
+            final Equivalence<? super K> keyEquivalence, final LongSupplier clock) {
+
+        super();
+
+        if (defaultTtl <= 0L) {
+            throw new IllegalArgumentException("Time-to-live must be greater than zero");
+        }
+        if (tick <= 0L) {
+            throw new IllegalArgumentException("Tick must be greater than zero");
+        }
+
+        this.data = new AtomicReference<>(AtomicHashStore.<K,Timed<K,V>>of(keyEquivalence));
+        this.defaultTtlNanos = Math.min(unit.toNanos(defaultTtl), MAX_TTL_NANOS);
+        this.tickNanos = Math.max(1L, tickUnit.toNanos(tick));
+        this.clock = Objects.requireNonNull(clock);
+        this.origin = clock.getAsLong();
+
+        this.incoming = new ConcurrentLinkedQueue<>();
+        this.wheelLock = new ReentrantLock();
+        this.wheel = new List[WHEEL_LEVELS][WHEEL_SIZE];
+        this.currentTick = 0L;
+        this.scheduled = 0;
+
+    }
+
+
+
+
+    /**
+     * Number of entries in the map, which might include expired entries that have not yet been removed.
+     */
+    public int size() {
+        return this.data.get().size();
+    }
+
+
+    public boolean isEmpty() {
+        return this.data.get().isEmpty();
+    }
+
+
+    public boolean containsKey(final Object key) {
+        return live(this.data.get().get(key), now()) != null;
+    }
+
+
+    public V get(final Object key) {
+        final Timed<K,V> timed = live(this.data.get().get(key), now());
+        return (timed != null) ? timed.value : null;
+    }
+
+
+    public V getOrDefault(final Object key, final V defaultValue) {
+        final Timed<K,V> timed = live(this.data.get().get(key), now());
+        return (timed != null) ? timed.value : defaultValue;
+    }
+
+
+    public void forEach(final BiConsumer<? super K, ? super V> action) {
+        Objects.requireNonNull(action);
+        final long now = now();
+        this.data.get().forEach((k, t) -> {
+            if (live(t, now) != null) {
+                action.accept(k, t.value);
+            }
+        });
+    }
+
+
+
+
+    public V put(final K key, final V value) {
+        return put(key, value, this.defaultTtlNanos, TimeUnit.NANOSECONDS);
+    }
+
+
+    public V put(final K key, final V value, final long ttl, final TimeUnit unit) {
+        final long now = now();
+        final Timed<K,V> timed = new Timed<>(key, value, deadline(now, ttl, unit));
+        final ValueConsumer<Timed<K,V>> vc = new ValueConsumer<>();
+        AtomicHashStore<K,Timed<K,V>> store;
+        do {
+            store = this.data.get();
+        } while (!this.data.compareAndSet(store, store.put(key, timed, vc)));
+        schedule(timed, now);
+        final Timed<K,V> old = live(vc.val, now);
+        return (old != null) ? old.value : null;
+    }
+
+
+    public V putIfAbsent(final K key, final V value) {
+        Objects.requireNonNull(value);
+        final Timed<K,V> current = putIfAbsent(key, k -> value);
+        return (current != null) ? current.value : null;
+    }
+
+
+    public V computeIfAbsent(final K key, final Function<? super K, ? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        final ValueConsumer<V> vc = new ValueConsumer<>();
+        final Timed<K,V> current = putIfAbsent(key, k -> {
+            vc.val = mappingFunction.apply(k);
+            return vc.val;
+        });
+        return (current != null) ? current.value : vc.val;
+    }
+
+
+    private Timed<K,V> putIfAbsent(final K key, final Function<? super K, ? extends V> mappingFunction) {
+        // Returns the live entry already present, if any. Expired entries count as absent.
+        final long now = now();
+        AtomicHashStore<K,Timed<K,V>> store;
+        Timed<K,V> timed;
+        Timed<K,V> current;
+        do {
+            store = this.data.get();
+            current = live(store.get(key), now);
+            if (current != null) {
+                return current;
+            }
+            final V value = mappingFunction.apply(key);
+            if (value == null) {
+                return null;
+            }
+            timed = new Timed<>(key, value, deadline(now, this.defaultTtlNanos, TimeUnit.NANOSECONDS));
+        } while (!this.data.compareAndSet(store, store.put(key, timed)));
+        schedule(timed, now);
+        return null;
+    }
+
+
+    public V remove(final Object key) {
+        final ValueConsumer<Timed<K,V>> vc = new ValueConsumer<>();
+        AtomicHashStore<K,Timed<K,V>> store;
+        do {
+            store = this.data.get();
+        } while (!this.data.compareAndSet(store, store.remove(key, vc)));
+        final Timed<K,V> old = live(vc.val, now());
+        return (old != null) ? old.value : null;
+    }
+
+
+    public void clear() {
+        // Timers already in the wheel will not find their entries and will be ignored
+        this.data.set(this.data.get().clear());
+    }
+
+
+
+
+    /**
+     * Removes all the entries expired up to the current tick.
+     */
+    public void expire() {
+        this.wheelLock.lock();
+        try {
+            advance(now());
+        } finally {
+            this.wheelLock.unlock();
+        }
+    }
+
+
+
+
+    private long now() {
+        return this.clock.getAsLong();
+    }
+
+
+    private static long deadline(final long now, final long ttl, final TimeUnit unit) {
+        if (ttl <= 0L) {
+            throw new IllegalArgumentException("Time-to-live must be greater than zero");
+        }
+        return now + Math.min(unit.toNanos(ttl), MAX_TTL_NANOS);
+    }
+
+
+    private static <K,V> Timed<K,V> live(final Timed<K,V> timed, final long now) {
+        return (timed != null && timed.deadline - now > 0L) ? timed : null;
+    }
+
+
+    private long tickOf(final long nanos) {
+        return (nanos - this.origin) / this.tickNanos;
+    }
+
+
+    private void schedule(final Timed<K,V> timed, final long now) {
+        this.incoming.add(timed);
+        // Writers only advance the wheel once per tick, and only if nobody else is doing it already
+        if (tickOf(now) > this.currentTick && this.wheelLock.tryLock()) {
+            try {
+                advance(now);
+            } finally {
+                this.wheelLock.unlock();
+            }
+        }
+    }
+
+
+
+
+    private void advance(final long now) {
+
+        final List<Timed<K,V>> due = new ArrayList<>();
+
+        Timed<K,V> timed;
+        while ((timed = this.incoming.poll()) != null) {
+            place(timed, due);
+        }
+
+        final long nowTick = tickOf(now);
+        long tick = this.currentTick;
+
+        while (tick < nowTick) {
+
+            // Ticks in which no bucket is cascaded or fired are skipped, so that advancing after an idle
+            // period costs one iteration per non-empty bucket instead of one per elapsed tick
+            final long next = (this.scheduled == 0) ? Long.MAX_VALUE : nextBucketTick(tick);
+            if (next > nowTick) {
+                tick = nowTick;
+                break;
+            }
+
+            tick = next;
+            this.currentTick = tick;
+
+            // Higher levels first, so that timers cascaded from them can be cascaded again into this tick
+            for (int level = WHEEL_LEVELS - 1; level > 0; level--) {
+                if ((tick & ((1L << (WHEEL_BITS * level)) - 1L)) == 0L) {
+                    final List<Timed<K,V>> cascaded = take(level, (int) ((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK));
+                    if (cascaded != null) {
+                        for (int i = 0; i < cascaded.size(); i++) {
+                            place(cascaded.get(i), due);
+                        }
+                    }
+                }
+            }
+
+            final List<Timed<K,V>> fired = take(0, (int) (tick & WHEEL_MASK));
+            if (fired != null) {
+                due.addAll(fired);
+            }
+
+        }
+
+        this.currentTick = tick;
+
+        if (!due.isEmpty()) {
+            removeExpired(due, now);
+        }
+
+    }
+
+
+    private long nextBucketTick(final long tick) {
+
+        // Earliest tick after the specified one at which a non-empty bucket is reached. Buckets in each level
+        // but the last one lie after the current one within the current bucket of the level above, whereas
+        // the last level wraps around (that is where timers too far in the future are parked).
+        long next = Long.MAX_VALUE;
+        for (int level = 0; level < WHEEL_LEVELS; level++) {
+            final int shift = WHEEL_BITS * level;
+            final long slot = tick >>> shift;
+            final int limit = (level == WHEEL_LEVELS - 1) ? WHEEL_SIZE : WHEEL_MASK - (int) (slot & WHEEL_MASK);
+            for (int i = 1; i <= limit; i++) {
+                if (this.wheel[level][(int) ((slot + i) & WHEEL_MASK)] != null) {
+                    next = Math.min(next, (slot + i) << shift);
+                    break;
+                }
+            }
+        }
+        return next;
+
+    }
+
+
+    private void place(final Timed<K,V> timed, final List<Timed<K,V>> due) {
+
+        // Rounded up, so that timers are only due once the current tick is past their deadline
+        final long current = this.currentTick;
+        long tick = (timed.deadline - this.origin + this.tickNanos - 1L) / this.tickNanos;
+
+        if (tick <= current) {
+            due.add(timed);
+            return;
+        }
+
+        // Lowest level in which the timer's bucket is different from the current one
+        int level = (63 - Long.numberOfLeadingZeros(tick ^ current)) / WHEEL_BITS;
+        if (level >= WHEEL_LEVELS) {
+            // Beyond the current block of the top level: the top level wraps around, so the timer is placed in
+            // its own bucket if it is near enough, or else parked in the farthest bucket and cascaded again from there
+            level = WHEEL_LEVELS - 1;
+            tick = Math.min(tick, current + ((1L << (WHEEL_BITS * WHEEL_LEVELS)) - 1L));
+        }
+
+        final int index = (int) ((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        List<Timed<K,V>> bucket = this.wheel[level][index];
+        if (bucket == null) {
+            bucket = new ArrayList<>();
+            this.wheel[level][index] = bucket;
+        }
+        bucket.add(timed);
+        this.scheduled++;
+
+    }
+
+
+    private List<Timed<K,V>> take(final int level, final int index) {
+        final List<Timed<K,V>> bucket = this.wheel[level][index];
+        if (bucket != null) {
+            this.wheel[level][index] = null;
+            this.scheduled -= bucket.size();
+        }
+        return bucket;
+    }
+
+
+    private void removeExpired(final List<Timed<K,V>> due, final long now) {
+
+        // Only timers whose entry is still in the map (i.e. was not replaced in the meantime) are removed,
+        // and a single CAS removes them all
+        AtomicHashStore<K,Timed<K,V>> store;
+        StoreEditor<K,Timed<K,V>> editor;
+        Timed<K,V> timed;
+        HashEntry<K,Timed<K,V>> entry;
+        do {
+            store = this.data.get();
+            editor = store.edit();
+            for (int i = 0; i < due.size(); i++) {
+                timed = due.get(i);
+                entry = editor.getEntry(timed.key);
+                if (entry != null && entry.value == timed && live(timed, now) == null) {
+                    editor.remove(timed.key);
+                }
+            }
+        } while (!this.data.compareAndSet(store, editor.toStore()));
+
+    }
+
+
+
+
+    private static final class Timed<K,V> {
+
+        final K key;
+        final V value;
+        final long deadline;
+
+        Timed(final K key, final V value, final long deadline) {
+            super();
+            this.key = key;
+            this.value = value;
+            this.deadline = deadline;
+        }
+
+    }
+
+
+    private static class ValueConsumer<V> implements java.util.function.Consumer<V> {
+
+        private V val = null;
+
+        @Override
+        public void accept(final V v) {
+            this.val = v;
+        }
+
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+final class FrequencySketch {
+
+    /*
+     * Count-Min sketch of the popularity of keys, as used by the TinyLFU admission policy. Counters are
+     * 4 bits wide (16 per long), and each key is counted in four of them. Once the amount of increments
+     * reaches ten times the size of the sketch, all counters are halved, so that the popularity of keys
+     * that are no longer accessed decays over time.
+     *
+     * The sketch is sized from the amount of entries actually being tracked, growing as needed (which resets
+     * the counts) up to a fixed cap, so that caches with large bounds -- especially weighted ones, where the
+     * bound is a total weight and not an amount of entries -- do not allocate a huge table upfront.
+     *
+     * Not thread-safe: only to be used by the thread performing cache maintenance.
+     */
+
+    private static final long[] SEEDS = new long[] {
+            0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MINIMUM_SIZE = 16;
+    private static final int MAXIMUM_SIZE = 1 << 24; // 128 MiB of counters
+
+    private long[] table;
+    private int tableMask;
+    private long sampleSize;
+    private long additions;
+
+
+
+    FrequencySketch() {
+        super();
+        this.table = new long[MINIMUM_SIZE];
+        this.tableMask = this.table.length - 1;
+        this.sampleSize = 10L * MINIMUM_SIZE;
+        this.additions = 0L;
+    }
+
+
+
+
+    void ensureCapacity(final long expectedSize) {
+        if (expectedSize <= this.table.length || this.table.length >= MAXIMUM_SIZE) {
+            return;
+        }
+        final int size = (int) Math.min(expectedSize, MAXIMUM_SIZE);
+        this.table = new long[Integer.highestOneBit(size - 1) << 1];
+        this.tableMask = this.table.length - 1;
+        this.sampleSize = 10L * size;
+        this.additions = 0L;
+    }
+
+
+
+
+    int frequency(final Object key) {
+        final int hash = spread(AtomicHashStore.hash(key));
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < SEEDS.length; i++) {
+            frequency = Math.min(frequency, counter(hash, i));
+        }
+        return frequency;
+    }
+
+
+    void increment(final Object key) {
+        final int hash = spread(AtomicHashStore.hash(key));
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            added |= incrementAt(hash, i);
+        }
+        if (added && ++this.additions >= this.sampleSize) {
+            reset();
+        }
+    }
+
+
+
+
+    private int counter(final int hash, final int i) {
+        final int index = indexOf(hash, i);
+        final int offset = counterOffset(hash, i);
+        return (int) ((this.table[index] >>> offset) & 0xFL);
+    }
+
+
+    private boolean incrementAt(final int hash, final int i) {
+        final int index = indexOf(hash, i);
+        final int offset = counterOffset(hash, i);
+        final long mask = 0xFL << offset;
+        if ((this.table[index] & mask) != mask) {
+            this.table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+
+    private void reset() {
+        for (int i = 0; i < this.table.length; i++) {
+            this.table[i] = (this.table[i] >>> 1) & RESET_MASK;
+        }
+        this.additions /= 2;
+    }
+
+
+    private int indexOf(final int hash, final int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return ((int) h) & this.tableMask;
+    }
+
+
+    private static int counterOffset(final int hash, final int i) {
+        // Each of the four hash functions uses a different counter (of the 16) in its selected long
+        return (((hash >>> (i << 3)) & 0x3) << 2) + (i << 4);
+    }
+
+
+    private static int spread(final int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+}
@@ -0,0 +1,295 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+public class IndexedAtomicHashMap<K,V> {
+
+    /*
+     * Concurrent map that maintains user-defined secondary indexes. Each index is defined by a function
+     * computing an index key from a value, and is stored as an AtomicHashMultimapStore mapping index keys
+     * to the set of primary keys of the entries having them (entries for which the function returns null
+     * are not indexed, and neither are null values).
+     *
+     * The data store and all index stores are held in a single immutable State, so every write updates
+     * the data and all the indexes in one CAS on the root, and every lookup through an index is consistent
+     * with the data it is performed on.
+     */
+
+    private static final State<?,?> EMPTY_STATE =
+            new State<>(AtomicHashStore.of(), new Index<?,?>[0], new AtomicHashMultimapStore<?,?>[0]);
+
+    private final AtomicReference<State<K,V>> state;
+
+
+
+    @SuppressWarnings("unchecked")
+    public IndexedAtomicHashMap() {
+        super();
+        this.state = new AtomicReference<>((State<K,V>) EMPTY_STATE);
+    }
+
+
+
+
+    /**
+     * Registers a new index, building it from the current contents of the map.
+     */
+    public <I> Index<V,I> addIndex(final Function<? super V, ? extends I> function) {
+        Objects.requireNonNull(function);
+        final Index<V,I> index = new Index<>(function);
+        final Function<Object,?> fn = (Function<Object,?>) function;
+
+        // The index is built only once, against a snapshot of the store. Afterwards, every attempt to install
+        // it only needs to catch up with the changes made to the store since the store it was last updated for.
+        AtomicHashStore<K,V> builtFor = this.state.get().store;
+        final AtomicHashMultimapStore<Object,K>[] built = new AtomicHashMultimapStore[] { AtomicHashMultimapStore.of() };
+        builtFor.forEach((k, v) -> {
+            final Object indexKey = State.indexKey(fn, v);
+            if (indexKey != null) {
+                built[0] = built[0].put(indexKey, k);
+            }
+        });
+
+        State<K,V> st;
+        State<K,V> newSt;
+        do {
+            st = this.state.get();
+            if (st.store != builtFor) {
+                st.store.diff(builtFor, change -> {
+                    final Object oldIndexKey = change.isInsertion() ? null : State.indexKey(fn, change.getOldValue());
+                    final Object newIndexKey = change.isRemoval() ? null : State.indexKey(fn, change.getNewValue());
+                    if (oldIndexKey != null && !oldIndexKey.equals(newIndexKey)) {
+                        built[0] = built[0].remove(oldIndexKey, change.getKey());
+                    }
+                    if (newIndexKey != null) {
+                        built[0] = built[0].put(newIndexKey, change.getKey());
+                    }
+                });
+                builtFor = st.store;
+            }
+            final int position = st.definitions.length;
+            final Index<?,?>[] definitions = Arrays.copyOf(st.definitions, position + 1);
+            final AtomicHashMultimapStore<Object,K>[] indexes = Arrays.copyOf(st.indexes, position + 1);
+            definitions[position] = index;
+            indexes[position] = built[0];
+            newSt = new State<>(st.store, definitions, indexes);
+        } while (!this.state.compareAndSet(st, newSt));
+        return index;
+    }
+
+
+
+
+    public AtomicHashStore<K,V> store() {
+        return this.state.get().store;
+    }
+
+
+    public int size() {
+        return this.state.get().store.size();
+    }
+
+
+    public boolean isEmpty() {
+        return this.state.get().store.isEmpty();
+    }
+
+
+    public boolean containsKey(final Object key) {
+        return this.state.get().store.containsKey(key);
+    }
+
+
+    public V get(final Object key) {
+        return this.state.get().store.get(key);
+    }
+
+
+    public void forEach(final BiConsumer<? super K, ? super V> action) {
+        this.state.get().store.forEach(action);
+    }
+
+
+    /**
+     * Returns the keys of the entries whose values have the specified index key.
+     */
+    public <I> AtomicHashSetStore<K> keys(final Index<V,I> index, final I indexKey) {
+        final State<K,V> st = this.state.get();
+        return st.indexes[st.positionOf(index)].get(indexKey);
+    }
+
+
+    /**
+     * Returns the entries whose values have the specified index key.
+     */
+    public <I> AtomicHashStore<K,V> lookup(final Index<V,I> index, final I indexKey) {
+        final State<K,V> st = this.state.get();
+        final StoreEditor<K,V> editor = AtomicHashStore.<K,V>of().edit();
+        for (final K key : st.indexes[st.positionOf(index)].get(indexKey)) {
+            editor.put(key, st.store.get(key));
+        }
+        return editor.toStore();
+    }
+
+
+
+
+    public V put(final K key, final V value) {
+        State<K,V> st;
+        V oldValue;
+        do {
+            st = this.state.get();
+            oldValue = st.store.get(key);
+        } while (!this.state.compareAndSet(st, st.put(key, value)));
+        return oldValue;
+    }
+
+
+    public V putIfAbsent(final K key, final V value) {
+        State<K,V> st;
+        do {
+            st = this.state.get();
+            if (st.store.containsKey(key)) {
+                return st.store.get(key);
+            }
+        } while (!this.state.compareAndSet(st, st.put(key, value)));
+        return null;
+    }
+
+
+    public V remove(final Object key) {
+        State<K,V> st;
+        V oldValue;
+        do {
+            st = this.state.get();
+            if (!st.store.containsKey(key)) {
+                return null;
+            }
+            oldValue = st.store.get(key);
+        } while (!this.state.compareAndSet(st, st.remove(key)));
+        return oldValue;
+    }
+
+
+    public void clear() {
+        State<K,V> st;
+        State<K,V> newSt;
+        do {
+            st = this.state.get();
+            final AtomicHashMultimapStore<Object,K>[] indexes = st.indexes.clone();
+            Arrays.fill(indexes, AtomicHashMultimapStore.of());
+            newSt = new State<>(AtomicHashStore.of(), st.definitions, indexes);
+        } while (!this.state.compareAndSet(st, newSt));
+    }
+
+
+
+
+    public static final class Index<V,I> {
+
+        private final Function<? super V, ? extends I> function;
+
+        private Index(final Function<? super V, ? extends I> function) {
+            super();
+            this.function = function;
+        }
+
+    }
+
+
+
+
+    private static final class State<K,V> {
+
+        final AtomicHashStore<K,V> store;
+        final Index<?,?>[] definitions;
+        final AtomicHashMultimapStore<Object,K>[] indexes;
+
+
+        State(final AtomicHashStore<K,V> store,
+              final Index<?,?>[] definitions, final AtomicHashMultimapStore<?,?>[] indexes) {
+            super();
+            this.store = store;
+            this.definitions = definitions;
+            this.indexes = (AtomicHashMultimapStore<Object,K>[]) indexes;
+        }
+
+
+        int positionOf(final Index<?,?> index) {
+            for (int i = 0; i < this.definitions.length; i++) {
+                if (this.definitions[i] == index) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("Index is not registered in this map");
+        }
+
+
+        State<K,V> put(final K key, final V value) {
+            final boolean present = this.store.containsKey(key);
+            final V oldValue = this.store.get(key);
+            final AtomicHashMultimapStore<Object,K>[] newIndexes = this.indexes.clone();
+            for (int i = 0; i < this.definitions.length; i++) {
+                final Function<Object,?> function = (Function<Object,?>) this.definitions[i].function;
+                final Object newIndexKey = indexKey(function, value);
+                AtomicHashMultimapStore<Object,K> index = newIndexes[i];
+                if (present) {
+                    final Object oldIndexKey = indexKey(function, oldValue);
+                    if (oldIndexKey != null && !oldIndexKey.equals(newIndexKey)) {
+                        index = index.remove(oldIndexKey, key);
+                    }
+                }
+                if (newIndexKey != null) {
+                    index = index.put(newIndexKey, key);
+                }
+                newIndexes[i] = index;
+            }
+            return new State<>(this.store.put(key, value), this.definitions, newIndexes);
+        }
+
+
+        State<K,V> remove(final Object key) {
+            final V oldValue = this.store.get(key);
+            final AtomicHashMultimapStore<Object,K>[] newIndexes = this.indexes.clone();
+            for (int i = 0; i < this.definitions.length; i++) {
+                final Function<Object,?> function = (Function<Object,?>) this.definitions[i].function;
+                final Object oldIndexKey = indexKey(function, oldValue);
+                if (oldIndexKey != null) {
+                    newIndexes[i] = newIndexes[i].remove(oldIndexKey, key);
+                }
+            }
+            return new State<>(this.store.remove(key), this.definitions, newIndexes);
+        }
+
+
+        private static Object indexKey(final Function<Object,?> function, final Object value) {
+            // Null values are never indexed, as if their index key was null
+            return (value == null) ? null : function.apply(value);
+        }
+
+    }
+
+}
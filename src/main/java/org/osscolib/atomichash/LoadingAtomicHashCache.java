@@ -0,0 +1,354 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+public class LoadingAtomicHashCache<K,V> {
+
+    /*
+     * Cache that loads absent values by means of a loader function. Hits are plain reads on the current
+     * AtomicHashStore snapshot. Misses are coalesced by means of PendingComputations (as in
+     * AtomicHashMap#computeIfAbsent()), so that concurrent callers for the same absent key wait for one single
+     * load instead of all of them hitting the loader (i.e. no cache stampedes on cold keys).
+     *
+     * Bulk loads (getAll()) use the bulk loader if one was specified, and install all of the loaded values
+     * with one single CAS on the store, keeping any values put or loaded by others in the meantime. Keys
+     * being bulk loaded are registered in PendingComputations too, so that concurrent get()/getAll() calls
+     * for them wait for the bulk load instead of loading them again.
+     *
+     * If a refresh interval is specified, hits on values older than that interval trigger a reload in the
+     * refresh executor (at most one at a time per entry), and readers keep on getting the old value until
+     * the new one is installed. A refreshed value is only installed if the entry was not modified in the
+     * meantime.
+     */
+
+    private final AtomicReference<AtomicHashStore<K,Loaded<V>>> data;
+    private final PendingComputations<K,V> pendingLoads;
+
+    private final Function<? super K, ? extends V> loader;
+    private final Function<? super Set<K>, ? extends Map<? extends K, ? extends V>> bulkLoader;
+    private final long refreshAfterNanos;
+    private final Executor refreshExecutor;
+    private final LongSupplier clock;
+
+
+
+
+    public LoadingAtomicHashCache(final Function<? super K, ? extends V> loader) {
+        this(loader, null, 0L, TimeUnit.NANOSECONDS, ForkJoinPool.commonPool());
+    }
+
+
+    /**
+     * @param loader the loader function, returning null for keys that have no value.
+     * @param bulkLoader the loader for several keys at once, null for loading them one by one with loader.
+     * @param refreshAfter time after which values will be reloaded in the background, zero for no refresh.
+     * @param unit the time unit of refreshAfter.
+     * @param refreshExecutor the executor refreshes will be run on.
+     */
+    public LoadingAtomicHashCache(
+            final Function<? super K, ? extends V> loader,
+            final Function<? super Set<K>, ? extends Map<? extends K, ? extends V>> bulkLoader,
+            final long refreshAfter, final TimeUnit unit, final Executor refreshExecutor) {
+        this(loader, bulkLoader, refreshAfter, unit, refreshExecutor, System::nanoTime);
+    }
+
+
+    LoadingAtomicHashCache(
+            final Function<? super K, ? extends V> loader,
+            final Function<? super Set<K>, ? extends Map<? extends K, ? extends V>> bulkLoader,
+            final long refreshAfter, final TimeUnit unit, final Executor refreshExecutor, final LongSupplier clock) {
+
+        super();
+
+        if (refreshAfter < 0L) {
+            throw new IllegalArgumentException("Refresh interval cannot be negative");
+        }
+
+        this.data = new AtomicReference<>(AtomicHashStore.of());
+        this.pendingLoads = new PendingComputations<>();
+        this.loader = Objects.requireNonNull(loader);
+        this.bulkLoader = bulkLoader;
+        this.refreshAfterNanos = unit.toNanos(refreshAfter);
+        this.refreshExecutor = Objects.requireNonNull(refreshExecutor);
+        this.clock = Objects.requireNonNull(clock);
+
+    }
+
+
+
+
+    public int size() {
+        return this.data.get().size();
+    }
+
+
+    public V getIfPresent(final Object key) {
+        final Loaded<V> loaded = this.data.get().get(key);
+        return (loaded != null) ? loaded.value : null;
+    }
+
+
+    public V get(final K key) {
+        final Loaded<V> loaded = this.data.get().get(key);
+        if (loaded != null) {
+            refreshIfNeeded(key, loaded);
+            return loaded.value;
+        }
+        return this.pendingLoads.computeIfAbsent(key, this.loader, this::getIfPresent, this::install);
+    }
+
+
+    public Map<K,V> getAll(final Iterable<? extends K> keys) {
+
+        Objects.requireNonNull(keys);
+
+        final Map<K,V> result = new LinkedHashMap<>();
+        final Set<K> missing = new LinkedHashSet<>();
+
+        final AtomicHashStore<K,Loaded<V>> store = this.data.get();
+        Loaded<V> loaded;
+        for (final K key : keys) {
+            loaded = store.get(key);
+            if (loaded != null) {
+                refreshIfNeeded(key, loaded);
+                result.put(key, loaded.value);
+            } else {
+                missing.add(key);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return result;
+        }
+
+        if (this.bulkLoader == null) {
+            // Loaded one by one, but each of them still coalesced with any concurrent loads of the same key
+            V value;
+            for (final K key : missing) {
+                value = get(key);
+                if (value != null) {
+                    result.put(key, value);
+                }
+            }
+            return result;
+        }
+
+        final Set<K> waitFor = new LinkedHashSet<>();
+        final Map<K,V> loadedValues =
+                this.pendingLoads.computeAllIfAbsent(missing, this.bulkLoader, this::getIfPresent, this::installAll, waitFor);
+
+        V value;
+        for (final K key : missing) {
+            if (waitFor.contains(key)) {
+                // Being loaded by someone else: wait for it (and load it on our own if that did not load it)
+                value = get(key);
+            } else {
+                value = loadedValues.get(key);
+                if (value == null) {
+                    // Loaded before we registered it, or not found by the bulk loader
+                    value = getIfPresent(key);
+                }
+            }
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+
+    }
+
+
+
+
+    public void put(final K key, final V value) {
+        Objects.requireNonNull(value);
+        final Loaded<V> loaded = new Loaded<>(value, this.clock.getAsLong());
+        AtomicHashStore<K,Loaded<V>> store;
+        do {
+            store = this.data.get();
+        } while (!this.data.compareAndSet(store, store.put(key, loaded)));
+    }
+
+
+    public void invalidate(final Object key) {
+        AtomicHashStore<K,Loaded<V>> store;
+        do {
+            store = this.data.get();
+        } while (!this.data.compareAndSet(store, store.remove(key)));
+    }
+
+
+    public void invalidateAll() {
+        this.data.set(AtomicHashStore.of());
+    }
+
+
+    /**
+     * Reloads the value for the key in the refresh executor, without removing the current value meanwhile.
+     */
+    public void refresh(final K key) {
+        final Loaded<V> loaded = this.data.get().get(key);
+        if (loaded == null) {
+            get(key);
+            return;
+        }
+        if (loaded.startRefresh()) {
+            scheduleRefresh(key, loaded);
+        }
+    }
+
+
+
+
+    private V install(final K key, final V value) {
+        // Executed by the only thread loading the key, so normally nobody will have put a value before us
+        final Loaded<V> loaded = new Loaded<>(value, this.clock.getAsLong());
+        final ValueConsumer<Loaded<V>> vc = new ValueConsumer<>();
+        AtomicHashStore<K,Loaded<V>> store;
+        do {
+            store = this.data.get();
+        } while (!this.data.compareAndSet(store, store.putIfAbsent(key, loaded, vc)));
+        return (vc.val != null) ? vc.val.value : value;
+    }
+
+
+    private Map<K,V> installAll(final Map<? extends K, ? extends V> values) {
+        // Values put or loaded by others in the meantime are kept, and returned instead of ours
+        final long now = this.clock.getAsLong();
+        AtomicHashStore<K,Loaded<V>> store;
+        StoreEditor<K,Loaded<V>> editor;
+        Map<K,V> installed;
+        Loaded<V> existing;
+        do {
+            store = this.data.get();
+            editor = store.edit();
+            installed = new HashMap<>(values.size() * 2);
+            for (final Map.Entry<? extends K, ? extends V> entry : values.entrySet()) {
+                if (entry.getValue() == null) {
+                    continue;
+                }
+                existing = editor.get(entry.getKey());
+                if (existing != null) {
+                    installed.put(entry.getKey(), existing.value);
+                } else {
+                    editor.put(entry.getKey(), new Loaded<>(entry.getValue(), now));
+                    installed.put(entry.getKey(), entry.getValue());
+                }
+            }
+        } while (!this.data.compareAndSet(store, editor.toStore()));
+        return installed;
+    }
+
+
+    private void refreshIfNeeded(final K key, final Loaded<V> loaded) {
+        if (this.refreshAfterNanos > 0L
+                && this.clock.getAsLong() - loaded.loadTime >= this.refreshAfterNanos
+                && loaded.startRefresh()) {
+            scheduleRefresh(key, loaded);
+        }
+    }
+
+
+    private void scheduleRefresh(final K key, final Loaded<V> loaded) {
+        try {
+            this.refreshExecutor.execute(() -> reload(key, loaded));
+        } catch (final RejectedExecutionException e) {
+            // Will be tried again on a later hit
+            loaded.refreshing = 0;
+        }
+    }
+
+
+    private void reload(final K key, final Loaded<V> loaded) {
+
+        final V value;
+        try {
+            value = this.loader.apply(key);
+        } catch (final RuntimeException e) {
+            // The old value is kept, and refresh will be tried again on a later hit
+            loaded.refreshing = 0;
+            throw e;
+        }
+
+        final Loaded<V> reloaded = (value != null) ? new Loaded<>(value, this.clock.getAsLong()) : null;
+        AtomicHashStore<K,Loaded<V>> store;
+        do {
+            store = this.data.get();
+            if (store.get(key) != loaded) {
+                // Modified or invalidated while we were loading, so our value might already be stale
+                return;
+            }
+        } while (!this.data.compareAndSet(store, (reloaded != null) ? store.put(key, reloaded) : store.remove(key)));
+
+    }
+
+
+
+
+    private static final class Loaded<V> {
+
+        private static final AtomicIntegerFieldUpdater<Loaded> REFRESHING =
+                AtomicIntegerFieldUpdater.newUpdater(Loaded.class, "refreshing");
+
+        final V value;
+        final long loadTime;
+        volatile int refreshing;
+
+        Loaded(final V value, final long loadTime) {
+            super();
+            this.value = value;
+            this.loadTime = loadTime;
+            this.refreshing = 0;
+        }
+
+        boolean startRefresh() {
+            return this.refreshing == 0 && REFRESHING.compareAndSet(this, 0, 1);
+        }
+
+    }
+
+
+    private static class ValueConsumer<V> implements java.util.function.Consumer<V> {
+
+        private V val = null;
+
+        @Override
+        public void accept(final V v) {
+            this.val = v;
+        }
+
+    }
+
+}
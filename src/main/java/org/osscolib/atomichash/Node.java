@@ -25,8 +25,27 @@
 
 final class Node<K,V> implements Serializable {
 
+    /*
+     * Data nodes are "buckets": their entries can have different hashes (as long as these lead to the
+     * node's position in the trie), kept sorted in the same order the trie would iterate them. A data node
+     * is only split into a branch when it overflows maxDataSize(level) entries with different hashes
+     * (entries with the very same hash can never be split, whatever their number), and a branch is merged
+     * back into a data node when it shrinks to half that size (lower, so that a node hovering around the
+     * threshold does not convert back and forth on every operation).
+     *
+     * A data node at level 0 is the "flat" root of a small store: just a single Node holding a few entries,
+     * with no branch nodes or children arrays at all.
+     */
+
     private static final long serialVersionUID = 6914544628900109073L;
 
+    static final int FLAT_MAX_SIZE = 8;
+    static final int FLATTEN_SIZE = FLAT_MAX_SIZE / 2;
+
+    // Maximum number of different hashes in data nodes below the root. Configured by means of the
+    // org.osscolib.atomichash.bucketSize system property, 1 meaning data nodes only contain hash collisions
+    static final int BUCKET_SIZE = Math.max(1, Integer.getInteger("org.osscolib.atomichash.bucketSize", 4).intValue());
+
 
     final Node<K,V>[] children; // can contain many nulls
 
@@ -34,16 +53,25 @@
     final HashEntry<K,V> entry;
     final HashEntry<K,V>[] entries;
 
+    // Branch nodes created by a StoreEditor are owned by it until published, and can be modified in place
+    final transient Object owner;
+
 
 
 
 
     Node(final Node<K,V>[] children) {
+        this(children, null);
+    }
+
+
+    Node(final Node<K,V>[] children, final Object owner) {
         super();
         this.children = children;
         this.hash = -1; // This is actually a valid hash value, but it will not be used when node has children
         this.entry = null;
         this.entries = null;
+        this.owner = owner;
     }
 
 
@@ -53,6 +81,7 @@
         this.hash = dataEntry.hash;
         this.entry = new HashEntry<>(dataEntry);
         this.entries = null;
+        this.owner = null;
     }
 
 
@@ -62,6 +91,7 @@ private Node(final HashEntry<K,V> entry) {
         this.hash = entry.hash;
         this.entry = entry;
         this.entries = null;
+        this.owner = null;
     }
 
 
@@ -71,12 +101,18 @@ private Node(final HashEntry<K,V>[] entries) {
         this.hash = entries[0].hash;
         this.entry = null;
         this.entries = entries;
+        this.owner = null;
     }
 
 
 
 
     int size() {
+        return (int) Math.min(mappingCount(), Integer.MAX_VALUE);
+    }
+
+
+    long mappingCount() {
 
         if (this.children == null) {
             return (this.entry == null) ? this.entries.length : 1;
@@ -84,14 +120,14 @@ int size() {
 
         Node<K,V>[] children = this.children;
         Node<K,V> child;
-        int size = 0;
+        long count = 0L;
         for (int i = 0; i < children.length; i++) {
             child = children[i];
             if (child != null) {
-                size += child.size();
+                count += child.mappingCount();
             }
         }
-        return size;
+        return count;
 
     }
 
@@ -99,22 +135,21 @@ int size() {
 
 
     Node<K,V> put(final int level, final DataEntry<K, V> entry, final Consumer<V> oldValueConsumer) {
+        return put(level, entry, oldValueConsumer, null);
+    }
 
-        // Check if we simply need to add an additional entry to the ones already present
-        if (this.children == null && this.hash == entry.hash) {
-            return putData(entry, oldValueConsumer);
-        }
 
-        Node<K,V>[] newChildren = this.children;
-        boolean newChildrenMutable = false;
-        if (newChildren == null) {
-            newChildren = new Node[AtomicHashStore.childrenSizeFor(level)];
-            newChildren[AtomicHashStore.pos(level, this.hash)] = this;
-            newChildrenMutable = true;
+    Node<K,V> put(final int level, final DataEntry<K, V> entry, final Consumer<V> oldValueConsumer,
+                  final Equivalence<Object> equivalence) {
+
+        if (this.children == null) {
+            // Add to the entries already present, splitting only if the node overflows
+            return putBucket(level, entry, oldValueConsumer, equivalence);
         }
 
         final int newEntryPos = AtomicHashStore.pos(level, entry.hash);
-        newChildren = NodeBuilder.addChild(newChildren, newChildrenMutable, level, newEntryPos, entry, oldValueConsumer);
+        final Node<K,V>[] newChildren =
+                NodeBuilder.addChild(this.children, false, level, newEntryPos, entry, oldValueConsumer, equivalence);
         if (newChildren == this.children){
             return this;
         }
@@ -124,7 +159,25 @@ Node<K,V> put(final int level, final DataEntry<K, V> entry, final Consumer<V> ol
     }
 
 
-    private Node<K,V> putData(final DataEntry<K,V> newEntry, final Consumer<V> oldValueConsumer) {
+    private Node<K,V> putBucket(final int level, final DataEntry<K,V> newEntry, final Consumer<V> oldValueConsumer,
+                                final Equivalence<Object> equivalence) {
+        final Node<K,V> newNode = putData(newEntry, oldValueConsumer, equivalence);
+        final HashEntry<K,V>[] newEntries = newNode.entries;
+        if (newEntries == null || newEntries.length <= maxDataSize(level)
+                || newEntries[0].hash == newEntries[newEntries.length - 1].hash) {
+            return newNode;
+        }
+        return trieOf(level, newEntries, 0, newEntries.length);
+    }
+
+
+    static int maxDataSize(final int level) {
+        return (level == 0) ? FLAT_MAX_SIZE : BUCKET_SIZE;
+    }
+
+
+    private Node<K,V> putData(final DataEntry<K,V> newEntry, final Consumer<V> oldValueConsumer,
+                              final Equivalence<Object> equivalence) {
 
         if (this.entry != null) {
             // This is single-valued
@@ -137,7 +190,7 @@ private Node<K,V> putData(final DataEntry<K,V> newEntry, final Consumer<V> oldVa
                 return this;
             }
 
-            if (eq(this.entry.key, newEntry.key)) {
+            if (this.entry.hash == newEntry.hash && eq(this.entry.key, newEntry.key, equivalence)) {
                 // We are replacing the previous value for a new one
                 if (oldValueConsumer != null) {
                     oldValueConsumer.accept(this.entry.value);
@@ -163,7 +216,7 @@ private Node<K,V> putData(final DataEntry<K,V> newEntry, final Consumer<V> oldVa
 
         int pos = -1;
         for (int i = 0; i < this.entries.length; i++) {
-            if (eq(this.entries[i].key, newEntry.key)) {
+            if (this.entries[i].hash == newEntry.hash && eq(this.entries[i].key, newEntry.key, equivalence)) {
                 pos = i;
                 break;
             }
@@ -208,6 +261,12 @@ private Node<K,V> putData(final DataEntry<K,V> newEntry, final Consumer<V> oldVa
 
 
     Node<K,V> putAll(final int level, final DataEntry<K, V>[] entries, final int start, final int end) {
+        return putAll(level, entries, start, end, null);
+    }
+
+
+    Node<K,V> putAll(final int level, final DataEntry<K, V>[] entries, final int start, final int end,
+                     final Equivalence<Object> equivalence) {
 
         if (start == end) {
             return this;
@@ -215,38 +274,22 @@ Node<K,V> putAll(final int level, final DataEntry<K, V>[] entries, final int sta
 
         if (start + 1 == end) {
             // Re-route to a normal "put" operation
-            return put(level, entries[start], null);
+            return put(level, entries[start], null, equivalence);
         }
 
-        Node<K,V>[] newChildren = this.children;
-        boolean newChildrenMutable = false;
-
-        if (newChildren == null) {
-            // This is a data node, and we know there are at least two different keys that need to be inserted here.
-            // Unless all the entries we are adding have the same hash as the existing data entry, we will need to
-            // turn that data entry into a Node.
-
-            if (allHashesMatch(this.hash, entries, start, end)) {
-                // All hashes match! so we need to delegate entirely to the NodeData
-                Node<K,V> newNode = this;
-                for (int i = start; i < end; i++) {
-                    newNode = newNode.putData(entries[i], null);
-                }
-                if (newNode == this) {
-                    // Nothing was added because all entries already existed -- this should actually never happen
-                    return this;
-                }
-                return newNode;
+        if (this.children == null) {
+            // This is a data node, so entries are added one by one until (if ever) it overflows
+            Node<K,V> newNode = this;
+            int i = start;
+            while (i < end && newNode.children == null) {
+                newNode = newNode.putBucket(level, entries[i++], null, equivalence);
             }
-
-            // Not all hashes matched (usual case), so given we have > 1 keys to be inserted in this node, we
-            // are sure we will need to turn this Node's data into a nested node
-            newChildren = new Node[AtomicHashStore.childrenSizeFor(level)];
-            newChildren[AtomicHashStore.pos(level, this.hash)] = this;
-            newChildrenMutable = true;
-
+            return (i < end) ? newNode.putAll(level, entries, i, end, equivalence) : newNode;
         }
 
+        Node<K,V>[] newChildren = this.children;
+        boolean newChildrenMutable = false;
+
         // We will need to segment all the selected entries, determining the position to be assigned to each segment
 
         int i = start;
@@ -265,7 +308,7 @@ Node<K,V> putAll(final int level, final DataEntry<K, V>[] entries, final int sta
 
             // We determined that entries[x..i) corresponds to children[currentPos]
 
-            newChildren = NodeBuilder.addChildren(newChildren, newChildrenMutable, level, currentPos, entries, x, i);
+            newChildren = NodeBuilder.addChildren(newChildren, newChildrenMutable, level, currentPos, entries, x, i, equivalence);
             if (newChildren != this.children){
                 newChildrenMutable = true;
             }
@@ -282,18 +325,13 @@ Node<K,V> putAll(final int level, final DataEntry<K, V>[] entries, final int sta
 
 
 
-    private static <K,V> boolean allHashesMatch(final int hash, final DataEntry<K,V>[] entries, final int start, final int end) {
-        for (int i = start; i < end; i++) {
-            if (entries[i].hash != hash) {
-                return false;
-            }
-        }
-        return true;
+    Node<K,V> remove(final int level, final int hash, final Object key, final Consumer<V> oldValueConsumer) {
+        return remove(level, hash, key, oldValueConsumer, null);
     }
 
 
-
-    Node<K,V> remove(final int level, final int hash, final Object key, final Consumer<V> oldValueConsumer) {
+    Node<K,V> remove(final int level, final int hash, final Object key, final Consumer<V> oldValueConsumer,
+                     final Equivalence<Object> equivalence) {
 
         if (this.children != null) {
 
@@ -305,7 +343,7 @@ Node<K,V> remove(final int level, final int hash, final Object key, final Consum
                 return this;
             }
 
-            final Node<K,V> newChild = child.remove(level + 1, hash, key, oldValueConsumer);
+            final Node<K,V> newChild = child.remove(level + 1, hash, key, oldValueConsumer, equivalence);
             if (newChild == child) {
                 return this;
             }
@@ -319,27 +357,24 @@ Node<K,V> remove(final int level, final int hash, final Object key, final Consum
             final Node<K,V>[] newChildren = this.children.clone();
             newChildren[pos] = newChild;
 
-            return new Node<>(newChildren);
+            return mergeIfSmall(level, new Node<>(newChildren));
 
         }
 
         // Not a branch -- this is a Node with data
 
-        if (this.hash != hash) {
-            return this;
-        }
-
-        return this.removeData(key, oldValueConsumer);
+        return this.removeData(hash, key, oldValueConsumer, equivalence);
 
     }
 
 
-    private Node<K,V> removeData(final Object key, final Consumer<V> oldValueConsumer) {
+    private Node<K,V> removeData(final int hash, final Object key, final Consumer<V> oldValueConsumer,
+                                 final Equivalence<Object> equivalence) {
 
         if (this.entry != null) {
             // This is single-valued
 
-            if (eq(this.entry.key,key)) {
+            if (this.entry.hash == hash && eq(this.entry.key, key, equivalence)) {
                 if (oldValueConsumer != null) {
                     oldValueConsumer.accept(this.entry.value);
                 }
@@ -355,7 +390,7 @@ private Node<K,V> removeData(final Object key, final Consumer<V> oldValueConsume
 
         int pos = -1;
         for (int i = 0; i < this.entries.length; i++) {
-            if (eq(this.entries[i].key, key)) {
+            if (this.entries[i].hash == hash && eq(this.entries[i].key, key, equivalence)) {
                 pos = i;
                 break;
             }
@@ -392,6 +427,149 @@ private Node<K,V> removeData(final Object key, final Consumer<V> oldValueConsume
 
 
 
+    Node<K,V> putInPlace(final Object editor, final int level, final DataEntry<K,V> entry,
+                         final Consumer<V> oldValueConsumer, final Equivalence<Object> equivalence) {
+
+        // Same as put(), but branch nodes owned by the editor are modified instead of copied. Note that
+        // the returned node can therefore be this same one even if it was modified.
+
+        if (this.children == null) {
+
+            return putBucket(level, entry, oldValueConsumer, equivalence);
+
+        }
+
+        final int pos = AtomicHashStore.pos(level, entry.hash);
+        final Node<K,V> child = this.children[pos];
+        final Node<K,V> newChild =
+                (child == null) ? new Node<>(entry) : child.putInPlace(editor, level + 1, entry, oldValueConsumer, equivalence);
+        if (newChild == child) {
+            return this;
+        }
+
+        return withChild(editor, pos, newChild);
+
+    }
+
+
+    Node<K,V> removeInPlace(final Object editor, final int level, final int hash, final Object key,
+                            final Consumer<V> oldValueConsumer, final Equivalence<Object> equivalence) {
+
+        if (this.children == null) {
+            return removeData(hash, key, oldValueConsumer, equivalence);
+        }
+
+        final int pos = AtomicHashStore.pos(level, hash);
+        final Node<K,V> child = this.children[pos];
+        if (child == null) {
+            return this;
+        }
+
+        final Node<K,V> newChild = child.removeInPlace(editor, level + 1, hash, key, oldValueConsumer, equivalence);
+        if (newChild == child) {
+            return this;
+        }
+
+        if (newChild == null && onlyOneChild(this.children)) {
+            return null;
+        }
+
+        return mergeIfSmall(level, withChild(editor, pos, newChild));
+
+    }
+
+
+    private Node<K,V> withChild(final Object editor, final int pos, final Node<K,V> newChild) {
+        if (this.owner == editor) {
+            // Not published yet, so nobody else can be looking at this node
+            this.children[pos] = newChild;
+            return this;
+        }
+        final Node<K,V>[] newChildren = this.children.clone();
+        newChildren[pos] = newChild;
+        return new Node<>(newChildren, editor);
+    }
+
+
+
+
+    static <K,V> Node<K,V> trieOf(final int level, final HashEntry<K,V>[] entries, final int start, final int end) {
+
+        // Entries are sorted, so entries with the same hash are contiguous, and so are the ones that
+        // go to the same child at each level
+
+        if (start + 1 == end) {
+            return new Node<>(entries[start]);
+        }
+        if (end - start <= maxDataSize(level) || entries[start].hash == entries[end - 1].hash) {
+            return new Node<>(Arrays.copyOfRange(entries, start, end));
+        }
+
+        final Node<K,V>[] children = new Node[AtomicHashStore.childrenSizeFor(level)];
+        int i = start;
+        int x;
+        int pos;
+        while (i < end) {
+            x = i;
+            pos = AtomicHashStore.pos(level, entries[i].hash);
+            while (++i < end && AtomicHashStore.pos(level, entries[i].hash) == pos) { }
+            children[pos] = trieOf(level + 1, entries, x, i);
+        }
+        return new Node<>(children);
+
+    }
+
+
+    private static <K,V> Node<K,V> mergeIfSmall(final int level, final Node<K,V> node) {
+
+        final int mergeSize = (level == 0) ? FLATTEN_SIZE : BUCKET_SIZE / 2;
+        if (mergeSize == 0 || countUpTo(node, mergeSize + 1) > mergeSize) {
+            return node;
+        }
+
+        // Collected in iteration order, which is already the order of data node entries
+        final HashEntry<K,V>[] entries = new HashEntry[mergeSize];
+        final int count = collect(node, entries, 0);
+        return (count == 1) ? new Node<>(entries[0]) : new Node<>(Arrays.copyOf(entries, count));
+
+    }
+
+
+    private static <K,V> int countUpTo(final Node<K,V> node, final int limit) {
+        if (node.children == null) {
+            return (node.entry == null) ? node.entries.length : 1;
+        }
+        int count = 0;
+        for (int i = 0; i < node.children.length && count < limit; i++) {
+            if (node.children[i] != null) {
+                count += countUpTo(node.children[i], limit - count);
+            }
+        }
+        return count;
+    }
+
+
+    private static <K,V> int collect(final Node<K,V> node, final HashEntry<K,V>[] entries, final int start) {
+        if (node.children == null) {
+            if (node.entry != null) {
+                entries[start] = node.entry;
+                return start + 1;
+            }
+            System.arraycopy(node.entries, 0, entries, start, node.entries.length);
+            return start + node.entries.length;
+        }
+        int count = start;
+        for (int i = 0; i < node.children.length; i++) {
+            if (node.children[i] != null) {
+                count = collect(node.children[i], entries, count);
+            }
+        }
+        return count;
+    }
+
+
+
+
     private static <K,V> boolean onlyOneChild(final Node<K,V>[] children) {
         boolean found = false;
         for (int i = 0; i < children.length; i++) {
@@ -418,4 +596,14 @@ private static boolean eq(final Object o1, final Object o2) {
     }
 
 
+    static boolean eq(final Object o1, final Object o2, final Equivalence<Object> equivalence) {
+        // A null equivalence means plain equality, which is by far the most common case and
+        // therefore gets its own path
+        if (equivalence == null) {
+            return eq(o1, o2);
+        }
+        return o1 == o2 || (o1 != null && o2 != null && equivalence.equivalent(o1, o2));
+    }
+
+
 }
@@ -27,7 +27,7 @@ final class NodeBuilder {
     static <K,V> Node<K,V>[] addChild(final Node<K,V>[] children, final boolean childrenMutable,
                                       final int level,
                                       final int newEntryPos, final DataEntry<K,V> newEntry,
-                                      final Consumer<V> valueConsumer) {
+                                      final Consumer<V> valueConsumer, final Equivalence<Object> equivalence) {
 
         // Check the current status of the position to be used
         final Node<K,V> childInPos = children[newEntryPos];
@@ -35,7 +35,7 @@ static <K,V> Node<K,V>[] addChild(final Node<K,V>[] children, final boolean chil
         // There is something in the selected pos, so we need to delegate
         final Node<K,V> newChild;
         if (childInPos != null) {
-            newChild = childInPos.put(level + 1, newEntry, valueConsumer);
+            newChild = childInPos.put(level + 1, newEntry, valueConsumer, equivalence);
             if (childInPos == newChild) {
                 return children;
             }
@@ -53,12 +53,13 @@ static <K,V> Node<K,V>[] addChild(final Node<K,V>[] children, final boolean chil
 
     static <K,V> Node<K,V>[] addChildren(final Node<K,V>[] children, final boolean childrenMutable,
                                          final int level,
-                                         final int newEntryPos, final DataEntry<K,V>[] newEntries, final int start, final int end) {
+                                         final int newEntryPos, final DataEntry<K,V>[] newEntries, final int start, final int end,
+                                         final Equivalence<Object> equivalence) {
 
         // ASSERTION: We know for sure that (end - start) > 1. We would have been re-routed to a simple "put" if not.
 
         if (start + 1 == end) {
-            return addChild(children, childrenMutable, level, newEntryPos, newEntries[start], null);
+            return addChild(children, childrenMutable, level, newEntryPos, newEntries[start], null, equivalence);
         }
 
         // Check the current status of the position to be used
@@ -67,7 +68,7 @@ static <K,V> Node<K,V>[] addChildren(final Node<K,V>[] children, final boolean c
         // There is something in the selected pos, so we need to delegate
         final Node<K,V> newChild;
         if (childInPos != null) {
-            newChild = childInPos.putAll(level + 1, newEntries, start, end);
+            newChild = childInPos.putAll(level + 1, newEntries, start, end, equivalence);
             if (childInPos == newChild) {
                 return children;
             }
@@ -75,7 +76,7 @@ static <K,V> Node<K,V>[] addChildren(final Node<K,V>[] children, final boolean c
             // We create a temporary node that only contains data, and execute a putAll on it.
             // Note the NodeData object will be reused (the temporary Node won't, but it's lightweight).
             final Node<K,V> tempChild = new Node<>(newEntries[start]);
-            newChild = tempChild.putAll(level + 1, newEntries, start + 1, end);
+            newChild = tempChild.putAll(level + 1, newEntries, start + 1, end, equivalence);
         }
 
         final Node<K,V>[] newChildren = (childrenMutable? children : children.clone());
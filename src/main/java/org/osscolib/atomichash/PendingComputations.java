@@ -0,0 +1,242 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+final class PendingComputations<K,V> {
+
+    /*
+     * Keeps track of the computations currently in progress for absent keys, so that a mapping function is
+     * executed at most once per absent key even under contention. In-flight computations are registered as
+     * placeholders in an AtomicHashStore of their own (which will usually be empty), and any other callers
+     * for the same key will wait on the placeholder instead of computing. Callers for other keys are never
+     * blocked.
+     */
+
+    private final AtomicReference<AtomicHashStore<K,Placeholder>> placeholders;
+
+
+
+    PendingComputations() {
+        this(Equivalence.equality());
+    }
+
+
+    PendingComputations(final Equivalence<? super K> equivalence) {
+        super();
+        // Placeholders must match keys in the same way the map they belong to does
+        this.placeholders = new AtomicReference<>(AtomicHashStore.of(equivalence));
+    }
+
+
+
+
+    V computeIfAbsent(
+            final K key, final Function<? super K, ? extends V> mappingFunction,
+            final Function<? super K, ? extends V> reader, final BiFunction<? super K, ? super V, ? extends V> installer) {
+
+        V value;
+        while (true) {
+
+            value = reader.apply(key);
+            if (value != null) {
+                return value;
+            }
+
+            final Placeholder placeholder = new Placeholder();
+            final Placeholder existing = register(key, placeholder);
+
+            if (existing != null) {
+                if (existing.owner == Thread.currentThread()) {
+                    throw new IllegalStateException("Recursive computation for the same key");
+                }
+                // Once the computation finishes, we will retry and (usually) find the computed value
+                existing.await();
+                continue;
+            }
+
+            try {
+
+                // Check again, the value might have been computed before we registered our placeholder
+                value = reader.apply(key);
+                if (value != null) {
+                    return value;
+                }
+
+                value = mappingFunction.apply(key);
+                if (value == null) {
+                    return null;
+                }
+
+                return installer.apply(key, value);
+
+            } finally {
+                unregister(key, placeholder);
+                placeholder.complete();
+            }
+
+        }
+
+    }
+
+
+    /**
+     * Bulk version of computeIfAbsent(). Keys not being computed by anyone else are registered at once and
+     * computed together by the bulk function, returning the values actually installed for them. Keys already
+     * being computed by other callers are added to waitFor and not computed, so that they can be waited for
+     * (and read) afterwards by means of computeIfAbsent().
+     */
+    Map<K,V> computeAllIfAbsent(
+            final Set<K> keys, final Function<? super Set<K>, ? extends Map<? extends K, ? extends V>> bulkFunction,
+            final Function<? super K, ? extends V> reader,
+            final Function<? super Map<? extends K, ? extends V>, Map<K,V>> installer, final Set<K> waitFor) {
+
+        final Placeholder placeholder = new Placeholder();
+        final Set<K> registered = registerAll(keys, placeholder);
+        for (final K key : keys) {
+            if (!registered.contains(key)) {
+                waitFor.add(key);
+            }
+        }
+
+        try {
+
+            // Check again, values might have been computed before we registered our placeholders
+            final Set<K> missing = new LinkedHashSet<>();
+            for (final K key : registered) {
+                if (reader.apply(key) == null) {
+                    missing.add(key);
+                }
+            }
+            if (missing.isEmpty()) {
+                return java.util.Collections.emptyMap();
+            }
+
+            final Map<? extends K, ? extends V> values = bulkFunction.apply(java.util.Collections.unmodifiableSet(missing));
+            if (values == null || values.isEmpty()) {
+                return java.util.Collections.emptyMap();
+            }
+
+            return installer.apply(values);
+
+        } finally {
+            unregisterAll(registered, placeholder);
+            placeholder.complete();
+        }
+
+    }
+
+
+    private Placeholder register(final K key, final Placeholder placeholder) {
+        AtomicHashStore<K,Placeholder> store;
+        Placeholder existing;
+        do {
+            store = this.placeholders.get();
+            existing = store.get(key);
+            if (existing != null) {
+                return existing;
+            }
+        } while (!this.placeholders.compareAndSet(store, store.put(key, placeholder)));
+        return null;
+    }
+
+
+    private Set<K> registerAll(final Set<K> keys, final Placeholder placeholder) {
+        AtomicHashStore<K,Placeholder> store;
+        AtomicHashStore<K,Placeholder> newStore;
+        Set<K> registered;
+        do {
+            store = this.placeholders.get();
+            newStore = store;
+            registered = new LinkedHashSet<>();
+            for (final K key : keys) {
+                if (!newStore.containsKey(key)) {
+                    newStore = newStore.put(key, placeholder);
+                    registered.add(key);
+                }
+            }
+        } while (!this.placeholders.compareAndSet(store, newStore));
+        return registered;
+    }
+
+
+    private void unregister(final K key, final Placeholder placeholder) {
+        AtomicHashStore<K,Placeholder> store;
+        do {
+            store = this.placeholders.get();
+        } while (!this.placeholders.compareAndSet(store, store.remove(key, placeholder)));
+    }
+
+
+    private void unregisterAll(final Set<K> keys, final Placeholder placeholder) {
+        AtomicHashStore<K,Placeholder> store;
+        AtomicHashStore<K,Placeholder> newStore;
+        do {
+            store = this.placeholders.get();
+            newStore = store;
+            for (final K key : keys) {
+                newStore = newStore.remove(key, placeholder);
+            }
+        } while (!this.placeholders.compareAndSet(store, newStore));
+    }
+
+
+
+
+    static final class Placeholder {
+
+        private final Thread owner;
+        private boolean completed;
+
+        Placeholder() {
+            super();
+            this.owner = Thread.currentThread();
+            this.completed = false;
+        }
+
+        synchronized void await() {
+            boolean interrupted = false;
+            while (!this.completed) {
+                try {
+                    wait();
+                } catch (final InterruptedException e) {
+                    // We cannot give up waiting, but the interruption status must be kept
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized void complete() {
+            this.completed = true;
+            notifyAll();
+        }
+
+    }
+
+}
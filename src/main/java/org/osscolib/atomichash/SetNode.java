@@ -0,0 +1,449 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+final class SetNode<K> implements Serializable {
+
+    /*
+     * Node for AtomicHashSetStore. Structure is the same as that of Node (same levels, same positions
+     * for each hash), but data nodes contain their key directly (or keys, in case of hash collisions)
+     * instead of HashEntry objects, as there are no values.
+     *
+     * Empty branches are represented as null, as in Node.
+     */
+
+    private static final long serialVersionUID = -3391457508231960327L;
+
+
+    final SetNode<K>[] children; // can contain many nulls
+
+    final int hash;
+    final K key;
+    final K[] keys;
+
+
+
+    SetNode(final SetNode<K>[] children) {
+        super();
+        this.children = children;
+        this.hash = -1; // Not used in branches
+        this.key = null;
+        this.keys = null;
+    }
+
+
+    SetNode(final int hash, final K key) {
+        super();
+        this.children = null;
+        this.hash = hash;
+        this.key = key;
+        this.keys = null;
+    }
+
+
+    private SetNode(final int hash, final K[] keys) {
+        super();
+        this.children = null;
+        this.hash = hash;
+        this.key = null;
+        this.keys = keys;
+    }
+
+
+    private static <K> SetNode<K> data(final int hash, final K[] keys, final int length) {
+        if (length == 0) {
+            return null;
+        }
+        if (length == 1) {
+            return new SetNode<>(hash, keys[0]);
+        }
+        return new SetNode<>(hash, (length == keys.length) ? keys : Arrays.copyOf(keys, length));
+    }
+
+
+    private int dataSize() {
+        return (this.keys == null) ? 1 : this.keys.length;
+    }
+
+
+    private K dataKey(final int i) {
+        return (this.keys == null) ? this.key : this.keys[i];
+    }
+
+
+
+
+    int size() {
+        if (this.children == null) {
+            return dataSize();
+        }
+        int size = 0;
+        for (int i = 0; i < this.children.length; i++) {
+            if (this.children[i] != null) {
+                size += this.children[i].size();
+            }
+        }
+        return size;
+    }
+
+
+    static boolean contains(final SetNode<?> root, final int level, final int hash, final Object key) {
+        SetNode<?> node = root;
+        int l = level;
+        while (node != null && node.children != null) {
+            node = node.children[AtomicHashStore.pos(l++, hash)];
+        }
+        return node != null && node.hash == hash && node.dataIndex(key) >= 0;
+    }
+
+
+    private int dataIndex(final Object k) {
+        if (this.keys == null) {
+            return eq(this.key, k) ? 0 : -1;
+        }
+        for (int i = 0; i < this.keys.length; i++) {
+            if (eq(this.keys[i], k)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+
+
+    SetNode<K> add(final int level, final int hash, final K k) {
+
+        if (this.children == null) {
+
+            if (this.hash == hash) {
+                if (dataIndex(k) >= 0) {
+                    return this;
+                }
+                final K[] newKeys;
+                if (this.keys == null) {
+                    newKeys = (K[]) new Object[] { this.key, k };
+                } else {
+                    newKeys = Arrays.copyOf(this.keys, this.keys.length + 1);
+                    newKeys[this.keys.length] = k;
+                }
+                return new SetNode<>(hash, newKeys);
+            }
+
+            // Different hash: this data node needs to become a branch
+            final SetNode<K>[] newChildren = new SetNode[AtomicHashStore.childrenSizeFor(level)];
+            newChildren[AtomicHashStore.pos(level, this.hash)] = this;
+            return new SetNode<>(addToChildren(newChildren, level, hash, k));
+
+        }
+
+        final SetNode<K>[] newChildren = addToChildren(this.children.clone(), level, hash, k);
+        return (newChildren == null) ? this : new SetNode<>(newChildren);
+
+    }
+
+
+    private static <K> SetNode<K>[] addToChildren(final SetNode<K>[] children, final int level, final int hash, final K k) {
+        // Returns null if nothing changed
+        final int pos = AtomicHashStore.pos(level, hash);
+        final SetNode<K> child = children[pos];
+        if (child == null) {
+            children[pos] = new SetNode<>(hash, k);
+            return children;
+        }
+        final SetNode<K> newChild = child.add(level + 1, hash, k);
+        if (newChild == child) {
+            return null;
+        }
+        children[pos] = newChild;
+        return children;
+    }
+
+
+    SetNode<K> remove(final int level, final int hash, final Object k) {
+
+        if (this.children == null) {
+            if (this.hash != hash) {
+                return this;
+            }
+            final int idx = dataIndex(k);
+            if (idx < 0) {
+                return this;
+            }
+            if (this.keys == null) {
+                return null;
+            }
+            final K[] newKeys = (K[]) new Object[this.keys.length - 1];
+            System.arraycopy(this.keys, 0, newKeys, 0, idx);
+            System.arraycopy(this.keys, idx + 1, newKeys, idx, this.keys.length - idx - 1);
+            return data(hash, newKeys, newKeys.length);
+        }
+
+        final int pos = AtomicHashStore.pos(level, hash);
+        final SetNode<K> child = this.children[pos];
+        if (child == null) {
+            return this;
+        }
+        final SetNode<K> newChild = child.remove(level + 1, hash, k);
+        if (newChild == child) {
+            return this;
+        }
+        return branch(this.children, pos, newChild);
+
+    }
+
+
+    private static <K> SetNode<K> branch(final SetNode<K>[] children, final int pos, final SetNode<K> newChild) {
+        final SetNode<K>[] newChildren = children.clone();
+        newChildren[pos] = newChild;
+        return branch(newChildren);
+    }
+
+
+    private static <K> SetNode<K> branch(final SetNode<K>[] children) {
+        for (int i = 0; i < children.length; i++) {
+            if (children[i] != null) {
+                return new SetNode<>(children);
+            }
+        }
+        return null;
+    }
+
+
+
+
+    /*
+     * Structural set operations. Subtrees that are the same object in both operands are resolved without
+     * looking into them, so operating on sets derived from one another only costs in proportion to
+     * their differences.
+     */
+
+    static <K> SetNode<K> union(final SetNode<K> a, final SetNode<K> b, final int level) {
+
+        if (a == b || b == null) {
+            return a;
+        }
+        if (a == null) {
+            return b;
+        }
+
+        if (b.children == null) {
+            SetNode<K> result = a;
+            for (int i = 0; i < b.dataSize(); i++) {
+                result = result.add(level, b.hash, b.dataKey(i));
+            }
+            return result;
+        }
+
+        if (a.children == null) {
+            SetNode<K> result = b;
+            for (int i = 0; i < a.dataSize(); i++) {
+                result = result.add(level, a.hash, a.dataKey(i));
+            }
+            return result;
+        }
+
+        SetNode<K>[] newChildren = null;
+        SetNode<K> child;
+        for (int i = 0; i < a.children.length; i++) {
+            child = union(a.children[i], b.children[i], level + 1);
+            if (child != a.children[i]) {
+                if (newChildren == null) {
+                    newChildren = a.children.clone();
+                }
+                newChildren[i] = child;
+            }
+        }
+        return (newChildren == null) ? a : new SetNode<>(newChildren);
+
+    }
+
+
+    static <K> SetNode<K> intersection(final SetNode<K> a, final SetNode<K> b, final int level) {
+
+        if (a == b) {
+            return a;
+        }
+        if (a == null || b == null) {
+            return null;
+        }
+
+        if (a.children == null) {
+            return filter(a, b, level, true);
+        }
+
+        if (b.children == null) {
+            return filter(b, a, level, true);
+        }
+
+        SetNode<K>[] newChildren = null;
+        SetNode<K> child;
+        for (int i = 0; i < a.children.length; i++) {
+            child = intersection(a.children[i], b.children[i], level + 1);
+            if (child != a.children[i]) {
+                if (newChildren == null) {
+                    newChildren = a.children.clone();
+                }
+                newChildren[i] = child;
+            }
+        }
+        return (newChildren == null) ? a : branch(newChildren);
+
+    }
+
+
+    static <K> SetNode<K> difference(final SetNode<K> a, final SetNode<K> b, final int level) {
+
+        if (a == b || a == null) {
+            return null;
+        }
+        if (b == null) {
+            return a;
+        }
+
+        if (a.children == null) {
+            return filter(a, b, level, false);
+        }
+
+        if (b.children == null) {
+            SetNode<K> result = a;
+            for (int i = 0; i < b.dataSize() && result != null; i++) {
+                result = result.remove(level, b.hash, b.dataKey(i));
+            }
+            return result;
+        }
+
+        SetNode<K>[] newChildren = null;
+        SetNode<K> child;
+        for (int i = 0; i < a.children.length; i++) {
+            child = difference(a.children[i], b.children[i], level + 1);
+            if (child != a.children[i]) {
+                if (newChildren == null) {
+                    newChildren = a.children.clone();
+                }
+                newChildren[i] = child;
+            }
+        }
+        return (newChildren == null) ? a : branch(newChildren);
+
+    }
+
+
+    private static <K> SetNode<K> filter(final SetNode<K> data, final SetNode<K> other, final int level, final boolean keepContained) {
+        // Keeps the keys in the data node that are (or are not) contained in the other subtree
+        final K[] kept = (K[]) new Object[data.dataSize()];
+        int count = 0;
+        for (int i = 0; i < kept.length; i++) {
+            if (contains(other, level, data.hash, data.dataKey(i)) == keepContained) {
+                kept[count++] = data.dataKey(i);
+            }
+        }
+        return (count == kept.length) ? data : data(data.hash, kept, count);
+    }
+
+
+
+
+    private static boolean eq(final Object o1, final Object o2) {
+        return o1 == null ? o2 == null : o1.equals(o2);
+    }
+
+
+
+
+    static final class KeyIterator<K> implements java.util.Iterator<K> {
+
+        private final SetNode<K>[] stack;
+        private final int[] currentChild;
+        private int stackSize;
+
+        private SetNode<K> data;
+        private int dataPos;
+
+
+        KeyIterator(final SetNode<K> root) {
+            super();
+            this.stack = new SetNode[AtomicHashStore.LEVEL_COUNT];
+            this.currentChild = new int[AtomicHashStore.LEVEL_COUNT];
+            this.stackSize = 0;
+            this.data = null;
+            this.dataPos = 0;
+            if (root != null) {
+                if (root.children == null) {
+                    this.data = root;
+                } else {
+                    this.stack[0] = root;
+                    this.currentChild[0] = -1;
+                    this.stackSize = 1;
+                    advance();
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.data != null;
+        }
+
+        @Override
+        public K next() {
+            if (this.data == null) {
+                throw new java.util.NoSuchElementException();
+            }
+            final K k = this.data.dataKey(this.dataPos++);
+            if (this.dataPos == this.data.dataSize()) {
+                this.data = null;
+                this.dataPos = 0;
+                advance();
+            }
+            return k;
+        }
+
+        private void advance() {
+            // Moves to the next data node in the tree, if any
+            while (this.stackSize > 0) {
+                final int top = this.stackSize - 1;
+                final SetNode<K>[] children = this.stack[top].children;
+                int i = this.currentChild[top] + 1;
+                while (i < children.length && children[i] == null) {
+                    i++;
+                }
+                if (i == children.length) {
+                    this.stack[top] = null;
+                    this.stackSize--;
+                    continue;
+                }
+                this.currentChild[top] = i;
+                if (children[i].children == null) {
+                    this.data = children[i];
+                    return;
+                }
+                this.stack[this.stackSize] = children[i];
+                this.currentChild[this.stackSize] = -1;
+                this.stackSize++;
+            }
+        }
+
+    }
+
+}
@@ -60,7 +60,7 @@ public boolean contains(final Object o) {
             }
             final Map.Entry<?,?> entry = (Map.Entry<?,?>) o;
             final Object key = entry.getKey();
-            final HashEntry<?,?> candidate = this.store.getEntry(AtomicHashStore.hash(key), key);
+            final HashEntry<?,?> candidate = this.store.getEntry(this.store.keyHash(key), key);
             return candidate != null && candidate.equals(entry);
         }
 
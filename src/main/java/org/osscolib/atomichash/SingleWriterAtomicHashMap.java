@@ -0,0 +1,244 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+public class SingleWriterAtomicHashMap<K,V> implements Map<K,V>, Serializable {
+
+    /*
+     * Variant of AtomicHashMap for maps that are modified by exactly one thread at a time (the writer) and
+     * read by any number of threads. Given there is no contention between writers, new stores are published
+     * by means of a release store (AtomicReference#lazySet()) instead of a CAS loop, and readers always see
+     * a consistent, immutable AtomicHashStore.
+     *
+     * Several modifications can be performed at once by means of edit() or apply(), in which case nodes
+     * created during the operation are modified in place (see StoreEditor) and published only once.
+     *
+     * Modifying the map from more than one thread at the same time will result in lost updates.
+     */
+
+    private static final long serialVersionUID = 4417953637446013596L;
+
+    private final AtomicReference<AtomicHashStore<K,V>> innerMap;
+
+
+
+    public SingleWriterAtomicHashMap() {
+        super();
+        this.innerMap = new AtomicReference<>();
+        this.innerMap.set(AtomicHashStore.of());
+    }
+
+
+    public SingleWriterAtomicHashMap(final Equivalence<? super K> keyEquivalence) {
+        super();
+        this.innerMap = new AtomicReference<>();
+        this.innerMap.set(AtomicHashStore.of(keyEquivalence));
+    }
+
+
+    public SingleWriterAtomicHashMap(final Map<? extends K, ? extends V> m) {
+        this();
+        Objects.requireNonNull(m);
+        final AtomicHashStore<K,V> store = AtomicHashStore.of();
+        this.innerMap.set(store.putAll(m));
+    }
+
+
+
+
+    public AtomicHashStore<K,V> store() {
+        return this.innerMap.get();
+    }
+
+
+    private void publish(final AtomicHashStore<K,V> store) {
+        // Only the writer thread modifies the reference, so a release store is enough
+        this.innerMap.lazySet(store);
+    }
+
+
+
+
+    public AtomicHashStore<K,V> edit(final Consumer<? super StoreEditor<K,V>> editFunction) {
+        Objects.requireNonNull(editFunction);
+        final StoreEditor<K,V> editor = this.innerMap.get().edit();
+        editFunction.accept(editor);
+        final AtomicHashStore<K,V> newStore = editor.toStore();
+        publish(newStore);
+        return newStore;
+    }
+
+
+    public List<V> apply(final WriteBatch<K,V> batch) {
+        Objects.requireNonNull(batch);
+        final Object[] results = new Object[batch.size()];
+        publish(batch.applyTo(this.innerMap.get(), results));
+        return WriteBatch.resultsOf(results);
+    }
+
+
+
+
+    @Override
+    public int size() {
+        return store().size();
+    }
+
+
+    @Override
+    public boolean isEmpty() {
+        return store().isEmpty();
+    }
+
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return store().containsKey(key);
+    }
+
+
+    @Override
+    public boolean containsValue(final Object value) {
+        return store().containsValue(value);
+    }
+
+
+    @Override
+    public V get(final Object key) {
+        return store().get(key);
+    }
+
+
+    @Override
+    public V getOrDefault(final Object key, final V defaultValue) {
+        return store().getOrDefault(key, defaultValue);
+    }
+
+
+
+
+    @Override
+    public V put(final K key, final V value) {
+        final AtomicHashStore<K,V> store = this.innerMap.get();
+        final HashEntry<K,V> entry = store.getEntry(store.keyHash(key), key);
+        final AtomicHashStore<K,V> newStore = store.put(key, value);
+        if (newStore != store) {
+            publish(newStore);
+        }
+        return (entry != null) ? entry.value : null;
+    }
+
+
+    @Override
+    public void putAll(final Map<? extends K, ? extends V> m) {
+        publish(this.innerMap.get().putAll(m));
+    }
+
+
+    @Override
+    public V remove(final Object key) {
+        final AtomicHashStore<K,V> store = this.innerMap.get();
+        final HashEntry<K,V> entry = store.getEntry(store.keyHash(key), key);
+        if (entry != null) {
+            publish(store.remove(key));
+        }
+        return (entry != null) ? entry.value : null;
+    }
+
+
+    @Override
+    public void replaceAll(final BiFunction<? super K, ? super V, ? extends V> function) {
+        publish(this.innerMap.get().replaceAll(function));
+    }
+
+
+    @Override
+    public V compute(final K key, final BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        final AtomicHashStore<K,V> store = this.innerMap.get();
+        final HashEntry<K,V> entry = store.getEntry(store.keyHash(key), key);
+        final V newValue = remappingFunction.apply(key, (entry != null) ? entry.value : null);
+        if (newValue != null) {
+            publish(store.put(key, newValue));
+        } else if (entry != null) {
+            publish(store.remove(key));
+        }
+        return newValue;
+    }
+
+
+    @Override
+    public void clear() {
+        publish(this.innerMap.get().clear());
+    }
+
+
+
+
+    @Override
+    public Set<Map.Entry<K,V>> entrySet() {
+        return new Sets.MapEntrySet<>(store());
+    }
+
+
+    @Override
+    public Set<K> keySet() {
+        return new Sets.MapKeySet<>(store());
+    }
+
+
+    @Override
+    public Collection<V> values() {
+        return new Collections.MapValueCollection<>(store());
+    }
+
+
+
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o instanceof SingleWriterAtomicHashMap) {
+            return store().equals(((SingleWriterAtomicHashMap<?,?>) o).store());
+        }
+        // Map#equals() requires being able to compare with any other Map implementation
+        return o instanceof Map && entrySet().equals(((Map<?,?>) o).entrySet());
+    }
+
+
+    @Override
+    public int hashCode() {
+        return store().hashCode();
+    }
+
+
+}
@@ -0,0 +1,135 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.Objects;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+public final class StoreEditor<K,V> {
+
+    /*
+     * Mutable, single-threaded view on an AtomicHashStore, meant for performing several modifications at
+     * once. Branch nodes created by the editor are owned by it (by means of an ownership token, as in
+     * Clojure's transients) and, until the result is published by calling toStore(), they are modified in
+     * place instead of copied. Nodes belonging to the original store are never modified, so the store
+     * the editor started from (and any store previously returned by toStore()) stays untouched.
+     *
+     * Editors are not thread-safe, and should not escape the thread that created them.
+     */
+
+    private final Equivalence<Object> equivalence;
+    private Node<K,V> root;
+    private Object owner;
+
+
+
+    StoreEditor(final AtomicHashStore<K,V> store) {
+        super();
+        this.equivalence = store.equivalence;
+        this.root = store.root;
+        this.owner = new Object();
+    }
+
+
+
+
+    public boolean isEmpty() {
+        return this.root == null;
+    }
+
+
+    public boolean containsKey(final Object key) {
+        return getEntry(key) != null;
+    }
+
+
+    public V get(final Object key) {
+        final HashEntry<K,V> entry = getEntry(key);
+        return (entry != null) ? entry.value : null;
+    }
+
+
+    HashEntry<K,V> getEntry(final Object key) {
+        return AtomicHashStore.getEntry(0, AtomicHashStore.hash(key, this.equivalence), key, this.root, this.equivalence);
+    }
+
+
+
+
+    public V put(final K key, final V value) {
+        final DataEntry<K,V> entry = new DataEntry<>(AtomicHashStore.hash(key, this.equivalence), key, value);
+        if (this.root == null) {
+            this.root = new Node<>(entry);
+            return null;
+        }
+        final ValueHolder<V> oldValue = new ValueHolder<>();
+        this.root = this.root.putInPlace(this.owner, 0, entry, oldValue, this.equivalence);
+        return oldValue.value;
+    }
+
+
+    public V remove(final Object key) {
+        if (this.root == null) {
+            return null;
+        }
+        final ValueHolder<V> oldValue = new ValueHolder<>();
+        this.root = this.root.removeInPlace(
+                this.owner, 0, AtomicHashStore.hash(key, this.equivalence), key, oldValue, this.equivalence);
+        return oldValue.value;
+    }
+
+
+    public V compute(final K key, final BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        final HashEntry<K,V> entry = getEntry(key);
+        final V newValue = remappingFunction.apply(key, (entry != null) ? entry.value : null);
+        if (newValue != null) {
+            put(key, newValue);
+        } else if (entry != null) {
+            remove(key);
+        }
+        return newValue;
+    }
+
+
+
+
+    public AtomicHashStore<K,V> toStore() {
+        // Once published, nodes owned until now must never be modified again
+        this.owner = new Object();
+        return AtomicHashStore.forRoot(this.root, this.equivalence);
+    }
+
+
+
+
+    private static final class ValueHolder<V> implements Consumer<V> {
+
+        V value = null;
+
+        @Override
+        public void accept(final V v) {
+            this.value = v;
+        }
+
+    }
+
+}
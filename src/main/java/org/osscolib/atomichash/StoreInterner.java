@@ -0,0 +1,259 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+
+public final class StoreInterner {
+
+    /*
+     * Weak intern table for the nodes of AtomicHashStores, used for sharing structurally equal subtrees
+     * among many stores built from overlapping data. Interning a store returns an equal store whose nodes
+     * are canonical instances from this table, so that equal subtrees in different stores are the very same
+     * objects (which is also what makes equals() and diff() on such stores cheap).
+     *
+     * Nodes are interned bottom-up: once the children of a branch node are canonical, two branches are equal
+     * if their children arrays contain the same node instances, so comparing them never needs to go further
+     * down the tree. Data nodes are equal if they contain the same keys (according to the equivalence of the
+     * store being interned) with the same hashes, mapped to equal values. Note therefore that:
+     *
+     *   - Both keys and values in interned stores might be replaced by equivalent (but not identical) ones,
+     *     e.g. a key "Key" by "KEY" in a store using Equivalence.caseInsensitive().
+     *   - Entries replaced this way are different entry objects, and operations that detect changes by
+     *     entry identity (diff(), VersionedAtomicHashMap, AtomicHashMap#computeAsync()...) will report them as
+     *     changed (with equal old and new values) between the source store and the interned one. Stores should
+     *     therefore be interned before being diffed against each other, not diffed against their source.
+     *
+     * The table only holds weak references to nodes, so canonical nodes are collected once they are no longer
+     * used by any store.
+     */
+
+    // Structural hash -> canonical nodes with that hash
+    private final Map<Integer,List<NodeRef>> table;
+    // Identity-based (Node does not override equals()), so that canonical subtrees are not traversed again
+    private final Map<Node<?,?>,Boolean> canonical;
+    private final ReferenceQueue<Node<?,?>> queue;
+
+
+
+    public StoreInterner() {
+        super();
+        this.table = new HashMap<>();
+        this.canonical = new WeakHashMap<>();
+        this.queue = new ReferenceQueue<>();
+    }
+
+
+
+
+    public synchronized <K,V> AtomicHashStore<K,V> intern(final AtomicHashStore<K,V> store) {
+
+        Objects.requireNonNull(store);
+
+        expunge();
+
+        if (store.root == null) {
+            return store;
+        }
+
+        final Node<K,V> newRoot = intern(store.root, store.equivalence);
+        return (newRoot == store.root) ? store : new AtomicHashStore<>(newRoot, store.equivalence);
+
+    }
+
+
+    /**
+     * Number of canonical nodes currently held by this interner.
+     */
+    public synchronized int size() {
+        expunge();
+        return this.canonical.size();
+    }
+
+
+
+
+    private <K,V> Node<K,V> intern(final Node<K,V> node, final Equivalence<Object> equivalence) {
+
+        if (this.canonical.containsKey(node)) {
+            return node;
+        }
+
+        Node<K,V> candidate = node;
+        if (node.children != null) {
+            Node<K,V>[] newChildren = null;
+            Node<K,V> child;
+            Node<K,V> newChild;
+            for (int i = 0; i < node.children.length; i++) {
+                child = node.children[i];
+                if (child != null && (newChild = intern(child, equivalence)) != child) {
+                    if (newChildren == null) {
+                        newChildren = node.children.clone();
+                    }
+                    newChildren[i] = newChild;
+                }
+            }
+            if (newChildren != null) {
+                candidate = new Node<>(newChildren);
+            }
+        }
+
+        final int hash = structuralHash(candidate);
+        List<NodeRef> refs = this.table.get(hash);
+        if (refs == null) {
+            refs = new ArrayList<>(2);
+            this.table.put(hash, refs);
+        }
+
+        final Iterator<NodeRef> refsIter = refs.iterator();
+        Node<?,?> canonicalNode;
+        while (refsIter.hasNext()) {
+            canonicalNode = refsIter.next().get();
+            if (canonicalNode == null) {
+                refsIter.remove();
+            } else if (structurallyEqual(candidate, canonicalNode, equivalence)) {
+                return (Node<K,V>) canonicalNode;
+            }
+        }
+
+        refs.add(new NodeRef(candidate, hash, this.queue));
+        this.canonical.put(candidate, Boolean.TRUE);
+        return candidate;
+
+    }
+
+
+    private void expunge() {
+        NodeRef ref;
+        while ((ref = (NodeRef) this.queue.poll()) != null) {
+            final List<NodeRef> refs = this.table.get(ref.hash);
+            if (refs != null) {
+                refs.remove(ref);
+                if (refs.isEmpty()) {
+                    this.table.remove(ref.hash);
+                }
+            }
+        }
+    }
+
+
+
+
+    private static int structuralHash(final Node<?,?> node) {
+        int h = 1;
+        if (node.children != null) {
+            // Children are already canonical, so their identity is enough
+            for (int i = 0; i < node.children.length; i++) {
+                h = 31 * h + ((node.children[i] == null) ? 0 : System.identityHashCode(node.children[i]));
+            }
+            return h;
+        }
+        if (node.entry != null) {
+            return entryHash(node.entry);
+        }
+        // Order-independent, as colliding entries are sorted by identity (see HashEntry#compareTo())
+        h = 0;
+        for (int i = 0; i < node.entries.length; i++) {
+            h += entryHash(node.entries[i]);
+        }
+        return h;
+    }
+
+
+    private static int entryHash(final HashEntry<?,?> entry) {
+        return entry.hash ^ Objects.hashCode(entry.value);
+    }
+
+
+    private static boolean structurallyEqual(
+            final Node<?,?> node1, final Node<?,?> node2, final Equivalence<Object> equivalence) {
+
+        if (node1.children != null || node2.children != null) {
+            if (node1.children == null || node2.children == null || node1.children.length != node2.children.length) {
+                return false;
+            }
+            for (int i = 0; i < node1.children.length; i++) {
+                if (node1.children[i] != node2.children[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        if (node1.entry != null || node2.entry != null) {
+            return node1.entry != null && node2.entry != null && entryEqual(node1.entry, node2.entry, equivalence);
+        }
+
+        if (node1.entries.length != node2.entries.length) {
+            return false;
+        }
+        // Keys are unique in each node, so it is enough to find every entry of node1 in node2
+        for (int i = 0; i < node1.entries.length; i++) {
+            if (!containsEntry(node2.entries, node1.entries[i], equivalence)) {
+                return false;
+            }
+        }
+        return true;
+
+    }
+
+
+    private static boolean containsEntry(
+            final HashEntry<?,?>[] entries, final HashEntry<?,?> entry, final Equivalence<Object> equivalence) {
+        for (int i = 0; i < entries.length; i++) {
+            if (entryEqual(entries[i], entry, equivalence)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private static boolean entryEqual(
+            final HashEntry<?,?> entry1, final HashEntry<?,?> entry2, final Equivalence<Object> equivalence) {
+        return entry1 == entry2
+                || (entry1.hash == entry2.hash
+                        && Node.eq(entry1.key, entry2.key, equivalence)
+                        && Objects.equals(entry1.value, entry2.value));
+    }
+
+
+
+
+    private static final class NodeRef extends WeakReference<Node<?,?>> {
+
+        final int hash;
+
+        NodeRef(final Node<?,?> node, final int hash, final ReferenceQueue<Node<?,?>> queue) {
+            super(node, queue);
+            this.hash = hash;
+        }
+
+    }
+
+}
@@ -0,0 +1,680 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+public class TieredAtomicHashMap<K,V> implements Map<K,V>, Serializable {
+
+    /*
+     * Two-tier map, in the fashion of a log-structured merge tree: writes are performed on a small delta
+     * store, layered over a (potentially very large) base store. Given the delta store is small, writes on
+     * it only path-copy a few narrow nodes, instead of the wide nodes in the lower levels of the base store.
+     * Removals of keys present in the base store are recorded in the delta store as tombstones.
+     *
+     * Reads consult the delta store first, then the delta being merged (if any) and then the base store.
+     *
+     * Once the delta store grows over a maximum size (or gets older than a maximum age, checked on write),
+     * it is frozen and replaced by an empty one, and then folded into the base store in a single pass,
+     * either in the writer thread that triggered the merge or in a background executor. Frozen deltas are
+     * still consulted by reads until the merge completes, so the map is never blocked by a merge.
+     *
+     * All tiers are kept in a single immutable Tiers object, so that every modification (including the
+     * start and completion of merges) is a single CAS, as in AtomicHashMap.
+     */
+
+    private static final long serialVersionUID = -6213549108773400731L;
+
+    private static final int DEFAULT_MAX_DELTA_SIZE = 4096;
+
+    private static final Object TOMBSTONE = new Object();
+    private static final Object UNCHANGED = new Object();
+
+
+    private final AtomicReference<Tiers<K,V>> tiers;
+    private final int maxDeltaSize;
+    private final long maxDeltaAgeNanos;
+    private final transient Executor mergeExecutor;
+
+
+
+
+    public TieredAtomicHashMap() {
+        this(DEFAULT_MAX_DELTA_SIZE, 0L, TimeUnit.MILLISECONDS, null);
+    }
+
+
+    public TieredAtomicHashMap(final Equivalence<? super K> keyEquivalence) {
+        this(DEFAULT_MAX_DELTA_SIZE, 0L, TimeUnit.MILLISECONDS, null, keyEquivalence);
+    }
+
+
+    public TieredAtomicHashMap(final Map<? extends K, ? extends V> m) {
+        this();
+        Objects.requireNonNull(m);
+        final AtomicHashStore<K,V> base = AtomicHashStore.of();
+        this.tiers.set(Tiers.of(base.putAll(m)));
+    }
+
+
+    /**
+     * @param maxDeltaSize maximum number of keys in the delta store before it is merged into the base store.
+     * @param maxDeltaAge maximum age of the delta store before it is merged into the base store, zero for no limit.
+     * @param unit the time unit of maxDeltaAge.
+     * @param mergeExecutor the executor merges will be run on, null for running them in the writer thread.
+     */
+    public TieredAtomicHashMap(
+            final int maxDeltaSize, final long maxDeltaAge, final TimeUnit unit, final Executor mergeExecutor) {
+        this(maxDeltaSize, maxDeltaAge, unit, mergeExecutor, Equivalence.equality());
+    }
+
+
+    /**
+     * @param maxDeltaSize maximum number of keys in the delta store before it is merged into the base store.
+     * @param maxDeltaAge maximum age of the delta store before it is merged into the base store, zero for no limit.
+     * @param unit the time unit of maxDeltaAge.
+     * @param mergeExecutor the executor merges will be run on, null for running them in the writer thread.
+     * @param keyEquivalence the equivalence used for comparing and hashing keys.
+     */
+    public TieredAtomicHashMap(
+            final int maxDeltaSize, final long maxDeltaAge, final TimeUnit unit, final Executor mergeExecutor,
+            final Equivalence<? super K> keyEquivalence) {
+        super();
+        if (maxDeltaSize <= 0) {
+            throw new IllegalArgumentException("Maximum delta size must be greater than zero");
+        }
+        if (maxDeltaAge < 0L) {
+            throw new IllegalArgumentException("Maximum delta age cannot be negative");
+        }
+        Objects.requireNonNull(unit);
+        this.tiers = new AtomicReference<>(Tiers.of(AtomicHashStore.<K,V>of(keyEquivalence)));
+        this.maxDeltaSize = maxDeltaSize;
+        this.maxDeltaAgeNanos = unit.toNanos(maxDeltaAge);
+        this.mergeExecutor = mergeExecutor;
+    }
+
+
+
+
+    public AtomicHashStore<K,V> store() {
+        return store(this.tiers.get());
+    }
+
+
+    private static <K,V> AtomicHashStore<K,V> store(final Tiers<K,V> t) {
+        // Builds a store containing all the tiers. Cost is proportional to the size of the delta stores only.
+        if (t.frozen == null && t.delta.isEmpty()) {
+            return t.base;
+        }
+        final StoreEditor<K,V> editor = t.base.edit();
+        if (t.frozen != null) {
+            fold(editor, t.frozen);
+        }
+        fold(editor, t.delta);
+        return editor.toStore();
+    }
+
+
+    private static <K,V> void fold(final StoreEditor<K,V> editor, final AtomicHashStore<K,Object> delta) {
+        HashEntry<K,Object> entry;
+        for (final AtomicHashStore.Entry<K,Object> e : delta) {
+            entry = (HashEntry<K,Object>) e;
+            if (entry.value == TOMBSTONE) {
+                editor.remove(entry.key);
+            } else {
+                editor.put(entry.key, (V) entry.value);
+            }
+        }
+    }
+
+
+
+
+    public void merge() {
+        // Forces the merge of all pending deltas into the base store, in the calling thread
+        Tiers<K,V> t;
+        while (true) {
+            completeMerge();
+            t = this.tiers.get();
+            if (t.frozen == null) {
+                if (t.delta.isEmpty()) {
+                    return;
+                }
+                if (this.tiers.compareAndSet(t, t.freeze())) {
+                    completeMerge();
+                    return;
+                }
+            }
+        }
+    }
+
+
+    private void mergeIfNeeded(final Tiers<K,V> t) {
+
+        if (t.frozen != null) {
+            // A merge is already in progress, the next write after it completes will check again
+            return;
+        }
+        if (t.deltaSize < this.maxDeltaSize &&
+                (this.maxDeltaAgeNanos == 0L || System.nanoTime() - t.deltaStart < this.maxDeltaAgeNanos)) {
+            return;
+        }
+        if (!this.tiers.compareAndSet(t, t.freeze())) {
+            // Someone else modified the map, it will be them who start the merge if still needed
+            return;
+        }
+
+        if (this.mergeExecutor != null) {
+            try {
+                this.mergeExecutor.execute(this::completeMerge);
+                return;
+            } catch (final RejectedExecutionException e) {
+                // Executor cannot take it, so we will just do it ourselves
+            }
+        }
+        completeMerge();
+
+    }
+
+
+    private void completeMerge() {
+
+        Tiers<K,V> t = this.tiers.get();
+        final AtomicHashStore<K,Object> frozen = t.frozen;
+        if (frozen == null) {
+            return;
+        }
+
+        final StoreEditor<K,V> editor = t.base.edit();
+        fold(editor, frozen);
+        final AtomicHashStore<K,V> newBase = editor.toStore();
+
+        // The delta store might have been modified in the meantime, but base and frozen stores cannot
+        while (!this.tiers.compareAndSet(t, t.merged(newBase))) {
+            t = this.tiers.get();
+            if (t.frozen != frozen) {
+                // Already completed by someone else (or the map was cleared)
+                return;
+            }
+        }
+
+    }
+
+
+
+
+    private void update(final Object key, final KeyUpdate<K,V> update) {
+
+        // Key equivalence is the same for all the tiers and never changes
+        final int hash = this.tiers.get().base.keyHash(key);
+
+        Tiers<K,V> t;
+        Tiers<K,V> newTiers;
+        do {
+
+            t = this.tiers.get();
+
+            final HashEntry<K,?> deltaEntry = t.delta.getEntry(hash, key);
+            final HashEntry<K,?> belowEntry = t.getEntryBelowDelta(hash, key);
+            final HashEntry<K,?> entry = (deltaEntry != null) ? deltaEntry : belowEntry;
+            final HashEntry<K,V> current = (entry == null || entry.value == TOMBSTONE) ? null : (HashEntry<K,V>) entry;
+
+            final Object newValue = update.apply(current);
+            if (newValue == UNCHANGED || (newValue == TOMBSTONE && current == null)) {
+                return;
+            }
+
+            if (newValue == TOMBSTONE && (belowEntry == null || belowEntry.value == TOMBSTONE)) {
+                // No need for a tombstone if there is nothing to hide below the delta store
+                newTiers = t.withDelta(t.delta.remove(key), -1, -1);
+            } else {
+                newTiers = t.withDelta(
+                        t.delta.put((K) key, newValue),
+                        (newValue == TOMBSTONE) ? -1 : ((current == null) ? 1 : 0),
+                        (deltaEntry == null) ? 1 : 0);
+            }
+
+        } while (!this.tiers.compareAndSet(t, newTiers));
+
+        mergeIfNeeded(newTiers);
+
+    }
+
+
+
+
+    @Override
+    public int size() {
+        return this.tiers.get().size;
+    }
+
+
+    @Override
+    public boolean isEmpty() {
+        return this.tiers.get().size == 0;
+    }
+
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return this.tiers.get().getEntry(key) != null;
+    }
+
+
+    @Override
+    public boolean containsValue(final Object value) {
+        return store().containsValue(value);
+    }
+
+
+    @Override
+    public V get(final Object key) {
+        final HashEntry<K,V> entry = this.tiers.get().getEntry(key);
+        return (entry != null) ? entry.value : null;
+    }
+
+
+    @Override
+    public V getOrDefault(final Object key, final V defaultValue) {
+        final HashEntry<K,V> entry = this.tiers.get().getEntry(key);
+        return (entry != null) ? entry.value : defaultValue;
+    }
+
+
+
+
+    @Override
+    public V put(final K key, final V value) {
+        final ValueHolder<V> vh = new ValueHolder<>();
+        update(key, current -> {
+            vh.val = (current != null) ? current.value : null;
+            return value;
+        });
+        return vh.val;
+    }
+
+
+    @Override
+    public void putAll(final Map<? extends K, ? extends V> m) {
+        Objects.requireNonNull(m);
+        for (final Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+
+    @Override
+    public V putIfAbsent(final K key, final V value) {
+        final ValueHolder<V> vh = new ValueHolder<>();
+        update(key, current -> {
+            vh.val = (current != null) ? current.value : null;
+            return (vh.val != null) ? UNCHANGED : value;
+        });
+        return vh.val;
+    }
+
+
+
+
+    @Override
+    public V remove(final Object key) {
+        final ValueHolder<V> vh = new ValueHolder<>();
+        update(key, current -> {
+            vh.val = (current != null) ? current.value : null;
+            return TOMBSTONE;
+        });
+        return vh.val;
+    }
+
+
+    @Override
+    public boolean remove(final Object key, final Object value) {
+        final ValueHolder<Boolean> vh = new ValueHolder<>();
+        update(key, current -> {
+            vh.val = Boolean.valueOf(current != null && eq(current.value, value));
+            return vh.val.booleanValue() ? TOMBSTONE : UNCHANGED;
+        });
+        return vh.val.booleanValue();
+    }
+
+
+
+
+    @Override
+    public void forEach(final BiConsumer<? super K, ? super V> action) {
+        store().forEach(action);
+    }
+
+
+
+
+    @Override
+    public V replace(final K key, final V value) {
+        final ValueHolder<V> vh = new ValueHolder<>();
+        update(key, current -> {
+            vh.val = (current != null) ? current.value : null;
+            return (current != null) ? value : UNCHANGED;
+        });
+        return vh.val;
+    }
+
+
+    @Override
+    public boolean replace(final K key, final V oldValue, final V newValue) {
+        final ValueHolder<Boolean> vh = new ValueHolder<>();
+        update(key, current -> {
+            vh.val = Boolean.valueOf(current != null && eq(current.value, oldValue));
+            return vh.val.booleanValue() ? newValue : UNCHANGED;
+        });
+        return vh.val.booleanValue();
+    }
+
+
+    @Override
+    public void replaceAll(final BiFunction<? super K, ? super V, ? extends V> function) {
+        Objects.requireNonNull(function);
+        // All keys are affected, so the result directly becomes the new base store
+        Tiers<K,V> t;
+        AtomicHashStore<K,V> newBase;
+        do {
+            t = this.tiers.get();
+            newBase = store(t).replaceAll(function);
+        } while (!this.tiers.compareAndSet(t, Tiers.of(newBase)));
+    }
+
+
+
+
+    @Override
+    public V computeIfAbsent(final K key, final Function<? super K, ? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        final ValueHolder<V> vh = new ValueHolder<>();
+        update(key, current -> {
+            if (current != null && current.value != null) {
+                vh.val = current.value;
+                return UNCHANGED;
+            }
+            vh.val = mappingFunction.apply(key);
+            return (vh.val != null) ? vh.val : UNCHANGED;
+        });
+        return vh.val;
+    }
+
+
+    @Override
+    public V computeIfPresent(final K key, final BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        final ValueHolder<V> vh = new ValueHolder<>();
+        update(key, current -> {
+            if (current == null || current.value == null) {
+                vh.val = null;
+                return UNCHANGED;
+            }
+            vh.val = remappingFunction.apply(key, current.value);
+            return (vh.val != null) ? vh.val : TOMBSTONE;
+        });
+        return vh.val;
+    }
+
+
+    @Override
+    public V compute(final K key, final BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        final ValueHolder<V> vh = new ValueHolder<>();
+        update(key, current -> {
+            vh.val = remappingFunction.apply(key, (current != null) ? current.value : null);
+            return (vh.val != null) ? vh.val : TOMBSTONE;
+        });
+        return vh.val;
+    }
+
+
+    @Override
+    public V merge(final K key, final V value, final BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        Objects.requireNonNull(value);
+        final ValueHolder<V> vh = new ValueHolder<>();
+        update(key, current -> {
+            vh.val = (current == null || current.value == null) ? value : remappingFunction.apply(current.value, value);
+            return (vh.val != null) ? vh.val : TOMBSTONE;
+        });
+        return vh.val;
+    }
+
+
+
+
+    @Override
+    public void clear() {
+        // Any merge in progress will notice the frozen delta is gone and do nothing
+        this.tiers.set(Tiers.of(this.tiers.get().base.clear()));
+    }
+
+
+
+
+    @Override
+    public Set<Map.Entry<K,V>> entrySet() {
+        return new Sets.MapEntrySet<>(store());
+    }
+
+
+    @Override
+    public Set<K> keySet() {
+        return new Sets.MapKeySet<>(store());
+    }
+
+
+    @Override
+    public Collection<V> values() {
+        return new Collections.MapValueCollection<>(store());
+    }
+
+
+
+
+    @Override
+    public boolean equals(final Object o) {
+
+        if (this == o) {
+            return true;
+        }
+
+        if (o instanceof TieredAtomicHashMap) {
+            return store().equals(((TieredAtomicHashMap<?,?>) o).store());
+        }
+
+        if (o instanceof Map) { // Map#equals() requires being able to compare with any other Map implementation
+
+            final Map<?,?> m = (Map<?,?>)o;
+            final AtomicHashStore<K,V> st = store();
+
+            if (st.size() != m.size()) {
+                return false;
+            }
+
+            HashEntry<K,V> entry;
+            for (final AtomicHashStore.Entry<K, V> e : st) {
+                entry = (HashEntry<K,V>)e;
+                if (entry.value == null) {
+                    if (!(m.get(entry.key) == null && m.containsKey(entry.key))) {
+                        return false;
+                    }
+                } else {
+                    if (!entry.value.equals(m.get(entry.key))) {
+                        return false;
+                    }
+                }
+            }
+
+            return true;
+
+        }
+
+        return false;
+
+    }
+
+
+    @Override
+    public int hashCode() {
+        return store().hashCode();
+    }
+
+
+
+
+    private Object writeReplace() {
+        return new SerializationProxy<>(store(), this.maxDeltaSize, this.maxDeltaAgeNanos);
+    }
+
+
+    private void readObject(final java.io.ObjectInputStream stream) throws java.io.InvalidObjectException {
+        throw new java.io.InvalidObjectException("Serialization proxy required");
+    }
+
+
+
+
+    /**
+     * Equivalent to Objects.equals(), but by being called only from
+     * HashEntry we might benefit from runtime profile information on the
+     * type of o1. See java.util.AbstractMap#eq().
+     *
+     * Do not replace with Object.equals until JDK-8015417 is resolved.
+     */
+    private static boolean eq(final Object o1, final Object o2) {
+        return o1 == null ? o2 == null : o1.equals(o2);
+    }
+
+
+
+
+    private interface KeyUpdate<K,V> {
+        // Returns the new value, TOMBSTONE for removing the key or UNCHANGED for leaving the map as is
+        Object apply(final HashEntry<K,V> current);
+    }
+
+
+    private static final class Tiers<K,V> {
+
+        final AtomicHashStore<K,Object> delta;
+        final AtomicHashStore<K,Object> frozen; // null if no merge is in progress
+        final AtomicHashStore<K,V> base;
+        final int size;
+        final int deltaSize;
+        final long deltaStart;
+
+        static <K,V> Tiers<K,V> of(final AtomicHashStore<K,V> base) {
+            return new Tiers<>(AtomicHashStore.<K,Object>of(base.equivalence()), null, base, base.size(), 0, 0L);
+        }
+
+        Tiers(final AtomicHashStore<K,Object> delta, final AtomicHashStore<K,Object> frozen,
+              final AtomicHashStore<K,V> base, final int size, final int deltaSize, final long deltaStart) {
+            super();
+            this.delta = delta;
+            this.frozen = frozen;
+            this.base = base;
+            this.size = size;
+            this.deltaSize = deltaSize;
+            this.deltaStart = deltaStart;
+        }
+
+        HashEntry<K,V> getEntry(final Object key) {
+            return getEntry(this.base.keyHash(key), key);
+        }
+
+        HashEntry<K,V> getEntry(final int hash, final Object key) {
+            HashEntry<K,?> entry = this.delta.getEntry(hash, key);
+            if (entry == null) {
+                entry = getEntryBelowDelta(hash, key);
+            }
+            return (entry == null || entry.value == TOMBSTONE) ? null : (HashEntry<K,V>) entry;
+        }
+
+        HashEntry<K,?> getEntryBelowDelta(final int hash, final Object key) {
+            if (this.frozen != null) {
+                final HashEntry<K,?> entry = this.frozen.getEntry(hash, key);
+                if (entry != null) {
+                    return entry;
+                }
+            }
+            return this.base.getEntry(hash, key);
+        }
+
+        Tiers<K,V> withDelta(final AtomicHashStore<K,Object> newDelta, final int sizeChange, final int deltaSizeChange) {
+            return new Tiers<>(
+                    newDelta, this.frozen, this.base, this.size + sizeChange, this.deltaSize + deltaSizeChange,
+                    (this.deltaSize == 0) ? System.nanoTime() : this.deltaStart);
+        }
+
+        Tiers<K,V> freeze() {
+            return new Tiers<>(this.delta.clear(), this.delta, this.base, this.size, 0, 0L);
+        }
+
+        Tiers<K,V> merged(final AtomicHashStore<K,V> newBase) {
+            return new Tiers<>(this.delta, null, newBase, this.size, this.deltaSize, this.deltaStart);
+        }
+
+    }
+
+
+    private static final class ValueHolder<V> {
+        private V val = null;
+    }
+
+
+    private static final class SerializationProxy<K,V> implements Serializable {
+
+        private static final long serialVersionUID = -1496180926355407592L;
+
+        private final AtomicHashStore<K,V> store;
+        private final int maxDeltaSize;
+        private final long maxDeltaAgeNanos;
+
+        SerializationProxy(final AtomicHashStore<K,V> store, final int maxDeltaSize, final long maxDeltaAgeNanos) {
+            super();
+            this.store = store;
+            this.maxDeltaSize = maxDeltaSize;
+            this.maxDeltaAgeNanos = maxDeltaAgeNanos;
+        }
+
+        private Object readResolve() {
+            // Executors are not serializable, so merges will be performed by writer threads after deserialization
+            final TieredAtomicHashMap<K,V> map =
+                    new TieredAtomicHashMap<>(this.maxDeltaSize, this.maxDeltaAgeNanos, TimeUnit.NANOSECONDS, null);
+            map.tiers.set(Tiers.of(this.store));
+            return map;
+        }
+
+    }
+
+}
@@ -0,0 +1,443 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+public class VersionedAtomicHashMap<K,V> implements Map<K,V>, Serializable {
+
+    /*
+     * Variant of AtomicHashMap that keeps a bounded history of the stores it has contained. Every
+     * modification of the map creates a new version, identified by a monotonically increasing number, that
+     * links to the previous one. Given stores are persistent, versions share most of their nodes, so
+     * keeping the history is cheap in terms of memory.
+     *
+     * Old versions are discarded once there are more than a maximum amount of them, or once they are older
+     * than a maximum age (checked on write). The current version is always retained.
+     */
+
+    private static final long serialVersionUID = -4024451216553402919L;
+
+    private static final int DEFAULT_MAX_VERSIONS = 16;
+
+
+    private final AtomicReference<Version<K,V>> head;
+    private final int maxVersions;
+    private final long maxAgeNanos;
+
+
+
+
+    public VersionedAtomicHashMap() {
+        this(DEFAULT_MAX_VERSIONS, 0L, TimeUnit.MILLISECONDS);
+    }
+
+
+    public VersionedAtomicHashMap(final Equivalence<? super K> keyEquivalence) {
+        this(DEFAULT_MAX_VERSIONS, 0L, TimeUnit.MILLISECONDS, keyEquivalence);
+    }
+
+
+    /**
+     * @param maxVersions maximum number of versions retained, including the current one.
+     * @param maxAge maximum age of retained versions, zero for no limit.
+     * @param unit the time unit of maxAge.
+     */
+    public VersionedAtomicHashMap(final int maxVersions, final long maxAge, final TimeUnit unit) {
+        this(maxVersions, maxAge, unit, Equivalence.equality());
+    }
+
+
+    /**
+     * @param maxVersions maximum number of versions retained, including the current one.
+     * @param maxAge maximum age of retained versions, zero for no limit.
+     * @param unit the time unit of maxAge.
+     * @param keyEquivalence the equivalence used for comparing and hashing keys.
+     */
+    public VersionedAtomicHashMap(
+            final int maxVersions, final long maxAge, final TimeUnit unit, final Equivalence<? super K> keyEquivalence) {
+        super();
+        if (maxVersions <= 0) {
+            throw new IllegalArgumentException("Maximum number of versions must be greater than zero");
+        }
+        if (maxAge < 0L) {
+            throw new IllegalArgumentException("Maximum age cannot be negative");
+        }
+        Objects.requireNonNull(unit);
+        this.head = new AtomicReference<>(new Version<>(0L, AtomicHashStore.<K,V>of(keyEquivalence), null));
+        this.maxVersions = maxVersions;
+        this.maxAgeNanos = unit.toNanos(maxAge);
+    }
+
+
+
+
+    public long version() {
+        return this.head.get().number;
+    }
+
+
+    public AtomicHashStore<K,V> store() {
+        return this.head.get().store;
+    }
+
+
+    public AtomicHashStore<K,V> snapshotAt(final long version) {
+        return findVersion(version).store;
+    }
+
+
+    public List<AtomicHashStore.Change<K,V>> changesSince(final long version) {
+        // Changes are computed as the structural difference between the two stores, so only the net effect
+        // of all the modifications performed since the specified version will be returned
+        final Version<K,V> current = this.head.get();
+        final AtomicHashStore<K,V> since = findVersion(current, version).store;
+        final List<AtomicHashStore.Change<K,V>> changes = new ArrayList<>();
+        current.store.diff(since, changes::add);
+        return changes;
+    }
+
+
+    private Version<K,V> findVersion(final long version) {
+        return findVersion(this.head.get(), version);
+    }
+
+
+    private static <K,V> Version<K,V> findVersion(final Version<K,V> head, final long version) {
+        Version<K,V> v = head;
+        while (v != null && v.number > version) {
+            v = v.previous;
+        }
+        if (v == null || v.number != version) {
+            throw new IllegalArgumentException("Version " + version + " is not available");
+        }
+        return v;
+    }
+
+
+
+
+    private AtomicHashStore<K,V> update(final UnaryOperator<AtomicHashStore<K,V>> updateFunction) {
+
+        Version<K,V> v;
+        Version<K,V> newVersion;
+        AtomicHashStore<K,V> newStore;
+        do {
+            v = this.head.get();
+            newStore = updateFunction.apply(v.store);
+            if (newStore == v.store) {
+                // No modifications means no new version
+                return newStore;
+            }
+            newVersion = new Version<>(v.number + 1, newStore, v);
+        } while (!this.head.compareAndSet(v, newVersion));
+
+        trim(newVersion);
+        return newStore;
+
+    }
+
+
+    private void trim(final Version<K,V> newVersion) {
+        Version<K,V> v = newVersion;
+        Version<K,V> previous;
+        int count = 1;
+        while ((previous = v.previous) != null) {
+            if (count >= this.maxVersions ||
+                    (this.maxAgeNanos > 0L && newVersion.timestamp - previous.timestamp > this.maxAgeNanos)) {
+                v.previous = null;
+                return;
+            }
+            v = previous;
+            count++;
+        }
+    }
+
+
+
+
+    @Override
+    public int size() {
+        return store().size();
+    }
+
+
+    @Override
+    public boolean isEmpty() {
+        return store().isEmpty();
+    }
+
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return store().containsKey(key);
+    }
+
+
+    @Override
+    public boolean containsValue(final Object value) {
+        return store().containsValue(value);
+    }
+
+
+    @Override
+    public V get(final Object key) {
+        return store().get(key);
+    }
+
+
+    @Override
+    public V getOrDefault(final Object key, final V defaultValue) {
+        return store().getOrDefault(key, defaultValue);
+    }
+
+
+
+
+    @Override
+    public V put(final K key, final V value) {
+        final ValueConsumer<V> vc = new ValueConsumer<>();
+        update(store -> store.put(key, value, vc));
+        return vc.val;
+    }
+
+
+    @Override
+    public void putAll(final Map<? extends K, ? extends V> m) {
+        Objects.requireNonNull(m);
+        update(store -> store.putAll(m));
+    }
+
+
+    @Override
+    public V putIfAbsent(final K key, final V value) {
+        final ValueConsumer<V> vc = new ValueConsumer<>();
+        update(store -> store.putIfAbsent(key, value, vc));
+        return vc.val;
+    }
+
+
+    @Override
+    public V remove(final Object key) {
+        final ValueConsumer<V> vc = new ValueConsumer<>();
+        update(store -> store.remove(key, vc));
+        return vc.val;
+    }
+
+
+    @Override
+    public boolean remove(final Object key, final Object value) {
+        final ValueConsumer<Boolean> vc = new ValueConsumer<>();
+        update(store -> store.remove(key, value, vc));
+        return vc.val.booleanValue();
+    }
+
+
+    @Override
+    public void forEach(final BiConsumer<? super K, ? super V> action) {
+        store().forEach(action);
+    }
+
+
+    @Override
+    public V replace(final K key, final V value) {
+        final ValueConsumer<V> vc = new ValueConsumer<>();
+        update(store -> store.replace(key, value, vc));
+        return vc.val;
+    }
+
+
+    @Override
+    public boolean replace(final K key, final V oldValue, final V newValue) {
+        final ValueConsumer<Boolean> vc = new ValueConsumer<>();
+        update(store -> store.replace(key, oldValue, newValue, vc));
+        return vc.val.booleanValue();
+    }
+
+
+    @Override
+    public void replaceAll(final BiFunction<? super K, ? super V, ? extends V> function) {
+        Objects.requireNonNull(function);
+        update(store -> store.replaceAll(function));
+    }
+
+
+    @Override
+    public V computeIfAbsent(final K key, final Function<? super K, ? extends V> mappingFunction) {
+        final ValueConsumer<V> vc = new ValueConsumer<>();
+        update(store -> store.computeIfAbsent(key, mappingFunction, vc));
+        return vc.val;
+    }
+
+
+    @Override
+    public V computeIfPresent(final K key, final BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        final ValueConsumer<V> vc = new ValueConsumer<>();
+        update(store -> store.computeIfPresent(key, remappingFunction, vc));
+        return vc.val;
+    }
+
+
+    @Override
+    public V compute(final K key, final BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        final ValueConsumer<V> vc = new ValueConsumer<>();
+        update(store -> store.compute(key, remappingFunction, vc));
+        return vc.val;
+    }
+
+
+    @Override
+    public V merge(final K key, final V value, final BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        final ValueConsumer<V> vc = new ValueConsumer<>();
+        update(store -> store.merge(key, value, remappingFunction, vc));
+        return vc.val;
+    }
+
+
+    @Override
+    public void clear() {
+        update(store -> store.isEmpty() ? store : store.clear());
+    }
+
+
+
+
+    @Override
+    public Set<Map.Entry<K,V>> entrySet() {
+        return new Sets.MapEntrySet<>(store());
+    }
+
+
+    @Override
+    public Set<K> keySet() {
+        return new Sets.MapKeySet<>(store());
+    }
+
+
+    @Override
+    public Collection<V> values() {
+        return new Collections.MapValueCollection<>(store());
+    }
+
+
+
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o instanceof VersionedAtomicHashMap) {
+            return store().equals(((VersionedAtomicHashMap<?,?>) o).store());
+        }
+        // Map#equals() requires being able to compare with any other Map implementation
+        return o instanceof Map && entrySet().equals(((Map<?,?>) o).entrySet());
+    }
+
+
+    @Override
+    public int hashCode() {
+        return store().hashCode();
+    }
+
+
+
+
+    private Object writeReplace() {
+        return new SerializationProxy<>(store(), this.maxVersions, this.maxAgeNanos);
+    }
+
+
+    private void readObject(final java.io.ObjectInputStream stream) throws java.io.InvalidObjectException {
+        throw new java.io.InvalidObjectException("Serialization proxy required");
+    }
+
+
+
+
+    private static final class Version<K,V> {
+
+        final long number;
+        final AtomicHashStore<K,V> store;
+        final long timestamp;
+        volatile Version<K,V> previous; // set to null when older versions are discarded
+
+        Version(final long number, final AtomicHashStore<K,V> store, final Version<K,V> previous) {
+            super();
+            this.number = number;
+            this.store = store;
+            this.timestamp = System.nanoTime();
+            this.previous = previous;
+        }
+
+    }
+
+
+    private static class ValueConsumer<V> implements Consumer<V> {
+
+        private V val = null;
+
+        @Override
+        public void accept(final V v) {
+            this.val = v;
+        }
+
+    }
+
+
+    private static final class SerializationProxy<K,V> implements Serializable {
+
+        private static final long serialVersionUID = 2784319367160539822L;
+
+        private final AtomicHashStore<K,V> store;
+        private final int maxVersions;
+        private final long maxAgeNanos;
+
+        SerializationProxy(final AtomicHashStore<K,V> store, final int maxVersions, final long maxAgeNanos) {
+            super();
+            this.store = store;
+            this.maxVersions = maxVersions;
+            this.maxAgeNanos = maxAgeNanos;
+        }
+
+        private Object readResolve() {
+            // History is not serialized, so version numbering starts again
+            final VersionedAtomicHashMap<K,V> map =
+                    new VersionedAtomicHashMap<>(this.maxVersions, this.maxAgeNanos, TimeUnit.NANOSECONDS);
+            map.head.set(new Version<>(0L, this.store, null));
+            return map;
+        }
+
+    }
+
+}
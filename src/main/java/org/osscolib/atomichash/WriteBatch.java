@@ -0,0 +1,150 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BiFunction;
+
+public final class WriteBatch<K,V> {
+
+    /*
+     * A sequence of mixed put/remove/compute operations that will be applied in order, all at once, on an
+     * AtomicHashStore. When applied on an AtomicHashMap, the whole batch results in a single modification
+     * of the map (one CAS), so that no other thread can observe only part of it.
+     *
+     * Results of each operation are returned in the same order the operations were added: the previous
+     * value for put and remove, and the new value for compute (as in the equivalent java.util.Map methods).
+     */
+
+    private static final int OP_PUT = 0;
+    private static final int OP_REMOVE = 1;
+    private static final int OP_COMPUTE = 2;
+
+
+    private final List<Operation<K,V>> operations;
+
+
+
+    public WriteBatch() {
+        super();
+        this.operations = new ArrayList<>();
+    }
+
+
+
+
+    public WriteBatch<K,V> put(final K key, final V value) {
+        this.operations.add(new Operation<>(OP_PUT, key, value, null));
+        return this;
+    }
+
+
+    public WriteBatch<K,V> remove(final Object key) {
+        this.operations.add(new Operation<>(OP_REMOVE, key, null, null));
+        return this;
+    }
+
+
+    public WriteBatch<K,V> compute(final K key, final BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        this.operations.add(new Operation<>(OP_COMPUTE, key, null, remappingFunction));
+        return this;
+    }
+
+
+
+
+    public int size() {
+        return this.operations.size();
+    }
+
+
+    public boolean isEmpty() {
+        return this.operations.isEmpty();
+    }
+
+
+
+
+    AtomicHashStore<K,V> applyTo(final AtomicHashStore<K,V> store, final Object[] results) {
+
+        // Nodes created by the batch itself are modified in place by the editor, so that no intermediate
+        // path copies are created for operations that affect the same areas of the trie
+        final StoreEditor<K,V> editor = new StoreEditor<>(store);
+        Operation<K,V> operation;
+        for (int i = 0; i < this.operations.size(); i++) {
+
+            operation = this.operations.get(i);
+
+            switch (operation.type) {
+
+                case OP_PUT:
+                    results[i] = editor.put((K) operation.key, operation.value);
+                    break;
+
+                case OP_REMOVE:
+                    results[i] = editor.remove(operation.key);
+                    break;
+
+                case OP_COMPUTE:
+                    results[i] = editor.compute((K) operation.key, operation.remappingFunction);
+                    break;
+
+                default:
+                    throw new IllegalStateException("Unknown operation type: " + operation.type);
+
+            }
+
+        }
+
+        return editor.toStore();
+
+    }
+
+
+    static <V> List<V> resultsOf(final Object[] results) {
+        return Arrays.asList((V[]) results);
+    }
+
+
+
+
+    private static final class Operation<K,V> {
+
+        final int type;
+        final Object key;
+        final V value;
+        final BiFunction<? super K, ? super V, ? extends V> remappingFunction;
+
+        Operation(final int type, final Object key, final V value,
+                  final BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+            super();
+            this.type = type;
+            this.key = key;
+            this.value = value;
+            this.remappingFunction = remappingFunction;
+        }
+
+    }
+
+}
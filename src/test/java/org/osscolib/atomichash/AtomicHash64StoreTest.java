@@ -0,0 +1,128 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AtomicHash64StoreTest {
+
+
+    @Test
+    public void test00() throws Exception {
+
+        final Random random = new Random(11L);
+        final Map<Long,String> expected = new HashMap<>();
+        AtomicHash64Store<Long,String> store = AtomicHash64Store.of(k -> AtomicHash64Store.fmix64(k.longValue()));
+
+        for (int i = 0; i < 100000; i++) {
+            final Long key = Long.valueOf(random.nextInt(30000));
+            if (random.nextInt(4) == 0) {
+                expected.remove(key);
+                store = store.remove(key);
+            } else {
+                final String value = "v" + i;
+                expected.put(key, value);
+                store = store.put(key, value);
+            }
+        }
+        store = store.put(null, "null");
+        expected.put(null, "null");
+
+        Assert.assertEquals(expected.size(), store.size());
+        Assert.assertEquals(expected.size(), store.mappingCount());
+        for (final Map.Entry<Long,String> entry : expected.entrySet()) {
+            Assert.assertEquals(entry.getValue(), store.get(entry.getKey()));
+        }
+        final int[] count = new int[1];
+        store.forEach((k, v) -> {
+            Assert.assertEquals(expected.get(k), v);
+            count[0]++;
+        });
+        Assert.assertEquals(expected.size(), count[0]);
+        Assert.assertFalse(store.containsKey(Long.valueOf(-1L)));
+        Assert.assertEquals("none", store.getOrDefault(Long.valueOf(-1L), "none"));
+        Assert.assertEquals(expected.hashCode(), store.hashCode());
+
+    }
+
+
+    @Test
+    public void test01() throws Exception {
+
+        // Keys with equal 32-bit hash codes but different 64-bit hashes do not collide, and keys with
+        // equal 64-bit hashes still work (in collision nodes)
+
+        AtomicHash64Store<Key,Integer> store = AtomicHash64Store.of();
+        for (int i = 0; i < 5000; i++) {
+            store = store.put(new Key(i, i / 2), Integer.valueOf(i));
+        }
+        Assert.assertEquals(5000L, store.mappingCount());
+        for (int i = 0; i < 5000; i++) {
+            Assert.assertEquals(Integer.valueOf(i), store.get(new Key(i, i / 2)));
+        }
+        for (int i = 0; i < 5000; i += 2) {
+            store = store.remove(new Key(i, i / 2));
+        }
+        Assert.assertEquals(2500, store.size());
+        Assert.assertNull(store.get(new Key(0, 0)));
+        Assert.assertEquals(Integer.valueOf(1), store.get(new Key(1, 0)));
+        Assert.assertSame(AtomicHash64Store.of(), store.clear());
+
+        Assert.assertEquals(0L, AtomicHashStore.of().mappingCount());
+        Assert.assertEquals(3L, AtomicHashStore.of("a", 1, "b", 2, "c", 3).mappingCount());
+
+    }
+
+
+    private static final class Key implements AtomicHash64Store.Key64 {
+
+        private final int id;
+        private final long hash64;
+
+        Key(final int id, final long hash64) {
+            super();
+            this.id = id;
+            this.hash64 = hash64;
+        }
+
+        @Override
+        public long hash64() {
+            return this.hash64;
+        }
+
+        @Override
+        public int hashCode() {
+            return 0; // all 32-bit hash codes collide
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Key && ((Key) o).id == this.id;
+        }
+
+    }
+
+
+}
@@ -0,0 +1,192 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AtomicHashCacheTest {
+
+
+    @Test
+    public void test00() throws Exception {
+
+        final AtomicHashCache<String,String> cache = new AtomicHashCache<>(100L, null, Runnable::run);
+
+        Assert.assertNull(cache.get("one"));
+        Assert.assertNull(cache.put("one", "ONE"));
+        Assert.assertEquals("ONE", cache.put("one", "UNO"));
+        Assert.assertEquals("UNO", cache.get("one"));
+        Assert.assertEquals("UNO", cache.computeIfAbsent("one", k -> "EINS"));
+        Assert.assertEquals("TWO", cache.computeIfAbsent("two", k -> "TWO"));
+        Assert.assertEquals("UNO", cache.remove("one"));
+        Assert.assertNull(cache.remove("one"));
+        Assert.assertEquals(1, cache.size());
+
+        for (int i = 0; i < 1000; i++) {
+            cache.put("key" + i, "value" + i);
+        }
+        cache.cleanUp();
+        Assert.assertEquals(100, cache.size());
+        TestUtils.validateStoreWellFormed(cache.store());
+
+        cache.clear();
+        cache.cleanUp();
+        Assert.assertEquals(0, cache.size());
+
+    }
+
+
+    @Test
+    public void test01() throws Exception {
+
+        // Frequently used entries must survive a scan of entries that are used only once (plain LRU would keep none)
+
+        final AtomicHashCache<String,String> cache = new AtomicHashCache<>(200L, null, Runnable::run);
+
+        for (int i = 0; i < 100; i++) {
+            cache.put("hot" + i, "HOT" + i);
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 100; i++) {
+                Assert.assertEquals("HOT" + i, cache.get("hot" + i));
+            }
+            cache.cleanUp();
+        }
+
+        for (int i = 0; i < 5000; i++) {
+            cache.put("cold" + i, "COLD" + i);
+        }
+        cache.cleanUp();
+
+        Assert.assertEquals(200, cache.size());
+        int hot = 0;
+        for (int i = 0; i < 100; i++) {
+            if (cache.store().containsKey("hot" + i)) {
+                hot++;
+            }
+        }
+        Assert.assertTrue("Only " + hot + " hot entries survived", hot >= 90);
+
+    }
+
+
+    @Test
+    public void test02() throws Exception {
+
+        // Weighted: total weight is bounded instead of the amount of entries
+
+        final AtomicHashCache<String,String> cache =
+                new AtomicHashCache<>(1000L, (k, v) -> v.length(), Runnable::run);
+
+        for (int i = 0; i < 500; i++) {
+            cache.put("key" + i, "0123456789");
+        }
+        cache.cleanUp();
+        Assert.assertEquals(100, cache.size());
+
+        // Growing the weight of existing entries evicts other entries
+        for (int i = 0; i < 10; i++) {
+            cache.put("big" + i, "0123456789012345678901234567890123456789");
+        }
+        cache.cleanUp();
+        int weight = 0;
+        for (final AtomicHashStore.Entry<String,String> entry : cache.store()) {
+            weight += entry.getValue().length();
+        }
+        Assert.assertTrue(weight <= 1000);
+        Assert.assertTrue(weight > 900);
+
+        try {
+            cache.put("negative", null);
+            Assert.fail("Null values should not be allowed");
+        } catch (final NullPointerException e) {
+            // Expected
+        }
+
+    }
+
+
+    @Test
+    public void test03() throws Exception {
+
+        // Large weighted bounds must not size the frequency sketch by weight
+        final AtomicHashCache<String,String> big =
+                new AtomicHashCache<>(1L << 40, (k, v) -> v.length(), Runnable::run);
+        for (int i = 0; i < 1000; i++) {
+            big.put("key" + i, "value" + i);
+        }
+        big.cleanUp();
+        Assert.assertEquals(1000, big.size());
+
+        // Entries put after a clear are tracked (and therefore evicted) as usual
+        final AtomicHashCache<String,String> cache = new AtomicHashCache<>(100L, null, Runnable::run);
+        for (int i = 0; i < 100; i++) {
+            cache.put("key" + i, "value");
+        }
+        cache.clear();
+        for (int i = 0; i < 500; i++) {
+            cache.put("other" + i, "value");
+        }
+        cache.cleanUp();
+        Assert.assertEquals(100, cache.size());
+
+    }
+
+
+    @Test
+    public void test04() throws Exception {
+
+        // An executor that rejects every task makes writers drain inline, which must neither recurse nor
+        // spin when another writer is already holding the maintenance lock
+        final Executor rejecting = task -> { throw new RejectedExecutionException(); };
+        final AtomicHashCache<String,String> cache = new AtomicHashCache<>(100L, null, rejecting);
+
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int id = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 20000; i++) {
+                        cache.put("key" + id + "-" + i, "value");
+                    }
+                } catch (final Throwable e) {
+                    failure.set(e);
+                }
+            });
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertNull(failure.get());
+        cache.cleanUp();
+        Assert.assertEquals(100, cache.size());
+
+    }
+
+
+}
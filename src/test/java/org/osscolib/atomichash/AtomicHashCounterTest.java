@@ -0,0 +1,139 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AtomicHashCounterTest {
+
+
+    @Test
+    public void test00() throws Exception {
+
+        final AtomicHashCounter<String> counter = new AtomicHashCounter<>();
+        Assert.assertTrue(counter.isEmpty());
+        counter.increment("one");
+        counter.add("one", 10L);
+        counter.add("two", -2L);
+        Assert.assertEquals(11L, counter.get("one"));
+        Assert.assertEquals(-2L, counter.get("two"));
+        Assert.assertEquals(0L, counter.get("three"));
+        Assert.assertFalse(counter.containsKey("three"));
+        Assert.assertEquals(9L, counter.sum());
+
+        final AtomicHashStore<String,Long> snapshot = counter.snapshot();
+        Assert.assertEquals(2, snapshot.size());
+        Assert.assertEquals(Long.valueOf(11L), snapshot.get("one"));
+
+        Assert.assertEquals(11L, counter.remove("one"));
+        Assert.assertFalse(counter.containsKey("one"));
+        counter.clear();
+        Assert.assertTrue(counter.isEmpty());
+
+    }
+
+
+    @Test
+    public void test01() throws Exception {
+
+        // A few hot keys incremented from many threads: no increments are lost, and contended keys get promoted
+
+        final AtomicHashCounter<String> counter = new AtomicHashCounter<>();
+        final int threadCount = 8;
+        final int iterations = 50000;
+        final Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < iterations; i++) {
+                    counter.increment("key" + (i % 20));
+                }
+            });
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        final Map<String,Long> expected = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            expected.put("key" + i, Long.valueOf((long) threadCount * iterations / 20));
+        }
+        final AtomicHashStore<String,Long> snapshot = counter.snapshot();
+        Assert.assertEquals(expected.size(), snapshot.size());
+        for (final Map.Entry<String,Long> entry : expected.entrySet()) {
+            Assert.assertEquals(entry.getValue(), snapshot.get(entry.getKey()));
+            Assert.assertEquals(entry.getValue().longValue(), counter.get(entry.getKey()));
+        }
+        Assert.assertEquals((long) threadCount * iterations, counter.sum());
+
+    }
+
+
+    @Test
+    public void test02() throws Exception {
+
+        // Contention among different keys does not promote any of them, and promotions are capped
+
+        final AtomicHashCounter<String> counter = new AtomicHashCounter<>();
+        final int threadCount = 8;
+        final int iterations = 20000;
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final String prefix = "thread" + t + "-";
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < iterations; i++) {
+                    counter.increment(prefix + (i % 50));
+                }
+            });
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(0, counter.hotKeyCount());
+        Assert.assertEquals((long) threadCount * iterations, counter.sum());
+
+        final AtomicHashCounter<String> capped = new AtomicHashCounter<>(2);
+        threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < iterations; i++) {
+                    capped.increment("key" + (i % 10));
+                }
+            });
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertTrue(capped.hotKeyCount() <= 2);
+        Assert.assertEquals((long) threadCount * iterations, capped.sum());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals((long) threadCount * iterations / 10, capped.get("key" + i));
+        }
+
+    }
+
+
+}
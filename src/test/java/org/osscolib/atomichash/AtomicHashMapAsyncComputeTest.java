@@ -0,0 +1,157 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AtomicHashMapAsyncComputeTest {
+
+    private AtomicHashMap<String,String> map;
+    private ExecutorService executor;
+
+
+    @Before
+    public void initMap() {
+        this.map = new AtomicHashMap<>();
+        this.executor = Executors.newFixedThreadPool(4);
+    }
+
+
+    @After
+    public void shutdownExecutor() throws Exception {
+        this.executor.shutdownNow();
+        this.executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+
+    @Test
+    public void test00() throws Exception {
+
+        Assert.assertEquals("onex", this.map.computeAsync("one", (k,v) -> k + "x", this.executor).get());
+        Assert.assertEquals("onex", this.map.get("one"));
+        Assert.assertEquals("oneonexy", this.map.computeAsync("one", (k,v) -> k + v + "y", this.executor).get());
+        Assert.assertNull(this.map.computeAsync("one", (k,v) -> null, this.executor).get());
+        Assert.assertFalse(this.map.containsKey("one"));
+
+        Assert.assertEquals("twox", this.map.computeIfAbsentAsync("two", k -> k + "x", this.executor).get());
+        Assert.assertEquals("twox", this.map.computeIfAbsentAsync("two", k -> k + "y", this.executor).get());
+        Assert.assertNull(this.map.computeIfAbsentAsync("three", k -> null, this.executor).get());
+        Assert.assertFalse(this.map.containsKey("three"));
+
+        Assert.assertEquals("FOUR", this.map.mergeAsync("four", "FOUR", (v1,v2) -> v1 + v2, Runnable::run).get());
+        Assert.assertEquals("FOURFOUR", this.map.mergeAsync("four", "FOUR", (v1,v2) -> v1 + v2, this.executor).get());
+        Assert.assertNull(this.map.mergeAsync("four", "FOUR", (v1,v2) -> null, this.executor).get());
+        Assert.assertFalse(this.map.containsKey("four"));
+
+        final CompletableFuture<String> failed =
+                this.map.computeAsync("five", (k,v) -> { throw new UnsupportedOperationException(); }, this.executor);
+        try {
+            failed.get();
+            Assert.fail("Exception should have been propagated");
+        } catch (final ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof UnsupportedOperationException);
+        }
+        Assert.assertFalse(this.map.containsKey("five"));
+
+    }
+
+
+    @Test
+    public void test01() throws Exception {
+
+        // A modification on the same key during the asynchronous gap must make the function be applied again
+
+        final CountDownLatch computing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger executions = new AtomicInteger(0);
+
+        this.map.put("key", "A");
+        final CompletableFuture<String> future = this.map.computeAsync("key", (k,v) -> {
+            if (executions.incrementAndGet() == 1) {
+                computing.countDown();
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return v + "x";
+        }, this.executor);
+
+        computing.await();
+        this.map.put("key", "B");
+        this.map.put("other", "OTHER");
+        release.countDown();
+
+        Assert.assertEquals("Bx", future.get());
+        Assert.assertEquals("Bx", this.map.get("key"));
+        Assert.assertEquals(2, executions.get());
+
+    }
+
+
+    @Test
+    public void test02() throws Exception {
+
+        final int numIncrements = 500;
+        final AtomicHashMap<String,Integer> counters = new AtomicHashMap<>();
+        final List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < numIncrements; i++) {
+            futures.add(counters.mergeAsync("counter", 1, Integer::sum, this.executor));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+
+        Assert.assertEquals(Integer.valueOf(numIncrements), counters.get("counter"));
+
+    }
+
+
+    @Test
+    public void test03() throws Exception {
+
+        // Remapping to the value already mapped must not write: neither the store nor the key object change
+
+        final String key = new String("key");
+        this.map.put(key, "A");
+        final AtomicHashStore<String,String> store = this.map.store();
+
+        Assert.assertEquals("A", this.map.computeAsync(new String("key"), (k,v) -> v, this.executor).get());
+        Assert.assertSame(store, this.map.store());
+        Assert.assertNull(this.map.computeAsync("absent", (k,v) -> null, this.executor).get());
+        Assert.assertSame(store, this.map.store());
+        Assert.assertSame(key, this.map.keySet().iterator().next());
+
+    }
+
+
+}
@@ -0,0 +1,140 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AtomicHashMapChangeSubscriptionTest {
+
+    private AtomicHashMap<String,String> map;
+
+
+    @Before
+    public void initMap() {
+        this.map = new AtomicHashMap<>();
+    }
+
+
+    @Test
+    public void test00() throws Exception {
+
+        this.map.put("zero", "ZERO");
+
+        final List<List<AtomicHashStore.Change<String,String>>> batches = new ArrayList<>();
+        final ChangeSubscription<String,String> subscription = this.map.subscribe(batches::add, Runnable::run);
+
+        this.map.put("one", "ONE");
+        this.map.put("one", "UNO");
+        this.map.remove("zero");
+        this.map.remove("nothing");
+
+        Assert.assertEquals(3, batches.size());
+        Assert.assertTrue(batches.get(0).get(0).isInsertion());
+        Assert.assertEquals("ONE", batches.get(0).get(0).getNewValue());
+        Assert.assertEquals("ONE", batches.get(1).get(0).getOldValue());
+        Assert.assertEquals("UNO", batches.get(1).get(0).getNewValue());
+        Assert.assertTrue(batches.get(2).get(0).isRemoval());
+        Assert.assertEquals("zero", batches.get(2).get(0).getKey());
+
+        // Changes committed by transactions are notified too
+        final AtomicHashMap<String,String> other = new AtomicHashMap<>();
+        AtomicHashTransaction.execute(tx -> {
+            tx.update(this.map, st -> st.put("two", "TWO"));
+            tx.update(other, st -> st.put("two", "TWO"));
+            return null;
+        });
+        Assert.assertEquals(4, batches.size());
+        Assert.assertEquals("two", batches.get(3).get(0).getKey());
+
+        subscription.cancel();
+        Assert.assertTrue(subscription.isCancelled());
+        this.map.put("three", "THREE");
+        Assert.assertEquals(4, batches.size());
+
+        // Key filters
+        final List<AtomicHashStore.Change<String,String>> filtered = new ArrayList<>();
+        this.map.subscribe(filtered::addAll, k -> k.startsWith("f"), Runnable::run);
+        this.map.put("four", "FOUR");
+        this.map.put("six", "SIX");
+        this.map.put("five", "FIVE");
+        Assert.assertEquals(2, filtered.size());
+        Assert.assertEquals("four", filtered.get(0).getKey());
+        Assert.assertEquals("five", filtered.get(1).getKey());
+
+    }
+
+
+    @Test
+    public void test01() throws Exception {
+
+        // A replica maintained from the change stream must end up equal to the map
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        final Map<String,String> replica = new HashMap<>();
+        this.map.subscribe(changes -> {
+            for (final AtomicHashStore.Change<String,String> change : changes) {
+                if (change.isRemoval()) {
+                    replica.remove(change.getKey());
+                } else {
+                    replica.put(change.getKey(), change.getNewValue());
+                }
+            }
+        }, executor);
+
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    this.map.put("key" + thread + "-" + (i % 300), "value" + i);
+                    if (i % 3 == 0) {
+                        this.map.remove("key" + thread + "-" + ((i * 7) % 300));
+                    }
+                }
+            });
+        }
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        // One final modification makes sure everything has been signalled after the writers stopped
+        this.map.put("last", "LAST");
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        Assert.assertEquals(this.map, replica);
+
+    }
+
+
+}
@@ -0,0 +1,162 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AtomicHashMapComputeIfAbsentOnceTest {
+
+    private AtomicHashMap<String,String> map;
+
+
+    @Before
+    public void initMap() {
+        this.map = new AtomicHashMap<>();
+    }
+
+
+    @Test
+    public void test00() throws Exception {
+
+        Assert.assertEquals("onex", this.map.computeIfAbsentOnce("one", k -> k + "x"));
+        Assert.assertEquals("onex", this.map.computeIfAbsentOnce("one", k -> k + "y"));
+        Assert.assertEquals("onex", this.map.get("one"));
+
+        Assert.assertNull(this.map.computeIfAbsentOnce("two", k -> null));
+        Assert.assertFalse(this.map.containsKey("two"));
+
+        this.map.put("three", null);
+        Assert.assertEquals("threex", this.map.computeIfAbsentOnce("three", k -> k + "x"));
+
+        try {
+            this.map.computeIfAbsentOnce("four", k -> this.map.computeIfAbsentOnce("four", k2 -> "FOUR"));
+            Assert.fail("Recursive computation should have failed");
+        } catch (final IllegalStateException e) {
+            // Expected
+        }
+        Assert.assertEquals("FOUR", this.map.computeIfAbsentOnce("four", k -> "FOUR"));
+
+        try {
+            this.map.computeIfAbsentOnce("five", k -> { throw new UnsupportedOperationException(); });
+            Assert.fail("Exception should have been propagated");
+        } catch (final UnsupportedOperationException e) {
+            // Expected
+        }
+        Assert.assertEquals("FIVE", this.map.computeIfAbsentOnce("five", k -> "FIVE"));
+
+    }
+
+
+    @Test
+    public void test01() throws Exception {
+
+        final int numThreads = 8;
+        final AtomicInteger executions = new AtomicInteger(0);
+        final CountDownLatch computing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final Thread loader = new Thread(() -> this.map.computeIfAbsentOnce("key", k -> {
+            executions.incrementAndGet();
+            computing.countDown();
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return "VALUE";
+        }));
+        loader.start();
+        computing.await();
+
+        final String[] results = new String[numThreads];
+        final Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            final int i = t;
+            threads[t] = new Thread(() -> results[i] = this.map.computeIfAbsentOnce("key", k -> {
+                executions.incrementAndGet();
+                return "OTHER";
+            }));
+            threads[t].start();
+        }
+
+        // Computations for other keys should not be blocked by the one in progress
+        Assert.assertEquals("otherx", this.map.computeIfAbsentOnce("other", k -> k + "x"));
+
+        release.countDown();
+        loader.join();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(1, executions.get());
+        for (int t = 0; t < numThreads; t++) {
+            Assert.assertEquals("VALUE", results[t]);
+        }
+
+    }
+
+
+    @Test
+    public void test02() throws Exception {
+
+        // Computations for equivalent (not equal) keys must also be coalesced
+
+        final AtomicHashMap<String,String> ciMap = new AtomicHashMap<>(Equivalence.caseInsensitive());
+        final AtomicInteger executions = new AtomicInteger(0);
+        final CountDownLatch computing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final Thread loader = new Thread(() -> ciMap.computeIfAbsentOnce("key", k -> {
+            executions.incrementAndGet();
+            computing.countDown();
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return "VALUE";
+        }));
+        loader.start();
+        computing.await();
+
+        final String[] result = new String[1];
+        final Thread other = new Thread(() -> result[0] = ciMap.computeIfAbsentOnce("KEY", k -> {
+            executions.incrementAndGet();
+            return "OTHER";
+        }));
+        other.start();
+
+        release.countDown();
+        loader.join();
+        other.join();
+
+        Assert.assertEquals(1, executions.get());
+        Assert.assertEquals("VALUE", result[0]);
+        Assert.assertEquals("VALUE", ciMap.get("Key"));
+
+    }
+
+
+}
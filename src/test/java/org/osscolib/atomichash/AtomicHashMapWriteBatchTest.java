@@ -0,0 +1,137 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AtomicHashMapWriteBatchTest {
+
+    private AtomicHashMap<String,Integer> map;
+
+
+    @Before
+    public void initMap() {
+        this.map = new AtomicHashMap<>();
+    }
+
+
+    @Test
+    public void test00() throws Exception {
+
+        this.map.put("one", 1);
+        this.map.put("two", 2);
+
+        final WriteBatch<String,Integer> batch =
+                new WriteBatch<String,Integer>()
+                        .put("three", 3)
+                        .put("one", 11)
+                        .remove("two")
+                        .remove("four")
+                        .compute("one", (k,v) -> v + 1)
+                        .compute("five", (k,v) -> (v == null) ? 5 : v)
+                        .compute("three", (k,v) -> null);
+
+        Assert.assertEquals(7, batch.size());
+
+        final AtomicHashStore<String,Integer> before = this.map.store();
+        final List<Integer> results = this.map.apply(batch);
+
+        Assert.assertEquals(Arrays.asList(null, 1, 2, null, 12, 5, null), results);
+        Assert.assertEquals(2, this.map.size());
+        Assert.assertEquals(Integer.valueOf(12), this.map.get("one"));
+        Assert.assertEquals(Integer.valueOf(5), this.map.get("five"));
+
+        // The store obtained before is not affected, and applying on it directly gives the same result
+        Assert.assertEquals(2, before.size());
+        final List<Integer>[] storeResults = new List[1];
+        final AtomicHashStore<String,Integer> after = before.apply(batch, r -> storeResults[0] = r);
+        Assert.assertEquals(results, storeResults[0]);
+        Assert.assertEquals(this.map.store(), after);
+        TestUtils.validateStoreWellFormed(after);
+
+    }
+
+
+    @Test
+    public void test01() throws Exception {
+
+        this.map.put("one", 1);
+        final AtomicHashStore<String,Integer> store = this.map.store();
+
+        Assert.assertFalse(this.map.compareAndSet(store.put("two", 2), store.clear()));
+        Assert.assertTrue(this.map.compareAndSet(store, store.put("two", 2)));
+        Assert.assertEquals(Integer.valueOf(2), this.map.get("two"));
+        Assert.assertFalse(this.map.compareAndSet(store, store.clear()));
+
+        final AtomicHashStore<String,Integer> updated =
+                this.map.updateAndGet(st -> st.put("three", 3).remove("one"));
+        Assert.assertSame(updated, this.map.store());
+        Assert.assertEquals(2, this.map.size());
+        Assert.assertNull(this.map.get("one"));
+
+    }
+
+
+    @Test
+    public void test02() throws Exception {
+
+        // Values are moved between two keys from several threads, the sum must always be kept
+
+        this.map.put("a", 1000);
+        this.map.put("b", 0);
+
+        final AtomicBoolean inconsistent = new AtomicBoolean(false);
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final boolean toB = (t % 2 == 0);
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    this.map.apply(
+                            new WriteBatch<String,Integer>()
+                                    .compute(toB ? "a" : "b", (k,v) -> v - 1)
+                                    .compute(toB ? "b" : "a", (k,v) -> v + 1));
+                    final AtomicHashStore<String,Integer> st = this.map.store();
+                    if (st.get("a") + st.get("b") != 1000) {
+                        inconsistent.set(true);
+                    }
+                }
+            });
+        }
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertFalse(inconsistent.get());
+        Assert.assertEquals(Integer.valueOf(1000), this.map.get("a"));
+        Assert.assertEquals(Integer.valueOf(0), this.map.get("b"));
+
+    }
+
+
+}
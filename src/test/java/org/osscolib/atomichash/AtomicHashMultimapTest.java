@@ -0,0 +1,135 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AtomicHashMultimapTest {
+
+
+    @Test
+    public void test00() throws Exception {
+
+        AtomicHashMultimapStore<String,Integer> store = AtomicHashMultimapStore.of();
+        store = store.put("one", 1).put("one", 11).put("two", 2);
+        Assert.assertSame(store, store.put("one", 1));
+        Assert.assertEquals(3, store.size());
+        Assert.assertEquals(2, store.keyCount());
+        Assert.assertTrue(store.containsEntry("one", 11));
+        Assert.assertFalse(store.containsEntry("two", 11));
+        Assert.assertEquals(AtomicHashSetStore.of(1, 11), store.get("one"));
+        Assert.assertTrue(store.get("three").isEmpty());
+
+        // Removing the last value removes the key
+        store = store.remove("two", 2);
+        Assert.assertFalse(store.containsKey("two"));
+        Assert.assertEquals(2, store.size());
+
+        store = store.putAll("three", Arrays.asList(3, 33, 333));
+        Assert.assertEquals(5, store.size());
+        store = store.removeAll("one");
+        Assert.assertEquals(3, store.size());
+        Assert.assertEquals(AtomicHashMultimapStore.<String,Integer>of().putAll("three", Arrays.asList(333, 33, 3)), store);
+
+    }
+
+
+    @Test
+    public void test01() throws Exception {
+
+        // Hot keys with many values: other values of the key are shared, not copied
+
+        final Random random = new Random(37L);
+        final Map<Integer,Set<Integer>> expected = new HashMap<>();
+        AtomicHashMultimapStore<Integer,Integer> store = AtomicHashMultimapStore.of();
+
+        for (int i = 0; i < 50000; i++) {
+            final Integer key = Integer.valueOf(random.nextInt(10));
+            final Integer value = Integer.valueOf(random.nextInt(5000));
+            if (random.nextInt(4) == 0) {
+                final Set<Integer> values = expected.get(key);
+                if (values != null && values.remove(value) && values.isEmpty()) {
+                    expected.remove(key);
+                }
+                store = store.remove(key, value);
+            } else {
+                expected.computeIfAbsent(key, k -> new HashSet<>()).add(value);
+                store = store.put(key, value);
+            }
+        }
+
+        int size = 0;
+        for (final Map.Entry<Integer,Set<Integer>> entry : expected.entrySet()) {
+            final AtomicHashSetStore<Integer> values = store.get(entry.getKey());
+            Assert.assertEquals(entry.getValue().size(), values.size());
+            for (final Integer value : entry.getValue()) {
+                Assert.assertTrue(values.contains(value));
+            }
+            size += entry.getValue().size();
+        }
+        Assert.assertEquals(size, store.size());
+        Assert.assertEquals(expected.size(), store.keyCount());
+
+        final AtomicHashSetStore<Integer> before = store.get(Integer.valueOf(3));
+        final AtomicHashSetStore<Integer> after = store.put(Integer.valueOf(3), Integer.valueOf(-1)).get(Integer.valueOf(3));
+        Assert.assertEquals(before.size() + 1, after.size());
+        Assert.assertEquals(before, after.remove(Integer.valueOf(-1)));
+
+    }
+
+
+    @Test
+    public void test02() throws Exception {
+
+        final AtomicHashMultimap<String,Integer> multimap = new AtomicHashMultimap<>();
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    multimap.put("key" + (i % 5), Integer.valueOf(thread * 1000 + i));
+                }
+            });
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(4000, multimap.size());
+        Assert.assertEquals(5, multimap.keyCount());
+        Assert.assertEquals(800, multimap.get("key2").size());
+        Assert.assertFalse(multimap.put("key0", Integer.valueOf(0)));
+        Assert.assertTrue(multimap.remove("key0", Integer.valueOf(0)));
+        Assert.assertEquals(799, multimap.removeAll("key0").size());
+        Assert.assertEquals(3200, multimap.size());
+
+    }
+
+
+}
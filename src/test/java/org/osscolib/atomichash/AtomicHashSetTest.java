@@ -0,0 +1,173 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AtomicHashSetTest {
+
+
+    @Test
+    public void test00() throws Exception {
+
+        final KeyValue<String,String>[] kvs = TestUtils.generateStringStringKeyValues(20000, 60, 100);
+
+        final Set<String> expected = new HashSet<>();
+        AtomicHashSetStore<String> store = AtomicHashSetStore.of();
+
+        for (int i = 0; i < kvs.length; i++) {
+            if (i % 5 == 4) {
+                Assert.assertEquals(expected.contains(kvs[i / 2].getKey()), store.contains(kvs[i / 2].getKey()));
+                expected.remove(kvs[i / 2].getKey());
+                store = store.remove(kvs[i / 2].getKey());
+            } else {
+                expected.add(kvs[i].getKey());
+                store = store.add(kvs[i].getKey());
+            }
+        }
+        store = store.add(null);
+        expected.add(null);
+
+        Assert.assertEquals(expected.size(), store.size());
+        final Set<String> iterated = new HashSet<>();
+        for (final String key : store) {
+            Assert.assertTrue(iterated.add(key));
+        }
+        Assert.assertEquals(expected, iterated);
+        Assert.assertEquals(expected.hashCode(), store.hashCode());
+
+        // Adding an existing key or removing a non-existing one must not create a new store
+        Assert.assertSame(store, store.add(iterated.iterator().next()).add(null));
+        Assert.assertSame(store, store.remove("non-existing"));
+
+        AtomicHashSetStore<String> emptied = store;
+        for (final String key : expected) {
+            emptied = emptied.remove(key);
+        }
+        Assert.assertSame(AtomicHashSetStore.of(), emptied);
+
+    }
+
+
+    @Test
+    public void test01() throws Exception {
+
+        // Set operations, both on unrelated sets and on sets derived from one another (shared structure)
+
+        final KeyValue<String,String>[] kvs = TestUtils.generateStringStringKeyValues(6000, 60, 0);
+        final List<String> keys = new ArrayList<>();
+        for (final KeyValue<String,String> kv : kvs) {
+            keys.add(kv.getKey());
+        }
+
+        final AtomicHashSetStore<String> a = AtomicHashSetStore.<String>of().addAll(keys.subList(0, 4000));
+        final AtomicHashSetStore<String> b = AtomicHashSetStore.<String>of().addAll(keys.subList(2000, 6000));
+        final AtomicHashSetStore<String> c = a.removeAll(keys.subList(0, 100)).addAll(keys.subList(5000, 5100));
+
+        final Set<String> ea = new HashSet<>(keys.subList(0, 4000));
+        final Set<String> eb = new HashSet<>(keys.subList(2000, 6000));
+        final Set<String> ec = new HashSet<>(ea);
+        ec.removeAll(keys.subList(0, 100));
+        ec.addAll(keys.subList(5000, 5100));
+
+        for (final AtomicHashSetStore<String> x : Arrays.asList(a, b, c)) {
+            for (final AtomicHashSetStore<String> y : Arrays.asList(a, b, c)) {
+
+                final Set<String> ex = (x == a) ? ea : (x == b) ? eb : ec;
+                final Set<String> ey = (y == a) ? ea : (y == b) ? eb : ec;
+
+                final Set<String> union = new HashSet<>(ex);
+                union.addAll(ey);
+                final Set<String> intersection = new HashSet<>(ex);
+                intersection.retainAll(ey);
+                final Set<String> difference = new HashSet<>(ex);
+                difference.removeAll(ey);
+
+                assertSetEquals(union, x.union(y));
+                assertSetEquals(intersection, x.intersection(y));
+                assertSetEquals(difference, x.difference(y));
+                Assert.assertEquals(ey.containsAll(ex), y.containsAll(x));
+                Assert.assertEquals(ex.equals(ey), x.equals(y));
+
+            }
+        }
+
+        Assert.assertSame(a, a.union(a));
+        Assert.assertSame(a, a.intersection(a));
+        Assert.assertSame(AtomicHashSetStore.of(), a.difference(a));
+        Assert.assertEquals(a, AtomicHashSetStore.<String>of().addAll(new ArrayList<>(ea)));
+
+    }
+
+
+    @Test
+    public void test02() throws Exception {
+
+        final AtomicHashSet<String> set = new AtomicHashSet<>(Arrays.asList("one", "two", "three"));
+        Assert.assertTrue(set.add("four"));
+        Assert.assertFalse(set.add("one"));
+        Assert.assertTrue(set.remove("two"));
+        Assert.assertFalse(set.remove("two"));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("one", "three", "four")), set);
+
+        Assert.assertTrue(set.retainAll(Arrays.asList("one", "four", "five")));
+        Assert.assertFalse(set.addAll(Arrays.asList("one")));
+        Assert.assertTrue(set.removeAll(Arrays.asList("one")));
+        Assert.assertEquals(AtomicHashSetStore.of("four"), set.store());
+
+        // Concurrent bulk modifications are atomic, none of them are lost
+        final AtomicHashSet<Integer> numbers = new AtomicHashSet<>();
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    numbers.addAll(Arrays.asList(thread * 10000 + i * 2, thread * 10000 + i * 2 + 1));
+                }
+            });
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(4000, numbers.size());
+
+    }
+
+
+    private static void assertSetEquals(final Set<String> expected, final AtomicHashSetStore<String> store) {
+        Assert.assertEquals(expected.size(), store.size());
+        int count = 0;
+        for (final String key : store) {
+            Assert.assertTrue(expected.contains(key));
+            count++;
+        }
+        Assert.assertEquals(expected.size(), count);
+    }
+
+
+}
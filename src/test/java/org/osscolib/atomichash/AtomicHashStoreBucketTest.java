@@ -0,0 +1,138 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AtomicHashStoreBucketTest {
+
+
+    @Test
+    public void test00() throws Exception {
+
+        final KeyValue<String,String>[] kvs = TestUtils.generateStringStringKeyValues(5000, 40, 0);
+
+        AtomicHashStore<String,String> store = AtomicHashStore.of();
+        for (int i = 0; i < kvs.length; i++) {
+            store = store.put(kvs[i].getKey(), kvs[i].getValue());
+        }
+        TestUtils.validateStoreWellFormed(store);
+        Assert.assertEquals(kvs.length, store.size());
+
+        if (Node.BUCKET_SIZE > 1) {
+            Assert.assertTrue(maxDistinctHashesInDataNodes(store.root) > 1);
+        }
+        Assert.assertTrue(maxDistinctHashesInDataNodes(store.root) <= Node.BUCKET_SIZE);
+
+        for (final KeyValue<String,String> kv : kvs) {
+            Assert.assertEquals(kv.getValue(), store.get(kv.getKey()));
+        }
+
+        // Removal in random order, which will merge branches back into data nodes
+        final Random random = new Random(2019L);
+        final int[] order = new int[kvs.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        for (int i = order.length - 1; i > 0; i--) {
+            final int j = random.nextInt(i + 1);
+            final int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+
+        final StoreEditor<String,String> editor = store.edit();
+        for (int i = 0; i < order.length; i++) {
+            if (i % 2 == 0) {
+                store = store.remove(kvs[order[i]].getKey());
+            }
+            editor.remove(kvs[order[i]].getKey());
+            if (i % 500 == 0) {
+                TestUtils.validateStoreWellFormed(store);
+                TestUtils.validateStoreWellFormed(editor.toStore());
+            }
+        }
+        Assert.assertTrue(editor.toStore().isEmpty());
+        TestUtils.validateStoreWellFormed(store);
+        Assert.assertEquals(kvs.length / 2, store.size());
+        for (int i = 0; i < order.length; i++) {
+            final KeyValue<String,String> kv = kvs[order[i]];
+            if (i % 2 == 0) {
+                Assert.assertFalse(store.containsKey(kv.getKey()));
+            } else {
+                Assert.assertEquals(kv.getValue(), store.get(kv.getKey()));
+            }
+        }
+
+    }
+
+
+    @Test
+    public void test01() throws Exception {
+
+        // Bulk insertion builds buckets too
+
+        final KeyValue<String,String>[] kvs = TestUtils.generateStringStringKeyValues(5000, 40, 0);
+        final Map<String,String> map = new HashMap<>();
+        for (final KeyValue<String,String> kv : kvs) {
+            map.put(kv.getKey(), kv.getValue());
+        }
+
+        final AtomicHashStore<String,String> store = AtomicHashStore.<String,String>of().putAll(map);
+        TestUtils.validateStoreWellFormed(store);
+        Assert.assertEquals(map.size(), store.size());
+        for (final KeyValue<String,String> kv : kvs) {
+            Assert.assertEquals(map.get(kv.getKey()), store.get(kv.getKey()));
+        }
+
+    }
+
+
+
+
+    private static int maxDistinctHashesInDataNodes(final Node<?,?> node) {
+        if (node.children == null) {
+            if (node.entry != null) {
+                return 1;
+            }
+            int distinct = 1;
+            for (int i = 1; i < node.entries.length; i++) {
+                if (node.entries[i].hash != node.entries[i - 1].hash) {
+                    distinct++;
+                }
+            }
+            return distinct;
+        }
+        int max = 0;
+        for (final Node<?,?> child : node.children) {
+            if (child != null) {
+                max = Math.max(max, maxDistinctHashesInDataNodes(child));
+            }
+        }
+        return max;
+    }
+
+
+}
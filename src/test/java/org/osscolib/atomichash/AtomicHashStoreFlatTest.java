@@ -0,0 +1,148 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AtomicHashStoreFlatTest {
+
+
+    @Test
+    public void test00() throws Exception {
+
+        // Factories produce flat stores directly
+
+        final AtomicHashStore<String,Integer> store =
+                AtomicHashStore.of("one", 1, "two", 2, "three", 3, "four", 4);
+
+        Assert.assertNull(store.root.children);
+        Assert.assertEquals(4, store.root.entries.length);
+        Assert.assertEquals(4, store.size());
+        Assert.assertEquals(Integer.valueOf(1), store.get("one"));
+        Assert.assertEquals(Integer.valueOf(4), store.get("four"));
+        Assert.assertNull(store.get("five"));
+        TestUtils.validateStoreWellFormed(store);
+
+        final AtomicHashStore<String,Integer> store10 =
+                AtomicHashStore.of("a", 1, "b", 2, "c", 3, "d", 4, "e", 5, "f", 6, "g", 7, "h", 8, "i", 9, "j", 10);
+        Assert.assertNotNull(store10.root.children);
+        Assert.assertEquals(10, store10.size());
+        TestUtils.validateStoreWellFormed(store10);
+
+    }
+
+
+    @Test
+    public void test01() throws Exception {
+
+        // Growth beyond the flat threshold converts into a trie, and shrinking flattens back
+
+        final KeyValue<String,String>[] kvs = TestUtils.generateStringStringKeyValues(100, 20, 0);
+
+        AtomicHashStore<String,String> store = AtomicHashStore.of();
+        for (int i = 0; i < kvs.length; i++) {
+            store = store.put(kvs[i].getKey(), kvs[i].getValue());
+            TestUtils.validateStoreWellFormed(store);
+            if (i < Node.FLAT_MAX_SIZE) {
+                Assert.assertNull(store.root.children);
+            }
+            for (int j = 0; j <= i; j++) {
+                Assert.assertEquals(kvs[j].getValue(), store.get(kvs[j].getKey()));
+            }
+        }
+
+        for (int i = 0; i < kvs.length; i++) {
+            store = store.remove(kvs[i].getKey());
+            TestUtils.validateStoreWellFormed(store);
+            if (kvs.length - i - 1 <= Node.FLATTEN_SIZE && store.root != null) {
+                Assert.assertNull(store.root.children);
+            }
+            for (int j = i + 1; j < kvs.length; j++) {
+                Assert.assertEquals(kvs[j].getValue(), store.get(kvs[j].getKey()));
+            }
+            Assert.assertFalse(store.containsKey(kvs[i].getKey()));
+        }
+        Assert.assertTrue(store.isEmpty());
+
+    }
+
+
+    @Test
+    public void test02() throws Exception {
+
+        // Iteration, putAll, editors and diffs on flat stores
+
+        final Map<String,Integer> map = new HashMap<>();
+        map.put("a", 1);
+        map.put("b", 2);
+        map.put("c", 3);
+
+        final AtomicHashStore<String,Integer> store = AtomicHashStore.<String,Integer>of().putAll(map);
+        Assert.assertNull(store.root.children);
+        for (final Map.Entry<String,Integer> entry : map.entrySet()) {
+            Assert.assertEquals(entry.getValue(), store.get(entry.getKey()));
+        }
+
+        final List<String> keys = new ArrayList<>();
+        for (final AtomicHashStore.Entry<String,Integer> entry : store) {
+            keys.add(entry.getKey());
+        }
+        Assert.assertEquals(3, keys.size());
+        Assert.assertTrue(keys.containsAll(map.keySet()));
+
+        final StoreEditor<String,Integer> editor = store.edit();
+        editor.put("d", 4);
+        editor.put("a", 10);
+        editor.remove("b");
+        final AtomicHashStore<String,Integer> edited = editor.toStore();
+        Assert.assertNull(edited.root.children);
+        Assert.assertEquals(3, edited.size());
+        Assert.assertEquals(Integer.valueOf(10), edited.get("a"));
+        Assert.assertFalse(edited.containsKey("b"));
+        TestUtils.validateStoreWellFormed(edited);
+
+        final List<AtomicHashStore.Change<String,Integer>> changes = new ArrayList<>();
+        edited.diff(store, changes::add);
+        Assert.assertEquals(3, changes.size());
+
+        // Bulk-adding to a flat store beyond the threshold
+        final Map<String,Integer> more = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            more.put("k" + i, i);
+        }
+        final AtomicHashStore<String,Integer> big = store.putAll(more);
+        Assert.assertNotNull(big.root.children);
+        Assert.assertEquals(23, big.size());
+        TestUtils.validateStoreWellFormed(big);
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals(Integer.valueOf(i), big.get("k" + i));
+        }
+        Assert.assertEquals(Integer.valueOf(1), big.get("a"));
+
+    }
+
+
+}
@@ -0,0 +1,108 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Predicate;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AtomicHashStoreProbeTest {
+
+
+    @Test
+    public void test00() throws Exception {
+
+        final KeyValue<String,String>[] kvs = TestUtils.generateStringStringKeyValues(10000, 60, 0);
+        AtomicHashStore<String,String> store = AtomicHashStore.of();
+        for (final KeyValue<String,String> kv : kvs) {
+            store = store.put(kv.getKey(), kv.getValue());
+        }
+
+        // Lookups by means of a CharSequence that is not a String (hashed the same way as String)
+        for (final KeyValue<String,String> kv : kvs) {
+            final StringBuilder sequence = new StringBuilder(kv.getKey());
+            final int hash = AtomicHashStore.spread(charSequenceHash(sequence));
+            final Predicate<String> matcher = k -> k != null && k.contentEquals(sequence);
+            Assert.assertTrue(store.containsKey(hash, matcher));
+            Assert.assertEquals(kv.getValue(), store.get(hash, matcher));
+            Assert.assertEquals(kv.getValue(), store.getOrDefault(hash, matcher, "none"));
+        }
+
+        final StringBuilder missing = new StringBuilder("missing");
+        final int missingHash = AtomicHashStore.spread(charSequenceHash(missing));
+        Assert.assertFalse(store.containsKey(missingHash, k -> k != null && k.contentEquals(missing)));
+        Assert.assertEquals("none", store.getOrDefault(missingHash, k -> k != null && k.contentEquals(missing), "none"));
+
+    }
+
+
+    @Test
+    public void test01() throws Exception {
+
+        // Lookups from a ByteBuffer slice on a byte[]-content store
+
+        final AtomicHashStore<byte[],Integer> store =
+                AtomicHashStore.<byte[],Integer>of(Equivalence.byteArrayContent())
+                        .put("GET".getBytes(StandardCharsets.US_ASCII), 1)
+                        .put("POST".getBytes(StandardCharsets.US_ASCII), 2);
+
+        final ByteBuffer buffer = ByteBuffer.wrap("xxPOST /index.html".getBytes(StandardCharsets.US_ASCII));
+        final int start = 2;
+        final int end = 6;
+        int h = 1;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + buffer.get(i);
+        }
+
+        final AtomicHashMap<byte[],Integer> map = new AtomicHashMap<>(Equivalence.byteArrayContent());
+        map.put("POST".getBytes(StandardCharsets.US_ASCII), 2);
+
+        final Predicate<byte[]> matcher = k -> {
+            if (k.length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < k.length; i++) {
+                if (k[i] != buffer.get(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+        Assert.assertEquals(Integer.valueOf(2), store.get(AtomicHashStore.spread(h), matcher));
+        Assert.assertEquals(Integer.valueOf(2), map.get(AtomicHashStore.spread(h), matcher));
+        Assert.assertTrue(map.containsKey(AtomicHashStore.spread(h), matcher));
+        Assert.assertNull(store.get(AtomicHashStore.spread(h + 1), matcher));
+
+    }
+
+
+    private static int charSequenceHash(final CharSequence sequence) {
+        int h = 0;
+        for (int i = 0; i < sequence.length(); i++) {
+            h = 31 * h + sequence.charAt(i);
+        }
+        return h;
+    }
+
+
+}
@@ -0,0 +1,146 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AtomicHashTransactionTest {
+
+    private AtomicHashMap<String,Integer> left;
+    private AtomicHashMap<String,Integer> right;
+
+
+    @Before
+    public void initMaps() {
+        this.left = new AtomicHashMap<>();
+        this.right = new AtomicHashMap<>();
+    }
+
+
+    @Test
+    public void test00() throws Exception {
+
+        this.left.put("one", 1);
+        this.left.put("two", 2);
+
+        final Integer moved = AtomicHashTransaction.execute(tx -> {
+            final AtomicHashStore<String,Integer> l = tx.read(this.left);
+            final Integer value = l.get("two");
+            tx.write(this.left, l.remove("two"));
+            tx.update(this.right, r -> r.put("two", value));
+            return value;
+        });
+
+        Assert.assertEquals(Integer.valueOf(2), moved);
+        Assert.assertEquals(1, this.left.size());
+        Assert.assertFalse(this.left.containsKey("two"));
+        Assert.assertEquals(Integer.valueOf(2), this.right.get("two"));
+
+        // Read-only transactions do not modify anything
+        final AtomicHashStore<String,Integer> leftStore = this.left.store();
+        final Integer sum = AtomicHashTransaction.execute(tx -> tx.read(this.left).get("one") + tx.read(this.right).get("two"));
+        Assert.assertEquals(Integer.valueOf(3), sum);
+        Assert.assertSame(leftStore, this.left.store());
+
+    }
+
+
+    @Test
+    public void test01() throws Exception {
+
+        // A modification of a map read by the transaction before commit must make the body execute again
+
+        this.left.put("key", 1);
+        final AtomicInteger executions = new AtomicInteger(0);
+
+        AtomicHashTransaction.execute(tx -> {
+            final AtomicHashStore<String,Integer> l = tx.read(this.left);
+            final AtomicHashStore<String,Integer> r = tx.read(this.right);
+            if (executions.incrementAndGet() == 1) {
+                this.left.put("key", 10);
+            }
+            tx.write(this.right, r.put("copy", l.get("key")));
+            return null;
+        });
+
+        Assert.assertEquals(2, executions.get());
+        Assert.assertEquals(Integer.valueOf(10), this.right.get("copy"));
+        Assert.assertFalse(this.left.rawStore() instanceof AtomicHashTransaction.Pending);
+        Assert.assertFalse(this.right.rawStore() instanceof AtomicHashTransaction.Pending);
+
+    }
+
+
+    @Test
+    public void test02() throws Exception {
+
+        // Values are moved between two maps from several threads while others modify the maps directly,
+        // the sum must always be kept when read from a transaction
+
+        this.left.put("value", 1000);
+        this.right.put("value", 0);
+
+        final AtomicBoolean inconsistent = new AtomicBoolean(false);
+        final Thread[] threads = new Thread[6];
+        for (int t = 0; t < threads.length; t++) {
+            final int type = t % 3;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    if (type == 2) {
+                        // Direct (non-transactional) writers on unrelated keys abort undecided commits
+                        this.left.put("noise" + (i % 10), i);
+                        this.right.remove("noise" + (i % 10));
+                        final int sum = AtomicHashTransaction.execute(
+                                tx -> tx.read(this.left).get("value") + tx.read(this.right).get("value"));
+                        if (sum != 1000) {
+                            inconsistent.set(true);
+                        }
+                        continue;
+                    }
+                    final AtomicHashMap<String,Integer> from = (type == 0) ? this.left : this.right;
+                    final AtomicHashMap<String,Integer> to = (type == 0) ? this.right : this.left;
+                    AtomicHashTransaction.execute(tx -> {
+                        tx.update(from, st -> st.put("value", st.get("value") - 1));
+                        tx.update(to, st -> st.put("value", st.get("value") + 1));
+                        return null;
+                    });
+                }
+            });
+        }
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertFalse(inconsistent.get());
+        Assert.assertEquals(Integer.valueOf(1000), this.left.get("value"));
+        Assert.assertEquals(Integer.valueOf(0), this.right.get("value"));
+
+    }
+
+
+}
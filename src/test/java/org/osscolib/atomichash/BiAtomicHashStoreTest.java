@@ -0,0 +1,108 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BiAtomicHashStoreTest {
+
+
+    @Test
+    public void test00() throws Exception {
+
+        BiAtomicHashStore<String,Integer> store = BiAtomicHashStore.of();
+        store = store.put("one", 1).put("two", 2).put("three", 3);
+        Assert.assertSame(store, store.put("one", 1));
+        Assert.assertEquals("two", store.getKey(2));
+        Assert.assertTrue(store.containsValue(3));
+        Assert.assertSame(store, store.inverse().inverse());
+        Assert.assertEquals(Integer.valueOf(1), store.get("one"));
+
+        try {
+            store.put("uno", 1);
+            Assert.fail();
+        } catch (final IllegalArgumentException e) {
+            // Expected: values are unique
+        }
+
+        // Replacing the value of a key frees the old value
+        store = store.put("one", 11);
+        Assert.assertFalse(store.containsValue(1));
+        Assert.assertEquals("one", store.getKey(11));
+
+        store = store.forcePut("uno", 11);
+        Assert.assertFalse(store.containsKey("one"));
+        Assert.assertEquals("uno", store.inverse().get(11));
+        Assert.assertEquals(3, store.size());
+        Assert.assertEquals(3, store.inverse().size());
+
+        store = store.removeValue(2).remove("three");
+        Assert.assertEquals(1, store.size());
+        Assert.assertFalse(store.inverse().containsKey(2));
+        Assert.assertSame(BiAtomicHashStore.of(), store.remove("uno"));
+
+    }
+
+
+    @Test
+    public void test01() throws Exception {
+
+        final KeyValue<String,String>[] kvs = TestUtils.generateStringStringKeyValues(10000, 40, 0);
+        final Map<String,String> forward = new HashMap<>();
+        final Map<String,String> backward = new HashMap<>();
+        BiAtomicHashStore<String,String> store = BiAtomicHashStore.of();
+
+        for (int i = 0; i < kvs.length; i++) {
+            final String key = kvs[i].getKey();
+            // Values are made unique by using a different key as value
+            final String value = kvs[(i * 7) % kvs.length].getKey();
+            final String oldKey = backward.get(value);
+            if (oldKey != null) {
+                forward.remove(oldKey);
+            }
+            final String oldValue = forward.put(key, value);
+            if (oldValue != null) {
+                backward.remove(oldValue);
+            }
+            backward.put(value, key);
+            store = store.forcePut(key, value);
+            if (i % 3 == 0) {
+                backward.remove(forward.remove(kvs[i / 2].getKey()));
+                store = store.remove(kvs[i / 2].getKey());
+            }
+        }
+
+        Assert.assertEquals(forward.size(), store.size());
+        Assert.assertEquals(backward.size(), store.inverse().size());
+        for (final Map.Entry<String,String> entry : forward.entrySet()) {
+            Assert.assertEquals(entry.getValue(), store.get(entry.getKey()));
+            Assert.assertEquals(entry.getKey(), store.getKey(entry.getValue()));
+        }
+        TestUtils.validateStoreWellFormed(store.asStore());
+        TestUtils.validateStoreWellFormed(store.inverse().asStore());
+
+    }
+
+
+}
@@ -0,0 +1,194 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConcurrentAtomicHashMapTest {
+
+    private ConcurrentAtomicHashMap<String,String> map;
+
+
+    @Before
+    public void initMap() {
+        this.map = new ConcurrentAtomicHashMap<>();
+    }
+
+
+    @Test
+    public void test00() throws Exception {
+
+        Assert.assertEquals(0, map.size());
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertFalse(map.containsKey("one"));
+        Assert.assertTrue(map.snapshot().isEmpty());
+
+        map.put("one", "ONE");
+        Assert.assertEquals("ONE", map.get("one"));
+        Assert.assertEquals("ONE", map.putIfAbsent("one","TWO"));
+        Assert.assertEquals("ONE", map.get("one"));
+
+        final Map<String,String> m = new HashMap<>();
+        m.put("two", "TWO");
+        m.put("three", "THREE");
+        m.put("four", "FOUR");
+
+        map.putAll(m);
+        Assert.assertEquals(4, map.size());
+        Assert.assertEquals("TWO", map.get("two"));
+        Assert.assertEquals("THREE", map.get("three"));
+        Assert.assertEquals("FOUR", map.get("four"));
+
+        Assert.assertNull(map.remove("six"));
+        Assert.assertEquals("FOUR", map.remove("four"));
+        Assert.assertFalse(map.remove("three", "FOUR"));
+        Assert.assertTrue(map.remove("three", "THREE"));
+        Assert.assertEquals(2, map.size());
+
+        Assert.assertNull(map.replace("five", "FIVE"));
+        Assert.assertNull(map.get("five"));
+        Assert.assertEquals("TWO", map.replace("two", "TWOER"));
+        Assert.assertFalse(map.replace("two", "TWO", "TWOEST"));
+        Assert.assertTrue(map.replace("two", "TWOER", "TWOEST"));
+        Assert.assertEquals("TWOEST", map.get("two"));
+
+        Assert.assertEquals("fivex", map.compute("five", (k,v) -> k + "x"));
+        Assert.assertNull(map.compute("five", (k,v) -> null));
+        Assert.assertFalse(map.containsKey("five"));
+        Assert.assertEquals("ONE", map.computeIfAbsent("one", (k) -> k + "x"));
+        Assert.assertEquals("sixx", map.computeIfAbsent("six", (k) -> k + "x"));
+        Assert.assertEquals("sixsixxx", map.computeIfPresent("six", (k,v) -> k + v + "x"));
+        Assert.assertEquals("SEVEN", map.merge("seven", "SEVEN", (v1,v2) -> v1+v2));
+        Assert.assertEquals("SEVENELEVEN", map.merge("seven", "ELEVEN", (v1,v2) -> v1+v2));
+
+        map.replaceAll((k,v) -> v.toLowerCase());
+        Assert.assertEquals("seveneleven", map.get("seven"));
+
+        final AtomicHashStore<String,String> snapshot = map.snapshot();
+        TestUtils.validateStoreWellFormed(snapshot);
+        Assert.assertEquals(map.size(), snapshot.size());
+        Assert.assertEquals(new AtomicHashMap<>(map), map);
+
+        map.clear();
+        Assert.assertEquals(0, map.size());
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertEquals(4, snapshot.size());
+
+    }
+
+
+    @Test
+    public void test01() throws Exception {
+
+        final KeyValue<String,String>[] entries = TestUtils.generateStringStringKeyValues(10000, 20, 100);
+
+        final Map<String,String> expected = new HashMap<>();
+        for (int i = 0; i < entries.length; i++) {
+            Assert.assertEquals(
+                    expected.put(entries[i].getKey(), entries[i].getValue()),
+                    this.map.put(entries[i].getKey(), entries[i].getValue()));
+            if (i % 1000 == 0) {
+                // Snapshots should not affect the contents of the map
+                final AtomicHashStore<String,String> snapshot = this.map.snapshot();
+                TestUtils.validateStoreWellFormed(snapshot);
+                Assert.assertEquals(expected.size(), snapshot.size());
+            }
+        }
+
+        Assert.assertEquals(expected, this.map);
+        Assert.assertEquals(this.map, expected);
+
+        final AtomicHashStore<String,String> snapshot = this.map.snapshot();
+        for (int i = 0; i < entries.length; i += 2) {
+            expected.remove(entries[i].getKey());
+            this.map.remove(entries[i].getKey());
+        }
+
+        Assert.assertEquals(expected, this.map);
+        Assert.assertNotEquals(snapshot.size(), this.map.size());
+
+        final ConcurrentAtomicHashMap<String,String> map2 = new ConcurrentAtomicHashMap<>(expected);
+        Assert.assertEquals(map2, this.map);
+        Assert.assertEquals(map2.snapshot(), this.map.snapshot());
+
+    }
+
+
+    @Test
+    public void test02() throws Exception {
+
+        // Each writer thread increments a counter for two keys, always in the same order. Consistent
+        // snapshots should therefore never show the second key ahead of the first one.
+
+        final ConcurrentAtomicHashMap<String,Integer> counters = new ConcurrentAtomicHashMap<>();
+        final int numThreads = 4;
+        final int iterations = 2000;
+        final AtomicBoolean inconsistent = new AtomicBoolean(false);
+
+        final Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            final String first = "first" + t;
+            final String second = "second" + t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < iterations; i++) {
+                    counters.merge(first, 1, Integer::sum);
+                    counters.merge(second, 1, Integer::sum);
+                }
+            });
+        }
+
+        final Thread snapshotter = new Thread(() -> {
+            for (int i = 0; i < 500; i++) {
+                final AtomicHashStore<String,Integer> snapshot = counters.snapshot();
+                for (int t = 0; t < numThreads; t++) {
+                    final int first = snapshot.getOrDefault("first" + t, 0);
+                    final int second = snapshot.getOrDefault("second" + t, 0);
+                    if (second > first || first - second > 1) {
+                        inconsistent.set(true);
+                    }
+                }
+            }
+        });
+
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        snapshotter.start();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        snapshotter.join();
+
+        Assert.assertFalse(inconsistent.get());
+        for (int t = 0; t < numThreads; t++) {
+            Assert.assertEquals(Integer.valueOf(iterations), counters.get("first" + t));
+            Assert.assertEquals(Integer.valueOf(iterations), counters.get("second" + t));
+        }
+
+    }
+
+
+}
@@ -0,0 +1,309 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EquivalenceTest {
+
+
+    @Test
+    public void test00() throws Exception {
+
+        // Array content keys: lookups with a different array of the same contents need no wrapping
+
+        AtomicHashStore<byte[],Integer> store = AtomicHashStore.of(Equivalence.byteArrayContent());
+        for (int i = 0; i < 10000; i++) {
+            store = store.put(bytes("key" + i), Integer.valueOf(i));
+        }
+        store = store.put(bytes("key5"), Integer.valueOf(-5));
+        Assert.assertEquals(10000, store.size());
+        Assert.assertEquals(Integer.valueOf(-5), store.get(bytes("key5")));
+        Assert.assertEquals(Integer.valueOf(9999), store.get(bytes("key9999")));
+        Assert.assertFalse(store.containsKey(bytes("key10000")));
+        Assert.assertSame(Equivalence.byteArrayContent(), store.equivalence());
+
+        for (int i = 0; i < 10000; i += 2) {
+            store = store.remove(bytes("key" + i));
+        }
+        Assert.assertEquals(5000, store.size());
+        Assert.assertNull(store.get(bytes("key4")));
+        TestUtils.validateStoreWellFormed(store);
+
+        // Equivalence is kept in derived stores, even empty ones
+        final AtomicHashStore<byte[],Integer> cleared = store.clear();
+        Assert.assertSame(Equivalence.byteArrayContent(), cleared.equivalence());
+        Assert.assertEquals(Integer.valueOf(1), cleared.put(bytes("a"), 1).get(bytes("a")));
+
+        final StoreEditor<byte[],Integer> editor = store.edit();
+        Assert.assertEquals(Integer.valueOf(1), editor.put(bytes("key1"), Integer.valueOf(100)));
+        Assert.assertEquals(Integer.valueOf(3), editor.remove(bytes("key3")));
+        final AtomicHashStore<byte[],Integer> edited = editor.toStore();
+        Assert.assertEquals(Integer.valueOf(100), edited.get(bytes("key1")));
+        Assert.assertFalse(edited.containsKey(bytes("key3")));
+
+        final AtomicHashStore<byte[],String> replaced = edited.replaceAll((k, v) -> String.valueOf(v));
+        Assert.assertEquals("100", replaced.get(bytes("key1")));
+
+        final AtomicHashStore<char[],String> chars =
+                AtomicHashStore.<char[],String>of(Equivalence.charArrayContent()).put("one".toCharArray(), "1");
+        Assert.assertEquals("1", chars.get(new char[] { 'o', 'n', 'e' }));
+
+    }
+
+
+    @Test
+    public void test01() throws Exception {
+
+        final String k1 = new String("key");
+        final String k2 = new String("key");
+
+        final AtomicHashStore<String,Integer> identity =
+                AtomicHashStore.<String,Integer>of(Equivalence.identity()).put(k1, 1).put(k2, 2).put(null, 0);
+        Assert.assertEquals(3, identity.size());
+        Assert.assertEquals(Integer.valueOf(1), identity.get(k1));
+        Assert.assertEquals(Integer.valueOf(2), identity.get(k2));
+        Assert.assertEquals(Integer.valueOf(0), identity.get(null));
+        Assert.assertNull(identity.get("key" + System.nanoTime()));
+        Assert.assertEquals(1, identity.remove(k1).remove(null).size());
+
+        final AtomicHashStore<String,Integer> caseInsensitive =
+                AtomicHashStore.<String,Integer>of(Equivalence.caseInsensitive()).put("Content-Type", 1).put("content-type", 2);
+        Assert.assertEquals(1, caseInsensitive.size());
+        Assert.assertEquals(Integer.valueOf(2), caseInsensitive.get("CONTENT-TYPE"));
+
+        final Map<String,Integer> map = new HashMap<>();
+        map.put("Accept", 1);
+        map.put("ACCEPT-encoding", 2);
+        final AtomicHashStore<String,Integer> all = caseInsensitive.putAll(map);
+        Assert.assertEquals(Integer.valueOf(2), all.get("accept-Encoding"));
+
+        final Map<AtomicHashStore.Change<String,Integer>,Boolean> changes = new HashMap<>();
+        all.diff(caseInsensitive, change -> changes.put(change, Boolean.valueOf(change.isInsertion())));
+        Assert.assertEquals(2, changes.size());
+
+        final AtomicHashMap<String,Integer> headers = new AtomicHashMap<>(Equivalence.caseInsensitive());
+        headers.put("Host", 1);
+        Assert.assertEquals(Integer.valueOf(1), headers.get("HOST"));
+        Assert.assertEquals(Integer.valueOf(1), headers.remove("host"));
+        Assert.assertTrue(headers.isEmpty());
+        headers.put("Host", 2);
+        Assert.assertEquals(Integer.valueOf(3), headers.computeAsync("hOST", (k, v) -> v + 1, Runnable::run).get());
+        headers.clear();
+        Assert.assertSame(Equivalence.caseInsensitive(), headers.store().equivalence());
+
+    }
+
+
+    @Test
+    public void test02() throws Exception {
+
+        // Hash flooding: 1024 different strings sharing the same String.hashCode()
+
+        final String[] keys = new String[1024];
+        for (int i = 0; i < keys.length; i++) {
+            final StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < 10; j++) {
+                sb.append(((i >>> j) & 1) == 0 ? "Aa" : "BB");
+            }
+            keys[i] = sb.toString();
+            Assert.assertEquals(keys[0].hashCode(), keys[i].hashCode());
+        }
+
+        AtomicHashStore<String,Integer> plain = AtomicHashStore.of();
+        AtomicHashStore<String,Integer> keyed = AtomicHashStore.of(Equivalence.keyedStrings());
+        for (int i = 0; i < keys.length; i++) {
+            plain = plain.put(keys[i], Integer.valueOf(i));
+            keyed = keyed.put(keys[i], Integer.valueOf(i));
+        }
+        Assert.assertEquals(1, distinctHashes(plain));
+        Assert.assertTrue(distinctHashes(keyed) > 1000);
+        for (int i = 0; i < keys.length; i++) {
+            Assert.assertEquals(Integer.valueOf(i), keyed.get(new String(keys[i])));
+        }
+        TestUtils.validateStoreWellFormed(keyed);
+
+        // Seeded hashes depend on the seed, but equivalence stays the same
+        final Equivalence<Object> seeded1 = Equivalence.seeded(Equivalence.equality(), 1);
+        final Equivalence<Object> seeded2 = Equivalence.seeded(Equivalence.equality(), 2);
+        Assert.assertNotEquals(seeded1.hash("key"), seeded2.hash("key"));
+        Assert.assertEquals(Equivalence.keyedStrings(1L, 2L).hash("key"), Equivalence.keyedStrings(1L, 2L).hash("key"));
+
+        AtomicHashStore<String,Integer> seeded = AtomicHashStore.of(Equivalence.seeded(Equivalence.equality()));
+        for (int i = 0; i < 5000; i++) {
+            seeded = seeded.put("key" + i, Integer.valueOf(i));
+        }
+        Assert.assertEquals(5000, seeded.size());
+        Assert.assertEquals(Integer.valueOf(4321), seeded.get("key4321"));
+        Assert.assertNull(seeded.remove("key4321").get("key4321"));
+
+    }
+
+
+    @Test
+    public void test03() throws Exception {
+
+        // equals() must be symmetric and consistent with hashCode() for stores using equivalences
+
+        final AtomicHashStore<String,Integer> eq = AtomicHashStore.<String,Integer>of().put("A", 1);
+        final AtomicHashStore<String,Integer> ci =
+                AtomicHashStore.<String,Integer>of(Equivalence.caseInsensitive()).put("a", 1);
+        Assert.assertFalse(eq.equals(ci));
+        Assert.assertFalse(ci.equals(eq));
+
+        final AtomicHashStore<String,Integer> ci2 =
+                AtomicHashStore.<String,Integer>of(Equivalence.caseInsensitive()).put("A", 1);
+        Assert.assertEquals(ci, ci2);
+        Assert.assertEquals(ci2, ci);
+        Assert.assertEquals(ci.hashCode(), ci2.hashCode());
+
+        final AtomicHashStore<byte[],Integer> bytes1 =
+                AtomicHashStore.<byte[],Integer>of(Equivalence.byteArrayContent()).put(bytes("one"), 1).put(bytes("two"), 2);
+        final AtomicHashStore<byte[],Integer> bytes2 =
+                AtomicHashStore.<byte[],Integer>of(Equivalence.byteArrayContent()).put(bytes("two"), 2).put(bytes("one"), 1);
+        Assert.assertEquals(bytes1, bytes2);
+        Assert.assertEquals(bytes2, bytes1);
+        Assert.assertEquals(bytes1.hashCode(), bytes2.hashCode());
+
+        final AtomicHashStore<String,Integer> seeded1 =
+                AtomicHashStore.<String,Integer>of(Equivalence.seeded(Equivalence.equality(), 7)).put("a", 1);
+        final AtomicHashStore<String,Integer> seeded2 =
+                AtomicHashStore.<String,Integer>of(Equivalence.seeded(Equivalence.equality(), 7)).put("a", 1);
+        Assert.assertEquals(seeded1, seeded2);
+        Assert.assertEquals(seeded1.hashCode(), seeded2.hashCode());
+
+    }
+
+
+    @Test
+    public void test04() throws Exception {
+
+        // Every map variant can be keyed by an equivalence, which is kept by clear() and serialization
+        final Equivalence<String> eqv = Equivalence.caseInsensitive();
+        final Map<String,Integer>[] maps = new Map[] {
+                new AtomicHashMap<String,Integer>(eqv),
+                new ConcurrentAtomicHashMap<String,Integer>(eqv),
+                new TieredAtomicHashMap<String,Integer>(2, 0L, TimeUnit.MILLISECONDS, null, eqv),
+                new VersionedAtomicHashMap<String,Integer>(eqv),
+                new SingleWriterAtomicHashMap<String,Integer>(eqv)
+        };
+
+        for (final Map<String,Integer> map : maps) {
+
+            final String name = map.getClass().getSimpleName();
+
+            for (int i = 0; i < 10; i++) {
+                map.put("Key" + i, Integer.valueOf(i));
+            }
+            Assert.assertEquals(name, Integer.valueOf(1), map.put("KEY1", Integer.valueOf(11)));
+            Assert.assertEquals(name, 10, map.size());
+            Assert.assertEquals(name, Integer.valueOf(11), map.get("key1"));
+            Assert.assertTrue(name, map.containsKey("kEy9"));
+            Assert.assertEquals(name, Integer.valueOf(2), map.remove("KEY2"));
+            Assert.assertNull(name, map.get("Key2"));
+            Assert.assertEquals(name, 9, map.size());
+
+            map.clear();
+            Assert.assertTrue(name, map.isEmpty());
+            map.put("a", Integer.valueOf(1));
+            Assert.assertEquals(name, Integer.valueOf(1), map.get("A"));
+
+            if (map instanceof ConcurrentAtomicHashMap || map instanceof TieredAtomicHashMap) {
+                final Map<String,Integer> copy = serializeAndBack(map);
+                Assert.assertEquals(name, Integer.valueOf(1), copy.get("A"));
+                copy.put("A", Integer.valueOf(2));
+                Assert.assertEquals(name, 1, copy.size());
+            }
+
+        }
+
+        final ExpiringAtomicHashMap<String,Integer> expiring =
+                new ExpiringAtomicHashMap<>(1L, TimeUnit.HOURS, 1L, TimeUnit.SECONDS, eqv);
+        expiring.put("Key", Integer.valueOf(1));
+        Assert.assertEquals(Integer.valueOf(1), expiring.put("KEY", Integer.valueOf(2)));
+        Assert.assertEquals(1, expiring.size());
+        Assert.assertEquals(Integer.valueOf(2), expiring.remove("key"));
+        expiring.clear();
+        expiring.put("a", Integer.valueOf(1));
+        Assert.assertEquals(Integer.valueOf(1), expiring.get("A"));
+
+        final AtomicHashCache<String,Integer> cache = new AtomicHashCache<>(3L, null, Runnable::run, eqv);
+        for (int i = 0; i < 10; i++) {
+            cache.put("Key" + i, Integer.valueOf(i));
+            cache.put("KEY" + i, Integer.valueOf(i));
+            cache.get("key" + i);
+        }
+        cache.cleanUp();
+        Assert.assertEquals(3, cache.size());
+        cache.clear();
+        cache.put("a", Integer.valueOf(1));
+        Assert.assertEquals(Integer.valueOf(1), cache.get("A"));
+
+        final AtomicHashCounter<String> counter = new AtomicHashCounter<>(0, eqv);
+        counter.increment("a");
+        counter.add("A", 2L);
+        Assert.assertEquals(3L, counter.get("a"));
+        Assert.assertEquals(1, counter.snapshot().size());
+        Assert.assertEquals(3L, counter.remove("A"));
+        counter.clear();
+        counter.increment("b");
+        Assert.assertEquals(1L, counter.get("B"));
+
+    }
+
+
+    private static <T> T serializeAndBack(final T object) throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        try (final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (T) in.readObject();
+        }
+    }
+
+
+    private static int distinctHashes(final AtomicHashStore<?,?> store) {
+        final Set<Integer> hashes = new HashSet<>();
+        for (final AtomicHashStore.Entry<?,?> entry : store) {
+            hashes.add(Integer.valueOf(((HashEntry<?,?>) entry).hash));
+        }
+        return hashes.size();
+    }
+
+
+    private static byte[] bytes(final String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+
+}
@@ -0,0 +1,140 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExpiringAtomicHashMapTest {
+
+    private AtomicLong clock;
+    private ExpiringAtomicHashMap<String,String> map;
+
+
+    @Before
+    public void initMap() {
+        this.clock = new AtomicLong(1000L);
+        this.map = new ExpiringAtomicHashMap<>(10L, TimeUnit.NANOSECONDS, 1L, TimeUnit.NANOSECONDS, this.clock::get);
+    }
+
+
+    @Test
+    public void test00() throws Exception {
+
+        Assert.assertNull(this.map.put("one", "ONE"));
+        Assert.assertNull(this.map.put("two", "TWO", 100L, TimeUnit.NANOSECONDS));
+        Assert.assertEquals("ONE", this.map.get("one"));
+        Assert.assertEquals("ONE", this.map.putIfAbsent("one", "UNO"));
+
+        this.clock.addAndGet(10L);
+
+        // Expired entries are absent for reads, even before they are removed
+        Assert.assertNull(this.map.get("one"));
+        Assert.assertFalse(this.map.containsKey("one"));
+        Assert.assertEquals("TWO", this.map.get("two"));
+        Assert.assertEquals(2, this.map.size());
+
+        this.map.expire();
+        Assert.assertEquals(1, this.map.size());
+
+        Assert.assertNull(this.map.putIfAbsent("one", "UNO"));
+        Assert.assertEquals("UNO", this.map.computeIfAbsent("one", k -> "EINS"));
+        Assert.assertEquals("THREE", this.map.computeIfAbsent("three", k -> "THREE"));
+
+        // Replacing an entry before it expires must make its old timer ineffective
+        this.clock.addAndGet(5L);
+        this.map.put("three", "TRES", 50L, TimeUnit.NANOSECONDS);
+        this.clock.addAndGet(5L);
+        this.map.expire();
+        Assert.assertNull(this.map.get("one"));
+        Assert.assertEquals("TRES", this.map.get("three"));
+        Assert.assertEquals(2, this.map.size());
+
+        this.clock.addAndGet(1000L);
+        this.map.expire();
+        Assert.assertTrue(this.map.isEmpty());
+
+    }
+
+
+    @Test
+    public void test01() throws Exception {
+
+        // Timers spread over several levels of the wheel must all fire, and never before their deadline
+
+        final int n = 20000;
+        for (int i = 0; i < n; i++) {
+            this.map.put("key" + i, "value" + i, 1L + ((i * 7919L) % 500000L), TimeUnit.NANOSECONDS);
+        }
+        Assert.assertEquals(n, this.map.size());
+
+        final long start = this.clock.get();
+        for (long t = 0L; t < 500000L; t += 997L) {
+            this.clock.set(start + t);
+            this.map.expire();
+            int live = 0;
+            for (int i = 0; i < n; i++) {
+                if (1L + ((i * 7919L) % 500000L) > t) {
+                    live++;
+                }
+            }
+            Assert.assertEquals(live, this.map.size());
+        }
+
+        this.clock.set(start + 500000L);
+        this.map.expire();
+        Assert.assertTrue(this.map.isEmpty());
+
+    }
+
+
+    @Test
+    public void test02() throws Exception {
+
+        // Advancing after a long idle period must only visit the ticks in which some bucket is reached, even
+        // with timers parked far beyond the range of the wheel (here, a billion ticks would be walked)
+
+        this.map.put("near", "NEAR");
+        this.map.put("far", "FAR", 1L << 40, TimeUnit.NANOSECONDS);
+        this.map.put("farther", "FARTHER", (1L << 40) + (1L << 35), TimeUnit.NANOSECONDS);
+
+        this.clock.addAndGet(1L << 30);
+        this.map.expire();
+        Assert.assertNull(this.map.get("near"));
+        Assert.assertEquals(2, this.map.size());
+
+        this.clock.addAndGet((1L << 40) - (1L << 30));
+        this.map.expire();
+        Assert.assertEquals(1, this.map.size());
+        Assert.assertEquals("FARTHER", this.map.get("farther"));
+
+        this.clock.addAndGet(1L << 35);
+        this.map.put("other", "OTHER");
+        Assert.assertNull(this.map.get("farther"));
+        Assert.assertEquals(1, this.map.size());
+
+    }
+
+
+}
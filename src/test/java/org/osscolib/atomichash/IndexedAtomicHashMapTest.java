@@ -0,0 +1,164 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IndexedAtomicHashMapTest {
+
+
+    @Test
+    public void test00() throws Exception {
+
+        final IndexedAtomicHashMap<String,String> map = new IndexedAtomicHashMap<>();
+        map.put("one", "odd");
+        map.put("two", "even");
+
+        // Indexes added to non-empty maps are built from their current contents
+        final IndexedAtomicHashMap.Index<String,Integer> byLength = map.addIndex(String::length);
+        final IndexedAtomicHashMap.Index<String,Character> byInitial = map.addIndex(v -> v.isEmpty() ? null : v.charAt(0));
+
+        map.put("three", "odd");
+        map.put("four", "even");
+        map.put("zero", "");
+
+        Assert.assertEquals(AtomicHashSetStore.of("one", "three"), map.keys(byLength, 3));
+        Assert.assertEquals(AtomicHashSetStore.of("two", "four"), map.keys(byInitial, 'e'));
+        Assert.assertEquals(AtomicHashSetStore.of("zero"), map.keys(byLength, 0));
+        Assert.assertTrue(map.keys(byInitial, 'x').isEmpty());
+
+        map.put("two", "odd");
+        Assert.assertEquals(AtomicHashSetStore.of("four"), map.keys(byLength, 4));
+        Assert.assertEquals(AtomicHashSetStore.of("one", "two", "three"), map.keys(byInitial, 'o'));
+        Assert.assertEquals("odd", map.lookup(byLength, 3).get("two"));
+
+        map.remove("one");
+        Assert.assertEquals(AtomicHashSetStore.of("two", "three"), map.keys(byLength, 3));
+        Assert.assertEquals(2, map.lookup(byLength, 3).size());
+
+        map.clear();
+        Assert.assertTrue(map.keys(byLength, 3).isEmpty());
+
+        try {
+            new IndexedAtomicHashMap<String,String>().keys(byLength, 3);
+            Assert.fail();
+        } catch (final IllegalArgumentException e) {
+            // Expected: index belongs to another map
+        }
+
+    }
+
+
+    @Test
+    public void test01() throws Exception {
+
+        final Random random = new Random(23L);
+        final IndexedAtomicHashMap<Integer,Integer> map = new IndexedAtomicHashMap<>();
+        final IndexedAtomicHashMap.Index<Integer,Integer> byMod = map.addIndex(v -> Integer.valueOf(v.intValue() % 17));
+        final Map<Integer,Integer> expected = new HashMap<>();
+
+        for (int i = 0; i < 30000; i++) {
+            final Integer key = Integer.valueOf(random.nextInt(5000));
+            if (random.nextInt(5) == 0) {
+                Assert.assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                final Integer value = Integer.valueOf(random.nextInt(100000));
+                Assert.assertEquals(expected.put(key, value), map.put(key, value));
+            }
+        }
+
+        for (int mod = 0; mod < 17; mod++) {
+            final Set<Integer> keys = new HashSet<>();
+            for (final Map.Entry<Integer,Integer> entry : expected.entrySet()) {
+                if (entry.getValue().intValue() % 17 == mod) {
+                    keys.add(entry.getKey());
+                }
+            }
+            final AtomicHashSetStore<Integer> indexed = map.keys(byMod, Integer.valueOf(mod));
+            Assert.assertEquals(keys.size(), indexed.size());
+            for (final Integer key : indexed) {
+                Assert.assertTrue(keys.contains(key));
+            }
+        }
+
+    }
+
+
+    @Test
+    public void test02() throws Exception {
+
+        // Null values are not indexed
+
+        final IndexedAtomicHashMap<String,String> map = new IndexedAtomicHashMap<>();
+        map.put("nothing", null);
+        final IndexedAtomicHashMap.Index<String,Integer> byLength = map.addIndex(String::length);
+
+        map.put("k", null);
+        Assert.assertTrue(map.containsKey("k"));
+        map.put("k", "abc");
+        Assert.assertTrue(map.keys(byLength, Integer.valueOf(3)).contains("k"));
+        map.put("k", null);
+        Assert.assertFalse(map.keys(byLength, Integer.valueOf(3)).contains("k"));
+        Assert.assertNull(map.remove("k"));
+        Assert.assertNull(map.remove("nothing"));
+        Assert.assertTrue(map.isEmpty());
+
+    }
+
+
+    @Test
+    public void test03() throws Exception {
+
+        // Writes performed while an index is being built are applied to it before it is installed, and the
+        // full build is not repeated
+
+        final IndexedAtomicHashMap<String,String> map = new IndexedAtomicHashMap<>();
+        for (int i = 0; i < 100; i++) {
+            map.put("key" + i, "v" + i);
+        }
+
+        final int[] applications = new int[1];
+        final IndexedAtomicHashMap.Index<String,Integer> byLength = map.addIndex(v -> {
+            if (applications[0]++ == 0) {
+                map.put("key0", "changed");
+                map.remove("key1");
+                map.put("new", "abc");
+            }
+            return Integer.valueOf(v.length());
+        });
+
+        Assert.assertTrue(applications[0] < 110);
+        Assert.assertTrue(map.keys(byLength, Integer.valueOf(7)).contains("key0"));
+        Assert.assertFalse(map.keys(byLength, Integer.valueOf(2)).contains("key0"));
+        Assert.assertFalse(map.keys(byLength, Integer.valueOf(2)).contains("key1"));
+        Assert.assertTrue(map.keys(byLength, Integer.valueOf(3)).contains("new"));
+        Assert.assertEquals(8, map.keys(byLength, Integer.valueOf(2)).size());
+
+    }
+
+
+}
@@ -0,0 +1,213 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LoadingAtomicHashCacheTest {
+
+
+    @Test
+    public void test00() throws Exception {
+
+        // Concurrent misses on the same key must result in one single load
+
+        final AtomicInteger loads = new AtomicInteger(0);
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final LoadingAtomicHashCache<String,String> cache = new LoadingAtomicHashCache<>(key -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return key.toUpperCase();
+        });
+
+        final List<String> results = java.util.Collections.synchronizedList(new ArrayList<>());
+        final Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> results.add(cache.get("cold")));
+            threads[t].start();
+        }
+        loading.await();
+        Thread.sleep(50L);
+        release.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals(threads.length, results.size());
+        for (final String result : results) {
+            Assert.assertEquals("COLD", result);
+        }
+        Assert.assertEquals("COLD", cache.getIfPresent("cold"));
+
+        cache.invalidate("cold");
+        Assert.assertNull(cache.getIfPresent("cold"));
+        Assert.assertEquals("COLD", cache.get("cold"));
+        Assert.assertEquals(2, loads.get());
+
+    }
+
+
+    @Test
+    public void test01() throws Exception {
+
+        // Bulk loads only load the missing keys, all at once
+
+        final List<Set<String>> bulkLoads = new ArrayList<>();
+        final LoadingAtomicHashCache<String,String> cache = new LoadingAtomicHashCache<>(
+                key -> key.toUpperCase(),
+                keys -> {
+                    bulkLoads.add(new java.util.HashSet<>(keys));
+                    final Map<String,String> values = new HashMap<>();
+                    for (final String key : keys) {
+                        if (!key.startsWith("x")) {
+                            values.put(key, key.toUpperCase());
+                        }
+                    }
+                    return values;
+                },
+                0L, TimeUnit.NANOSECONDS, Runnable::run);
+
+        cache.get("one");
+        final Map<String,String> all = cache.getAll(Arrays.asList("one", "two", "three", "xnothing"));
+        Assert.assertEquals(3, all.size());
+        Assert.assertEquals("TWO", all.get("two"));
+        Assert.assertEquals(1, bulkLoads.size());
+        Assert.assertEquals(new java.util.HashSet<>(Arrays.asList("two", "three", "xnothing")), bulkLoads.get(0));
+        Assert.assertEquals(3, cache.size());
+
+        cache.getAll(Arrays.asList("one", "two"));
+        Assert.assertEquals(1, bulkLoads.size());
+
+    }
+
+
+    @Test
+    public void test02() throws Exception {
+
+        // Refresh-ahead: stale values keep being served while the reload takes place
+
+        final AtomicLong clock = new AtomicLong(0L);
+        final AtomicInteger version = new AtomicInteger(0);
+        final List<Runnable> refreshes = new ArrayList<>();
+        final LoadingAtomicHashCache<String,String> cache = new LoadingAtomicHashCache<>(
+                key -> key + version.get(), null, 100L, TimeUnit.NANOSECONDS, refreshes::add, clock::get);
+
+        Assert.assertEquals("one0", cache.get("one"));
+        version.set(1);
+        clock.set(50L);
+        Assert.assertEquals("one0", cache.get("one"));
+        Assert.assertTrue(refreshes.isEmpty());
+
+        clock.set(150L);
+        Assert.assertEquals("one0", cache.get("one"));
+        Assert.assertEquals("one0", cache.get("one"));
+        Assert.assertEquals(1, refreshes.size()); // only one refresh at a time
+
+        refreshes.get(0).run();
+        Assert.assertEquals("one1", cache.get("one"));
+
+        // A refresh that finishes after the entry was modified must not overwrite it
+        clock.set(300L);
+        version.set(2);
+        Assert.assertEquals("one1", cache.get("one"));
+        Assert.assertEquals(2, refreshes.size());
+        cache.put("one", "manual");
+        refreshes.get(1).run();
+        Assert.assertEquals("manual", cache.get("one"));
+
+    }
+
+
+    @Test
+    public void test03() throws Exception {
+
+        // Keys being bulk loaded are not loaded again by concurrent callers, and values put in the
+        // meantime are not overwritten by the bulk load
+
+        final AtomicInteger singleLoads = new AtomicInteger(0);
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final LoadingAtomicHashCache<String,String> cache = new LoadingAtomicHashCache<>(
+                key -> {
+                    singleLoads.incrementAndGet();
+                    return key.toUpperCase();
+                },
+                keys -> {
+                    loading.countDown();
+                    try {
+                        release.await();
+                    } catch (final InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    final Map<String,String> values = new HashMap<>();
+                    for (final String key : keys) {
+                        values.put(key, key.toUpperCase());
+                    }
+                    return values;
+                },
+                0L, TimeUnit.NANOSECONDS, Runnable::run);
+
+        final Map<String,String>[] bulkResult = new Map[1];
+        final Thread bulk = new Thread(() -> bulkResult[0] = cache.getAll(Arrays.asList("a", "b")));
+        bulk.start();
+        loading.await();
+
+        final String[] getResult = new String[1];
+        final Thread getter = new Thread(() -> getResult[0] = cache.get("a"));
+        getter.start();
+        final Thread bulkGetter = new Thread(() -> cache.getAll(Arrays.asList("a")));
+        bulkGetter.start();
+
+        cache.put("b", "mine");
+
+        release.countDown();
+        bulk.join();
+        getter.join();
+        bulkGetter.join();
+
+        Assert.assertEquals(0, singleLoads.get());
+        Assert.assertEquals("A", getResult[0]);
+        Assert.assertEquals("mine", cache.get("b"));
+        Assert.assertEquals("mine", bulkResult[0].get("b"));
+        Assert.assertEquals("A", bulkResult[0].get("a"));
+
+    }
+
+
+}
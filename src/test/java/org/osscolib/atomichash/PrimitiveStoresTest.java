@@ -0,0 +1,267 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PrimitiveStoresTest {
+
+
+    @Test
+    public void test00() throws Exception {
+
+        final Random random = new Random(23L);
+        final Map<Long,String> expected = new HashMap<>();
+        AtomicLongObjStore<String> store = AtomicLongObjStore.of();
+        AtomicLongObjStore<String> first = null;
+
+        for (int i = 0; i < 100000; i++) {
+            // Small range of keys plus some extreme ones, so that there are plenty of replacements and removals
+            final long key = (i % 10 == 0) ? random.nextLong() : (random.nextInt(20000) - 10000) * 0x100000001L;
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals(expected.containsKey(key), store.containsKey(key));
+                expected.remove(key);
+                store = store.remove(key);
+            } else {
+                final String value = (random.nextInt(50) == 0) ? null : "v" + i;
+                expected.put(key, value);
+                store = store.put(key, value);
+            }
+            if (i == 50000) {
+                first = store;
+            }
+        }
+
+        Assert.assertEquals(expected.size(), store.size());
+        for (final Map.Entry<Long,String> entry : expected.entrySet()) {
+            Assert.assertTrue(store.containsKey(entry.getKey().longValue()));
+            Assert.assertEquals(entry.getValue(), store.get(entry.getKey().longValue()));
+        }
+        final int[] count = new int[1];
+        store.forEach((k, v) -> {
+            Assert.assertEquals(expected.get(k), v);
+            count[0]++;
+        });
+        Assert.assertEquals(expected.size(), count[0]);
+        Assert.assertEquals(expected.hashCode(), store.hashCode());
+        Assert.assertNotEquals(first, store);
+
+        // Removing everything must leave an empty store, and rebuilding it in any order an equal one
+        AtomicLongObjStore<String> rebuilt = AtomicLongObjStore.of();
+        AtomicLongObjStore<String> emptied = store;
+        for (final long key : store.keys()) {
+            rebuilt = rebuilt.put(key, store.get(key));
+            emptied = emptied.remove(key);
+        }
+        Assert.assertEquals(store, rebuilt);
+        Assert.assertTrue(emptied.isEmpty());
+        Assert.assertEquals(AtomicLongObjStore.of(), emptied);
+
+        Assert.assertEquals(store, serializeAndBack(store));
+        Assert.assertSame(AtomicLongObjStore.of(), serializeAndBack(AtomicLongObjStore.of()));
+
+    }
+
+
+    @Test
+    public void test01() throws Exception {
+
+        final Random random = new Random(29L);
+        final Map<Integer,String> expected = new HashMap<>();
+        AtomicIntObjStore<String> store = AtomicIntObjStore.of();
+
+        for (int i = 0; i < 100000; i++) {
+            final int key = (i % 10 == 0) ? random.nextInt() : random.nextInt(20000) - 10000;
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                store = store.remove(key);
+            } else {
+                expected.put(key, "v" + i);
+                store = store.put(key, "v" + i);
+            }
+        }
+
+        Assert.assertEquals(expected.size(), store.size());
+        for (final Map.Entry<Integer,String> entry : expected.entrySet()) {
+            Assert.assertEquals(entry.getValue(), store.get(entry.getKey().intValue()));
+        }
+        Assert.assertNull(store.get(Integer.MIN_VALUE));
+        Assert.assertEquals(expected.hashCode(), store.hashCode());
+        Assert.assertEquals(store, serializeAndBack(store));
+
+    }
+
+
+    @Test
+    public void test02() throws Exception {
+
+        final Random random = new Random(31L);
+        final Map<Long,Long> expected = new HashMap<>();
+        AtomicLongLongStore store = AtomicLongLongStore.of();
+
+        for (int i = 0; i < 100000; i++) {
+            final long key = random.nextInt(20000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                store = store.remove(key);
+            } else {
+                expected.put(key, (long) i);
+                store = store.put(key, i);
+            }
+        }
+
+        Assert.assertEquals(expected.size(), store.size());
+        for (final Map.Entry<Long,Long> entry : expected.entrySet()) {
+            Assert.assertEquals(entry.getValue().longValue(), store.get(entry.getKey().longValue()));
+        }
+        Assert.assertEquals(-1L, store.getOrDefault(-5L, -1L));
+        Assert.assertEquals(expected.hashCode(), store.hashCode());
+        Assert.assertEquals(store, serializeAndBack(store));
+
+    }
+
+
+    @Test
+    public void test03() throws Exception {
+
+        // Object keys might have the same hash, so collisions must be handled
+
+        final KeyValue<String,String>[] kvs = TestUtils.generateStringStringKeyValues(20000, 80, 100);
+        final Map<String,Long> expected = new HashMap<>();
+        AtomicObjLongStore<String> store = AtomicObjLongStore.of();
+
+        for (int i = 0; i < kvs.length; i++) {
+            if (i % 4 == 3) {
+                expected.remove(kvs[i / 2].getKey());
+                store = store.remove(kvs[i / 2].getKey());
+            } else {
+                expected.put(kvs[i].getKey(), (long) i);
+                store = store.put(kvs[i].getKey(), i);
+            }
+        }
+        expected.put(null, 42L);
+        store = store.put(null, 42L);
+
+        Assert.assertEquals(expected.size(), store.size());
+        for (final Map.Entry<String,Long> entry : expected.entrySet()) {
+            Assert.assertTrue(store.containsKey(entry.getKey()));
+            Assert.assertEquals(entry.getValue().longValue(), store.get(entry.getKey()));
+        }
+        Assert.assertEquals(expected.hashCode(), store.hashCode());
+
+        AtomicObjLongStore<String> emptied = store;
+        for (final String key : expected.keySet()) {
+            emptied = emptied.remove(key);
+        }
+        Assert.assertTrue(emptied.isEmpty());
+
+    }
+
+
+    @Test
+    public void test04() throws Exception {
+
+        final AtomicLongObjHashMap<String> longObj = new AtomicLongObjHashMap<>();
+        Assert.assertNull(longObj.put(1L, "one"));
+        Assert.assertEquals("one", longObj.put(1L, "ONE"));
+        Assert.assertEquals("ONE", longObj.putIfAbsent(1L, "uno"));
+        Assert.assertEquals("TWO", longObj.computeIfAbsent(2L, k -> "TWO"));
+        Assert.assertEquals("ONE", longObj.remove(1L));
+        Assert.assertEquals(1, longObj.size());
+
+        final AtomicIntObjHashMap<String> intObj = new AtomicIntObjHashMap<>();
+        intObj.put(7, "seven");
+        Assert.assertEquals("seven", intObj.get(7));
+
+        final AtomicLongLongHashMap longLong = new AtomicLongLongHashMap();
+        final AtomicObjLongHashMap<String> objLong = new AtomicObjLongHashMap<>();
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    longLong.addAndGet(i % 100, 1L);
+                    objLong.addAndGet("k" + (i % 10), 2L);
+                }
+            });
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(100, longLong.size());
+        Assert.assertEquals(400L, longLong.get(42L));
+        Assert.assertEquals(8000L, objLong.get("k3"));
+        Assert.assertEquals(0L, objLong.get("absent"));
+
+    }
+
+
+    @Test
+    public void test05() throws Exception {
+
+        // equals(), hashCode() and toString() are shared by all the stores and maps, and compare contents
+
+        final AtomicObjLongHashMap<String> map1 = new AtomicObjLongHashMap<>();
+        final AtomicObjLongHashMap<String> map2 = new AtomicObjLongHashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            map1.put("key" + i, i);
+            map2.put("key" + (999 - i), 999 - i);
+        }
+        Assert.assertEquals(map1, map2);
+        Assert.assertEquals(map1.hashCode(), map2.hashCode());
+        map2.put("key0", 1L);
+        Assert.assertNotEquals(map1, map2);
+
+        final AtomicIntObjStore<String> intObj = AtomicIntObjStore.<String>of().put(1, "one");
+        final AtomicLongObjStore<String> longObj = AtomicLongObjStore.<String>of().put(1L, "one");
+        Assert.assertEquals("{1=one}", intObj.toString());
+        Assert.assertEquals("{1=one}", longObj.toString());
+        Assert.assertNotEquals(intObj, longObj);
+        Assert.assertEquals(AtomicLongLongStore.of().put(3L, 4L), AtomicLongLongStore.of().put(3L, 4L));
+        Assert.assertSame(intObj, intObj.put(1, intObj.get(1)));
+
+        map1.clear();
+        Assert.assertTrue(map1.isEmpty());
+        Assert.assertSame(AtomicObjLongStore.of(), map1.store());
+
+    }
+
+
+    private static <T> T serializeAndBack(final T object) throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        try (final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (T) in.readObject();
+        }
+    }
+
+
+}
@@ -0,0 +1,162 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SingleWriterAtomicHashMapTest {
+
+    private SingleWriterAtomicHashMap<String,String> map;
+
+
+    @Before
+    public void initMap() {
+        this.map = new SingleWriterAtomicHashMap<>();
+    }
+
+
+    @Test
+    public void test00() throws Exception {
+
+        Assert.assertNull(this.map.put("one", "ONE"));
+        Assert.assertEquals("ONE", this.map.put("one", "UNO"));
+        Assert.assertNull(this.map.put("two", "TWO"));
+        Assert.assertEquals("TWO", this.map.remove("two"));
+        Assert.assertNull(this.map.remove("two"));
+        Assert.assertEquals("UNOx", this.map.compute("one", (k,v) -> v + "x"));
+        Assert.assertNull(this.map.putIfAbsent("three", "THREE"));
+        Assert.assertNull(this.map.merge("three", "!", (v1,v2) -> null));
+
+        final Map<String,String> expected = new HashMap<>();
+        expected.put("one", "UNOx");
+        Assert.assertEquals(expected, this.map);
+        Assert.assertEquals(this.map, expected);
+        Assert.assertEquals(expected.hashCode(), this.map.hashCode());
+
+        this.map.clear();
+        Assert.assertTrue(this.map.isEmpty());
+
+    }
+
+
+    @Test
+    public void test01() throws Exception {
+
+        // Edits performed in place must never affect stores already published
+
+        final KeyValue<String,String>[] kvs = TestUtils.generateStringStringKeyValues(5000, 20, 50);
+        final Map<String,String> expected = new HashMap<>();
+
+        for (int i = 0; i < 1000; i++) {
+            this.map.put(kvs[i].getKey(), kvs[i].getValue());
+            expected.put(kvs[i].getKey(), kvs[i].getValue());
+        }
+
+        final AtomicHashStore<String,String> before = this.map.store();
+        final Map<String,String> expectedBefore = new HashMap<>(expected);
+
+        final AtomicHashStore<String,String> after = this.map.edit(editor -> {
+            for (int i = 1000; i < kvs.length; i++) {
+                if (i % 7 == 0) {
+                    Assert.assertEquals(expected.remove(kvs[i - 500].getKey()), editor.remove(kvs[i - 500].getKey()));
+                } else {
+                    Assert.assertEquals(expected.put(kvs[i].getKey(), kvs[i].getValue()), editor.put(kvs[i].getKey(), kvs[i].getValue()));
+                }
+            }
+        });
+
+        Assert.assertSame(after, this.map.store());
+        TestUtils.validateStoreWellFormed(before);
+        TestUtils.validateStoreWellFormed(after);
+        Assert.assertEquals(expectedBefore.size(), before.size());
+        for (final Map.Entry<String,String> entry : expectedBefore.entrySet()) {
+            Assert.assertEquals(entry.getValue(), before.get(entry.getKey()));
+        }
+        Assert.assertEquals(expected, this.map);
+
+        // A second edit cannot modify the nodes published by the first one
+        final Map<String,String> expectedAfter = new HashMap<>(expected);
+        this.map.edit(editor -> {
+            for (int i = 0; i < kvs.length; i += 3) {
+                editor.remove(kvs[i].getKey());
+            }
+        });
+        Assert.assertEquals(expectedAfter.size(), after.size());
+        for (final Map.Entry<String,String> entry : expectedAfter.entrySet()) {
+            Assert.assertEquals(entry.getValue(), after.get(entry.getKey()));
+        }
+
+    }
+
+
+    @Test
+    public void test02() throws Exception {
+
+        // Readers must always see a consistent store while the writer keeps moving values
+
+        final SingleWriterAtomicHashMap<String,Integer> counters = new SingleWriterAtomicHashMap<>();
+        for (int i = 0; i < 100; i++) {
+            counters.put("counter" + i, 10);
+        }
+
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicBoolean inconsistent = new AtomicBoolean(false);
+        final Thread[] readers = new Thread[4];
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread(() -> {
+                while (!done.get()) {
+                    int sum = 0;
+                    for (final AtomicHashStore.Entry<String,Integer> entry : counters.store()) {
+                        sum += entry.getValue().intValue();
+                    }
+                    if (sum != 1000) {
+                        inconsistent.set(true);
+                    }
+                }
+            });
+            readers[t].start();
+        }
+
+        for (int i = 0; i < 20000; i++) {
+            final String from = "counter" + (i % 100);
+            final String to = "counter" + ((i * 7) % 100);
+            counters.apply(
+                    new WriteBatch<String,Integer>()
+                            .compute(from, (k,v) -> v - 1)
+                            .compute(to, (k,v) -> v + 1));
+        }
+        done.set(true);
+        for (final Thread reader : readers) {
+            reader.join();
+        }
+
+        Assert.assertFalse(inconsistent.get());
+        TestUtils.validateStoreWellFormed(counters.store());
+
+    }
+
+
+}
@@ -0,0 +1,182 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StoreInternerTest {
+
+
+    @Test
+    public void test00() throws Exception {
+
+        // Stores built separately from the same template plus a few specific entries
+
+        final KeyValue<String,String>[] kvs = TestUtils.generateStringStringKeyValues(2000, 20, 0);
+
+        final List<AtomicHashStore<String,String>> stores = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            AtomicHashStore<String,String> store = AtomicHashStore.of();
+            for (final KeyValue<String,String> kv : kvs) {
+                // New String instances, so that nothing is shared before interning
+                store = store.put(new String(kv.getKey()), new String(kv.getValue()));
+            }
+            store = store.put("tenant", "tenant" + i);
+            stores.add(store);
+        }
+
+        final int nodesBefore = countDistinctNodes(stores);
+
+        final StoreInterner interner = new StoreInterner();
+        final List<AtomicHashStore<String,String>> interned = new ArrayList<>();
+        for (final AtomicHashStore<String,String> store : stores) {
+            interned.add(interner.intern(store));
+        }
+
+        final int nodesAfter = countDistinctNodes(interned);
+        Assert.assertTrue(nodesAfter < nodesBefore / 10);
+        Assert.assertTrue(interner.size() >= nodesAfter);
+
+        for (int i = 0; i < stores.size(); i++) {
+            final AtomicHashStore<String,String> store = interned.get(i);
+            TestUtils.validateStoreWellFormed(store);
+            Assert.assertEquals(stores.get(i), store);
+            Assert.assertEquals("tenant" + i, store.get("tenant"));
+            for (final KeyValue<String,String> kv : kvs) {
+                Assert.assertEquals(kv.getValue(), store.get(kv.getKey()));
+            }
+        }
+
+        // Diffs between interned stores only go down the path that differs, so the only entries reported
+        // apart from the one actually changed can be those sharing its data node (by identity of entries)
+        final List<AtomicHashStore.Change<String,String>> changes = new ArrayList<>();
+        interned.get(1).diff(interned.get(0), changes::add);
+        Assert.assertTrue(changes.size() <= Node.BUCKET_SIZE);
+        for (final AtomicHashStore.Change<String,String> change : changes) {
+            if (change.getKey().equals("tenant")) {
+                Assert.assertEquals("tenant0", change.getOldValue());
+                Assert.assertEquals("tenant1", change.getNewValue());
+            } else {
+                Assert.assertEquals(change.getOldValue(), change.getNewValue());
+            }
+        }
+
+        // Interning again is a no-op
+        Assert.assertSame(interned.get(3), interner.intern(interned.get(3)));
+
+    }
+
+
+    @Test
+    public void test01() throws Exception {
+
+        final StoreInterner interner = new StoreInterner();
+
+        final AtomicHashStore<String,Integer> store1 = AtomicHashStore.of("a", 1, "b", 2, "c", 3);
+        final AtomicHashStore<String,Integer> store2 =
+                AtomicHashStore.<String,Integer>of().put("c", 3).put("a", 1).put("b", 2);
+        Assert.assertNotSame(store1.root, store2.root);
+
+        final AtomicHashStore<String,Integer> interned1 = interner.intern(store1);
+        final AtomicHashStore<String,Integer> interned2 = interner.intern(store2);
+        Assert.assertSame(interned1.root, interned2.root);
+        Assert.assertEquals(interned1, interned2);
+
+        // Different values are never shared
+        final AtomicHashStore<String,Integer> interned3 = interner.intern(store1.put("a", 10));
+        Assert.assertNotSame(interned1.root, interned3.root);
+        Assert.assertEquals(Integer.valueOf(10), interned3.get("a"));
+
+        // Keys are compared according to the equivalence of the store being interned
+        final String key = new String("a");
+        final AtomicHashStore<String,Integer> identityStore =
+                AtomicHashStore.<String,Integer>of(Equivalence.identity()).put(key, 1);
+        final AtomicHashStore<String,Integer> internedIdentity = interner.intern(identityStore);
+        Assert.assertEquals(Integer.valueOf(1), internedIdentity.get(key));
+        Assert.assertSame(Equivalence.identity(), internedIdentity.equivalence());
+
+        Assert.assertSame(AtomicHashStore.of(), interner.intern(AtomicHashStore.of()));
+
+    }
+
+
+
+
+    @Test
+    public void test02() throws Exception {
+
+        // Interning might replace entries by equivalent ones, which diff() reports as changes
+
+        final StoreInterner interner = new StoreInterner();
+        final AtomicHashStore<String,String> canonical =
+                interner.intern(AtomicHashStore.<String,String>of(Equivalence.caseInsensitive()).put("Key", new String("v")));
+
+        final AtomicHashStore<String,String> source =
+                AtomicHashStore.<String,String>of(Equivalence.caseInsensitive()).put("KEY", new String("v"));
+        final AtomicHashStore<String,String> interned = interner.intern(source);
+        Assert.assertSame(canonical.root, interned.root);
+        Assert.assertEquals(source, interned);
+
+        final List<AtomicHashStore.Change<String,String>> changes = new ArrayList<>();
+        interned.diff(source, changes::add);
+        Assert.assertEquals(1, changes.size());
+        Assert.assertEquals("Key", changes.get(0).getKey());
+        Assert.assertEquals(changes.get(0).getOldValue(), changes.get(0).getNewValue());
+
+        // Once both stores are interned, equal stores produce no changes at all
+        changes.clear();
+        interned.diff(canonical, changes::add);
+        Assert.assertTrue(changes.isEmpty());
+
+    }
+
+
+
+
+    private static int countDistinctNodes(final List<? extends AtomicHashStore<?,?>> stores) {
+        final Map<Node<?,?>,Boolean> nodes = new IdentityHashMap<>();
+        for (final AtomicHashStore<?,?> store : stores) {
+            if (store.root != null) {
+                collectNodes(store.root, nodes);
+            }
+        }
+        return nodes.size();
+    }
+
+
+    private static void collectNodes(final Node<?,?> node, final Map<Node<?,?>,Boolean> nodes) {
+        if (nodes.put(node, Boolean.TRUE) != null || node.children == null) {
+            return;
+        }
+        for (final Node<?,?> child : node.children) {
+            if (child != null) {
+                collectNodes(child, nodes);
+            }
+        }
+    }
+
+
+}
@@ -193,16 +193,6 @@ private static <K,V> void validateNodesWellFormed(final int level, final int[] p
                 throw new IllegalStateException("Node has both data and children");
             }
 
-            int n = 0;
-            int l = 0;
-            while (n < poslevelsi) {
-                if (poslevels[n] != AtomicHashStore.pos(l, node.hash)) {
-                    throw new IllegalStateException("Node data position does not match");
-                }
-                n++;
-                l++;
-            }
-
             if (node.entry != null) {
                 if (node.entries != null) {
                     throw new IllegalStateException("Node data has both single and multiple entry data");
@@ -210,12 +200,19 @@ private static <K,V> void validateNodesWellFormed(final int level, final int[] p
                 if (node.hash != node.entry.hash) {
                     throw new IllegalStateException("Node data hash does not correspond with hash in its single entry");
                 }
+                validateDataPosition(poslevels, poslevelsi, node.entry.hash);
             } else if (node.entries != null) {
+                // Data nodes are buckets: entries can have different hashes, but must be sorted
                 for (int i = 0; i < node.entries.length; i++) {
-                    if (node.hash != node.entries[i].hash) {
-                        throw new IllegalStateException("Node data hash does not correspond with hash in one of the multivalued entries");
+                    validateDataPosition(poslevels, poslevelsi, node.entries[i].hash);
+                    if (i > 0 && node.entries[i - 1].compareTo(node.entries[i]) > 0) {
+                        throw new IllegalStateException("Node data entries are not sorted");
                     }
                 }
+                if (node.entries.length > Node.maxDataSize(level)
+                        && node.entries[0].hash != node.entries[node.entries.length - 1].hash) {
+                    throw new IllegalStateException("Node data is larger than the maximum data node size");
+                }
             } else {
                 throw new IllegalStateException("Node data has neither single nor multiple entry data");
             }
@@ -245,6 +242,16 @@ private static <K,V> void validateNodesWellFormed(final int level, final int[] p
 
 
 
+    private static void validateDataPosition(final int[] poslevels, final int poslevelsi, final int hash) {
+        for (int l = 0; l < poslevelsi; l++) {
+            if (poslevels[l] != AtomicHashStore.pos(l, hash)) {
+                throw new IllegalStateException("Node data position does not match");
+            }
+        }
+    }
+
+
+
     public static class ValueRef<V> {
         public V val = null;
         public boolean b = false;
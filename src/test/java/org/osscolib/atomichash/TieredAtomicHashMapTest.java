@@ -0,0 +1,168 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TieredAtomicHashMapTest {
+
+
+    @Test
+    public void test00() throws Exception {
+
+        final TieredAtomicHashMap<String,String> map = new TieredAtomicHashMap<>();
+
+        Assert.assertNull(map.put("one", "ONE"));
+        Assert.assertEquals("ONE", map.put("one", "UNO"));
+        Assert.assertNull(map.put("two", null));
+        Assert.assertTrue(map.containsKey("two"));
+        Assert.assertEquals(2, map.size());
+
+        map.merge();
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals("UNO", map.get("one"));
+
+        // Removal of a key in the base store needs a tombstone
+        Assert.assertEquals("UNO", map.remove("one"));
+        Assert.assertFalse(map.containsKey("one"));
+        Assert.assertNull(map.get("one"));
+        Assert.assertEquals(1, map.size());
+        Assert.assertNull(map.putIfAbsent("one", "ONE"));
+        Assert.assertEquals("ONE", map.get("one"));
+        Assert.assertFalse(map.remove("one", "UNO"));
+        Assert.assertTrue(map.remove("one", "ONE"));
+        Assert.assertEquals("THREEx", map.compute("three", (k,v) -> "THREE" + (v == null ? "x" : v)));
+        Assert.assertEquals("THREEx!", map.merge("three", "!", (v1,v2) -> v1 + v2));
+        Assert.assertNull(map.computeIfPresent("three", (k,v) -> null));
+
+        final Map<String,String> expected = new HashMap<>();
+        expected.put("two", null);
+        Assert.assertEquals(expected, map);
+        Assert.assertEquals(map, expected);
+        Assert.assertEquals(expected.hashCode(), map.hashCode());
+
+        map.clear();
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertTrue(map.store().isEmpty());
+
+    }
+
+
+    @Test
+    public void test01() throws Exception {
+        check(new TieredAtomicHashMap<>(16, 0L, TimeUnit.MILLISECONDS, null));
+        check(new TieredAtomicHashMap<>(1, 0L, TimeUnit.MILLISECONDS, null));
+        check(new TieredAtomicHashMap<>(Integer.MAX_VALUE, 1L, TimeUnit.NANOSECONDS, null));
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            check(new TieredAtomicHashMap<>(64, 0L, TimeUnit.MILLISECONDS, executor));
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+
+    private static void check(final TieredAtomicHashMap<String,String> map) throws Exception {
+
+        final KeyValue<String,String>[] kvs = TestUtils.generateStringStringKeyValues(3000, 20, 50);
+        final Map<String,String> expected = new HashMap<>();
+
+        for (int i = 0; i < kvs.length; i++) {
+            if (i % 5 == 0) {
+                final String key = kvs[i / 2].getKey();
+                Assert.assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                Assert.assertEquals(expected.put(kvs[i].getKey(), kvs[i].getValue()), map.put(kvs[i].getKey(), kvs[i].getValue()));
+            }
+            Assert.assertEquals(expected.size(), map.size());
+        }
+
+        for (final Map.Entry<String,String> entry : expected.entrySet()) {
+            Assert.assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        Assert.assertEquals(expected, map);
+        TestUtils.validateStoreWellFormed(map.store());
+
+        map.merge();
+        Assert.assertEquals(expected, map);
+        Assert.assertEquals(expected.size(), map.size());
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(map);
+        }
+        try (final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            final TieredAtomicHashMap<String,String> read = (TieredAtomicHashMap<String,String>) in.readObject();
+            Assert.assertEquals(expected, read);
+        }
+
+    }
+
+
+    @Test
+    public void test02() throws Exception {
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final TieredAtomicHashMap<String,Integer> map = new TieredAtomicHashMap<>(32, 0L, TimeUnit.MILLISECONDS, executor);
+
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    map.merge("counter" + (i % 50), 1, Integer::sum);
+                    map.put("thread" + thread + "-" + i, i);
+                    if (i % 2 == 0) {
+                        map.remove("thread" + thread + "-" + i);
+                    }
+                }
+            });
+        }
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        Assert.assertEquals(50 + (threads.length * 1000), map.size());
+        Assert.assertEquals(map.size(), map.store().size());
+        for (int i = 0; i < 50; i++) {
+            Assert.assertEquals(Integer.valueOf(threads.length * 40), map.get("counter" + i));
+        }
+
+    }
+
+
+}
@@ -0,0 +1,134 @@
+/*
+ * =============================================================================
+ *
+ *   Copyright (c) 2019, The OSSCOLIB team (http://www.osscolib.org)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * =============================================================================
+ */
+package org.osscolib.atomichash;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class VersionedAtomicHashMapTest {
+
+
+    @Test
+    public void test00() throws Exception {
+
+        final VersionedAtomicHashMap<String,String> map = new VersionedAtomicHashMap<>(3, 0L, TimeUnit.MILLISECONDS);
+
+        Assert.assertEquals(0L, map.version());
+        map.put("one", "ONE");
+        map.put("two", "TWO");
+        Assert.assertEquals(2L, map.version());
+
+        // Operations that do not modify the map do not create versions
+        map.remove("three");
+        map.putIfAbsent("one", "UNO");
+        Assert.assertEquals(2L, map.version());
+
+        Assert.assertTrue(map.snapshotAt(0L).isEmpty());
+        Assert.assertEquals(AtomicHashStore.of("one", "ONE"), map.snapshotAt(1L));
+        Assert.assertSame(map.store(), map.snapshotAt(2L));
+
+        map.put("one", "UNO");
+        map.remove("two");
+        map.put("three", "THREE");
+        Assert.assertEquals(5L, map.version());
+
+        final List<AtomicHashStore.Change<String,String>> changes = map.changesSince(3L);
+        Assert.assertEquals(2, changes.size());
+        for (final AtomicHashStore.Change<String,String> change : changes) {
+            if (change.getKey().equals("two")) {
+                Assert.assertTrue(change.isRemoval());
+                Assert.assertEquals("TWO", change.getOldValue());
+            } else {
+                Assert.assertEquals("three", change.getKey());
+                Assert.assertTrue(change.isInsertion());
+                Assert.assertEquals("THREE", change.getNewValue());
+            }
+        }
+        Assert.assertTrue(map.changesSince(5L).isEmpty());
+
+        // Only three versions are retained
+        try {
+            map.snapshotAt(2L);
+            Assert.fail("Version should have been discarded");
+        } catch (final IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            map.snapshotAt(6L);
+            Assert.fail("Version should not exist yet");
+        } catch (final IllegalArgumentException e) {
+            // Expected
+        }
+
+    }
+
+
+    @Test
+    public void test01() throws Exception {
+
+        // Structural diffs must match the actual differences between the stores, with and without collisions
+
+        final KeyValue<String,String>[] kvs = TestUtils.generateStringStringKeyValues(5000, 20, 50);
+        final VersionedAtomicHashMap<String,String> map = new VersionedAtomicHashMap<>(100000, 0L, TimeUnit.MILLISECONDS);
+        final Map<Long,Map<String,String>> history = new HashMap<>();
+        final Map<String,String> expected = new HashMap<>();
+
+        for (int i = 0; i < kvs.length; i++) {
+            if (i % 3 == 0) {
+                expected.remove(kvs[i / 2].getKey());
+                map.remove(kvs[i / 2].getKey());
+            } else {
+                expected.put(kvs[i].getKey(), kvs[i].getValue());
+                map.put(kvs[i].getKey(), kvs[i].getValue());
+            }
+            if (i % 250 == 0) {
+                history.put(Long.valueOf(map.version()), new HashMap<>(expected));
+            }
+        }
+
+        for (final Map.Entry<Long,Map<String,String>> version : history.entrySet()) {
+
+            final Map<String,String> old = version.getValue();
+            Assert.assertEquals(old.size(), map.snapshotAt(version.getKey().longValue()).size());
+
+            // Applying the changes on the old contents must result in the current contents
+            final Map<String,String> patched = new HashMap<>(old);
+            for (final AtomicHashStore.Change<String,String> change : map.changesSince(version.getKey().longValue())) {
+                Assert.assertEquals(change.isInsertion(), !old.containsKey(change.getKey()));
+                Assert.assertEquals(change.getOldValue(), old.get(change.getKey()));
+                if (change.isRemoval()) {
+                    patched.remove(change.getKey());
+                } else {
+                    patched.put(change.getKey(), change.getNewValue());
+                }
+            }
+            Assert.assertEquals(expected, patched);
+
+        }
+
+    }
+
+
+}